@@ -0,0 +1,61 @@
+package io.intercom.problems.flatten;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures flattening generated nested arrays of increasing size. The iterative flattener is
+ * quadratic in the number of elements so the largest size is kept modest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArrayFlattenerBenchmark {
+
+  @Param({"1000", "10000", "50000"})
+  public int elements;
+
+  @Param({"4", "16"})
+  public int depth;
+
+  private Object[] nested;
+
+  @Setup
+  public void generateNestedArray() {
+    nested = NestedArrayGenerator.nested(elements, depth, 42);
+  }
+
+  @Benchmark
+  public Integer[] flattenRecursively() {
+    return ArrayFlattener.flattenRecursively(nested);
+  }
+
+  @Benchmark
+  public Integer[] flattenIteratively() {
+    return ArrayFlattener.flattenIteratively(nested);
+  }
+
+  @Benchmark
+  public int[] flattenToIntArray() {
+    return ArrayFlattener.flattenToIntArray(nested);
+  }
+
+  @Benchmark
+  public int[] flattenInParallel() {
+    return ArrayFlattener.flattenInParallel(nested);
+  }
+}
@@ -0,0 +1,44 @@
+package io.intercom.problems.flatten;
+
+import java.util.Random;
+
+/**
+ * <code>NestedArrayGenerator</code> creates synthetic arbitrarily nested arrays of integers for
+ * benchmarks, sprinkled with nulls and non integer values as the flatteners must handle them.
+ */
+public class NestedArrayGenerator {
+
+  /**
+   * Generates a nested array containing the given number of integers
+   *
+   * @param elements the number of integers in the nested array
+   * @param maxDepth the deepest level of nesting to generate
+   * @param seed the seed for the random generator so runs are repeatable
+   * @return Object[] the nested array
+   */
+  public static Object[] nested(int elements, int maxDepth, long seed) {
+    Random random = new Random(seed);
+    int[] next = new int[1];
+    return nested(random, elements, maxDepth, next);
+  }
+
+  private static Object[] nested(Random random, int elements, int depth, int[] next) {
+    if (depth <= 1 || elements <= 8) {
+      // every 17th slot holds junk so the leaf holds exactly the requested number of integers
+      Object[] leaf = new Object[elements + elements / 16];
+      for (int x = 0; x < leaf.length; x++) {
+        leaf[x] = (x % 17 == 16) ? (random.nextBoolean() ? null : "not an integer") : next[0]++;
+      }
+      return leaf;
+    }
+    int children = 2 + random.nextInt(6);
+    Object[] array = new Object[children];
+    int remaining = elements;
+    for (int c = 0; c < children; c++) {
+      int share = c == children - 1 ? remaining : remaining / (children - c);
+      array[c] = nested(random, share, depth - 1, next);
+      remaining -= share;
+    }
+    return array;
+  }
+}
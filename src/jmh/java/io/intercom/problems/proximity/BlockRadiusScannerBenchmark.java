@@ -0,0 +1,66 @@
+package io.intercom.problems.proximity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full scan of the customers for a small and a large radius around the office, with
+ * the block scanner and with its scalar equivalent testing one customer at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockRadiusScannerBenchmark {
+
+  @Param({"100000", "1000000"})
+  public int customers;
+
+  @Param({"100", "2000"})
+  public double radius;
+
+  private BlockRadiusScanner scanner;
+
+  private DistanceKernel kernel;
+
+  private int size;
+
+  private int found;
+
+  @Setup
+  public void createScanner() {
+    PreparedCoordinates points = PreparedCoordinates.of(CustomerDataGenerator.store(customers, 42));
+    scanner = new BlockRadiusScanner(points);
+    size = points.size();
+    Coordinates office = ProximityCalculator.IntercomOfficeDublin;
+    kernel = new DistanceKernel(DistanceFormula.SPHERICAL_LAW_OF_COSINES, office.getLatitude(), office.getLongitude(), radius);
+  }
+
+  @Benchmark
+  public int blockScan() {
+    found = 0;
+    Coordinates office = ProximityCalculator.IntercomOfficeDublin;
+    scanner.scan(kernel, office.getLatitude(), office.getLongitude(), radius, 0, size, (i, distance) -> found++);
+    return found;
+  }
+
+  @Benchmark
+  public int scalarScan() {
+    found = 0;
+    scanner.scanScalar(kernel, 0, size, (i, distance) -> found++);
+    return found;
+  }
+}
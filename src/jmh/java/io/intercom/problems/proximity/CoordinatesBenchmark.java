@@ -0,0 +1,51 @@
+package io.intercom.problems.proximity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
+
+/**
+ * Measures the cost of calculating the distance from every customer to the office with
+ * <code>Coordinates.distanceTo</code>, including creating each customer's coordinates as the
+ * calculator originally did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CoordinatesBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int customers;
+
+  private List<CustomerLocation> locations;
+
+  @Setup
+  public void generateCustomers() {
+    locations = CustomerDataGenerator.customers(customers, 42);
+  }
+
+  @Benchmark
+  public double distanceTo() {
+    double total = 0;
+    for (CustomerLocation location : locations) {
+      total += location.getCoordinates().distanceTo(IntercomOfficeDublin);
+    }
+    return total;
+  }
+}
@@ -0,0 +1,81 @@
+package io.intercom.problems.proximity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <code>CustomerDataGenerator</code> creates synthetic customer data for benchmarks. Customers
+ * are scattered around Ireland, with a proportion spread across the rest of the globe, so radius
+ * queries around the Dublin office select a realistic fraction of them.
+ */
+public class CustomerDataGenerator {
+
+  private static final double LOCAL_FRACTION = 0.2;
+
+  /**
+   * Generates customer json, one record per line in the format served by the customer gist.
+   * Roughly one line in a thousand is malformed.
+   *
+   * @param customers the number of customer records to generate
+   * @param seed the seed for the random generator so runs are repeatable
+   * @return byte[] the utf-8 encoded customer json
+   */
+  public static byte[] ndjson(int customers, long seed) {
+    Random random = new Random(seed);
+    StringBuilder json = new StringBuilder(customers * 100);
+    for (int x = 0; x < customers; x++) {
+      if (random.nextInt(1000) == 0) {
+        json.append("{\"latitude\": \"52.1\", \"user_id\": ").append(x).append(", \"name\": \n");
+        continue;
+      }
+      boolean local = random.nextDouble() < LOCAL_FRACTION;
+      json.append("{\"latitude\": \"").append(latitude(random, local))
+          .append("\", \"user_id\": ").append(x)
+          .append(", \"name\": \"Customer ").append(x)
+          .append("\", \"longitude\": \"").append(longitude(random, local)).append("\"}\n");
+    }
+    return json.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Generates a list of customers
+   *
+   * @param customers the number of customers to generate
+   * @param seed the seed for the random generator so runs are repeatable
+   * @return List<CustomerLocation> the generated customers
+   */
+  public static List<CustomerLocation> customers(int customers, long seed) {
+    Random random = new Random(seed);
+    List<CustomerLocation> generated = new ArrayList<>(customers);
+    for (int x = 0; x < customers; x++) {
+      boolean local = random.nextDouble() < LOCAL_FRACTION;
+      generated.add(new CustomerLocation(x, "Customer " + x, latitude(random, local), longitude(random, local)));
+    }
+    return generated;
+  }
+
+  /**
+   * Generates a columnar store of customers
+   *
+   * @param customers the number of customers to generate
+   * @param seed the seed for the random generator so runs are repeatable
+   * @return CustomerLocationStore the generated customers
+   */
+  public static CustomerLocationStore store(int customers, long seed) {
+    return CustomerLocationStore.from(customers(customers, seed));
+  }
+
+  private static double latitude(Random random, boolean local) {
+    return local
+        ? 51.5 + random.nextDouble() * 4.0
+        : random.nextDouble() * 180.0 - 90.0;
+  }
+
+  private static double longitude(Random random, boolean local) {
+    return local
+        ? -10.5 + random.nextDouble() * 5.0
+        : random.nextDouble() * 360.0 - 180.0;
+  }
+}
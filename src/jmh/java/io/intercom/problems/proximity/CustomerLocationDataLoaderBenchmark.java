@@ -0,0 +1,53 @@
+package io.intercom.problems.proximity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing generated customer json from memory with the line based data binding loader
+ * and the streaming loader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class CustomerLocationDataLoaderBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int customers;
+
+  private byte[] json;
+
+  private CustomerLocationDataLoader loader = new CustomerLocationDataLoader();
+
+  @Setup
+  public void generateJson() {
+    json = CustomerDataGenerator.ndjson(customers, 42);
+  }
+
+  @Benchmark
+  public List<CustomerLocation> loadCustomerLocationDetails() throws IOException {
+    return loader.loadCustomerLocationDetails(new ByteArrayInputStream(json));
+  }
+
+  @Benchmark
+  public CustomerLocationStore loadCustomerLocationStore() throws IOException {
+    return loader.loadCustomerLocationStore(new ByteArrayInputStream(json));
+  }
+}
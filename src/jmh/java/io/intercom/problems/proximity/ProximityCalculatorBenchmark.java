@@ -0,0 +1,71 @@
+package io.intercom.problems.proximity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a 100km guest list query with each spatial index and distance formula, and a query
+ * of a 64 sided polygon covering roughly the same area for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProximityCalculatorBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int customers;
+
+  @Param({"linear", "grid"})
+  public String index;
+
+  @Param({"SPHERICAL_LAW_OF_COSINES", "HAVERSINE", "EQUIRECTANGULAR"})
+  public DistanceFormula formula;
+
+  private ProximityCalculator calculator;
+
+  private MultiPolygon region;
+
+  @Setup
+  public void createCalculator() {
+    CustomerLocationStore store = CustomerDataGenerator.store(customers, 42);
+    SpatialIndexFactory indexFactory = "grid".equals(index) ? GridSpatialIndex::new : LinearScanIndex::new;
+    calculator = new ProximityCalculator(store, indexFactory, formula);
+
+    Coordinates office = ProximityCalculator.IntercomOfficeDublin;
+    double latitudeDelta = Math.toDegrees(100.0 / Coordinates.MEAN_EARTH_RADIUS);
+    double longitudeDelta = latitudeDelta / Math.cos(Math.toRadians(office.getLatitude()));
+    List<Coordinates> vertices = new ArrayList<>();
+    for (int v = 0; v < 64; v++) {
+      double angle = 2 * Math.PI * v / 64;
+      vertices.add(new Coordinates(office.getLatitude() + latitudeDelta * Math.sin(angle),
+          office.getLongitude() + longitudeDelta * Math.cos(angle)));
+    }
+    region = MultiPolygon.of(new Polygon(vertices));
+  }
+
+  @Benchmark
+  public List<CustomerLocation> calculateCustomersWithinRadius() {
+    return calculator.calculateCustomersWithinRadius(100.0);
+  }
+
+  @Benchmark
+  public List<CustomerLocation> calculateCustomersWithinRegion() {
+    return calculator.calculateCustomersWithin(region);
+  }
+}
@@ -2,10 +2,16 @@ package io.intercom.problems.flatten;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  * <code>ArrayFlattener</code> is a utility used flatten
@@ -96,4 +102,128 @@ public class ArrayFlattener {
     }
     return flattened.toArray(new Integer[flattened.size()]);
   }
+
+  /**
+   * Takes an arbitrarily nested array of integers and flattens it into a primitive
+   * <code>int[]</code> i.e. converting [[1,2,[3]],4] to [1,2,3,4]
+   * <p>
+   * Produces the same contents as {@link #flattenRecursively(Object[])}, nulls and non
+   * <code>Integer</code> contents are skipped and an array is only ever flattened once so
+   * cycles are broken, but runs in linear time without boxing. Integers are written to a
+   * growable primitive buffer, visited arrays are tracked by identity and nesting is handled
+   * with an explicit array backed stack so arbitrarily deep arrays can't overflow the call
+   * stack.
+   *
+   * @param array the arbitrarily nested array of integers
+   * @return int[] an array containing the flattened contents of the given nested array
+   */
+  public static int[] flattenToIntArray(Object[] array) {
+    return flattenToIntArray(array, 16);
+  }
+
+  /**
+   * Takes an arbitrarily nested array of integers and flattens it into a primitive
+   * <code>int[]</code> as {@link #flattenToIntArray(Object[])} does, presizing the output buffer
+   * for the expected number of integers so it need not grow.
+   *
+   * @param array the arbitrarily nested array of integers
+   * @param expectedSize the number of integers the nested array is expected to contain
+   * @return int[] an array containing the flattened contents of the given nested array
+   */
+  public static int[] flattenToIntArray(Object[] array, int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Expected size of a flattened array cannot be negative");
+    }
+    if (array == null) {
+      return new int[0];
+    }
+    IntBuffer flattened = new IntBuffer(Math.max(expectedSize, 1));
+    new NestedIntSpliterator(array).forEachRemaining(flattened);
+    return flattened.toArray();
+  }
+
+  /**
+   * A growable buffer of primitive ints
+   */
+  private static final class IntBuffer implements IntConsumer {
+
+    private int[] values;
+    private int size;
+
+    IntBuffer(int capacity) {
+      this.values = new int[capacity];
+    }
+
+    @Override
+    public void accept(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size + (size >> 1) + 1);
+      }
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+  }
+
+  /**
+   * Takes an arbitrarily nested array of integers and flattens it into a primitive
+   * <code>int[]</code> using every core of the common <code>ForkJoinPool</code>.
+   * <p>
+   * Produces exactly the same contents as {@link #flattenToIntArray(Object[])}, shared sub arrays
+   * are flattened once at their first occurrence and cycles are broken, and is intended for very
+   * large nested arrays where a single core becomes the bottleneck. The size of every subtree is
+   * worked out first so each can be written concurrently at its own offset in a single
+   * preallocated array, without any intermediate buffers to merge. The nested array must not be
+   * modified while it is being flattened.
+   *
+   * @param array the arbitrarily nested array of integers
+   * @return int[] an array containing the flattened contents of the given nested array
+   */
+  public static int[] flattenInParallel(Object[] array) {
+    return flattenInParallel(array, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Takes an arbitrarily nested array of integers and flattens it into a primitive
+   * <code>int[]</code> as {@link #flattenInParallel(Object[])} does, running on the given pool.
+   *
+   * @param array the arbitrarily nested array of integers
+   * @param pool the pool on which to flatten the array
+   * @return int[] an array containing the flattened contents of the given nested array
+   */
+  public static int[] flattenInParallel(Object[] array, ForkJoinPool pool) {
+    if (pool == null) {
+      throw new IllegalArgumentException("Parallel flattening requires a valid ForkJoinPool");
+    }
+    return new ParallelFlattener(pool).flatten(array);
+  }
+
+  /**
+   * Creates a lazy view over an arbitrarily nested array of integers that yields its flattened
+   * contents on demand i.e. streaming [[1,2,[3]],4] yields 1,2,3,4
+   * <p>
+   * Contents are the same as {@link #flattenRecursively(Object[])} but nothing is materialized,
+   * so the integers can be summed, filtered or sent to a sink in memory proportional only to the
+   * nesting. The stream is sequential and reads the nested array as it is consumed, so the array
+   * must not be modified until the stream is finished with.
+   *
+   * @param array the arbitrarily nested array of integers
+   * @return IntStream a lazy stream of the flattened contents of the given nested array
+   */
+  public static IntStream streamFlattened(Object[] array) {
+    return StreamSupport.intStream(flattenedSpliterator(array), false);
+  }
+
+  /**
+   * Creates a lazy <code>Spliterator.OfInt</code> over the flattened contents of an arbitrarily
+   * nested array of integers, as used by {@link #streamFlattened(Object[])}.
+   *
+   * @param array the arbitrarily nested array of integers
+   * @return Spliterator.OfInt a lazy spliterator over the flattened contents of the given nested array
+   */
+  public static Spliterator.OfInt flattenedSpliterator(Object[] array) {
+    return new NestedIntSpliterator(array);
+  }
 }
@@ -0,0 +1,112 @@
+package io.intercom.problems.flatten;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+
+/**
+ * <code>NestedIntSpliterator</code> walks an arbitrarily nested array of integers on demand,
+ * yielding its integers in order without materializing the flattened result. Like
+ * <code>ArrayFlattener.flattenRecursively</code> it skips null and non <code>Integer</code>
+ * contents and only visits each array once, which breaks cycles.
+ * <p>
+ * The extra memory used is proportional to the depth of nesting and the number of distinct
+ * arrays visited, never to the number of integers. Which occurrence of a shared array is
+ * flattened depends on traversal order, so the spliterator does not split and streams over it
+ * are sequential.
+ */
+final class NestedIntSpliterator implements Spliterator.OfInt {
+
+  private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private Object[][] arrays = new Object[16][];
+
+  private int[] positions = new int[16];
+
+  private int depth;
+
+  private long remainingSlots;
+
+  NestedIntSpliterator(Object[] array) {
+    if (array == null) {
+      depth = -1;
+    } else {
+      arrays[0] = array;
+      visited.add(array);
+      remainingSlots = array.length;
+    }
+  }
+
+  @Override
+  public boolean tryAdvance(IntConsumer action) {
+    return walk(action, true);
+  }
+
+  @Override
+  public void forEachRemaining(IntConsumer action) {
+    walk(action, false);
+  }
+
+  /**
+   * Walks on from where the last walk stopped, passing each integer reached to the action
+   *
+   * @param action the consumer of the integers
+   * @param once whether to stop after the first integer rather than walking to the end
+   * @return true if any integer was passed to the action
+   */
+  private boolean walk(IntConsumer action, boolean once) {
+    boolean advanced = false;
+    while (depth >= 0) {
+      Object[] current = arrays[depth];
+      int position = positions[depth];
+      if (position == current.length) {
+        arrays[depth--] = null;
+        continue;
+      }
+      positions[depth] = position + 1;
+      remainingSlots--;
+
+      Object o = current[position];
+      if (o instanceof Integer) {
+        action.accept((Integer) o);
+        if (once) {
+          return true;
+        }
+        advanced = true;
+      } else if (o instanceof Object[] && visited.add(o)) {
+        // descend into the sub array, resuming the current one once it is finished
+        if (++depth == arrays.length) {
+          arrays = Arrays.copyOf(arrays, depth << 1);
+          positions = Arrays.copyOf(positions, depth << 1);
+        }
+        arrays[depth] = (Object[]) o;
+        positions[depth] = 0;
+        remainingSlots += ((Object[]) o).length;
+      }
+    }
+    return advanced;
+  }
+
+  @Override
+  public Spliterator.OfInt trySplit() {
+    return null;
+  }
+
+  /**
+   * Estimates the remaining integers as the number of unvisited slots in the arrays currently
+   * being walked. It is exact when every remaining slot holds an integer, otherwise it is an
+   * estimate that grows or shrinks as sub arrays, nulls and non integers are reached.
+   */
+  @Override
+  public long estimateSize() {
+    return depth < 0 ? 0 : remainingSlots;
+  }
+
+  @Override
+  public int characteristics() {
+    return ORDERED | NONNULL;
+  }
+}
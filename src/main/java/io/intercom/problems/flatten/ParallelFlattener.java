@@ -0,0 +1,306 @@
+package io.intercom.problems.flatten;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <code>ParallelFlattener</code> flattens very large nested arrays of integers on a
+ * <code>ForkJoinPool</code>, producing the same result as
+ * <code>ArrayFlattener.flattenToIntArray</code>. It works in three passes:
+ * <ol>
+ * <li>every distinct array is scanned concurrently, counting the integers it holds directly and
+ * noting where its sub arrays are</li>
+ * <li>a sequential walk over the arrays alone, not their integers, decides which occurrence of
+ * each shared array is the one flattened, exactly as a depth first flatten would, and totals
+ * the size of each subtree</li>
+ * <li>with every subtree's size known, each knows its offset in the output and large subtrees,
+ * and blocks of large arrays, are written concurrently straight into one preallocated
+ * <code>int[]</code></li>
+ * </ol>
+ * Tasks are <code>CountedCompleter</code>s that fork rather than join their children, so even
+ * very deep nesting can't overflow a worker's stack. The nested array must not be modified while
+ * it is being flattened.
+ */
+final class ParallelFlattener {
+
+  static final int BLOCK_SIZE = 8192;
+
+  static final long SEQUENTIAL_THRESHOLD = 16384;
+
+  private final ForkJoinPool pool;
+
+  private final ConcurrentHashMap<Object[], Node> nodes = new ConcurrentHashMap<>();
+
+  ParallelFlattener(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  int[] flatten(Object[] root) {
+    if (root == null) {
+      return new int[0];
+    }
+    pool.invoke(new Discover(null, root));
+    Node rootNode = nodes.get(root);
+    long total = size(rootNode);
+    if (total > Integer.MAX_VALUE - 8) {
+      throw new IllegalArgumentException("Nested array holds too many integers to flatten into a single array");
+    }
+
+    int[] flattened = new int[(int) total];
+    if (total < SEQUENTIAL_THRESHOLD) {
+      writeSequentially(rootNode, 0, flattened);
+    } else {
+      pool.invoke(new Write(null, rootNode, 0, root.length, 0, 0, flattened));
+    }
+    return flattened;
+  }
+
+  /**
+   * The shape of a single distinct array in the nested structure
+   */
+  static final class Node {
+
+    final Object[] array;
+
+    int integers;
+
+    int[] childPositions;
+
+    int[] blockIntegers;
+
+    Node[] children;
+
+    boolean[] owned;
+
+    boolean visited;
+
+    long size;
+
+    Node(Object[] array) {
+      this.array = array;
+    }
+  }
+
+  /**
+   * First pass, scans an array and forks a scan of each sub array not yet seen
+   */
+  private final class Discover extends CountedCompleter<Void> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] array;
+
+    Discover(CountedCompleter<?> parent, Object[] array) {
+      super(parent);
+      this.array = array;
+    }
+
+    @Override
+    public void compute() {
+      Node node = new Node(array);
+      if (nodes.putIfAbsent(array, node) == null) {
+        scan(node);
+        for (int position : node.childPositions) {
+          Object[] child = (Object[]) array[position];
+          if (!nodes.containsKey(child)) {
+            addToPendingCount(1);
+            new Discover(this, child).fork();
+          }
+        }
+      }
+      tryComplete();
+    }
+
+    private void scan(Node node) {
+      Object[] array = node.array;
+      int[] childPositions = new int[4];
+      int children = 0;
+      int[] blockIntegers = array.length > BLOCK_SIZE ? new int[(array.length + BLOCK_SIZE - 1) / BLOCK_SIZE] : null;
+      int integers = 0;
+      for (int i = 0; i < array.length; i++) {
+        Object o = array[i];
+        if (o instanceof Integer) {
+          integers++;
+          if (blockIntegers != null) {
+            blockIntegers[i / BLOCK_SIZE]++;
+          }
+        } else if (o instanceof Object[]) {
+          if (children == childPositions.length) {
+            childPositions = Arrays.copyOf(childPositions, children << 1);
+          }
+          childPositions[children++] = i;
+        }
+      }
+      node.integers = integers;
+      node.blockIntegers = blockIntegers;
+      node.childPositions = Arrays.copyOf(childPositions, children);
+    }
+  }
+
+  /**
+   * Second pass, walks the arrays depth first in order marking the first occurrence of each as
+   * the one to flatten and totalling subtree sizes on the way back up.
+   */
+  private long size(Node root) {
+    Node[] stack = new Node[16];
+    int[] cursors = new int[16];
+    int depth = 0;
+    stack[0] = root;
+    prepare(root);
+
+    while (depth >= 0) {
+      Node node = stack[depth];
+      int k = cursors[depth];
+      if (k < node.childPositions.length) {
+        cursors[depth] = k + 1;
+        Node child = nodes.get((Object[]) node.array[node.childPositions[k]]);
+        node.children[k] = child;
+        if (!child.visited) {
+          node.owned[k] = true;
+          prepare(child);
+          if (++depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth << 1);
+            cursors = Arrays.copyOf(cursors, depth << 1);
+          }
+          stack[depth] = child;
+          cursors[depth] = 0;
+        }
+      } else {
+        stack[depth--] = null;
+        if (depth >= 0) {
+          stack[depth].size += node.size;
+        }
+      }
+    }
+    return root.size;
+  }
+
+  private void prepare(Node node) {
+    node.visited = true;
+    node.size = node.integers;
+    node.children = new Node[node.childPositions.length];
+    node.owned = new boolean[node.childPositions.length];
+  }
+
+  /**
+   * Third pass, writes a range of an array's slots, and the subtrees it owns, from the given
+   * offset in the output
+   */
+  private final class Write extends CountedCompleter<Void> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Node node;
+    private final int from;
+    private final int to;
+    private final int childOrdinal;
+    private final int offset;
+    private final int[] flattened;
+
+    Write(CountedCompleter<?> parent, Node node, int from, int to, int childOrdinal, int offset, int[] flattened) {
+      super(parent);
+      this.node = node;
+      this.from = from;
+      this.to = to;
+      this.childOrdinal = childOrdinal;
+      this.offset = offset;
+      this.flattened = flattened;
+    }
+
+    @Override
+    public void compute() {
+      if (to - from > BLOCK_SIZE && node.blockIntegers != null) {
+        splitIntoBlocks();
+      } else {
+        writeRange();
+      }
+      tryComplete();
+    }
+
+    private void splitIntoBlocks() {
+      int[] childPositions = node.childPositions;
+      int ordinal = childOrdinal;
+      long position = offset;
+      for (int blockFrom = from; blockFrom < to; blockFrom += BLOCK_SIZE) {
+        int blockTo = Math.min(to, blockFrom + BLOCK_SIZE);
+        int firstOrdinal = ordinal;
+        long blockSize = node.blockIntegers[blockFrom / BLOCK_SIZE];
+        while (ordinal < childPositions.length && childPositions[ordinal] < blockTo) {
+          if (node.owned[ordinal]) {
+            blockSize += node.children[ordinal].size;
+          }
+          ordinal++;
+        }
+        addToPendingCount(1);
+        new Write(this, node, blockFrom, blockTo, firstOrdinal, (int) position, flattened).fork();
+        position += blockSize;
+      }
+    }
+
+    private void writeRange() {
+      Object[] array = node.array;
+      int[] childPositions = node.childPositions;
+      int position = offset;
+      int ordinal = childOrdinal;
+      for (int i = from; i < to; i++) {
+        Object o = array[i];
+        if (o instanceof Integer) {
+          flattened[position++] = (Integer) o;
+        } else if (ordinal < childPositions.length && childPositions[ordinal] == i) {
+          if (node.owned[ordinal]) {
+            Node child = node.children[ordinal];
+            if (child.size >= SEQUENTIAL_THRESHOLD) {
+              addToPendingCount(1);
+              new Write(this, child, 0, child.array.length, 0, position, flattened).fork();
+            } else {
+              writeSequentially(child, position, flattened);
+            }
+            position += (int) child.size;
+          }
+          ordinal++;
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a whole subtree from the given offset on the current thread
+   */
+  private static void writeSequentially(Node root, int offset, int[] flattened) {
+    Node[] stack = new Node[16];
+    int[] slots = new int[16];
+    int[] ordinals = new int[16];
+    int depth = 0;
+    stack[0] = root;
+    int position = offset;
+
+    while (depth >= 0) {
+      Node node = stack[depth];
+      int i = slots[depth];
+      if (i == node.array.length) {
+        stack[depth--] = null;
+        continue;
+      }
+      slots[depth] = i + 1;
+
+      Object o = node.array[i];
+      if (o instanceof Integer) {
+        flattened[position++] = (Integer) o;
+      } else if (ordinals[depth] < node.childPositions.length && node.childPositions[ordinals[depth]] == i) {
+        int k = ordinals[depth]++;
+        if (node.owned[k]) {
+          if (++depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth << 1);
+            slots = Arrays.copyOf(slots, depth << 1);
+            ordinals = Arrays.copyOf(ordinals, depth << 1);
+          }
+          stack[depth] = node.children[k];
+          slots[depth] = 0;
+          ordinals[depth] = 0;
+        }
+      }
+    }
+  }
+}
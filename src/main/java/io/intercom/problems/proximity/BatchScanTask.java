@@ -0,0 +1,65 @@
+package io.intercom.problems.proximity;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <code>BatchScanTask</code> answers many radius queries in a single pass over a range of
+ * customers, splitting the range in half until it is small enough to scan directly. Each
+ * customer is loaded once and tested against every query's kernel while it is in cache.
+ */
+final class BatchScanTask extends RecursiveTask<MatchBuffer[]> {
+
+  private static final long serialVersionUID = 1L;
+
+  static final int SEQUENTIAL_THRESHOLD = 16 * 1024;
+
+  private final int[] userIds;
+
+  private final PreparedCoordinates points;
+
+  private final DistanceKernel[] kernels;
+
+  private final int from;
+
+  private final int to;
+
+  BatchScanTask(int[] userIds, PreparedCoordinates points, DistanceKernel[] kernels, int from, int to) {
+    this.userIds = userIds;
+    this.points = points;
+    this.kernels = kernels;
+    this.from = from;
+    this.to = to;
+  }
+
+  @Override
+  protected MatchBuffer[] compute() {
+    if (to - from <= SEQUENTIAL_THRESHOLD) {
+      return scan();
+    }
+    int middle = (from + to) >>> 1;
+    BatchScanTask left = new BatchScanTask(userIds, points, kernels, from, middle);
+    BatchScanTask right = new BatchScanTask(userIds, points, kernels, middle, to);
+    left.fork();
+    MatchBuffer[] rightMatches = right.compute();
+    MatchBuffer[] matches = left.join();
+    for (int q = 0; q < kernels.length; q++) {
+      matches[q].addAll(rightMatches[q]);
+    }
+    return matches;
+  }
+
+  private MatchBuffer[] scan() {
+    MatchBuffer[] matches = new MatchBuffer[kernels.length];
+    for (int q = 0; q < kernels.length; q++) {
+      matches[q] = new MatchBuffer();
+    }
+    for (int i = from; i < to; i++) {
+      for (int q = 0; q < kernels.length; q++) {
+        if (kernels[q].isWithinRadius(points, i)) {
+          matches[q].add(userIds[i], i);
+        }
+      }
+    }
+    return matches;
+  }
+}
@@ -0,0 +1,176 @@
+package io.intercom.problems.proximity;
+
+import static io.intercom.problems.proximity.Coordinates.MEAN_EARTH_RADIUS;
+import static java.lang.Math.PI;
+import static java.lang.Math.asin;
+import static java.lang.Math.cos;
+import static java.lang.Math.min;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.toRadians;
+
+/**
+ * <code>BlockRadiusScanner</code> answers radius queries by scanning every customer, in blocks,
+ * with no trigonometry and no branches in the inner loops. Each customer is held as a unit
+ * vector, so a point lies within the radius exactly when its squared chord length to the center
+ * is within the squared chord of the radius, a test of three subtractions and three
+ * multiplications.
+ * <p>
+ * Each block is scanned in two passes. The first computes the squared chord of every point in
+ * the block into a scratch array, a straight loop over primitive arrays the JIT compiles to
+ * vector instructions. The second compacts the indexes of the points that passed into a
+ * candidate buffer without branching. Only the candidates are then visited one at a time, to
+ * calculate their distances and re-check the few lying so close to the radius that rounding
+ * could decide them, with the calculator's own <code>DistanceKernel</code>, so the customers
+ * found are always those the kernel would find.
+ * <p>
+ * Chord lengths are geometry on the sphere, so the scanner stands in for the spherical
+ * formulas, and for the equirectangular approximation whose results the kernel already makes
+ * exact, but not for the ellipsoidal formula. Scanners are immutable and may be shared between
+ * threads.
+ */
+final class BlockRadiusScanner {
+
+  static final int BLOCK_SIZE = 512;
+
+  /* squared chords within this of the radius' squared chord are re-checked with the kernel.
+   * Rounding in either test is a few ulps of values no larger than 4 */
+  static final double RECHECK_BAND = 1e-12;
+
+  private final PreparedCoordinates points;
+
+  private final double[] xs;
+
+  private final double[] ys;
+
+  private final double[] zs;
+
+  private final int size;
+
+  BlockRadiusScanner(PreparedCoordinates points) {
+    this.points = points;
+    this.size = points.size();
+    this.xs = new double[size];
+    this.ys = new double[size];
+    this.zs = new double[size];
+    for (int i = 0; i < size; i++) {
+      xs[i] = points.cosLatitudes[i] * cos(points.longitudeRadians[i]);
+      ys[i] = points.cosLatitudes[i] * sin(points.longitudeRadians[i]);
+      zs[i] = points.sinLatitudes[i];
+    }
+  }
+
+  /**
+   * Tests whether queries with the given formula can be answered by chord length
+   */
+  static boolean supports(DistanceFormula formula) {
+    return formula != DistanceFormula.ELLIPSOIDAL;
+  }
+
+  /**
+   * Receives each customer found within the radius with their distance from the center
+   */
+  @FunctionalInterface
+  interface MatchSink {
+
+    void match(int index, double distance);
+  }
+
+  /**
+   * Scans the customers in the given range of the store, passing those within the radius of the
+   * center to the sink in store order
+   *
+   * @param kernel the kernel for the same query, used to decide customers on the boundary
+   * @param from the index of the first customer to scan
+   * @param to the index after the last customer to scan
+   */
+  void scan(DistanceKernel kernel, double centerLatitude, double centerLongitude, double radius,
+            int from, int to, MatchSink sink) {
+    double latitude = toRadians(centerLatitude);
+    double longitude = toRadians(centerLongitude);
+    double cx = cos(latitude) * cos(longitude);
+    double cy = cos(latitude) * sin(longitude);
+    double cz = sin(latitude);
+    double threshold = squaredChord(radius);
+    double acceptBelow = threshold - RECHECK_BAND;
+    double candidateBelow = threshold + RECHECK_BAND;
+
+    double[] chords = new double[BLOCK_SIZE];
+    int[] candidates = new int[BLOCK_SIZE];
+    to = min(to, size);
+    for (int block = from; block < to; block += BLOCK_SIZE) {
+      int length = min(BLOCK_SIZE, to - block);
+      squaredChords(cx, cy, cz, block, length, chords);
+      int found = compact(chords, length, candidateBelow, block, candidates);
+      for (int c = 0; c < found; c++) {
+        int i = candidates[c];
+        double chord = chords[i - block];
+        double distance = chord <= acceptBelow
+            ? 2 * asin(min(1.0, sqrt(chord) / 2)) * MEAN_EARTH_RADIUS
+            : kernel.distanceIfWithinRadius(points, i);
+        if (distance != Double.POSITIVE_INFINITY) {
+          sink.match(i, distance);
+        }
+      }
+    }
+  }
+
+  /**
+   * Scans the customers in the given range one at a time with the kernel alone, the scalar
+   * equivalent of {@link #scan}
+   */
+  void scanScalar(DistanceKernel kernel, int from, int to, MatchSink sink) {
+    to = min(to, size);
+    for (int i = from; i < to; i++) {
+      double distance = kernel.distanceIfWithinRadius(points, i);
+      if (distance != Double.POSITIVE_INFINITY) {
+        sink.match(i, distance);
+      }
+    }
+  }
+
+  /**
+   * Retrieve the number of customers the scanner covers
+   */
+  int size() {
+    return size;
+  }
+
+  private void squaredChords(double cx, double cy, double cz, int offset, int length, double[] chords) {
+    double[] xs = this.xs;
+    double[] ys = this.ys;
+    double[] zs = this.zs;
+    for (int j = 0; j < length; j++) {
+      double dx = xs[offset + j] - cx;
+      double dy = ys[offset + j] - cy;
+      double dz = zs[offset + j] - cz;
+      chords[j] = dx * dx + dy * dy + dz * dz;
+    }
+  }
+
+  private static int compact(double[] chords, int length, double below, int offset, int[] candidates) {
+    int found = 0;
+    for (int j = 0; j < length; j++) {
+      // always write, only advance past the points that passed
+      candidates[found] = offset + j;
+      found += chords[j] <= below ? 1 : 0;
+    }
+    return found;
+  }
+
+  /**
+   * The squared length of the chord subtending the given great circle distance on the unit
+   * sphere, every point is within half the circumference
+   */
+  static double squaredChord(double radius) {
+    if (!(radius >= 0.0)) {
+      return -1.0;
+    }
+    double angle = radius / MEAN_EARTH_RADIUS;
+    if (angle >= PI) {
+      return 4.0 + 2 * RECHECK_BAND;
+    }
+    double chord = 2 * sin(angle / 2);
+    return chord * chord;
+  }
+}
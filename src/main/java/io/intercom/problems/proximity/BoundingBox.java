@@ -0,0 +1,99 @@
+package io.intercom.problems.proximity;
+
+import static io.intercom.problems.proximity.Coordinates.MEAN_EARTH_RADIUS;
+import static java.lang.Math.asin;
+import static java.lang.Math.cos;
+import static java.lang.Math.floor;
+import static java.lang.Math.sin;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+/**
+ * <code>BoundingBox</code> is the latitude/longitude box enclosing a circle on the earth's
+ * surface. Testing a point against it needs no trigonometry so it is used to cheaply reject
+ * points before an exact distance is calculated, and to pick the cells a grid query visits.
+ * <p>
+ * The box is always conservative, a point it rejects is guaranteed to be outside the circle.
+ * Points or centers outside the valid latitude/longitude ranges are never rejected.
+ */
+final class BoundingBox {
+
+  // widen boxes slightly so rounding never excludes a point on the boundary
+  private static final double MARGIN_DEGREES = 1e-6;
+
+  final double minLatitude;
+
+  final double maxLatitude;
+
+  final double centerLongitude;
+
+  final double longitudeDelta;
+
+  final boolean allLongitudes;
+
+  final boolean everything;
+
+  private BoundingBox(double minLatitude, double maxLatitude, double centerLongitude, double longitudeDelta,
+                      boolean allLongitudes, boolean everything) {
+    this.minLatitude = minLatitude;
+    this.maxLatitude = maxLatitude;
+    this.centerLongitude = centerLongitude;
+    this.longitudeDelta = longitudeDelta;
+    this.allLongitudes = allLongitudes;
+    this.everything = everything;
+  }
+
+  /**
+   * Calculates the box enclosing the circle of the given radius around the given center on the
+   * mean earth sphere.
+   */
+  static BoundingBox around(double latitude, double longitude, double radius) {
+    double angularRadius = radius / MEAN_EARTH_RADIUS;
+    if (!(latitude >= -90.0 && latitude <= 90.0) || Double.isNaN(longitude) || Double.isInfinite(longitude)
+        || !(angularRadius < Math.PI)) {
+      return new BoundingBox(-90.0, 90.0, 0.0, 180.0, true, true);
+    }
+
+    double latitudeDelta = toDegrees(angularRadius) + MARGIN_DEGREES;
+    double minLatitude = latitude - latitudeDelta;
+    double maxLatitude = latitude + latitudeDelta;
+
+    // a circle covering a pole covers every longitude, otherwise the widest longitude extent of
+    // a spherical cap is asin(sin(r) / cos(lat))
+    double ratio = sin(angularRadius) / cos(toRadians(latitude));
+    if (minLatitude <= -90.0 || maxLatitude >= 90.0 || !(ratio < 1.0)) {
+      return new BoundingBox(Math.max(-90.0, minLatitude), Math.min(90.0, maxLatitude), 0.0, 180.0, true, false);
+    }
+    return new BoundingBox(minLatitude, maxLatitude, normalizeLongitude(longitude),
+        toDegrees(asin(ratio)) + MARGIN_DEGREES, false, false);
+  }
+
+  /**
+   * Tests if the given point, in degrees, may lie within the circle this box encloses
+   */
+  boolean contains(double latitude, double longitude) {
+    if (everything) {
+      return true;
+    }
+    if (latitude < minLatitude || latitude > maxLatitude) {
+      // points with invalid latitudes can't be judged against the box
+      return latitude < -90.0 || latitude > 90.0;
+    }
+    if (allLongitudes) {
+      return true;
+    }
+    double delta = longitude - centerLongitude;
+    if (delta > 180.0 || delta < -180.0) {
+      delta = normalizeLongitude(delta);
+    }
+    // NaN longitudes fall through the comparison and are kept
+    return !(Math.abs(delta) > longitudeDelta);
+  }
+
+  /**
+   * Wraps the given longitude into the range [-180, 180)
+   */
+  static double normalizeLongitude(double longitude) {
+    return longitude - 360.0 * floor((longitude + 180.0) / 360.0);
+  }
+}
@@ -0,0 +1,433 @@
+package io.intercom.problems.proximity;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>BulkQueryRunner</code> answers a file of radius queries against a single dataset in
+ * three pipelined stages. The calling thread reads and parses queries into batches, a pool of
+ * threads answers the batches in parallel, each rendering its results to a buffer of bytes, and
+ * a writer thread copies the rendered batches to the output in the order they were read.
+ * <p>
+ * Queries are one per line, either as json objects, <code>{"latitude": 53.3, "longitude": -6.2,
+ * "radius": 100}</code>, or as comma separated <code>latitude,longitude,radius</code>, with an
+ * optional header line. Each query produces one line of json, in input order, listing the ids
+ * of the customers found ordered by userId with their distances, or an error for a query that
+ * couldn't be parsed. The number of batches in flight is bounded, so a slow output holds back
+ * the reader rather than filling memory with results.
+ */
+public class BulkQueryRunner {
+
+  public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+  public static final int DEFAULT_BATCH_SIZE = 256;
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private static final int BATCHES_PER_THREAD = 4;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final ProximityCalculator calculator;
+
+  private final int threads;
+
+  private final int batchSize;
+
+  /**
+   * Creates a runner answering queries against the given calculator on the default number of
+   * threads
+   *
+   * @param calculator the calculator holding the dataset queries are answered against
+   */
+  public BulkQueryRunner(ProximityCalculator calculator) {
+    this(calculator, DEFAULT_THREADS, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Creates a runner answering queries against the given calculator
+   *
+   * @param calculator the calculator holding the dataset queries are answered against
+   * @param threads the number of threads answering queries
+   * @param batchSize the number of queries handed to a thread at a time
+   */
+  public BulkQueryRunner(ProximityCalculator calculator, int threads, int batchSize) {
+    if (calculator == null) {
+      throw new IllegalArgumentException("Bulk queries require a valid proximity calculator");
+    }
+    if (threads < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("Bulk queries require at least one thread and a positive batch size");
+    }
+    this.calculator = calculator;
+    this.threads = threads;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * <code>Report</code> summarizes a run of bulk queries
+   */
+  public static final class Report {
+
+    private final long queries;
+
+    private final long rejected;
+
+    private final long matches;
+
+    private final long elapsedNanos;
+
+    Report(long queries, long rejected, long matches, long elapsedNanos) {
+      this.queries = queries;
+      this.rejected = rejected;
+      this.matches = matches;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Retrieve the number of queries read, answered or rejected
+     *
+     * @return long the number of query lines
+     */
+    public long getQueries() {
+      return queries;
+    }
+
+    /**
+     * Retrieve the number of query lines that couldn't be parsed
+     *
+     * @return long the number of rejected queries
+     */
+    public long getRejected() {
+      return rejected;
+    }
+
+    /**
+     * Retrieve the total number of customers found across all queries
+     *
+     * @return long the number of matches written
+     */
+    public long getMatches() {
+      return matches;
+    }
+
+    /**
+     * Retrieve the time taken from reading the first query to writing the last result
+     *
+     * @return long the elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Retrieve the throughput of the run
+     *
+     * @return double the queries answered per second
+     */
+    public double getQueriesPerSecond() {
+      return elapsedNanos == 0 ? 0.0 : queries * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d queries (%d rejected, %d matches) in %dms, %.0f queries/sec",
+          queries, rejected, matches, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), getQueriesPerSecond());
+    }
+  }
+
+  /**
+   * A batch of query lines and the result of answering them
+   */
+  private static final class Batch {
+
+    final List<String> lines;
+
+    final long[] lineNumbers;
+
+    byte[] output;
+
+    int rejected;
+
+    long matches;
+
+    Batch(int capacity) {
+      this.lines = new ArrayList<>(capacity);
+      this.lineNumbers = new long[capacity];
+    }
+
+    void add(String line, long lineNumber) {
+      lineNumbers[lines.size()] = lineNumber;
+      lines.add(line);
+    }
+  }
+
+  // marks the end of the batches for the writer
+  private static final Future<Batch> END = CompletableFuture.completedFuture(null);
+
+  /**
+   * Answers every query read from the input, writing a line of results per query to the output.
+   * The output is flushed but not closed.
+   *
+   * @param in the queries, one per line, as json objects or comma separated values
+   * @param out where the results are written, one line of json per query
+   * @return Report a summary of the queries answered and the throughput achieved
+   * @throws IOException if the queries can't be read or the results can't be written
+   */
+  public Report run(InputStream in, OutputStream out) throws IOException {
+    long start = System.nanoTime();
+    ExecutorService evaluators = Executors.newFixedThreadPool(threads);
+    BlockingQueue<Future<Batch>> pending = new ArrayBlockingQueue<>(threads * BATCHES_PER_THREAD);
+    Writer writer = new Writer(pending, out);
+    Thread writerThread = new Thread(writer, "bulk-query-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+
+    long queries = 0;
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      Batch batch = null;
+      long lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null && writer.failure == null) {
+        lineNumber++;
+        if (line.trim().isEmpty() || (lineNumber == 1 && isHeader(line))) {
+          continue;
+        }
+        if (batch == null) {
+          batch = new Batch(batchSize);
+        }
+        batch.add(line, lineNumber);
+        queries++;
+        if (batch.lines.size() == batchSize) {
+          submit(evaluators, pending, batch);
+          batch = null;
+        }
+      }
+      if (batch != null) {
+        submit(evaluators, pending, batch);
+      }
+      put(pending, END);
+      writerThread.join();
+    } catch (IOException | RuntimeException e) {
+      writerThread.interrupt();
+      throw e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      writerThread.interrupt();
+      throw new InterruptedIOException("Interrupted while answering bulk queries");
+    } finally {
+      evaluators.shutdownNow();
+    }
+    if (writer.failure != null) {
+      throw writer.failure;
+    }
+
+    Report report = new Report(queries, writer.rejected, writer.matches, System.nanoTime() - start);
+    log.info("Answered {}", report);
+    return report;
+  }
+
+  private void submit(ExecutorService evaluators, BlockingQueue<Future<Batch>> pending, Batch batch) throws InterruptedException {
+    put(pending, evaluators.submit(() -> answer(batch)));
+  }
+
+  private static void put(BlockingQueue<Future<Batch>> pending, Future<Batch> batch) throws InterruptedException {
+    // blocks once enough batches are in flight, holding the reader back to the writer's pace
+    pending.put(batch);
+  }
+
+  /**
+   * Answers a batch of queries, rendering the results for each line in order
+   */
+  private Batch answer(Batch batch) throws IOException {
+    int[] userIds = calculator.getStore().userIdColumn();
+    double[] distances = new double[0];
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(batch.lines.size() * 64);
+    try (JsonGenerator json = FACTORY.createGenerator(buffer)) {
+      json.setRootValueSeparator(null);
+      for (int q = 0; q < batch.lines.size(); q++) {
+        double[] query;
+        try {
+          query = parse(batch.lines.get(q));
+        } catch (IllegalArgumentException e) {
+          batch.rejected++;
+          json.writeStartObject();
+          json.writeNumberField("line", batch.lineNumbers[q]);
+          json.writeStringField("error", e.getMessage());
+          json.writeEndObject();
+          json.writeRaw('\n');
+          continue;
+        }
+
+        RadiusResult result = calculator.findCustomersWithinRadius(query[0], query[1], query[2]);
+        if (distances.length < result.size()) {
+          distances = new double[Math.max(result.size(), distances.length * 2)];
+        }
+        int[] indices = result.indices(RadiusResult.Order.USER_ID, result.size(), distances);
+        batch.matches += indices.length;
+        json.writeStartObject();
+        json.writeNumberField("total", indices.length);
+        json.writeArrayFieldStart("customers");
+        for (int m = 0; m < indices.length; m++) {
+          json.writeStartObject();
+          json.writeNumberField("user_id", userIds[indices[m]]);
+          json.writeNumberField("distance", distances[m]);
+          json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.writeRaw('\n');
+      }
+    }
+    batch.output = buffer.toByteArray();
+    batch.lines.clear();
+    return batch;
+  }
+
+  /**
+   * Parses a query line into its latitude, longitude and radius
+   */
+  static double[] parse(String line) {
+    String trimmed = line.trim();
+    double[] query = trimmed.startsWith("{") ? parseJson(trimmed) : parseCsv(trimmed);
+    if (!(query[0] >= -90.0 && query[0] <= 90.0 && query[1] >= -180.0 && query[1] <= 180.0)) {
+      throw new IllegalArgumentException("Query centers require a latitude within [-90, 90] and longitude within [-180, 180]");
+    }
+    if (!(query[2] >= 0.0 && query[2] < Double.POSITIVE_INFINITY)) {
+      throw new IllegalArgumentException("Query radius must be a non negative distance in kilometers");
+    }
+    return query;
+  }
+
+  private static double[] parseJson(String line) {
+    double[] query = {Double.NaN, Double.NaN, Double.NaN};
+    try (JsonParser parser = FACTORY.createParser(line)) {
+      parser.nextToken();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        int position = "latitude".equals(field) ? 0 : "longitude".equals(field) ? 1 : "radius".equals(field) ? 2 : -1;
+        if (position < 0) {
+          throw new IllegalArgumentException("Unrecognized query field '" + field + "'");
+        }
+        if (!value.isNumeric()) {
+          throw new IllegalArgumentException("Query field '" + field + "' must be a number");
+        }
+        query[position] = parser.getDoubleValue();
+      }
+      if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+        throw new IllegalArgumentException("Malformed json query");
+      }
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed json query");
+    }
+    if (Double.isNaN(query[0]) || Double.isNaN(query[1]) || Double.isNaN(query[2])) {
+      throw new IllegalArgumentException("Queries require a latitude, longitude and radius");
+    }
+    return query;
+  }
+
+  private static double[] parseCsv(String line) {
+    String[] fields = line.split(",", -1);
+    if (fields.length != 3) {
+      throw new IllegalArgumentException("Queries require a latitude, longitude and radius");
+    }
+    double[] query = new double[3];
+    try {
+      for (int f = 0; f < 3; f++) {
+        query[f] = Double.parseDouble(fields[f].trim());
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Query fields must be numbers");
+    }
+    return query;
+  }
+
+  private static boolean isHeader(String line) {
+    String trimmed = line.trim();
+    return !trimmed.isEmpty() && Character.isLetter(trimmed.charAt(0));
+  }
+
+  /**
+   * Writes each batch's rendered results as it completes, in the order the batches were read
+   */
+  private static final class Writer implements Runnable {
+
+    private final BlockingQueue<Future<Batch>> pending;
+
+    private final OutputStream out;
+
+    volatile IOException failure;
+
+    volatile long rejected;
+
+    volatile long matches;
+
+    Writer(BlockingQueue<Future<Batch>> pending, OutputStream out) {
+      this.pending = pending;
+      this.out = out;
+    }
+
+    @Override
+    public void run() {
+      BufferedOutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+      try {
+        Future<Batch> next;
+        while ((next = pending.take()) != END) {
+          Batch batch = next.get();
+          buffered.write(batch.output);
+          rejected += batch.rejected;
+          matches += batch.matches;
+        }
+        buffered.flush();
+      } catch (IOException e) {
+        failure = e;
+        drain();
+      } catch (ExecutionException e) {
+        failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException("Could not answer queries", e.getCause());
+        drain();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = new InterruptedIOException("Interrupted while writing bulk query results");
+      }
+    }
+
+    /**
+     * Keeps taking batches after a failure, so the reader is never left blocked on a full queue
+     */
+    private void drain() {
+      try {
+        Future<Batch> next;
+        while ((next = pending.take()) != END) {
+          next.cancel(true);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
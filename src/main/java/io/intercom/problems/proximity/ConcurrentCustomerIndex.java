@@ -0,0 +1,290 @@
+package io.intercom.problems.proximity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>ConcurrentCustomerIndex</code> answers radius queries on many threads while customers
+ * are added, moved and removed, without queries ever waiting on an update. Customers are held in
+ * latitude/longitude cells, as in a <code>GridSpatialIndex</code>, each cell's customers in an
+ * immutable segment with their prepared coordinates.
+ * <p>
+ * Readers take a <code>Snapshot</code>, a single volatile read, and query it without locking. A
+ * snapshot never changes, so every query against it sees one consistent version of the
+ * customers however long it runs. Writers are serialized and apply their changes in batches,
+ * copying on write only the segments of the cells a batch touches and the rows of the grid
+ * holding them, then publish the new version with a single volatile write. Untouched segments
+ * are shared between versions, so the cost of a batch depends on the size of the cells it
+ * touches rather than on the number of customers.
+ */
+public class ConcurrentCustomerIndex {
+
+  public static final double DEFAULT_CELL_SIZE = 1.0;
+
+  private final DistanceFormula formula;
+
+  private final GridGeometry grid;
+
+  // the cell of every customer in the current snapshot, guarded by the write lock
+  private final Map<Integer, Integer> cells = new HashMap<>();
+
+  private final Object writeLock = new Object();
+
+  private volatile Snapshot current;
+
+  /**
+   * Creates a new index over the given customers with the default cell size, measuring distances
+   * with the spherical law of cosines as <code>ProximityCalculator</code> does by default.
+   *
+   * @param initialCustomers the customers known when indexing starts
+   */
+  public ConcurrentCustomerIndex(Collection<CustomerLocation> initialCustomers) {
+    this(initialCustomers, DEFAULT_CELL_SIZE, DistanceFormula.SPHERICAL_LAW_OF_COSINES);
+  }
+
+  /**
+   * Creates a new index over the given customers
+   *
+   * @param initialCustomers the customers known when indexing starts
+   * @param cellSize the approximate height and width of each cell in degrees
+   * @param formula the formula used to calculate distances
+   */
+  public ConcurrentCustomerIndex(Collection<CustomerLocation> initialCustomers, double cellSize, DistanceFormula formula) {
+    if (initialCustomers == null) {
+      throw new IllegalArgumentException("Concurrent customer index requires a valid collection of customer locations");
+    }
+    if (formula == null) {
+      throw new IllegalArgumentException("Concurrent customer index requires a valid distance formula");
+    }
+    this.formula = formula;
+    this.grid = new GridGeometry(cellSize);
+    this.current = new Snapshot(new Segment[grid.rows][], 0, 0);
+    apply(initialCustomers, Collections.<Integer>emptyList());
+  }
+
+  /**
+   * Retrieve the current version of the customers. Never blocks.
+   *
+   * @return Snapshot an unchanging view of the customers as of the latest batch applied
+   */
+  public Snapshot snapshot() {
+    return current;
+  }
+
+  /**
+   * Adds a new customer, or replaces the details of the existing customer with the same userId,
+   * as a batch of one
+   *
+   * @param customer the customer's new details
+   * @return long the version of the snapshot including the change
+   */
+  public long upsert(CustomerLocation customer) {
+    return apply(Collections.singletonList(customer), Collections.<Integer>emptyList());
+  }
+
+  /**
+   * Removes the customer with the given userId, if known, as a batch of one
+   *
+   * @param userId the id of the customer to remove
+   * @return long the version of the snapshot including the change
+   */
+  public long delete(int userId) {
+    return apply(Collections.<CustomerLocation>emptyList(), Collections.singletonList(userId));
+  }
+
+  /**
+   * Applies a batch of changes, the upserts followed by the deletes, publishing them together as
+   * a single new version. Readers see either none of the batch or all of it. Every customer is
+   * validated before any change is made, so a batch with an invalid customer changes nothing.
+   *
+   * @param upserts the customers to add or update
+   * @param deletes the userIds of the customers to remove
+   * @return long the version of the snapshot including the changes
+   */
+  public long apply(Collection<CustomerLocation> upserts, Collection<Integer> deletes) {
+    if (upserts == null || deletes == null) {
+      throw new IllegalArgumentException("Concurrent customer index requires valid collections of upserts and deletes");
+    }
+    for (CustomerLocation customer : upserts) {
+      if (customer == null) {
+        throw new IllegalArgumentException("Concurrent customer index requires valid customer locations");
+      }
+      customer.validate();
+      if (!(customer.getLatitude() >= -90.0 && customer.getLatitude() <= 90.0
+          && customer.getLongitude() >= -180.0 && customer.getLongitude() <= 180.0)) {
+        throw new IllegalArgumentException("Concurrent customer index requires latitudes within [-90, 90] and longitudes within [-180, 180]");
+      }
+    }
+
+    synchronized (writeLock) {
+      Snapshot base = current;
+      // the new contents of each cell the batch touches, loaded from the base on first touch
+      Map<Integer, Map<Integer, CustomerLocation>> touched = new HashMap<>();
+      int size = base.size;
+      for (CustomerLocation customer : upserts) {
+        int cell = grid.cellOf(customer.getLatitude(), customer.getLongitude());
+        Integer previous = cells.put(customer.getUserId(), cell);
+        if (previous == null) {
+          size++;
+        } else if (previous != cell) {
+          contents(base, touched, previous).remove(customer.getUserId());
+        }
+        contents(base, touched, cell).put(customer.getUserId(), customer);
+      }
+      for (Integer userId : deletes) {
+        Integer previous = userId == null ? null : cells.remove(userId);
+        if (previous != null) {
+          contents(base, touched, previous).remove(userId);
+          size--;
+        }
+      }
+      if (touched.isEmpty()) {
+        return base.version;
+      }
+
+      Segment[][] segments = base.segments.clone();
+      boolean[] copied = new boolean[grid.rows];
+      for (Map.Entry<Integer, Map<Integer, CustomerLocation>> cell : touched.entrySet()) {
+        int row = cell.getKey() / grid.columns;
+        if (!copied[row]) {
+          segments[row] = segments[row] == null ? new Segment[grid.columns] : segments[row].clone();
+          copied[row] = true;
+        }
+        segments[row][cell.getKey() % grid.columns] = cell.getValue().isEmpty() ? null : new Segment(cell.getValue().values());
+      }
+      Snapshot next = new Snapshot(segments, size, base.version + 1);
+      current = next;
+      return next.version;
+    }
+  }
+
+  private Map<Integer, CustomerLocation> contents(Snapshot base, Map<Integer, Map<Integer, CustomerLocation>> touched, int cell) {
+    Map<Integer, CustomerLocation> contents = touched.get(cell);
+    if (contents == null) {
+      contents = new LinkedHashMap<>();
+      Segment segment = base.segment(cell / grid.columns, cell % grid.columns);
+      if (segment != null) {
+        for (int i = 0; i < segment.store.size(); i++) {
+          contents.put(segment.store.getUserId(i), segment.store.get(i));
+        }
+      }
+      touched.put(cell, contents);
+    }
+    return contents;
+  }
+
+  /**
+   * The customers of a single cell, immutable once built
+   */
+  private static final class Segment {
+
+    final CustomerLocationStore store;
+
+    final PreparedCoordinates points;
+
+    Segment(Collection<CustomerLocation> customers) {
+      this.store = CustomerLocationStore.from(customers);
+      this.points = PreparedCoordinates.of(store);
+    }
+  }
+
+  /**
+   * <code>Snapshot</code> is one version of the customers held by a
+   * <code>ConcurrentCustomerIndex</code>. Snapshots never change and may be queried from any
+   * number of threads without locking.
+   */
+  public final class Snapshot {
+
+    private final Segment[][] segments;
+
+    private final int size;
+
+    private final long version;
+
+    private Snapshot(Segment[][] segments, int size, long version) {
+      this.segments = segments;
+      this.size = size;
+      this.version = version;
+    }
+
+    private Segment segment(int row, int column) {
+      Segment[] cells = segments[row];
+      return cells == null ? null : cells[column];
+    }
+
+    /**
+     * Retrieve the version of the snapshot, incremented by every batch that changed the
+     * customers, the initial customers being the first
+     *
+     * @return long the snapshot's version
+     */
+    public long getVersion() {
+      return version;
+    }
+
+    /**
+     * Retrieve the number of customers in the snapshot
+     *
+     * @return int the number of customers
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Filter the snapshot's customers for those within the given distance radius of the given
+     * center. Only the cells overlapping the box enclosing the circle are visited.
+     *
+     * @param center the coordinates from which distances are measured
+     * @param distance radius in kilometers within which customers have to be located to get included
+     * @return List<CustomerLocation> the customers within the radius, sorted by userId ascending
+     */
+    public List<CustomerLocation> calculateCustomersWithinRadius(Coordinates center, double distance) {
+      if (center == null) {
+        throw new IllegalArgumentException("Radius queries require valid center coordinates");
+      }
+      double latitude = center.getLatitude();
+      double longitude = center.getLongitude();
+      DistanceKernel kernel = new DistanceKernel(formula, latitude, longitude, distance);
+      List<CustomerLocation> withinRadius = new ArrayList<>();
+
+      grid.forEachCell(BoundingBox.around(latitude, longitude, kernel.getBoxRadius()), (row, column) -> {
+        Segment segment = segment(row, column);
+        if (segment != null) {
+          for (int i = 0; i < segment.points.size(); i++) {
+            if (kernel.isWithinRadius(segment.points, i)) {
+              withinRadius.add(segment.store.get(i));
+            }
+          }
+        }
+      });
+      withinRadius.sort((customer1, customer2) -> Integer.compare(customer1.getUserId(), customer2.getUserId()));
+      return withinRadius;
+    }
+
+    /**
+     * Copies the snapshot's customers into a columnar store, e.g. to build a
+     * <code>ProximityCalculator</code> over this version. Customers are ordered by cell.
+     *
+     * @return CustomerLocationStore a new store holding every customer in the snapshot
+     */
+    public CustomerLocationStore toStore() {
+      CustomerLocationStore store = new CustomerLocationStore(Math.max(1, size));
+      for (Segment[] row : segments) {
+        if (row != null) {
+          for (Segment segment : row) {
+            if (segment != null) {
+              store.addAll(segment.store);
+            }
+          }
+        }
+      }
+      return store;
+    }
+  }
+}
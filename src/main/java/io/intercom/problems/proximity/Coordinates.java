@@ -55,15 +55,41 @@ public class Coordinates {
    * @return the distance in kilometers between this set of coordinates and the given set
    */
   public Double distanceTo(Coordinates there) {
+    return distanceBetween(this.latitude, this.longitude, there.latitude, there.longitude);
+  }
+
+  /**
+   * Calculates the distance between two sets of Coordinates using the given formula
+   *
+   * @param there the other set of coordinates to find the distance to
+   * @param formula the formula used to calculate the distance
+   * @return the distance in kilometers between this set of coordinates and the given set
+   */
+  public double distanceTo(Coordinates there, DistanceFormula formula) {
+    return formula.distance(this.latitude, this.longitude, there.latitude, there.longitude);
+  }
+
+  /**
+   * Calculates the great circle distance between two latitude and longitude pairs given as
+   * primitives, using the same formula as {@link #distanceTo(Coordinates)}. Useful when scanning
+   * columnar data where creating a <code>Coordinates</code> per point would be wasteful.
+   *
+   * @param latitude1 the latitude of the first point in degrees
+   * @param longitude1 the longitude of the first point in degrees
+   * @param latitude2 the latitude of the second point in degrees
+   * @param longitude2 the longitude of the second point in degrees
+   * @return the distance in kilometers between the two points
+   */
+  public static double distanceBetween(double latitude1, double longitude1, double latitude2, double longitude2) {
 
-    Double lat1 = toRadians(this.latitude);
-    Double lon1 = toRadians(this.longitude);
-    Double lat2 = toRadians(there.latitude);
-    Double lon2 = toRadians(there.longitude);
+    double lat1 = toRadians(latitude1);
+    double lon1 = toRadians(longitude1);
+    double lat2 = toRadians(latitude2);
+    double lon2 = toRadians(longitude2);
 
-    Double deltaLongitude = Math.abs(lon1 - lon2);
+    double deltaLongitude = Math.abs(lon1 - lon2);
 
-    Double radians = acos(sin(lat1) * sin(lat2) +
+    double radians = acos(sin(lat1) * sin(lat2) +
         cos(lat1) * cos(lat2) * cos(deltaLongitude));
 
     return radians * MEAN_EARTH_RADIUS;
@@ -0,0 +1,41 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>CustomerDistance</code> is a simple immutable pairing of a customer with their distance
+ * from the center of the query that found them.
+ */
+public class CustomerDistance {
+
+  private final CustomerLocation customer;
+
+  private final double distance;
+
+  /**
+   * Creates a new pairing of a customer with their distance from a query center
+   *
+   * @param customer the customer
+   * @param distance the customer's distance in kilometers from the query center
+   */
+  public CustomerDistance(CustomerLocation customer, double distance) {
+    this.customer = customer;
+    this.distance = distance;
+  }
+
+  /**
+   * Retrieve the customer
+   *
+   * @return CustomerLocation the customer
+   */
+  public CustomerLocation getCustomer() {
+    return customer;
+  }
+
+  /**
+   * Retrieve the customer's distance from the query center
+   *
+   * @return double the distance in kilometers
+   */
+  public double getDistance() {
+    return distance;
+  }
+}
@@ -37,12 +37,37 @@ public class CustomerLocation {
     validate();
   }
 
+  /**
+   * Checks that a CustomerLocation has all the required fields without throwing, returning the
+   * first missing field in the order userId, name, latitude and longitude.
+   *
+   * @return RecordStatus <code>VALID</code> or the reason the customer is incomplete
+   */
+  public RecordStatus check(){
+    if(userId == null) {
+      return RecordStatus.MISSING_USER_ID;
+    }
+    if(name == null) {
+      return RecordStatus.MISSING_NAME;
+    }
+    if(latitude == null) {
+      return RecordStatus.MISSING_LATITUDE;
+    }
+    if(longitude == null) {
+      return RecordStatus.MISSING_LONGITUDE;
+    }
+    return RecordStatus.VALID;
+  }
+
   /**
    * Validates that a CustomerLocation has all the required fields name, latitude and longitude
    *
    * @throws java.lang.AssertionError if any of the required fields are missing.
    */
   public void validate(){
+    if(check() == RecordStatus.VALID) {
+      return;
+    }
     StringBuilder b = new StringBuilder();
     if(userId == null) {
       b.append("'userId' is a required field in a CustomerLocation\n");
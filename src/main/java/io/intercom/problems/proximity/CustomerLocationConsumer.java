@@ -0,0 +1,20 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>CustomerLocationConsumer</code> receives customers as they are parsed, as primitives, so
+ * that a streaming load can hand them straight to their destination without creating a
+ * <code>CustomerLocation</code> per record, e.g. <code>store::add</code>.
+ */
+@FunctionalInterface
+public interface CustomerLocationConsumer {
+
+  /**
+   * Accepts a single parsed and validated customer
+   *
+   * @param userId the customer's id
+   * @param name the customer's name
+   * @param latitude the customer's latitude
+   * @param longitude the customer's longitude
+   */
+  void accept(int userId, String name, double latitude, double longitude);
+}
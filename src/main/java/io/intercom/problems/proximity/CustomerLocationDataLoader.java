@@ -1,18 +1,32 @@
 package io.intercom.problems.proximity;
 
+import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * <code>CustomerDataLoader</code> loads customer location data in Json format and
@@ -22,6 +36,35 @@ public class CustomerLocationDataLoader {
 
   private final Logger log = LoggerFactory.getLogger(getClass());
 
+  private final HttpCustomerDataCache cache;
+
+  private volatile ProximityMetrics metrics = ProximityMetrics.NONE;
+
+  private volatile RejectedRecordSink rejectedRecordSink = RejectedRecordSink.NONE;
+
+  private volatile long rejectedRecordCapacity;
+
+  /**
+   * Creates a loader that downloads customer data in full every time it is loaded from a url
+   */
+  public CustomerLocationDataLoader() {
+    this.cache = null;
+  }
+
+  /**
+   * Creates a loader that keeps customer data loaded from http urls in the given directory. Later
+   * loads of the same url only download the data again if the server reports it has changed, and
+   * if it hasn't, reopen a snapshot of the customers parsed from it rather than parsing it again.
+   *
+   * @param cacheDirectory the directory in which to keep downloaded customer data
+   */
+  public CustomerLocationDataLoader(Path cacheDirectory) {
+    if (cacheDirectory == null) {
+      throw new IllegalArgumentException("Customer data loader requires a valid cache directory");
+    }
+    this.cache = new HttpCustomerDataCache(cacheDirectory);
+  }
+
   /**
    * Reads location information from the given url and parses it into
    * CustomerLocation objects. Expects one full json location representation per
@@ -33,9 +76,11 @@ public class CustomerLocationDataLoader {
    * @throws IOException if there is an error reading data from the url
    */
   public List<CustomerLocation> loadCustomerLocationDetails(URL customerLocationDetailsUrl) throws IOException {
-    URLConnection con = customerLocationDetailsUrl.openConnection();
-    con.setConnectTimeout(3000);
-    try (InputStream in = con.getInputStream()) {
+    if (isCached(customerLocationDetailsUrl)) {
+      return toList(loadCustomerLocationStore(customerLocationDetailsUrl));
+    }
+    URLConnection con = HttpCustomerDataCache.openConnection(customerLocationDetailsUrl);
+    try (InputStream in = HttpCustomerDataCache.bodyOf(con)) {
       return loadCustomerLocationDetails(in);
     } catch (IOException e) {
       throw new IOException("Could not load customer location details from '" + customerLocationDetailsUrl + "'", e);
@@ -57,24 +102,393 @@ public class CustomerLocationDataLoader {
       return Collections.EMPTY_LIST;
     }
 
+    long start = System.nanoTime();
     ObjectMapper mapper = new ObjectMapper();
+    RejectedRecords rejected = newRejectedRecords();
+    CountingInputStream counted = new CountingInputStream(customerJsonStream);
+    long[] lines = new long[1];
 
-    try (InputStreamReader reader = new InputStreamReader(customerJsonStream)) {
-      return new BufferedReader(reader).lines()
-          .map(json -> parseObject(json, mapper))
+    try (InputStreamReader reader = new InputStreamReader(counted, StandardCharsets.UTF_8)) {
+      List<CustomerLocation> customers = new BufferedReader(reader).lines()
+          .peek(json -> lines[0]++)
+          .map(json -> parseObject(json, mapper, rejected))
           .filter(location -> location != null)
           .collect(Collectors.toList());
+      metrics.recordLoad(lines[0], counted.count, customers.size(), rejected.getParseFailures(),
+          rejected.getValidationFailures(), System.nanoTime() - start);
+      return customers;
+    } finally {
+      rejected.logSummary();
+    }
+  }
+
+  /**
+   * Counts the bytes read through it
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = super.read();
+      if (read >= 0) {
+        count++;
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int read = super.read(bytes, offset, length);
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+
+  /**
+   * Reads location information from the given url and parses it directly into a columnar
+   * <code>CustomerLocationStore</code>. Malformed lines are ignored as with
+   * {@link #loadCustomerLocationDetails(URL)}.
+   *
+   * @param customerLocationDetailsUrl the url of the json file containing the customer information.
+   * @return CustomerLocationStore a store of the customers parsed from the contents of the URL.
+   * @throws IOException if there is an error reading data from the url
+   */
+  public CustomerLocationStore loadCustomerLocationStore(URL customerLocationDetailsUrl) throws IOException {
+    try {
+      if (isCached(customerLocationDetailsUrl)) {
+        return loadCachedCustomerLocationStore(customerLocationDetailsUrl);
+      }
+      URLConnection con = HttpCustomerDataCache.openConnection(customerLocationDetailsUrl);
+      try (InputStream in = HttpCustomerDataCache.bodyOf(con)) {
+        return loadCustomerLocationStore(in);
+      }
+    } catch (IOException e) {
+      throw new IOException("Could not load customer location details from '" + customerLocationDetailsUrl + "'", e);
+    }
+  }
+
+  private boolean isCached(URL customerLocationDetailsUrl) {
+    String protocol = customerLocationDetailsUrl.getProtocol();
+    return cache != null && ("http".equals(protocol) || "https".equals(protocol));
+  }
+
+  private CustomerLocationStore loadCachedCustomerLocationStore(URL customerLocationDetailsUrl) throws IOException {
+    HttpCustomerDataCache.CachedBody body = cache.fetch(customerLocationDetailsUrl);
+    if (!body.modified && Files.exists(body.snapshotFile)) {
+      try {
+        long start = System.nanoTime();
+        CustomerLocationSnapshot snapshot = CustomerLocationSnapshot.open(body.snapshotFile);
+        if (body.version.equals(snapshot.getSource())) {
+          snapshot.verify();
+          CustomerLocationStore store = snapshot.getStore();
+          recordSnapshotLoad(body.snapshotFile, snapshot, start);
+          return store;
+        }
+      } catch (IOException e) {
+        log.warn("Could not open customer snapshot '{}', parsing cached customers. {}", body.snapshotFile, e.getMessage());
+      }
+    }
+
+    CustomerLocationStore store = loadCustomerLocationStore(body.file);
+    if (body.version != null) {
+      try {
+        CustomerLocationSnapshot.write(body.snapshotFile, store, body.version);
+      } catch (IOException e) {
+        log.warn("Could not write customer snapshot '{}'. {}", body.snapshotFile, e.getMessage());
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Loads location information from the given url into a columnar
+   * <code>CustomerLocationStore</code>, reopening a binary snapshot of it when one is available,
+   * as with {@link #loadCustomerLocationSnapshot(URL, Path)}.
+   *
+   * @param customerLocationDetailsUrl the url of the json file containing the customer information.
+   * @param snapshotFile the file in which a snapshot of the customers is kept.
+   * @return CustomerLocationStore a store of the customers from the snapshot or the contents of the URL.
+   * @throws IOException if the snapshot can't be used and there is an error reading data from the url
+   */
+  public CustomerLocationStore loadCustomerLocationStore(URL customerLocationDetailsUrl, Path snapshotFile) throws IOException {
+    return loadCustomerLocationSnapshot(customerLocationDetailsUrl, snapshotFile).getStore();
+  }
+
+  /**
+   * Loads location information from the given url into a columnar
+   * <code>CustomerLocationStore</code> and a <code>GridSpatialIndex</code> over it, reopening a
+   * binary snapshot of both when one is available. If the snapshot file is missing, unreadable,
+   * fails its checksum, has no index or was taken from a different source the json is loaded
+   * from the url instead
+   * and a fresh snapshot written for next time. For file urls the size and modification time of
+   * the file form part of the source, so editing the file makes its snapshot stale. For http
+   * urls the <code>ETag</code> and <code>Last-Modified</code> validators the server reports for
+   * the url do, if the server sends neither the snapshot is never used.
+   *
+   * @param customerLocationDetailsUrl the url of the json file containing the customer information.
+   * @param snapshotFile the file in which a snapshot of the customers is kept.
+   * @return CustomerLocationSnapshot the customers and an index over them, from the snapshot or the contents of the URL.
+   * @throws IOException if the snapshot can't be used and there is an error reading data from the url
+   */
+  public CustomerLocationSnapshot loadCustomerLocationSnapshot(URL customerLocationDetailsUrl, Path snapshotFile) throws IOException {
+    String source = describeSource(customerLocationDetailsUrl);
+    if (source != null && Files.exists(snapshotFile)) {
+      try {
+        long start = System.nanoTime();
+        CustomerLocationSnapshot snapshot = CustomerLocationSnapshot.open(snapshotFile);
+        if (source.equals(snapshot.getSource()) && snapshot.hasIndex()) {
+          // a file damaged in place still opens, only its checksum gives it away
+          snapshot.verify();
+          recordSnapshotLoad(snapshotFile, snapshot, start);
+          return snapshot;
+        }
+        log.info("Customer snapshot '{}' is stale, reloading from '{}'", snapshotFile, customerLocationDetailsUrl);
+      } catch (IOException e) {
+        log.warn("Could not open customer snapshot '{}', reloading from '{}'. {}", snapshotFile, customerLocationDetailsUrl, e.getMessage());
+      }
+    }
+
+    CustomerLocationStore store = loadCustomerLocationStore(customerLocationDetailsUrl);
+    GridSpatialIndex index = new GridSpatialIndex(store);
+    if (source != null) {
+      try {
+        CustomerLocationSnapshot.write(snapshotFile, store, index, source);
+      } catch (IOException e) {
+        log.warn("Could not write customer snapshot '{}'. {}", snapshotFile, e.getMessage());
+      }
+    }
+    return CustomerLocationSnapshot.of(store, index, source);
+  }
+
+  private void recordSnapshotLoad(Path snapshotFile, CustomerLocationSnapshot snapshot, long start) throws IOException {
+    // nothing is parsed, so no lines are read and none rejected
+    metrics.recordLoad(0, Files.size(snapshotFile), snapshot.size(), 0, 0, System.nanoTime() - start);
+  }
+
+  private String describeSource(URL customerLocationDetailsUrl) {
+    String protocol = customerLocationDetailsUrl.getProtocol();
+    if ("file".equals(protocol)) {
+      try {
+        Path file = Paths.get(customerLocationDetailsUrl.toURI());
+        return customerLocationDetailsUrl + " " + Files.size(file) + " " + Files.getLastModifiedTime(file).toMillis();
+      } catch (URISyntaxException | IOException e) {
+        // fall back to the url alone, loading the file will report any problem
+      }
+    } else if ("http".equals(protocol) || "https".equals(protocol)) {
+      try {
+        String version = HttpCustomerDataCache.versionOf(customerLocationDetailsUrl);
+        return version == null ? null : customerLocationDetailsUrl + " " + version;
+      } catch (IOException e) {
+        // without the validators the snapshot can't be trusted, loading the url will report any problem
+        return null;
+      }
+    }
+    return customerLocationDetailsUrl.toString();
+  }
+
+  /**
+   * Reads location information from the given <code>InputStream</code> and parses it directly
+   * into a columnar <code>CustomerLocationStore</code>. Parsed customers are appended to the
+   * store as each line is read so no intermediate customer objects are created.
+   *
+   * @param customerJsonStream inputStream from which to read the customer information in json.
+   * @return CustomerLocationStore a store of the customers parsed from the contents of the stream.
+   * @throws IOException if there is an error reading data from the stream
+   */
+  protected CustomerLocationStore loadCustomerLocationStore(InputStream customerJsonStream) throws IOException {
+    CustomerLocationStore store = new CustomerLocationStore();
+    loadCustomerLocationDetails(customerJsonStream, store::add);
+    return store;
+  }
+
+  /**
+   * Loads location information from the given local file into a columnar
+   * <code>CustomerLocationStore</code>, parsing the file in parallel on every available core.
+   * The file is memory mapped and cut into chunks at line boundaries which are parsed
+   * concurrently and merged in file order. Malformed lines are ignored.
+   *
+   * @param customerFile the path of the json file containing the customer information.
+   * @return CustomerLocationStore a store of the customers parsed from the file.
+   * @throws IOException if there is an error reading the file
+   */
+  public CustomerLocationStore loadCustomerLocationStore(Path customerFile) throws IOException {
+    return loadCustomerLocationStore(customerFile, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Loads location information from the given local file into a columnar
+   * <code>CustomerLocationStore</code> using the given number of threads.
+   *
+   * @param customerFile the path of the json file containing the customer information.
+   * @param parallelism the number of threads to parse the file with.
+   * @return CustomerLocationStore a store of the customers parsed from the file.
+   * @throws IOException if there is an error reading the file
+   */
+  public CustomerLocationStore loadCustomerLocationStore(Path customerFile, int parallelism) throws IOException {
+    return loadCustomerLocationStore(customerFile, parallelism, MappedCustomerFileLoader.DEFAULT_CHUNK_SIZE);
+  }
+
+  CustomerLocationStore loadCustomerLocationStore(Path customerFile, int parallelism, int chunkSize) throws IOException {
+    try {
+      long start = System.nanoTime();
+      RejectedRecords rejected = newRejectedRecords();
+      MappedCustomerFileLoader loader = new MappedCustomerFileLoader(parallelism, chunkSize, rejected);
+      CustomerLocationStore store = loader.load(customerFile);
+      rejected.logSummary();
+      metrics.recordLoad(loader.getLines(), Files.size(customerFile), store.size(), rejected.getParseFailures(),
+          rejected.getValidationFailures(), System.nanoTime() - start);
+      return store;
+    } catch (IOException e) {
+      throw new IOException("Could not load customer location details from '" + customerFile + "'", e);
     }
   }
 
-  private CustomerLocation parseObject(String line, ObjectMapper mapper) {
+  /**
+   * Loads location information from the given local file in parallel, as with
+   * {@link #loadCustomerLocationStore(Path)}, and returns the customers as a list.
+   *
+   * @param customerFile the path of the json file containing the customer information.
+   * @return List<CustomerLocation> a list of the CustomerLocations parsed from the file.
+   * @throws IOException if there is an error reading the file
+   */
+  public List<CustomerLocation> loadCustomerLocationDetails(Path customerFile) throws IOException {
+    return toList(loadCustomerLocationStore(customerFile));
+  }
+
+  private List<CustomerLocation> toList(CustomerLocationStore store) {
+    List<CustomerLocation> customers = new ArrayList<>(store.size());
+    for (int i = 0; i < store.size(); i++) {
+      customers.add(store.get(i));
+    }
+    return customers;
+  }
+
+  /**
+   * Reads location information from the given <code>InputStream</code> in constant memory,
+   * pushing each valid customer to the given consumer as soon as its line has been parsed.
+   * Lines are parsed from the raw bytes with a streaming json parser and malformed or incomplete
+   * lines are skipped and reported to the rejected record sink. The stream is closed once it has
+   * been read.
+   *
+   * @param customerJsonStream inputStream from which to read the customer information in json.
+   * @param consumer receives each customer parsed from the stream
+   * @return long the number of customers passed to the consumer
+   * @throws IOException if there is an error reading data from the stream
+   */
+  public long loadCustomerLocationDetails(InputStream customerJsonStream, CustomerLocationConsumer consumer) throws IOException {
+    long start = System.nanoTime();
+    RejectedRecords rejected = newRejectedRecords();
+    try (CustomerLocationReader reader = new CustomerLocationReader(customerJsonStream, rejected)) {
+      long customers = reader.readAll(consumer);
+      metrics.recordLoad(reader.getLinesRead(), reader.getBytesRead(), customers, rejected.getParseFailures(),
+          rejected.getValidationFailures(), System.nanoTime() - start);
+      return customers;
+    } finally {
+      rejected.logSummary();
+    }
+  }
+
+  /**
+   * Sets the metrics that each load is reported to. Every load is measured, the number of lines
+   * and bytes read, the lines rejected and the time taken are recorded once the load completes,
+   * or for streams once the stream is closed. Loads served from a snapshot record the size of
+   * the snapshot and no lines.
+   *
+   * @param metrics the metrics to record loads with, <code>ProximityMetrics.NONE</code> to record nothing
+   */
+  public void setMetrics(ProximityMetrics metrics) {
+    if (metrics == null) {
+      throw new IllegalArgumentException("Customer data loader requires valid metrics");
+    }
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sets the sink that lines rejected while loading are passed to, along with the reason each
+   * was rejected. Only the first lines of each load up to the given capacity are passed on,
+   * later rejects are counted and summarized in the log but not kept. By default rejected lines
+   * are only logged.
+   *
+   * @param sink receives the lines rejected by each load, <code>RejectedRecordSink.NONE</code> to keep nothing
+   * @param capacity the most rejected lines of each load to pass to the sink
+   */
+  public void setRejectedRecordSink(RejectedRecordSink sink, long capacity) {
+    if (sink == null) {
+      throw new IllegalArgumentException("Customer data loader requires a valid rejected record sink");
+    }
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Customer data loader requires a non negative rejected record capacity");
+    }
+    this.rejectedRecordSink = sink;
+    this.rejectedRecordCapacity = capacity;
+  }
+
+  private RejectedRecords newRejectedRecords() {
+    return new RejectedRecords(rejectedRecordSink, rejectedRecordCapacity);
+  }
+
+  /**
+   * Lazily reads location information from the given <code>InputStream</code> as a sequential
+   * <code>Stream</code> of customers, parsing each line only as the stream is consumed. The
+   * returned stream should be closed to close the underlying input, errors reading the input
+   * are thrown as <code>UncheckedIOException</code>s.
+   *
+   * @param customerJsonStream inputStream from which to read the customer information in json.
+   * @return Stream<CustomerLocation> a stream of the customers parsed from the contents of the stream.
+   */
+  public Stream<CustomerLocation> streamCustomerLocationDetails(InputStream customerJsonStream) {
+    long start = System.nanoTime();
+    RejectedRecords rejected = newRejectedRecords();
+    CustomerLocationReader reader = new CustomerLocationReader(customerJsonStream, rejected);
+    Spliterator<CustomerLocation> customers = Spliterators.spliteratorUnknownSize(reader.iterator(),
+        Spliterator.ORDERED | Spliterator.NONNULL);
+    long[] loaded = new long[1];
+    return StreamSupport.stream(customers, false).peek(customer -> loaded[0]++).onClose(() -> {
+      metrics.recordLoad(reader.getLinesRead(), reader.getBytesRead(), loaded[0], rejected.getParseFailures(),
+          rejected.getValidationFailures(), System.nanoTime() - start);
+      rejected.logSummary();
+      try {
+        reader.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  private CustomerLocation parseObject(String line, ObjectMapper mapper, RejectedRecords rejected) {
+    if (line.trim().isEmpty()) {
+      return null;
+    }
+    RecordStatus status;
     try {
       CustomerLocation customer = mapper.readValue(line, CustomerLocation.class);
-      customer.validate();
-      return customer;
+      status = customer.check();
+      if (status == RecordStatus.VALID) {
+        return customer;
+      }
+    } catch (UnrecognizedPropertyException e) {
+      status = RecordStatus.UNRECOGNIZED_FIELD;
+    } catch (JsonParseException e) {
+      status = RecordStatus.MALFORMED_JSON;
     } catch (IOException e) {
-      log.error("Error parsing customer info '" + line + "', " + e.getMessage());
+      status = line.trim().startsWith("{") ? RecordStatus.INVALID_VALUE : RecordStatus.NOT_AN_OBJECT;
     }
+    rejected.reject(status, line);
     return null;
   }
 
@@ -0,0 +1,232 @@
+package io.intercom.problems.proximity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <code>CustomerLocationReader</code> reads customer json, one record per line, from a byte
+ * stream in constant memory. Lines are located directly in a reusable byte buffer and each is
+ * handed to a <code>CustomerRecordParser</code>, so neither the decoded text of the stream nor
+ * the customers parsed from it are retained. The buffer only grows to fit the longest line.
+ * <p>
+ * Malformed or incomplete lines are skipped and tallied by <code>RejectedRecords</code>, which
+ * logs them and can keep them for later inspection. Readers are not thread safe.
+ */
+public class CustomerLocationReader implements Closeable {
+
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final InputStream in;
+
+  private final CustomerRecordParser parser;
+
+  private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+
+  private int position;
+
+  private int limit;
+
+  private int scanned;
+
+  private boolean exhausted;
+
+  private long linesRead;
+
+  private long bytesRead;
+
+  /**
+   * Creates a reader over the given stream of customer json. A null stream is treated as empty.
+   *
+   * @param customerJsonStream the stream from which to read customer json
+   */
+  public CustomerLocationReader(InputStream customerJsonStream) {
+    this(customerJsonStream, new RejectedRecords());
+  }
+
+  /**
+   * Creates a reader over the given stream of customer json that reports the lines it rejects
+   * to the given tally. A null stream is treated as empty.
+   *
+   * @param customerJsonStream the stream from which to read customer json
+   * @param rejected receives the lines rejected as malformed or incomplete
+   */
+  public CustomerLocationReader(InputStream customerJsonStream, RejectedRecords rejected) {
+    if (rejected == null) {
+      throw new IllegalArgumentException("Customer location reader requires valid rejected records");
+    }
+    this.parser = new CustomerRecordParser(rejected);
+    this.in = customerJsonStream;
+    this.exhausted = customerJsonStream == null;
+  }
+
+  /**
+   * Reads lines until one contains a valid customer, which is passed to the consumer.
+   *
+   * @param consumer receives the next valid customer in the stream
+   * @return true if a customer was read, false if the end of the stream was reached
+   * @throws IOException if there is an error reading from the stream
+   */
+  public boolean readNext(CustomerLocationConsumer consumer) throws IOException {
+    while (true) {
+      int newline = indexOfNewline();
+      while (newline < 0 && !exhausted) {
+        fill();
+        newline = indexOfNewline();
+      }
+      if (newline < 0 && position == limit) {
+        return false;
+      }
+
+      int end = newline < 0 ? limit : newline;
+      int start = position;
+      position = newline < 0 ? limit : newline + 1;
+      scanned = position;
+      linesRead++;
+      if (parser.parse(buffer, start, end - start, consumer)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Reads every remaining valid customer in the stream, passing each to the consumer
+   *
+   * @param consumer receives each valid customer in the stream
+   * @return long the number of customers read
+   * @throws IOException if there is an error reading from the stream
+   */
+  public long readAll(CustomerLocationConsumer consumer) throws IOException {
+    long count = 0;
+    while (readNext(consumer)) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Creates a lazy iterator over the remaining customers in the stream. Each customer is
+   * materialized as a <code>CustomerLocation</code>, errors reading the stream are thrown as
+   * <code>UncheckedIOException</code>s.
+   *
+   * @return Iterator<CustomerLocation> an iterator over the remaining customers
+   */
+  public Iterator<CustomerLocation> iterator() {
+    return new Iterator<CustomerLocation>() {
+
+      private CustomerLocation next;
+
+      @Override
+      public boolean hasNext() {
+        if (next == null) {
+          try {
+            readNext((userId, name, latitude, longitude) -> next = new CustomerLocation(userId, name, latitude, longitude));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return next != null;
+      }
+
+      @Override
+      public CustomerLocation next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        CustomerLocation customer = next;
+        next = null;
+        return customer;
+      }
+    };
+  }
+
+  /**
+   * Retrieve the number of lines read so far, including malformed and blank lines
+   *
+   * @return long the number of lines read
+   */
+  public long getLinesRead() {
+    return linesRead;
+  }
+
+  /**
+   * Retrieve the number of bytes read from the stream so far
+   *
+   * @return long the number of bytes read
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * Retrieve the number of lines skipped so far because they were not valid json or held
+   * invalid values
+   *
+   * @return long the number of malformed lines
+   */
+  public long getParseFailures() {
+    return parser.getRejected().getParseFailures();
+  }
+
+  /**
+   * Retrieve the number of lines skipped so far because they were missing a required field
+   *
+   * @return long the number of incomplete lines
+   */
+  public long getValidationFailures() {
+    return parser.getRejected().getValidationFailures();
+  }
+
+  /**
+   * Retrieve the tally of lines this reader has rejected, by reason
+   *
+   * @return RejectedRecords the lines rejected so far
+   */
+  public RejectedRecords getRejected() {
+    return parser.getRejected();
+  }
+
+  private int indexOfNewline() {
+    // only scan bytes that arrived since the last search for the end of this line
+    for (int i = scanned; i < limit; i++) {
+      if (buffer[i] == '\n') {
+        return i;
+      }
+    }
+    scanned = limit;
+    return -1;
+  }
+
+  private void fill() throws IOException {
+    if (position > 0) {
+      // shift the partial line to the front of the buffer
+      System.arraycopy(buffer, position, buffer, 0, limit - position);
+      limit -= position;
+      scanned -= position;
+      position = 0;
+    }
+    if (limit == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length << 1);
+    }
+    int read = in.read(buffer, limit, buffer.length - limit);
+    if (read < 0) {
+      exhausted = true;
+    } else if (read == 0) {
+      throw new IOException("Underlying input stream returned zero bytes");
+    } else {
+      limit += read;
+      bytesRead += read;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (in != null) {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package io.intercom.problems.proximity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <code>CustomerLocationSnapshot</code> is a compact binary image of a
+ * <code>CustomerLocationStore</code>, and optionally a <code>GridSpatialIndex</code> over it,
+ * that can be reopened far faster than the json it was loaded from. The file is a fixed size
+ * header followed by the store's fixed width columns, a string table holding every name and the
+ * grid's cells. Opening a snapshot memory maps the file and reads only its header and source,
+ * the columns are bulk copied out of the mapping the first time the store is asked for and the
+ * index the first time it is asked for, nothing is parsed, names are decoded only when read and
+ * the index needn't be rebuilt. A
+ * stale snapshot is found out without reading any customers.
+ * <p>
+ * Snapshots record the source they were taken from so callers can tell when one is stale, and
+ * carry a checksum of their contents. Opening a file checks its layout so a truncated or foreign
+ * file is rejected, the checksum is compared by {@link #verify()} as doing so reads every byte
+ * of the file, which <code>CustomerLocationDataLoader</code> does before trusting a snapshot
+ * that isn't stale. Files are little endian and limited to 2GB.
+ */
+public final class CustomerLocationSnapshot {
+
+  static final int MAGIC = 0x4E534C43; // "CLSN"
+
+  static final int VERSION = 1;
+
+  static final int HEADER_SIZE = 32;
+
+  private static final int FLAG_GRID_INDEX = 1;
+
+  private final Path file;
+
+  // the mapped file, or null for a snapshot held in memory
+  private final ByteBuffer buffer;
+
+  private final String source;
+
+  private final int flags;
+
+  private final int count;
+
+  private final long checksum;
+
+  private final int columnsOffset;
+
+  private final int indexOffset;
+
+  private CustomerLocationStore store;
+
+  private GridSpatialIndex index;
+
+  private CustomerLocationSnapshot(Path file, ByteBuffer buffer, String source, int flags, int count, long checksum,
+                                   int columnsOffset, int indexOffset) {
+    this.file = file;
+    this.buffer = buffer;
+    this.source = source;
+    this.flags = flags;
+    this.count = count;
+    this.checksum = checksum;
+    this.columnsOffset = columnsOffset;
+    this.indexOffset = indexOffset;
+  }
+
+  private CustomerLocationSnapshot(CustomerLocationStore store, GridSpatialIndex index, String source) {
+    this(null, null, source, index != null ? FLAG_GRID_INDEX : 0, store.size(), 0, 0, 0);
+    this.store = store;
+    this.index = index;
+  }
+
+  /**
+   * Creates a snapshot held in memory of the given store and index, e.g. of customers just
+   * loaded from their source, without writing it
+   */
+  static CustomerLocationSnapshot of(CustomerLocationStore store, GridSpatialIndex index, String source) {
+    return new CustomerLocationSnapshot(store, index, source);
+  }
+
+  /**
+   * Writes a snapshot of the given store to a file, replacing any existing snapshot atomically
+   *
+   * @param snapshotFile the file to write the snapshot to
+   * @param store the customers to write
+   * @param source a description of where the customers were loaded from, used to detect stale snapshots
+   * @throws IOException if there is an error writing the file
+   */
+  public static void write(Path snapshotFile, CustomerLocationStore store, String source) throws IOException {
+    write(snapshotFile, store, null, source);
+  }
+
+  /**
+   * Writes a snapshot of the given store and a grid index over it to a file, replacing any
+   * existing snapshot atomically
+   *
+   * @param snapshotFile the file to write the snapshot to
+   * @param store the customers to write
+   * @param index a grid index over the store to write, or null to write only the store
+   * @param source a description of where the customers were loaded from, used to detect stale snapshots
+   * @throws IOException if there is an error writing the file
+   */
+  public static void write(Path snapshotFile, CustomerLocationStore store, GridSpatialIndex index, String source) throws IOException {
+    if (snapshotFile == null || store == null || source == null) {
+      throw new IllegalArgumentException("Customer snapshot requires a valid file, store and source");
+    }
+    if (index != null && index.getStore() != store) {
+      throw new IllegalArgumentException("Customer snapshot can only include an index over the store being written");
+    }
+
+    int count = store.size();
+    byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+    String[] names = store.nameColumn();
+    byte[][] nameBytes = new byte[count][];
+    long nameTableSize = 0;
+    for (int i = 0; i < count; i++) {
+      nameBytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+      nameTableSize += nameBytes[i].length;
+    }
+
+    long size = HEADER_SIZE + 4L + sourceBytes.length + 4L * count + 16L * count + 4L * (count + 1) + nameTableSize;
+    if (index != null) {
+      size += 8 + 12 + 4L * (index.cellOffsets().length + index.cellEntries().length + index.unplaced().length);
+    }
+    if (size > Integer.MAX_VALUE || nameTableSize > Integer.MAX_VALUE) {
+      throw new IOException("Customer store is too large for a single snapshot file");
+    }
+
+    Path parent = snapshotFile.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temporary = Files.createTempFile(parent, snapshotFile.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.position(HEADER_SIZE);
+        buffer.putInt(sourceBytes.length).put(sourceBytes);
+        buffer.asIntBuffer().put(store.userIdColumn(), 0, count);
+        buffer.position(buffer.position() + 4 * count);
+        buffer.asDoubleBuffer().put(store.latitudeColumn(), 0, count);
+        buffer.position(buffer.position() + 8 * count);
+        buffer.asDoubleBuffer().put(store.longitudeColumn(), 0, count);
+        buffer.position(buffer.position() + 8 * count);
+        int nameOffset = 0;
+        buffer.putInt(nameOffset);
+        for (byte[] name : nameBytes) {
+          nameOffset += name.length;
+          buffer.putInt(nameOffset);
+        }
+        for (byte[] name : nameBytes) {
+          buffer.put(name);
+        }
+        if (index != null) {
+          buffer.putDouble(index.getCellSize());
+          putInts(buffer, index.cellOffsets());
+          putInts(buffer, index.cellEntries());
+          putInts(buffer, index.unplaced());
+        }
+
+        buffer.position(0);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(index != null ? FLAG_GRID_INDEX : 0).putInt(count);
+        buffer.putLong(checksum(buffer, (int) size)).putLong(size - HEADER_SIZE);
+        buffer.force();
+      }
+      Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Opens a previously written snapshot, memory mapping the file and checking its layout. The
+   * store, and any index written with it, are restored from the mapping when first asked for.
+   *
+   * @param snapshotFile the snapshot file to open
+   * @return CustomerLocationSnapshot the snapshot held by the file
+   * @throws IOException if there is an error reading the file or it is not a valid snapshot
+   */
+  public static CustomerLocationSnapshot open(Path snapshotFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        throw new IOException("Customer snapshot '" + snapshotFile + "' has an invalid size of " + size + " bytes");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+      if (buffer.getInt() != MAGIC) {
+        throw new IOException("'" + snapshotFile + "' is not a customer snapshot");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Customer snapshot '" + snapshotFile + "' has unsupported version " + version);
+      }
+      int flags = buffer.getInt();
+      int count = buffer.getInt();
+      long checksum = buffer.getLong();
+      long bodySize = buffer.getLong();
+      if (bodySize != size - HEADER_SIZE || count < 0) {
+        throw new IOException("Customer snapshot '" + snapshotFile + "' is truncated or corrupt");
+      }
+
+      try {
+        buffer.position(HEADER_SIZE);
+        String source = getString(buffer, buffer.getInt());
+        int columnsOffset = buffer.position();
+        // the last name offset is the size of the name table, the index or the end of the file follow it
+        buffer.position(columnsOffset + 20 * count + 4 * count);
+        long indexOffset = buffer.position() + 4L + buffer.getInt();
+        if (indexOffset > size || ((flags & FLAG_GRID_INDEX) == 0 && indexOffset != size)) {
+          throw new IOException("Customer snapshot '" + snapshotFile + "' is truncated or corrupt");
+        }
+        return new CustomerLocationSnapshot(snapshotFile, buffer, source, flags, count, checksum, columnsOffset, (int) indexOffset);
+      } catch (RuntimeException e) {
+        throw new IOException("Customer snapshot '" + snapshotFile + "' is truncated or corrupt", e);
+      }
+    }
+  }
+
+  /**
+   * Checks the snapshot's contents against the checksum written with them. Reads the whole
+   * file, so is left to callers that need to rule out a file corrupted in place.
+   *
+   * @throws IOException if the contents don't match the checksum
+   */
+  public void verify() throws IOException {
+    if (buffer != null && checksum(buffer, buffer.capacity()) != checksum) {
+      throw new IOException("Customer snapshot '" + file + "' is corrupt");
+    }
+  }
+
+  private static long checksum(ByteBuffer buffer, int size) {
+    ByteBuffer body = buffer.duplicate();
+    body.position(HEADER_SIZE).limit(size);
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    return crc.getValue();
+  }
+
+  private static void putInts(ByteBuffer buffer, int[] values) {
+    buffer.putInt(values.length);
+    buffer.asIntBuffer().put(values);
+    buffer.position(buffer.position() + 4 * values.length);
+  }
+
+  private static int[] getInts(ByteBuffer buffer, int count) {
+    int[] values = new int[count];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + 4 * count);
+    return values;
+  }
+
+  private static double[] getDoubles(ByteBuffer buffer, int count) {
+    double[] values = new double[count];
+    buffer.asDoubleBuffer().get(values);
+    buffer.position(buffer.position() + 8 * count);
+    return values;
+  }
+
+  private static String getString(ByteBuffer buffer, int length) {
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Retrieve the number of customers held in the snapshot, without restoring them
+   *
+   * @return int the number of customers written
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Retrieve whether a grid index was written with the snapshot, without restoring it
+   *
+   * @return boolean true if {@link #getIndex()} will return an index
+   */
+  public boolean hasIndex() {
+    return (flags & FLAG_GRID_INDEX) != 0;
+  }
+
+  /**
+   * Retrieve the customers held in the snapshot, copying their columns out of the file on first
+   * use. Names are kept as the file's utf-8 table and only decoded when read.
+   *
+   * @return CustomerLocationStore the restored store
+   * @throws IOException if the snapshot's contents are inconsistent
+   */
+  public synchronized CustomerLocationStore getStore() throws IOException {
+    if (store == null) {
+      try {
+        ByteBuffer columns = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        columns.position(columnsOffset);
+        int[] userIds = getInts(columns, count);
+        double[] latitudes = getDoubles(columns, count);
+        double[] longitudes = getDoubles(columns, count);
+        int[] nameOffsets = getInts(columns, count + 1);
+        byte[] nameTable = new byte[nameOffsets[count]];
+        columns.get(nameTable);
+        store = new CustomerLocationStore(userIds, nameTable, nameOffsets, latitudes, longitudes, count);
+      } catch (RuntimeException e) {
+        // a well formed header over inconsistent contents means the snapshot was written badly
+        throw new IOException("Customer snapshot '" + file + "' is corrupt", e);
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Retrieve the grid index written with the snapshot, if any, restoring it and the store it is
+   * over on first use
+   *
+   * @return GridSpatialIndex the restored index over the store, or null if none was written
+   * @throws IOException if the snapshot's contents are inconsistent
+   */
+  public synchronized GridSpatialIndex getIndex() throws IOException {
+    if (index == null && hasIndex()) {
+      CustomerLocationStore store = getStore();
+      try {
+        ByteBuffer cells = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        cells.position(indexOffset);
+        double cellSize = cells.getDouble();
+        int[] cellOffsets = getInts(cells, cells.getInt());
+        int[] cellEntries = getInts(cells, cells.getInt());
+        int[] unplaced = getInts(cells, cells.getInt());
+        index = new GridSpatialIndex(store, cellSize, cellOffsets, cellEntries, unplaced);
+      } catch (RuntimeException e) {
+        throw new IOException("Customer snapshot '" + file + "' is corrupt", e);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Retrieve the description of where the snapshot's customers were loaded from
+   *
+   * @return String the source recorded when the snapshot was written
+   */
+  public String getSource() {
+    return source;
+  }
+}
@@ -0,0 +1,268 @@
+package io.intercom.problems.proximity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * <code>CustomerLocationStore</code> is a columnar, struct-of-arrays alternative to holding
+ * customers as a <code>List</code> of <code>CustomerLocation</code>s. Ids and coordinates are
+ * kept in parallel primitive arrays and names in a separate table so that scanning the
+ * population touches only the columns it needs and allocates nothing per customer.
+ * <p>
+ * Stores are append only and are not thread safe while being filled; once loaded they can be
+ * shared freely between readers.
+ */
+public class CustomerLocationStore {
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private int[] userIds;
+
+  private double[] latitudes;
+
+  private double[] longitudes;
+
+  private String[] names;
+
+  // utf-8 names of a restored store, decoded into names on first use, or null
+  private byte[] nameTable;
+
+  private int[] nameOffsets;
+
+  private int size;
+
+  /**
+   * Creates a new empty store with a small default capacity
+   */
+  public CustomerLocationStore() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a new empty store sized to hold the given number of customers before growing
+   *
+   * @param initialCapacity the number of customers the store can hold before it needs to grow
+   */
+  public CustomerLocationStore(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("Customer store capacity cannot be negative");
+    }
+    userIds = new int[initialCapacity];
+    latitudes = new double[initialCapacity];
+    longitudes = new double[initialCapacity];
+    names = new String[initialCapacity];
+  }
+
+  /**
+   * Creates a store over the given columns, which are adopted rather than copied. Used to
+   * restore a store without appending its customers one at a time.
+   */
+  CustomerLocationStore(int[] userIds, String[] names, double[] latitudes, double[] longitudes, int size) {
+    if (size < 0 || size > userIds.length || size > names.length || size > latitudes.length || size > longitudes.length) {
+      throw new IllegalArgumentException("Customer store columns are shorter than its size");
+    }
+    this.userIds = userIds;
+    this.names = names;
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.size = size;
+  }
+
+  /**
+   * Creates a store over the given columns with names held as a utf-8 table, where name
+   * <code>i</code> is the bytes from <code>nameOffsets[i]</code> to <code>nameOffsets[i + 1]</code>.
+   * Names are only decoded when first read, so restoring a store allocates nothing per customer.
+   */
+  CustomerLocationStore(int[] userIds, byte[] nameTable, int[] nameOffsets, double[] latitudes, double[] longitudes, int size) {
+    this(userIds, new String[size], latitudes, longitudes, size);
+    if (nameOffsets.length <= size || nameOffsets[0] != 0 || nameOffsets[size] > nameTable.length) {
+      throw new IllegalArgumentException("Customer store name table is shorter than its size");
+    }
+    for (int i = 0; i < size; i++) {
+      if (nameOffsets[i] > nameOffsets[i + 1]) {
+        throw new IllegalArgumentException("Customer store name offsets must be ascending");
+      }
+    }
+    this.nameTable = nameTable;
+    this.nameOffsets = nameOffsets;
+  }
+
+  /**
+   * Creates a store containing the given customers in iteration order
+   *
+   * @param customerLocations the customers to copy into the store
+   * @return CustomerLocationStore a new store holding the given customers
+   */
+  public static CustomerLocationStore from(Collection<CustomerLocation> customerLocations) {
+    if (customerLocations == null) {
+      throw new IllegalArgumentException("Customer store requires a valid collection of customer locations");
+    }
+    CustomerLocationStore store = new CustomerLocationStore(customerLocations.size());
+    customerLocations.forEach(store::add);
+    return store;
+  }
+
+  /**
+   * Appends the given customer to the store. The customer is validated before being added.
+   *
+   * @param customer the customer to add
+   * @return int the index at which the customer was stored
+   */
+  public int add(CustomerLocation customer) {
+    customer.validate();
+    return add(customer.getUserId(), customer.getName(), customer.getLatitude(), customer.getLongitude());
+  }
+
+  /**
+   * Appends a customer with the given details to the store.
+   *
+   * @param userId the customer's id
+   * @param name the customer's name
+   * @param latitude the customer's latitude
+   * @param longitude the customer's longitude
+   * @return int the index at which the customer was stored
+   */
+  public int add(int userId, String name, double latitude, double longitude) {
+    if (name == null) {
+      throw new IllegalArgumentException("'name' is a required field in a CustomerLocation");
+    }
+    ensureCapacity(size + 1);
+    userIds[size] = userId;
+    names[size] = name;
+    latitudes[size] = latitude;
+    longitudes[size] = longitude;
+    return size++;
+  }
+
+  /**
+   * Appends every customer in the given store to this one, in order.
+   *
+   * @param other the store whose customers should be appended
+   */
+  public void addAll(CustomerLocationStore other) {
+    int count = other.size;
+    ensureCapacity(size + count);
+    System.arraycopy(other.userIds, 0, userIds, size, count);
+    System.arraycopy(other.nameColumn(), 0, names, size, count);
+    System.arraycopy(other.latitudes, 0, latitudes, size, count);
+    System.arraycopy(other.longitudes, 0, longitudes, size, count);
+    size += count;
+  }
+
+  private void ensureCapacity(int required) {
+    if (required > userIds.length) {
+      int capacity = Math.max(required, Math.max(DEFAULT_CAPACITY, userIds.length + (userIds.length >> 1)));
+      userIds = Arrays.copyOf(userIds, capacity);
+      latitudes = Arrays.copyOf(latitudes, capacity);
+      longitudes = Arrays.copyOf(longitudes, capacity);
+      names = Arrays.copyOf(names, capacity);
+    }
+  }
+
+  /**
+   * Retrieve the number of customers in the store
+   *
+   * @return int the number of customers held
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Retrieve the userId of the customer at the given index
+   *
+   * @param index the index of the customer
+   * @return int the customer's userId
+   */
+  public int getUserId(int index) {
+    checkIndex(index);
+    return userIds[index];
+  }
+
+  /**
+   * Retrieve the name of the customer at the given index
+   *
+   * @param index the index of the customer
+   * @return String the customer's name
+   */
+  public String getName(int index) {
+    checkIndex(index);
+    return name(index);
+  }
+
+  /**
+   * Retrieve the latitude of the customer at the given index
+   *
+   * @param index the index of the customer
+   * @return double the customer's latitude
+   */
+  public double getLatitude(int index) {
+    checkIndex(index);
+    return latitudes[index];
+  }
+
+  /**
+   * Retrieve the longitude of the customer at the given index
+   *
+   * @param index the index of the customer
+   * @return double the customer's longitude
+   */
+  public double getLongitude(int index) {
+    checkIndex(index);
+    return longitudes[index];
+  }
+
+  /**
+   * Materializes the customer at the given index as a <code>CustomerLocation</code>. Intended
+   * for results rather than scanning as it allocates.
+   *
+   * @param index the index of the customer
+   * @return CustomerLocation a new instance with the details of the customer at the index
+   */
+  public CustomerLocation get(int index) {
+    checkIndex(index);
+    return new CustomerLocation(userIds[index], name(index), latitudes[index], longitudes[index]);
+  }
+
+  private String name(int index) {
+    String name = names[index];
+    if (name == null) {
+      // strings are immutable, so racing readers at worst decode the same name twice
+      int offset = nameOffsets[index];
+      name = new String(nameTable, offset, nameOffsets[index + 1] - offset, StandardCharsets.UTF_8);
+      names[index] = name;
+    }
+    return name;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is outside the store of size " + size);
+    }
+  }
+
+  /*
+   * Raw column access for scans within the package. The arrays may be longer than size().
+   */
+  int[] userIdColumn() {
+    return userIds;
+  }
+
+  double[] latitudeColumn() {
+    return latitudes;
+  }
+
+  double[] longitudeColumn() {
+    return longitudes;
+  }
+
+  String[] nameColumn() {
+    if (nameTable != null) {
+      for (int i = 0; i < size; i++) {
+        name(i);
+      }
+    }
+    return names;
+  }
+}
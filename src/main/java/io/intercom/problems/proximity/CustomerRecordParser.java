@@ -0,0 +1,163 @@
+package io.intercom.problems.proximity;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * <code>CustomerRecordParser</code> parses a single line of customer json held in a byte buffer
+ * using Jackson's streaming <code>JsonParser</code>, without going through a <code>String</code>
+ * or data binding. It accepts the same records as binding to <code>CustomerLocation</code> with
+ * an <code>ObjectMapper</code>, i.e. numeric fields may be quoted and unknown fields are
+ * rejected, but also rejects records missing a required field rather than throwing.
+ * <p>
+ * Failures are returned as a <code>RecordStatus</code> rather than as exceptions or messages,
+ * and rejected lines are handed to <code>RejectedRecords</code> with their status. The
+ * underlying <code>JsonFactory</code> recycles its parsing buffers per thread, so parsing a line
+ * allocates little more than the customer's name. Parsers must not be shared between threads.
+ */
+final class CustomerRecordParser {
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private final RejectedRecords rejected;
+
+  CustomerRecordParser() {
+    this(new RejectedRecords());
+  }
+
+  CustomerRecordParser(RejectedRecords rejected) {
+    this.rejected = rejected;
+  }
+
+  /**
+   * Parses the customer json in the given range of the buffer, passing it to the consumer if it
+   * is well formed and complete.
+   *
+   * @return true if a customer was parsed and passed to the consumer
+   */
+  boolean parse(byte[] buffer, int offset, int length, CustomerLocationConsumer consumer) {
+    if (isBlank(buffer, offset, length)) {
+      return false;
+    }
+    RecordStatus status;
+    try (JsonParser parser = FACTORY.createParser(buffer, offset, length)) {
+      status = parse(parser, consumer);
+    } catch (JsonParseException e) {
+      status = RecordStatus.MALFORMED_JSON;
+    } catch (IOException | NumberFormatException e) {
+      status = RecordStatus.INVALID_VALUE;
+    }
+    if (status.isRejected()) {
+      rejected.reject(status, buffer, offset, length);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Retrieve the tally of lines this parser has rejected
+   */
+  RejectedRecords getRejected() {
+    return rejected;
+  }
+
+  private RecordStatus parse(JsonParser parser, CustomerLocationConsumer consumer) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      return RecordStatus.NOT_AN_OBJECT;
+    }
+
+    boolean hasUserId = false;
+    boolean hasLatitude = false;
+    boolean hasLongitude = false;
+    int userId = 0;
+    double latitude = 0.0;
+    double longitude = 0.0;
+    String name = null;
+
+    JsonToken token;
+    while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "user_id":
+          hasUserId = value != JsonToken.VALUE_NULL;
+          if (hasUserId && !isNumber(value)) {
+            return RecordStatus.INVALID_VALUE;
+          }
+          if (hasUserId) {
+            userId = value == JsonToken.VALUE_STRING ? Integer.parseInt(parser.getText().trim()) : parser.getIntValue();
+          }
+          break;
+        case "name":
+          name = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+          if (value != JsonToken.VALUE_NULL && name == null) {
+            return RecordStatus.INVALID_VALUE;
+          }
+          break;
+        case "latitude":
+          hasLatitude = value != JsonToken.VALUE_NULL;
+          if (hasLatitude && !isNumber(value)) {
+            return RecordStatus.INVALID_VALUE;
+          }
+          if (hasLatitude) {
+            latitude = doubleValue(parser, value);
+          }
+          break;
+        case "longitude":
+          hasLongitude = value != JsonToken.VALUE_NULL;
+          if (hasLongitude && !isNumber(value)) {
+            return RecordStatus.INVALID_VALUE;
+          }
+          if (hasLongitude) {
+            longitude = doubleValue(parser, value);
+          }
+          break;
+        default:
+          return RecordStatus.UNRECOGNIZED_FIELD;
+      }
+    }
+    if (token != JsonToken.END_OBJECT) {
+      return RecordStatus.MALFORMED_JSON;
+    }
+    if (!hasUserId) {
+      return RecordStatus.MISSING_USER_ID;
+    }
+    if (name == null) {
+      return RecordStatus.MISSING_NAME;
+    }
+    if (!hasLatitude) {
+      return RecordStatus.MISSING_LATITUDE;
+    }
+    if (!hasLongitude) {
+      return RecordStatus.MISSING_LONGITUDE;
+    }
+
+    consumer.accept(userId, name, latitude, longitude);
+    return RecordStatus.VALID;
+  }
+
+  private double doubleValue(JsonParser parser, JsonToken value) throws IOException {
+    if (value == JsonToken.VALUE_STRING) {
+      return Double.parseDouble(parser.getText());
+    }
+    return parser.getDoubleValue();
+  }
+
+  private boolean isNumber(JsonToken value) {
+    return value.isNumeric() || value == JsonToken.VALUE_STRING;
+  }
+
+  private boolean isBlank(byte[] buffer, int offset, int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      byte b = buffer[i];
+      if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
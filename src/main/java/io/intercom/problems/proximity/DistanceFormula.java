@@ -0,0 +1,170 @@
+package io.intercom.problems.proximity;
+
+import static io.intercom.problems.proximity.Coordinates.MEAN_EARTH_RADIUS;
+import static java.lang.Math.PI;
+import static java.lang.Math.abs;
+import static java.lang.Math.acos;
+import static java.lang.Math.asin;
+import static java.lang.Math.atan;
+import static java.lang.Math.atan2;
+import static java.lang.Math.cos;
+import static java.lang.Math.min;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+import static java.lang.Math.toRadians;
+
+/**
+ * <code>DistanceFormula</code> enumerates the ways the distance between two points on the earth
+ * can be calculated, trading accuracy for speed. All formulas work on primitives and take
+ * latitudes and longitudes in radians along with the precomputed sine and cosine of each
+ * latitude, as held by <code>PreparedCoordinates</code>, and return kilometers.
+ */
+public enum DistanceFormula {
+
+  /**
+   * The spherical law of cosines used by {@link Coordinates#distanceTo(Coordinates)}. Kept for
+   * compatibility, it gives identical results but loses precision over short distances.
+   */
+  SPHERICAL_LAW_OF_COSINES {
+    @Override
+    double distance(double lat1, double lon1, double sinLat1, double cosLat1,
+                    double lat2, double lon2, double sinLat2, double cosLat2) {
+      return acos(sinLat1 * sinLat2 + cosLat1 * cosLat2 * cos(abs(lon1 - lon2))) * MEAN_EARTH_RADIUS;
+    }
+  },
+
+  /**
+   * The haversine formula on the mean earth sphere, well conditioned at all but antipodal
+   * distances.
+   * <p>
+   * https://en.wikipedia.org/wiki/Haversine_formula
+   */
+  HAVERSINE {
+    @Override
+    double distance(double lat1, double lon1, double sinLat1, double cosLat1,
+                    double lat2, double lon2, double sinLat2, double cosLat2) {
+      return haversine(lat1, lon1, cosLat1, lat2, lon2, cosLat2);
+    }
+  },
+
+  /**
+   * The equirectangular projection approximation, a single square root with no trigonometry
+   * beyond the cosine of the mean latitude. Accurate to a fraction of a percent over the short
+   * distances it is used for, <code>DistanceKernel</code> re-checks points close to the query
+   * boundary and falls back to haversine for large radii and polar queries.
+   */
+  EQUIRECTANGULAR {
+    @Override
+    double distance(double lat1, double lon1, double sinLat1, double cosLat1,
+                    double lat2, double lon2, double sinLat2, double cosLat2) {
+      double deltaLongitude = lon1 - lon2;
+      if (deltaLongitude > PI || deltaLongitude < -PI) {
+        deltaLongitude -= 2 * PI * Math.floor((deltaLongitude + PI) / (2 * PI));
+      }
+      double x = deltaLongitude * cos((lat1 + lat2) / 2);
+      double y = lat1 - lat2;
+      return sqrt(x * x + y * y) * MEAN_EARTH_RADIUS;
+    }
+  },
+
+  /**
+   * Vincenty's inverse formula on the WGS-84 ellipsoid, accurate to well under a millimeter. It
+   * iterates to a solution so is the slowest of the formulas, for the rare nearly antipodal
+   * points where it fails to converge the haversine distance is returned.
+   * <p>
+   * https://en.wikipedia.org/wiki/Vincenty%27s_formulae
+   */
+  ELLIPSOIDAL {
+    @Override
+    double distance(double lat1, double lon1, double sinLat1, double cosLat1,
+                    double lat2, double lon2, double sinLat2, double cosLat2) {
+      return vincenty(lat1, lon1, cosLat1, lat2, lon2, cosLat2);
+    }
+  };
+
+  static final double WGS84_SEMI_MAJOR_AXIS = 6378.137;
+
+  static final double WGS84_FLATTENING = 1 / 298.257223563;
+
+  static final double WGS84_SEMI_MINOR_AXIS = (1 - WGS84_FLATTENING) * WGS84_SEMI_MAJOR_AXIS;
+
+  private static final int VINCENTY_MAX_ITERATIONS = 200;
+
+  /**
+   * Calculates the distance between two points given in radians along with the precomputed
+   * sine and cosine of their latitudes
+   *
+   * @return the distance in kilometers between the two points
+   */
+  abstract double distance(double lat1, double lon1, double sinLat1, double cosLat1,
+                           double lat2, double lon2, double sinLat2, double cosLat2);
+
+  /**
+   * Calculates the distance between two points using this formula
+   *
+   * @param latitude1 the latitude of the first point in degrees
+   * @param longitude1 the longitude of the first point in degrees
+   * @param latitude2 the latitude of the second point in degrees
+   * @param longitude2 the longitude of the second point in degrees
+   * @return the distance in kilometers between the two points
+   */
+  public double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+    double lat1 = toRadians(latitude1);
+    double lat2 = toRadians(latitude2);
+    return distance(lat1, toRadians(longitude1), sin(lat1), cos(lat1), lat2, toRadians(longitude2), sin(lat2), cos(lat2));
+  }
+
+  static double haversine(double lat1, double lon1, double cosLat1, double lat2, double lon2, double cosLat2) {
+    double sinHalfDeltaLatitude = sin((lat1 - lat2) / 2);
+    double sinHalfDeltaLongitude = sin((lon1 - lon2) / 2);
+    double h = sinHalfDeltaLatitude * sinHalfDeltaLatitude
+        + cosLat1 * cosLat2 * sinHalfDeltaLongitude * sinHalfDeltaLongitude;
+    return 2 * asin(min(1.0, sqrt(h))) * MEAN_EARTH_RADIUS;
+  }
+
+  private static double vincenty(double lat1, double lon1, double cosLat1, double lat2, double lon2, double cosLat2) {
+    double a = WGS84_SEMI_MAJOR_AXIS;
+    double b = WGS84_SEMI_MINOR_AXIS;
+    double f = WGS84_FLATTENING;
+
+    double longitudeDelta = lon2 - lon1;
+    double u1 = atan((1 - f) * tan(lat1));
+    double u2 = atan((1 - f) * tan(lat2));
+    double sinU1 = sin(u1);
+    double cosU1 = cos(u1);
+    double sinU2 = sin(u2);
+    double cosU2 = cos(u2);
+
+    double lambda = longitudeDelta;
+    for (int iteration = 0; iteration < VINCENTY_MAX_ITERATIONS; iteration++) {
+      double sinLambda = sin(lambda);
+      double cosLambda = cos(lambda);
+      double x = cosU2 * sinLambda;
+      double y = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+      double sinSigma = sqrt(x * x + y * y);
+      if (sinSigma == 0) {
+        return 0.0;
+      }
+      double cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+      double sigma = atan2(sinSigma, cosSigma);
+      double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+      double cosSqAlpha = 1 - sinAlpha * sinAlpha;
+      double cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+      double c = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+      double previous = lambda;
+      lambda = longitudeDelta + (1 - c) * f * sinAlpha
+          * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+      if (abs(lambda - previous) < 1e-12) {
+        double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+        double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+            - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+        return b * bigA * (sigma - deltaSigma);
+      }
+    }
+    return haversine(lat1, lon1, cosLat1, lat2, lon2, cosLat2);
+  }
+}
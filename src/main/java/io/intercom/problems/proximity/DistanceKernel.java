@@ -0,0 +1,213 @@
+package io.intercom.problems.proximity;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toRadians;
+
+/**
+ * <code>DistanceKernel</code> tests prepared customer coordinates against a single radius query
+ * without allocating. Each point is first checked against the latitude/longitude box enclosing
+ * the query circle, only points inside the box have their distance calculated with the chosen
+ * <code>DistanceFormula</code>.
+ * <p>
+ * When the approximate <code>EQUIRECTANGULAR</code> formula is chosen, points whose approximate
+ * distance falls within a narrow band around the radius are re-checked with haversine so the
+ * approximation never changes a result. Queries too large or too close to a pole for the
+ * approximation to be trusted are answered entirely with haversine.
+ * <p>
+ * Kernels are immutable and may be shared between threads.
+ */
+public final class DistanceKernel {
+
+  /* the equirectangular approximation is only used within these limits, inside them its error
+   * is well below the re-check band */
+  static final double EQUIRECTANGULAR_MAX_RADIUS = 500.0;
+
+  static final double EQUIRECTANGULAR_MAX_LATITUDE = 70.0;
+
+  static final double EQUIRECTANGULAR_RECHECK_BAND = 0.01;
+
+  /* ellipsoidal distances differ from those on the mean sphere by under 0.6%, so the bounding
+   * box is widened to stay conservative */
+  static final double ELLIPSOIDAL_BOX_SCALE = 1.01;
+
+  private final DistanceFormula formula;
+
+  private final double latitude;
+
+  private final double longitude;
+
+  private final double sinLatitude;
+
+  private final double cosLatitude;
+
+  private final double radius;
+
+  private final double boxRadius;
+
+  private final BoundingBox box;
+
+  private final double acceptBelow;
+
+  private final double rejectAbove;
+
+  /**
+   * Creates a kernel for the given query
+   *
+   * @param formula the formula used to calculate distances
+   * @param centerLatitude the latitude of the center of the query in degrees
+   * @param centerLongitude the longitude of the center of the query in degrees
+   * @param radius the radius of the query in kilometers
+   */
+  public DistanceKernel(DistanceFormula formula, double centerLatitude, double centerLongitude, double radius) {
+    if (formula == null) {
+      throw new IllegalArgumentException("Distance kernel requires a valid distance formula");
+    }
+    if (formula == DistanceFormula.EQUIRECTANGULAR
+        && !(radius <= EQUIRECTANGULAR_MAX_RADIUS && abs(centerLatitude) <= EQUIRECTANGULAR_MAX_LATITUDE)) {
+      formula = DistanceFormula.HAVERSINE;
+    }
+    this.formula = formula;
+    this.latitude = toRadians(centerLatitude);
+    this.longitude = toRadians(centerLongitude);
+    this.sinLatitude = sin(latitude);
+    this.cosLatitude = cos(latitude);
+    this.radius = radius;
+    this.boxRadius = formula == DistanceFormula.ELLIPSOIDAL ? radius * ELLIPSOIDAL_BOX_SCALE : radius;
+    this.box = BoundingBox.around(centerLatitude, centerLongitude, boxRadius);
+    this.acceptBelow = radius * (1 - EQUIRECTANGULAR_RECHECK_BAND);
+    this.rejectAbove = radius * (1 + EQUIRECTANGULAR_RECHECK_BAND);
+  }
+
+  /**
+   * Tests if the prepared point at the given index lies within the query radius
+   *
+   * @param points the prepared customer coordinates
+   * @param i the index of the point to test
+   * @return true if the point is within the radius of the center
+   */
+  public boolean isWithinRadius(PreparedCoordinates points, int i) {
+    if (!box.contains(points.latitudes[i], points.longitudes[i])) {
+      return false;
+    }
+    double distance = distance(points, i);
+    if (formula == DistanceFormula.EQUIRECTANGULAR && distance >= acceptBelow && distance <= rejectAbove) {
+      distance = DistanceFormula.haversine(points.latitudeRadians[i], points.longitudeRadians[i],
+          points.cosLatitudes[i], latitude, longitude, cosLatitude);
+    }
+    return distance <= radius;
+  }
+
+  /**
+   * Tests if the given point lies within the query radius. Used for one off points, the
+   * point's radians and sine and cosine of latitude are calculated on the fly.
+   *
+   * @param pointLatitude the latitude of the point in degrees
+   * @param pointLongitude the longitude of the point in degrees
+   * @return true if the point is within the radius of the center
+   */
+  public boolean isWithinRadius(double pointLatitude, double pointLongitude) {
+    if (!box.contains(pointLatitude, pointLongitude)) {
+      return false;
+    }
+    double lat = toRadians(pointLatitude);
+    double lon = toRadians(pointLongitude);
+    double sinLat = sin(lat);
+    double cosLat = cos(lat);
+    double distance = formula.distance(lat, lon, sinLat, cosLat, latitude, longitude, sinLatitude, cosLatitude);
+    if (formula == DistanceFormula.EQUIRECTANGULAR && distance >= acceptBelow && distance <= rejectAbove) {
+      distance = DistanceFormula.haversine(lat, lon, cosLat, latitude, longitude, cosLatitude);
+    }
+    return distance <= radius;
+  }
+
+  /**
+   * Calculates the distance from the center to the prepared point at the given index if it lies
+   * within the query radius. Unlike {@link #distance(PreparedCoordinates, int)} the distance is
+   * never approximate, points are ranked with haversine when the equirectangular formula is in
+   * use.
+   *
+   * @param points the prepared customer coordinates
+   * @param i the index of the point
+   * @return double the distance in kilometers to the point, or positive infinity if the point
+   * is outside the radius or its distance can't be calculated
+   */
+  public double distanceIfWithinRadius(PreparedCoordinates points, int i) {
+    if (!box.contains(points.latitudes[i], points.longitudes[i])) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double distance = formula == DistanceFormula.EQUIRECTANGULAR
+        ? DistanceFormula.haversine(points.latitudeRadians[i], points.longitudeRadians[i], points.cosLatitudes[i],
+        latitude, longitude, cosLatitude)
+        : distance(points, i);
+    return distance <= radius ? distance : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Calculates the distance from the center to the given point if it lies within the query
+   * radius, as {@link #distanceIfWithinRadius(PreparedCoordinates, int)} does for prepared
+   * points. The point's radians and sine and cosine of latitude are only calculated once it is
+   * known to be inside the bounding box.
+   *
+   * @param pointLatitude the latitude of the point in degrees
+   * @param pointLongitude the longitude of the point in degrees
+   * @return double the distance in kilometers to the point, or positive infinity if the point
+   * is outside the radius or its distance can't be calculated
+   */
+  public double distanceIfWithinRadius(double pointLatitude, double pointLongitude) {
+    if (!box.contains(pointLatitude, pointLongitude)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double lat = toRadians(pointLatitude);
+    double lon = toRadians(pointLongitude);
+    double cosLat = cos(lat);
+    double distance = formula == DistanceFormula.EQUIRECTANGULAR
+        ? DistanceFormula.haversine(lat, lon, cosLat, latitude, longitude, cosLatitude)
+        : formula.distance(lat, lon, sin(lat), cosLat, latitude, longitude, sinLatitude, cosLatitude);
+    return distance <= radius ? distance : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Calculates the distance from the center to the prepared point at the given index using the
+   * kernel's formula. No bounding box test is applied.
+   *
+   * @param points the prepared customer coordinates
+   * @param i the index of the point
+   * @return double the distance in kilometers from the center to the point
+   */
+  public double distance(PreparedCoordinates points, int i) {
+    return formula.distance(points.latitudeRadians[i], points.longitudeRadians[i],
+        points.sinLatitudes[i], points.cosLatitudes[i], latitude, longitude, sinLatitude, cosLatitude);
+  }
+
+  /**
+   * Retrieve the formula the kernel uses. This may differ from the requested formula where the
+   * query was outside the limits of the equirectangular approximation.
+   *
+   * @return DistanceFormula the formula in use
+   */
+  public DistanceFormula getFormula() {
+    return formula;
+  }
+
+  /**
+   * Retrieve the radius of the query
+   *
+   * @return double the radius in kilometers
+   */
+  public double getRadius() {
+    return radius;
+  }
+
+  /**
+   * Retrieve the radius of the box enclosing the points the kernel may accept, wider than the
+   * query radius for the ellipsoidal formula. Spatial indexes must be asked for the candidates
+   * within this radius or they may leave out customers the kernel would accept.
+   *
+   * @return double the radius in kilometers
+   */
+  double getBoxRadius() {
+    return boxRadius;
+  }
+}
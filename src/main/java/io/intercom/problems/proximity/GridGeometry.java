@@ -0,0 +1,100 @@
+package io.intercom.problems.proximity;
+
+import static java.lang.Math.floor;
+import static java.lang.Math.min;
+
+/**
+ * <code>GridGeometry</code> divides the globe into fixed size latitude/longitude cells, numbered
+ * row by row from the south west corner. It holds the cell arithmetic shared by everything that
+ * buckets customers into cells, so a point falls in the same cell, and a box overlaps the same
+ * cells, whichever of them is asked. Geometries are immutable.
+ */
+final class GridGeometry {
+
+  final int rows;
+
+  final int columns;
+
+  final double rowHeight;
+
+  final double columnWidth;
+
+  /**
+   * Creates a grid of cells of about the given size
+   *
+   * @param cellSize the approximate height and width of each cell in degrees, large enough that
+   *                 the number of cells, plus one for the offset table, fits in an int
+   */
+  GridGeometry(double cellSize) {
+    if (!(cellSize > 0.0 && cellSize <= 180.0)) {
+      throw new IllegalArgumentException("Grid cell size must be between 0 and 180 degrees");
+    }
+    double rows = Math.ceil(180.0 / cellSize);
+    double columns = Math.ceil(360.0 / cellSize);
+    // indexes keep one offset per cell plus a terminator, so leave room for it
+    if (rows * columns >= Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Grid cell size of " + cellSize + " degrees gives too many cells");
+    }
+    this.rows = (int) rows;
+    this.columns = (int) columns;
+    // stretch cells slightly so they tile the globe exactly and longitudes wrap cleanly
+    this.rowHeight = 180.0 / rows;
+    this.columnWidth = 360.0 / columns;
+  }
+
+  /**
+   * Retrieve the number of cells in the grid
+   */
+  int cells() {
+    return rows * columns;
+  }
+
+  /**
+   * Retrieve the cell holding the given point, numbered <code>row * columns + column</code>
+   *
+   * @return int the cell, or -1 if the point is outside the valid latitude/longitude ranges
+   */
+  int cellOf(double latitude, double longitude) {
+    if (!(latitude >= -90.0 && latitude <= 90.0 && longitude >= -180.0 && longitude <= 180.0)) {
+      return -1;
+    }
+    return row(latitude) * columns + column(longitude);
+  }
+
+  int row(double latitude) {
+    return min(rows - 1, Math.max(0, (int) floor((latitude + 90.0) / rowHeight)));
+  }
+
+  int column(double longitude) {
+    int column = (int) floor((longitude + 180.0) / columnWidth);
+    return ((column % columns) + columns) % columns;
+  }
+
+  /**
+   * Visits every cell overlapping the given box once, row by row, wrapping columns around the
+   * antimeridian
+   */
+  void forEachCell(BoundingBox box, CellConsumer cells) {
+    int firstColumn = 0;
+    int columnCount = columns;
+    if (!box.allLongitudes) {
+      firstColumn = (int) floor((box.centerLongitude - box.longitudeDelta + 180.0) / columnWidth);
+      int lastColumn = (int) floor((box.centerLongitude + box.longitudeDelta + 180.0) / columnWidth);
+      columnCount = min(columns, lastColumn - firstColumn + 1);
+    }
+    for (int row = row(box.minLatitude), lastRow = row(box.maxLatitude); row <= lastRow; row++) {
+      for (int c = 0; c < columnCount; c++) {
+        cells.accept(row, (((firstColumn + c) % columns) + columns) % columns);
+      }
+    }
+  }
+
+  /**
+   * Receives the row and column of a cell
+   */
+  @FunctionalInterface
+  interface CellConsumer {
+
+    void accept(int row, int column);
+  }
+}
@@ -0,0 +1,203 @@
+package io.intercom.problems.proximity;
+
+import java.util.function.IntConsumer;
+
+import static java.lang.Math.floor;
+import static java.lang.Math.min;
+
+/**
+ * <code>GridSpatialIndex</code> buckets customers into fixed size latitude/longitude cells, much
+ * like a geohash grid. A radius query is translated into the latitude/longitude box enclosing
+ * the circle and only the customers in cells overlapping that box are reported as candidates.
+ * <p>
+ * Cells are stored in compressed form, a single array of customer indexes ordered by cell and
+ * an array of offsets into it, so the index costs one int per customer plus one per cell.
+ * Customers whose coordinates fall outside the valid latitude/longitude ranges cannot be
+ * placed in the grid and are always reported as candidates.
+ */
+public class GridSpatialIndex implements SpatialIndex {
+
+  public static final double DEFAULT_CELL_SIZE = 1.0;
+
+  private final CustomerLocationStore store;
+
+  private final double cellSize;
+
+  private final GridGeometry grid;
+
+  private final int[] cellOffsets;
+
+  private final int[] cellEntries;
+
+  private final int[] unplaced;
+
+  /**
+   * Creates a new grid index over the given store using the default cell size
+   *
+   * @param store the customers to index
+   */
+  public GridSpatialIndex(CustomerLocationStore store) {
+    this(store, DEFAULT_CELL_SIZE);
+  }
+
+  /**
+   * Creates a new grid index over the given store
+   *
+   * @param store the customers to index
+   * @param cellSize the approximate height and width of each cell in degrees
+   */
+  public GridSpatialIndex(CustomerLocationStore store, double cellSize) {
+    checkStore(store);
+    this.store = store;
+    this.cellSize = cellSize;
+    this.grid = new GridGeometry(cellSize);
+
+    int size = store.size();
+    int[] cells = new int[size];
+    int[] counts = new int[grid.cells() + 1];
+    int unplacedCount = 0;
+    for (int i = 0; i < size; i++) {
+      cells[i] = grid.cellOf(store.getLatitude(i), store.getLongitude(i));
+      if (cells[i] < 0) {
+        unplacedCount++;
+      } else {
+        counts[cells[i] + 1]++;
+      }
+    }
+    for (int c = 1; c < counts.length; c++) {
+      counts[c] += counts[c - 1];
+    }
+    this.cellOffsets = counts;
+    this.cellEntries = new int[size - unplacedCount];
+    this.unplaced = new int[unplacedCount];
+
+    int[] next = new int[grid.cells()];
+    System.arraycopy(counts, 0, next, 0, next.length);
+    int u = 0;
+    for (int i = 0; i < size; i++) {
+      if (cells[i] < 0) {
+        unplaced[u++] = i;
+      } else {
+        cellEntries[next[cells[i]]++] = i;
+      }
+    }
+  }
+
+  /**
+   * Recreates a grid index from its cells, as previously retrieved from an index over the same
+   * store, without rebuilding it.
+   */
+  GridSpatialIndex(CustomerLocationStore store, double cellSize, int[] cellOffsets, int[] cellEntries, int[] unplaced) {
+    checkStore(store);
+    this.store = store;
+    this.cellSize = cellSize;
+    this.grid = new GridGeometry(cellSize);
+    if (cellOffsets.length != grid.cells() + 1 || cellEntries.length + unplaced.length != store.size()) {
+      throw new IllegalArgumentException("Grid cells do not match the cell size and customer location store");
+    }
+    this.cellOffsets = cellOffsets;
+    this.cellEntries = cellEntries;
+    this.unplaced = unplaced;
+  }
+
+  private static void checkStore(CustomerLocationStore store) {
+    if (store == null) {
+      throw new IllegalArgumentException("Spatial index requires a valid customer location store");
+    }
+  }
+
+  /**
+   * Creates a factory that builds grid indexes with the given cell size, suitable for passing
+   * to a <code>ProximityCalculator</code>
+   *
+   * @param cellSize the height and width of each cell in degrees
+   * @return SpatialIndexFactory a factory for grid indexes
+   */
+  public static SpatialIndexFactory withCellSize(double cellSize) {
+    return store -> new GridSpatialIndex(store, cellSize);
+  }
+
+  @Override
+  public void forEachCandidate(double latitude, double longitude, double radius, IntConsumer candidates) {
+    for (int i : unplaced) {
+      candidates.accept(i);
+    }
+
+    grid.forEachCell(BoundingBox.around(latitude, longitude, radius), (row, column) -> {
+      int cell = row * grid.columns + column;
+      for (int e = cellOffsets[cell], end = cellOffsets[cell + 1]; e < end; e++) {
+        candidates.accept(cellEntries[e]);
+      }
+    });
+  }
+
+  /**
+   * Visits every non empty cell overlapping the given latitude/longitude box, passing the
+   * cell's bounds and the range of its entries holding customer indexes. Used by region queries
+   * within the package to accept or reject whole cells at once. Longitudes don't wrap, though
+   * customers at longitude 180 are held in the cells of the first column along with those at
+   * -180. Unplaced customers are not visited.
+   */
+  void forEachCellInBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude, CellVisitor cells) {
+    int columns = grid.columns;
+    double rowHeight = grid.rowHeight;
+    double columnWidth = grid.columnWidth;
+    int firstRow = grid.row(minLatitude);
+    int lastRow = grid.row(maxLatitude);
+    int firstColumn = Math.max(0, (int) floor((minLongitude + 180.0) / columnWidth));
+    int lastColumn = min(columns, (int) floor((maxLongitude + 180.0) / columnWidth));
+    for (int row = firstRow; row <= lastRow; row++) {
+      for (int c = firstColumn; c <= lastColumn; c++) {
+        int column = c % columns;
+        if (c == columns && firstColumn == 0) {
+          // the first column has already been visited
+          continue;
+        }
+        int cell = row * columns + column;
+        int from = cellOffsets[cell];
+        int to = cellOffsets[cell + 1];
+        if (from < to) {
+          cells.visit(row * rowHeight - 90.0, (row + 1) * rowHeight - 90.0, column * columnWidth - 180.0,
+              (column + 1) * columnWidth - 180.0, cellEntries, from, to);
+        }
+      }
+    }
+  }
+
+  /**
+   * Receives a cell of the grid and the range of entries holding its customers
+   */
+  interface CellVisitor {
+
+    void visit(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude, int[] entries, int from, int to);
+  }
+
+  @Override
+  public CustomerLocationStore getStore() {
+    return store;
+  }
+
+  /**
+   * Retrieve the height and width of the cells in this grid
+   *
+   * @return double the cell size in degrees
+   */
+  public double getCellSize() {
+    return cellSize;
+  }
+
+  /*
+   * Raw cell access for persisting the index within the package.
+   */
+  int[] cellOffsets() {
+    return cellOffsets;
+  }
+
+  int[] cellEntries() {
+    return cellEntries;
+  }
+
+  int[] unplaced() {
+    return unplaced;
+  }
+}
@@ -0,0 +1,199 @@
+package io.intercom.problems.proximity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <code>HttpCustomerDataCache</code> keeps the body of each customer url it fetches on local
+ * disk, along with the <code>ETag</code> and <code>Last-Modified</code> validators the server
+ * sent with it. Later fetches of the same url are made conditional with
+ * <code>If-None-Match</code> and <code>If-Modified-Since</code>, so an unchanged body is never
+ * downloaded twice and callers can tell it is unchanged. Bodies are requested gzip compressed
+ * and stored decompressed.
+ * <p>
+ * Each url is stored under a name derived from a hash of the url, bodies and validators are
+ * replaced atomically so a failed download never leaves a partial body behind.
+ */
+final class HttpCustomerDataCache {
+
+  static final int CONNECT_TIMEOUT_MILLIS = 3000;
+
+  static final int READ_TIMEOUT_MILLIS = 30000;
+
+  private static final String ETAG = "etag";
+
+  private static final String LAST_MODIFIED = "last-modified";
+
+  private final Path directory;
+
+  HttpCustomerDataCache(Path directory) {
+    if (directory == null) {
+      throw new IllegalArgumentException("Customer data cache requires a valid directory");
+    }
+    this.directory = directory;
+  }
+
+  /**
+   * The result of fetching a url through the cache
+   */
+  static final class CachedBody {
+
+    final Path file;
+
+    final Path snapshotFile;
+
+    final boolean modified;
+
+    final String version;
+
+    CachedBody(Path file, boolean modified, String version) {
+      this.file = file;
+      this.snapshotFile = file.resolveSibling(file.getFileName() + ".snapshot");
+      this.modified = modified;
+      this.version = version;
+    }
+  }
+
+  /**
+   * Fetches the body of the given url, returning the cached copy without downloading it if the
+   * server reports it unchanged. The version of a body identifies its content, it changes
+   * whenever a new body is downloaded and is null if the server sent no validators. Alongside
+   * the body is a location for a snapshot of the customers parsed from it.
+   */
+  CachedBody fetch(URL url) throws IOException {
+    Files.createDirectories(directory);
+    String key = keyOf(url);
+    Path bodyFile = directory.resolve(key + ".json");
+    Path validatorFile = directory.resolve(key + ".properties");
+    Properties validators = new Properties();
+    if (Files.exists(bodyFile) && Files.exists(validatorFile)) {
+      try (InputStream in = Files.newInputStream(validatorFile)) {
+        validators.load(in);
+      }
+    }
+
+    URLConnection connection = openConnection(url);
+    if (validators.getProperty(ETAG) != null) {
+      connection.setRequestProperty("If-None-Match", validators.getProperty(ETAG));
+    }
+    if (validators.getProperty(LAST_MODIFIED) != null) {
+      connection.setRequestProperty("If-Modified-Since", validators.getProperty(LAST_MODIFIED));
+    }
+
+    if (connection instanceof HttpURLConnection) {
+      HttpURLConnection http = (HttpURLConnection) connection;
+      int status = http.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && !validators.isEmpty()) {
+        http.disconnect();
+        return new CachedBody(bodyFile, false, versionOf(validators));
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        http.disconnect();
+        throw new IOException("Unexpected response " + status + " fetching '" + url + "'");
+      }
+    }
+
+    Path downloading = Files.createTempFile(directory, key, ".download");
+    try {
+      try (InputStream in = bodyOf(connection)) {
+        Files.copy(in, downloading, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Properties received = new Properties();
+      if (connection.getHeaderField("ETag") != null) {
+        received.setProperty(ETAG, connection.getHeaderField("ETag"));
+      }
+      if (connection.getHeaderField("Last-Modified") != null) {
+        received.setProperty(LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+      }
+      // the body and its validators are replaced together, validators last so they never describe an older body
+      Files.deleteIfExists(validatorFile);
+      Files.move(downloading, bodyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      if (!received.isEmpty()) {
+        Path writing = Files.createTempFile(directory, key, ".properties");
+        try (OutputStream out = Files.newOutputStream(writing)) {
+          received.store(out, url.toString());
+        }
+        Files.move(writing, validatorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      return new CachedBody(bodyFile, true, received.isEmpty() ? null : versionOf(received));
+    } finally {
+      Files.deleteIfExists(downloading);
+    }
+  }
+
+  /**
+   * Opens a connection to the given url with connect and read timeouts, asking for the body to
+   * be gzip compressed
+   */
+  static URLConnection openConnection(URL url) throws IOException {
+    URLConnection connection = url.openConnection();
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+    connection.setRequestProperty("Accept-Encoding", "gzip");
+    return connection;
+  }
+
+  /**
+   * Retrieve the body of a response, decompressing it if it was gzip compressed
+   */
+  static InputStream bodyOf(URLConnection connection) throws IOException {
+    InputStream in = connection.getInputStream();
+    return "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(in, 64 * 1024) : in;
+  }
+
+  /**
+   * Asks the server for the validators of the given url without downloading its body, the
+   * version of the body a fetch would return now. Only http and https urls can be checked.
+   *
+   * @return String the version of the url's body, or null if the server sent no validators
+   */
+  static String versionOf(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) openConnection(url);
+    connection.setRequestMethod("HEAD");
+    try {
+      int status = connection.getResponseCode();
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + status + " checking '" + url + "'");
+      }
+      Properties validators = new Properties();
+      if (connection.getHeaderField("ETag") != null) {
+        validators.setProperty(ETAG, connection.getHeaderField("ETag"));
+      }
+      if (connection.getHeaderField("Last-Modified") != null) {
+        validators.setProperty(LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+      }
+      return validators.isEmpty() ? null : versionOf(validators);
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private static String versionOf(Properties validators) {
+    return validators.getProperty(ETAG, "") + " " + validators.getProperty(LAST_MODIFIED, "");
+  }
+
+  private static String keyOf(URL url) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+      StringBuilder key = new StringBuilder("customers-");
+      for (int i = 0; i < 12; i++) {
+        key.append(String.format("%02x", digest[i]));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required of every jvm", e);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package io.intercom.problems.proximity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <code>IncrementalProximityTracker</code> maintains the members of a set of standing radius
+ * queries as the customer base changes, rather than reloading every customer and rebuilding a
+ * <code>ProximityCalculator</code>. Upserting or deleting a customer only tests that customer
+ * against each standing query's bounding box and, where it passes, its radius, so the cost of
+ * an update depends on the size of the change and the number of queries but not on the number
+ * of customers. Registered <code>ProximityListener</code>s are told as customers enter and leave
+ * each query.
+ * <p>
+ * Updates and queries are serialized on the tracker so it may be shared between threads.
+ * Listeners are called while the tracker is locked and must not call back into it from another
+ * thread.
+ */
+public class IncrementalProximityTracker {
+
+  private final DistanceFormula formula;
+
+  private final Map<Integer, CustomerLocation> customers = new HashMap<>();
+
+  private final List<StandingQuery> queries = new ArrayList<>();
+
+  private final List<ProximityListener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Creates a new tracker over the given customers, measuring distances with the spherical law
+   * of cosines as <code>ProximityCalculator</code> does by default.
+   *
+   * @param initialCustomers the customers known when tracking starts
+   */
+  public IncrementalProximityTracker(Collection<CustomerLocation> initialCustomers) {
+    this(initialCustomers, DistanceFormula.SPHERICAL_LAW_OF_COSINES);
+  }
+
+  /**
+   * Creates a new tracker over the given customers
+   *
+   * @param initialCustomers the customers known when tracking starts
+   * @param formula the formula used to calculate distances
+   */
+  public IncrementalProximityTracker(Collection<CustomerLocation> initialCustomers, DistanceFormula formula) {
+    if (initialCustomers == null) {
+      throw new IllegalArgumentException("Proximity tracker requires a valid collection of customer locations");
+    }
+    if (formula == null) {
+      throw new IllegalArgumentException("Proximity tracker requires a valid distance formula");
+    }
+    this.formula = formula;
+    for (CustomerLocation customer : initialCustomers) {
+      customer.validate();
+      customers.put(customer.getUserId(), customer);
+    }
+  }
+
+  /**
+   * Registers a standing query. Its initial members are found with a scan of the current
+   * customers, no events are emitted for them.
+   *
+   * @param query the center and radius of the query
+   * @return StandingQuery the registered query, used to read its members or unregister it
+   */
+  public synchronized StandingQuery register(RadiusQuery query) {
+    if (query == null) {
+      throw new IllegalArgumentException("Proximity tracker requires a valid radius query");
+    }
+    StandingQuery standing = new StandingQuery(query, formula);
+    for (CustomerLocation customer : customers.values()) {
+      if (standing.covers(customer)) {
+        standing.update(customer, true);
+      }
+    }
+    queries.add(standing);
+    return standing;
+  }
+
+  /**
+   * Stops maintaining the given standing query
+   *
+   * @param query the query to stop maintaining
+   */
+  public synchronized void unregister(StandingQuery query) {
+    queries.remove(query);
+  }
+
+  /**
+   * Adds a listener to be told as customers enter and leave the standing queries
+   *
+   * @param listener the listener to add
+   */
+  public void addListener(ProximityListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Proximity tracker requires a valid listener");
+    }
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a previously added listener
+   *
+   * @param listener the listener to remove
+   */
+  public void removeListener(ProximityListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Adds a new customer, or replaces the details of the existing customer with the same userId,
+   * and updates the membership of every standing query accordingly.
+   *
+   * @param customer the customer's new details
+   */
+  public synchronized void upsert(CustomerLocation customer) {
+    customer.validate();
+    customers.put(customer.getUserId(), customer);
+    for (StandingQuery query : queries) {
+      boolean member = query.covers(customer);
+      CustomerLocation previous = query.update(customer, member);
+      if (member && previous == null) {
+        fireEntered(query, customer);
+      } else if (!member && previous != null) {
+        fireLeft(query, previous);
+      }
+    }
+  }
+
+  /**
+   * Removes the customer with the given userId, if known, from the customers and from every
+   * standing query they were a member of.
+   *
+   * @param userId the id of the customer to remove
+   */
+  public synchronized void delete(int userId) {
+    if (customers.remove(userId) == null) {
+      return;
+    }
+    for (StandingQuery query : queries) {
+      CustomerLocation previous = query.remove(userId);
+      if (previous != null) {
+        fireLeft(query, previous);
+      }
+    }
+  }
+
+  /**
+   * Applies a batch of changes, the upserts followed by the deletes, without other updates being
+   * interleaved.
+   *
+   * @param upserts the customers to add or update
+   * @param deletes the userIds of the customers to remove
+   */
+  public synchronized void apply(Collection<CustomerLocation> upserts, Collection<Integer> deletes) {
+    if (upserts != null) {
+      upserts.forEach(this::upsert);
+    }
+    if (deletes != null) {
+      deletes.forEach(this::delete);
+    }
+  }
+
+  /**
+   * Retrieve a snapshot of the customers currently within the radius of the given standing
+   * query, sorted by userId ascending.
+   *
+   * @param query the standing query
+   * @return List<CustomerLocation> the query's current members
+   */
+  public synchronized List<CustomerLocation> getMembers(StandingQuery query) {
+    List<CustomerLocation> members = new ArrayList<>(query.members().values());
+    members.sort((customer1, customer2) -> Integer.compare(customer1.getUserId(), customer2.getUserId()));
+    return members;
+  }
+
+  /**
+   * Retrieve the number of customers being tracked
+   *
+   * @return int the number of customers
+   */
+  public synchronized int size() {
+    return customers.size();
+  }
+
+  private void fireEntered(StandingQuery query, CustomerLocation customer) {
+    for (ProximityListener listener : listeners) {
+      listener.entered(query, customer);
+    }
+  }
+
+  private void fireLeft(StandingQuery query, CustomerLocation customer) {
+    for (ProximityListener listener : listeners) {
+      listener.left(query, customer);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package io.intercom.problems.proximity;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>LatencyHistogram</code> counts recorded values in log-linear buckets, in the manner of an
+ * HDR histogram. Each power of two range is split into 32 equal buckets so any value is reported
+ * to within about 3% of its true value, whatever its magnitude, in a fixed 15KB of counters.
+ * <p>
+ * Recording is lock free, a single atomic increment of the value's bucket, so histograms can be
+ * shared by any number of threads. Reads are not atomic with respect to concurrent recording
+ * and may be off by the values recorded while they ran.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder total = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Records a value, negative values are recorded as zero
+   *
+   * @param value the value to record, typically a latency in nanoseconds
+   */
+  public void record(long value) {
+    long recorded = Math.max(0, value);
+    counts.incrementAndGet(bucketOf(recorded));
+    count.increment();
+    total.add(recorded);
+    max.accumulate(recorded);
+  }
+
+  /**
+   * Retrieve the number of values recorded
+   *
+   * @return long the number of values recorded
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /**
+   * Retrieve the largest value recorded
+   *
+   * @return long the largest value, or zero if none have been recorded
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Retrieve the mean of the values recorded
+   *
+   * @return double the mean value, or zero if none have been recorded
+   */
+  public double getMean() {
+    long recorded = count.sum();
+    return recorded == 0 ? 0.0 : (double) total.sum() / recorded;
+  }
+
+  /**
+   * Retrieve the value below which the given percentage of recorded values fall, accurate to the
+   * width of its bucket
+   *
+   * @param percentile the percentage of values, between 0 and 100
+   * @return long the highest value in the bucket holding the percentile, or zero if none have
+   * been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    if (!(percentile >= 0.0 && percentile <= 100.0)) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+    long[] snapshot = new long[BUCKETS];
+    long recorded = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      snapshot[b] = counts.get(b);
+      recorded += snapshot[b];
+    }
+    if (recorded == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * recorded));
+    long seen = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      seen += snapshot[b];
+      if (seen >= rank) {
+        return Math.min(highestValueIn(b), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * Discards every recorded value
+   */
+  public void reset() {
+    for (int b = 0; b < BUCKETS; b++) {
+      counts.set(b, 0);
+    }
+    count.reset();
+    total.reset();
+    max.reset();
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestValueIn(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long subBucket = bucket % SUB_BUCKETS;
+    long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+}
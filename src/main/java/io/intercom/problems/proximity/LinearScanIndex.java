@@ -0,0 +1,40 @@
+package io.intercom.problems.proximity;
+
+import java.util.function.IntConsumer;
+
+/**
+ * <code>LinearScanIndex</code> is the brute force <code>SpatialIndex</code>, it reports every
+ * customer in the store as a candidate for every query. Like other indexes it covers the
+ * customers in the store at the time it was built.
+ */
+public class LinearScanIndex implements SpatialIndex {
+
+  private final CustomerLocationStore store;
+
+  private final int size;
+
+  /**
+   * Creates a new index over the given store
+   *
+   * @param store the customers to index
+   */
+  public LinearScanIndex(CustomerLocationStore store) {
+    if (store == null) {
+      throw new IllegalArgumentException("Spatial index requires a valid customer location store");
+    }
+    this.store = store;
+    this.size = store.size();
+  }
+
+  @Override
+  public void forEachCandidate(double latitude, double longitude, double radius, IntConsumer candidates) {
+    for (int i = 0; i < size; i++) {
+      candidates.accept(i);
+    }
+  }
+
+  @Override
+  public CustomerLocationStore getStore() {
+    return store;
+  }
+}
@@ -1,15 +1,83 @@
 package io.intercom.problems.proximity;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
 
+  private static final int DEFAULT_PORT = 8080;
+
+  private static final long RELOAD_MINUTES = 10;
+
   public static void main(String[] args) throws Exception {
     URL customerData = new URL("https://gist.githubusercontent.com/brianw/19896c50afa89ad4dec3/raw/6c11047887a03483c50017c1d451667fd62a53ca/gistfile1.txt");
-    List<CustomerLocation> customers = new CustomerLocationDataLoader().loadCustomerLocationDetails(customerData);
 
-    ProximityCalculator calc = new ProximityCalculator(customers);
+    if (args.length > 0 && "serve".equals(args[0])) {
+      // conditional fetches through the cache make periodic reloads cheap while the data is unchanged
+      CustomerLocationDataLoader loader = new CustomerLocationDataLoader(Paths.get("build", "cache"));
+      ProximityServer server = new ProximityServer(() -> loader.loadCustomerLocationStore(customerData));
+      server.start(new InetSocketAddress(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT));
+      server.reloadEvery(RELOAD_MINUTES, TimeUnit.MINUTES);
+      System.out.println("Serving proximity queries on port " + server.getAddress().getPort());
+      return;
+    }
+
+    if (args.length > 1 && "bulk".equals(args[0])) {
+      // bulk <queries> [results], results go to stdout unless a file is given
+      CustomerLocationSnapshot customers = new CustomerLocationDataLoader().loadCustomerLocationSnapshot(customerData, Paths.get("build", "customers.snapshot"));
+      BulkQueryRunner runner = new BulkQueryRunner(new ProximityCalculator(customers.getIndex()));
+      BulkQueryRunner.Report report;
+      try (InputStream queries = Files.newInputStream(Paths.get(args[1]));
+           OutputStream results = args.length > 2 ? Files.newOutputStream(Paths.get(args[2])) : new FileOutputStream(FileDescriptor.out)) {
+        report = runner.run(queries, results);
+      }
+      System.err.println(report);
+      return;
+    }
+
+    if (args.length > 3 && "worker".equals(args[0])) {
+      // worker <customers> <shard> <shards> [cellSize], serves one shard until its input closes
+      Path customerFile = Paths.get(args[1]);
+      int shard = Integer.parseInt(args[2]);
+      SpatialPartitioning partitioning = new SpatialPartitioning(Integer.parseInt(args[3]),
+          args.length > 4 ? Double.parseDouble(args[4]) : SpatialPartitioning.DEFAULT_CELL_SIZE);
+      try (ProximityServer server = new ProximityServer(() -> partitioning.loadShard(customerFile, shard))) {
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        System.out.println("Serving shard " + shard + " of " + partitioning.getShards() + " on port " + server.getAddress().getPort());
+        while (System.in.read() >= 0) {
+          // the coordinator holds the other end of the input, so a worker never outlives it
+        }
+      }
+      System.exit(0);
+    }
+
+    if (args.length > 2 && "partitioned".equals(args[0])) {
+      // partitioned <customers> <shards>, the guest list answered by local shard workers
+      SpatialPartitioning partitioning = new SpatialPartitioning(Integer.parseInt(args[2]), SpatialPartitioning.DEFAULT_CELL_SIZE);
+      try (PartitionedProximityEngine engine = PartitionedProximityEngine.launchLocal(Paths.get(args[1]), partitioning)) {
+        List<CustomerDistance> invited = engine.findCustomersWithinRadius(ProximityCalculator.IntercomOfficeDublin, 100.0, RadiusResult.Order.USER_ID);
+        System.out.println("Party Guest list (" + invited.size() + " customers)");
+        System.out.println("-----------------------------------");
+        invited.forEach(match -> System.out.println("id: " + match.getCustomer().getUserId() + ", name: " + match.getCustomer().getName()));
+      }
+      return;
+    }
+
+    Path snapshot = Paths.get("build", "customers.snapshot");
+    CustomerLocationSnapshot customers = new CustomerLocationDataLoader().loadCustomerLocationSnapshot(customerData, snapshot);
+
+    // the grid index is restored from the snapshot along with the customers rather than rebuilt
+    ProximityCalculator calc = new ProximityCalculator(customers.getIndex());
     List<CustomerLocation> invited = calc.calculateCustomersWithinRadius(100.0);
 
     System.out.println("Party Guest list (" + invited.size() + " customers)");
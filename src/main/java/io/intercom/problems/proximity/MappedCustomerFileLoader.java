@@ -0,0 +1,190 @@
+package io.intercom.problems.proximity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>MappedCustomerFileLoader</code> loads a local file of customer json, one record per line,
+ * in parallel. The file is cut into chunks at newline boundaries, each chunk is memory mapped and
+ * parsed into its own <code>CustomerLocationStore</code> on a separate core and the chunk stores
+ * are then concatenated in file order.
+ * <p>
+ * Chunks are mapped individually so files larger than the 2GB limit of a single mapping are
+ * supported. Mappings are released when they are garbage collected. Each loader counts the
+ * lines it reads across every load it makes, rejected lines from every chunk are reported to a
+ * single shared <code>RejectedRecords</code>.
+ */
+final class MappedCustomerFileLoader {
+
+  static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private static final int BOUNDARY_SCAN_SIZE = 8 * 1024;
+
+  private final int parallelism;
+
+  private final int chunkSize;
+
+  private final LongAdder lines = new LongAdder();
+
+  private final RejectedRecords rejected;
+
+  MappedCustomerFileLoader(int parallelism, int chunkSize) {
+    this(parallelism, chunkSize, new RejectedRecords());
+  }
+
+  MappedCustomerFileLoader(int parallelism, int chunkSize, RejectedRecords rejected) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallel loading requires a parallelism of at least 1");
+    }
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Parallel loading requires a chunk size of at least 1 byte");
+    }
+    this.parallelism = parallelism;
+    this.chunkSize = chunkSize;
+    this.rejected = rejected;
+  }
+
+  CustomerLocationStore load(Path customerFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(customerFile, StandardOpenOption.READ)) {
+      long[] boundaries = chunkBoundaries(channel);
+
+      List<Callable<CustomerLocationStore>> chunks = new ArrayList<>(boundaries.length - 1);
+      for (int c = 0; c < boundaries.length - 1; c++) {
+        long start = boundaries[c];
+        long end = boundaries[c + 1];
+        chunks.add(() -> parseChunk(channel, start, end));
+      }
+
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        List<CustomerLocationStore> parsed = new ArrayList<>(chunks.size());
+        for (Future<CustomerLocationStore> chunk : pool.invokeAll(chunks)) {
+          parsed.add(chunk.get());
+        }
+        return merge(parsed);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while loading customer file", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Error parsing customer file", e.getCause());
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Cuts the file into chunks of roughly the configured size, moving each cut forward to just
+   * after the next newline so that no line is split between chunks.
+   */
+  private long[] chunkBoundaries(FileChannel channel) throws IOException {
+    long size = channel.size();
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(0L);
+    ByteBuffer scan = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+    long cut = chunkSize;
+    while (cut < size) {
+      cut = nextLineStart(channel, cut, size, scan);
+      if (cut < size) {
+        boundaries.add(cut);
+      }
+      cut += chunkSize;
+    }
+    boundaries.add(size);
+
+    long[] result = new long[boundaries.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = boundaries.get(i);
+    }
+    return result;
+  }
+
+  private long nextLineStart(FileChannel channel, long from, long size, ByteBuffer scan) throws IOException {
+    long position = from;
+    while (position < size) {
+      scan.clear();
+      int read = channel.read(scan, position);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (scan.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += read;
+    }
+    return size;
+  }
+
+  private CustomerLocationStore parseChunk(FileChannel channel, long start, long end) throws IOException {
+    if (end - start > Integer.MAX_VALUE) {
+      throw new IOException("Customer file contains a line too long to be mapped at offset " + start);
+    }
+    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    CustomerRecordParser parser = new CustomerRecordParser(rejected);
+    // roughly 100 bytes of json per customer
+    CustomerLocationStore store = new CustomerLocationStore((int) Math.min(1 << 20, (end - start) / 100 + 1));
+
+    CustomerLocationConsumer append = store::add;
+    byte[] line = new byte[1024];
+    int limit = chunk.limit();
+    int lineStart = 0;
+    long chunkLines = 0;
+    for (int i = 0; i <= limit; i++) {
+      if (i == limit && lineStart == limit) {
+        break;
+      }
+      if (i == limit || chunk.get(i) == '\n') {
+        chunkLines++;
+        int length = i - lineStart;
+        if (length > line.length) {
+          line = new byte[Math.max(length, line.length << 1)];
+        }
+        chunk.position(lineStart);
+        chunk.get(line, 0, length);
+        parser.parse(line, 0, length, append);
+        lineStart = i + 1;
+      }
+    }
+    lines.add(chunkLines);
+    return store;
+  }
+
+  long getLines() {
+    return lines.sum();
+  }
+
+  RejectedRecords getRejected() {
+    return rejected;
+  }
+
+  private CustomerLocationStore merge(List<CustomerLocationStore> parsed) {
+    if (parsed.size() == 1) {
+      return parsed.get(0);
+    }
+    int total = 0;
+    for (CustomerLocationStore chunk : parsed) {
+      total += chunk.size();
+    }
+    CustomerLocationStore merged = new CustomerLocationStore(total);
+    for (CustomerLocationStore chunk : parsed) {
+      merged.addAll(chunk);
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,45 @@
+package io.intercom.problems.proximity;
+
+import java.util.Arrays;
+
+/**
+ * <code>MatchBuffer</code> is a growable buffer of query matches. Each match packs the customer's
+ * userId above its store index so that a primitive sort orders the matches by id.
+ */
+final class MatchBuffer {
+
+  private long[] keys = new long[16];
+
+  private int size;
+
+  void add(int userId, int index) {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size << 1);
+    }
+    keys[size++] = ((long) userId << 32) | index;
+  }
+
+  void addAll(MatchBuffer other) {
+    if (size + other.size > keys.length) {
+      keys = Arrays.copyOf(keys, Math.max(size + other.size, keys.length << 1));
+    }
+    System.arraycopy(other.keys, 0, keys, size, other.size);
+    size += other.size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Sorts the matches by userId and returns their store indexes in that order
+   */
+  int[] sortedByUserId() {
+    Arrays.sort(keys, 0, size);
+    int[] indices = new int[size];
+    for (int x = 0; x < size; x++) {
+      indices[x] = (int) keys[x];
+    }
+    return indices;
+  }
+}
@@ -0,0 +1,72 @@
+package io.intercom.problems.proximity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <code>MultiPolygon</code> is a simple immutable region made up of one or more
+ * <code>Polygon</code>s, such as a city boundary with outlying islands or a set of delivery
+ * zones. A point is inside the region if it is inside any of its polygons.
+ */
+public final class MultiPolygon {
+
+  private final List<Polygon> polygons;
+
+  /**
+   * Creates a region from the given polygons
+   *
+   * @param polygons the parts of the region
+   */
+  public MultiPolygon(List<Polygon> polygons) {
+    if (polygons == null || polygons.isEmpty()) {
+      throw new IllegalArgumentException("Multi polygons require at least one polygon");
+    }
+    for (Polygon polygon : polygons) {
+      if (polygon == null) {
+        throw new IllegalArgumentException("Multi polygons require valid polygons");
+      }
+    }
+    this.polygons = Collections.unmodifiableList(new ArrayList<>(polygons));
+  }
+
+  /**
+   * Creates a region from the given polygons
+   *
+   * @param polygons the parts of the region
+   * @return MultiPolygon the region made up of the polygons
+   */
+  public static MultiPolygon of(Polygon... polygons) {
+    return new MultiPolygon(Arrays.asList(polygons));
+  }
+
+  /**
+   * Retrieve the parts of the region
+   *
+   * @return List<Polygon> the region's polygons
+   */
+  public List<Polygon> getPolygons() {
+    return polygons;
+  }
+
+  /**
+   * Tests whether the given point lies inside any of the region's polygons
+   *
+   * @param point the point to test
+   * @return true if the point is inside the region
+   */
+  public boolean contains(Coordinates point) {
+    return new PreparedRegion(polygons).contains(point.getLatitude(), point.getLongitude());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o || (o instanceof MultiPolygon && polygons.equals(((MultiPolygon) o).polygons));
+  }
+
+  @Override
+  public int hashCode() {
+    return polygons.hashCode();
+  }
+}
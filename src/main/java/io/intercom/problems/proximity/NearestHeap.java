@@ -0,0 +1,133 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>NearestHeap</code> keeps the K nearest customers offered to it in a bounded binary max
+ * heap held in primitive arrays, so the farthest of the current K is always at the root and
+ * can be replaced in O(log K). Ties in distance are broken by userId, then by the index offered
+ * with each customer, so results are stable and match a full sort on the same keys.
+ */
+final class NearestHeap {
+
+  private final int capacity;
+
+  private final double[] distances;
+
+  private final int[] indices;
+
+  private final int[] userIds;
+
+  private int size;
+
+  NearestHeap(int capacity) {
+    this.capacity = capacity;
+    this.distances = new double[capacity];
+    this.indices = new int[capacity];
+    this.userIds = new int[capacity];
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isFull() {
+    return size == capacity;
+  }
+
+  /**
+   * Retrieve the distance a customer must be within to be admitted once the heap is full, a
+   * customer at exactly this distance is admitted only if it wins the tie
+   */
+  double threshold() {
+    if (capacity == 0) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    return isFull() ? distances[0] : Double.POSITIVE_INFINITY;
+  }
+
+  void offer(double distance, int userId, int index) {
+    if (capacity == 0) {
+      return;
+    }
+    if (size < capacity) {
+      int i = size++;
+      set(i, distance, userId, index);
+      siftUp(i);
+    } else if (farther(distances[0], userIds[0], indices[0], distance, userId, index)) {
+      set(0, distance, userId, index);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Empties the heap, returning the store indexes of its customers nearest first. The matching
+   * distances are written to the given array.
+   */
+  int[] drainNearestFirst(double[] sortedDistances) {
+    int[] sorted = new int[size];
+    for (int out = size - 1; out >= 0; out--) {
+      sorted[out] = indices[0];
+      sortedDistances[out] = distances[0];
+      size--;
+      if (size > 0) {
+        set(0, distances[size], userIds[size], indices[size]);
+        siftDown(0);
+      }
+    }
+    return sorted;
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (!farther(distances[i], userIds[i], indices[i], distances[parent], userIds[parent], indices[parent])) {
+        return;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i) {
+    while (true) {
+      int left = 2 * i + 1;
+      if (left >= size) {
+        return;
+      }
+      int largest = left;
+      int right = left + 1;
+      if (right < size && farther(distances[right], userIds[right], indices[right], distances[left], userIds[left], indices[left])) {
+        largest = right;
+      }
+      if (!farther(distances[largest], userIds[largest], indices[largest], distances[i], userIds[i], indices[i])) {
+        return;
+      }
+      swap(i, largest);
+      i = largest;
+    }
+  }
+
+  private static boolean farther(double distance1, int userId1, int index1, double distance2, int userId2, int index2) {
+    if (distance1 != distance2) {
+      return distance1 > distance2;
+    }
+    return userId1 > userId2 || (userId1 == userId2 && index1 > index2);
+  }
+
+  private void set(int i, double distance, int userId, int index) {
+    distances[i] = distance;
+    userIds[i] = userId;
+    indices[i] = index;
+  }
+
+  private void swap(int i, int j) {
+    double distance = distances[i];
+    int userId = userIds[i];
+    int index = indices[i];
+    set(i, distances[j], userIds[j], indices[j]);
+    set(j, distance, userId, index);
+  }
+}
@@ -0,0 +1,283 @@
+package io.intercom.problems.proximity;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>OffHeapCustomerStore</code> holds customer ids and coordinates outside the java heap in
+ * direct <code>ByteBuffer</code>s, so populations of hundreds of millions of customers need
+ * neither a huge heap nor garbage collection of it. Customers are kept in fixed size segments,
+ * each a set of id, latitude and longitude columns, allocated as the store grows. Names are not
+ * held, scans report customers by their index in the store.
+ * <p>
+ * Off heap memory is released explicitly by closing the store, after which it can no longer be
+ * used. The memory held by a store, and by all open stores together, is reported so it can be
+ * monitored. Stores are not thread safe while being filled, once filled they can be scanned by
+ * many threads but must not be closed while a scan is running.
+ */
+public final class OffHeapCustomerStore implements Closeable {
+
+  static final int DEFAULT_SEGMENT_CAPACITY = 1 << 20;
+
+  static final int BYTES_PER_CUSTOMER = 4 + 8 + 8;
+
+  private static final AtomicLong TOTAL_ALLOCATED_BYTES = new AtomicLong();
+
+  private final int segmentCapacity;
+
+  private final List<Segment> segments = new ArrayList<>();
+
+  private int size;
+
+  private volatile boolean closed;
+
+  /**
+   * Creates a new empty store, off heap memory is allocated as customers are added
+   */
+  public OffHeapCustomerStore() {
+    this(DEFAULT_SEGMENT_CAPACITY);
+  }
+
+  OffHeapCustomerStore(int segmentCapacity) {
+    if (segmentCapacity < 1 || segmentCapacity > Integer.MAX_VALUE / 8) {
+      throw new IllegalArgumentException("Off heap store segments must hold between 1 and " + Integer.MAX_VALUE / 8 + " customers");
+    }
+    this.segmentCapacity = segmentCapacity;
+  }
+
+  /**
+   * Creates an off heap store holding the ids and coordinates of the customers in the given
+   * store, in the same order so indexes in both stores refer to the same customer
+   *
+   * @param store the customers to copy off heap
+   * @return OffHeapCustomerStore a new store that must be closed once finished with
+   */
+  public static OffHeapCustomerStore from(CustomerLocationStore store) {
+    if (store == null) {
+      throw new IllegalArgumentException("Off heap store requires a valid customer location store");
+    }
+    OffHeapCustomerStore offHeap = new OffHeapCustomerStore();
+    int[] userIds = store.userIdColumn();
+    double[] latitudes = store.latitudeColumn();
+    double[] longitudes = store.longitudeColumn();
+    for (int i = 0; i < store.size(); i++) {
+      offHeap.add(userIds[i], latitudes[i], longitudes[i]);
+    }
+    return offHeap;
+  }
+
+  /**
+   * Appends a customer with the given id and coordinates to the store
+   *
+   * @param userId the customer's id
+   * @param latitude the customer's latitude
+   * @param longitude the customer's longitude
+   * @return int the index at which the customer was stored
+   */
+  public int add(int userId, double latitude, double longitude) {
+    checkOpen();
+    if (size == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Off heap store is full");
+    }
+    int offset = size % segmentCapacity;
+    if (offset == 0 && size / segmentCapacity == segments.size()) {
+      segments.add(new Segment(segmentCapacity));
+    }
+    Segment segment = segments.get(size / segmentCapacity);
+    segment.userIds.put(offset, userId);
+    segment.latitudes.put(offset, latitude);
+    segment.longitudes.put(offset, longitude);
+    segment.size = offset + 1;
+    return size++;
+  }
+
+  /**
+   * Retrieve the number of customers in the store
+   *
+   * @return int the number of customers held
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Retrieve the userId of the customer at the given index
+   *
+   * @param index the index of the customer
+   * @return int the customer's userId
+   */
+  public int getUserId(int index) {
+    checkIndex(index);
+    return segments.get(index / segmentCapacity).userIds.get(index % segmentCapacity);
+  }
+
+  /**
+   * Retrieve the latitude of the customer at the given index
+   *
+   * @param index the index of the customer
+   * @return double the customer's latitude
+   */
+  public double getLatitude(int index) {
+    checkIndex(index);
+    return segments.get(index / segmentCapacity).latitudes.get(index % segmentCapacity);
+  }
+
+  /**
+   * Retrieve the longitude of the customer at the given index
+   *
+   * @param index the index of the customer
+   * @return double the customer's longitude
+   */
+  public double getLongitude(int index) {
+    checkIndex(index);
+    return segments.get(index / segmentCapacity).longitudes.get(index % segmentCapacity);
+  }
+
+  /**
+   * Retrieve the off heap memory allocated by this store, including space reserved for
+   * customers not yet added
+   *
+   * @return long the number of bytes allocated outside the heap
+   */
+  public long getAllocatedBytes() {
+    return closed ? 0 : (long) segments.size() * segmentCapacity * BYTES_PER_CUSTOMER;
+  }
+
+  /**
+   * Retrieve the off heap memory holding customers already added to this store
+   *
+   * @return long the number of bytes in use outside the heap
+   */
+  public long getUsedBytes() {
+    return closed ? 0 : (long) size * BYTES_PER_CUSTOMER;
+  }
+
+  /**
+   * Retrieve the off heap memory allocated by every store that has not yet been closed
+   *
+   * @return long the number of bytes allocated outside the heap by all open stores
+   */
+  public static long getTotalAllocatedBytes() {
+    return TOTAL_ALLOCATED_BYTES.get();
+  }
+
+  /**
+   * Tests whether the store has been closed and its memory released
+   *
+   * @return true if the store has been closed
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Releases the store's off heap memory immediately rather than when the store is garbage
+   * collected. The store can't be used once closed, closing it again has no effect.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (Segment segment : segments) {
+      segment.release();
+    }
+    TOTAL_ALLOCATED_BYTES.addAndGet(-(long) segments.size() * segmentCapacity * BYTES_PER_CUSTOMER);
+    segments.clear();
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Off heap store has been closed");
+    }
+  }
+
+  private void checkIndex(int index) {
+    checkOpen();
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is outside the store of size " + size);
+    }
+  }
+
+  /*
+   * Segment access for scans within the package.
+   */
+  List<Segment> segments() {
+    checkOpen();
+    return segments;
+  }
+
+  int segmentCapacity() {
+    return segmentCapacity;
+  }
+
+  /**
+   * A fixed size block of customers with each column in its own direct buffer
+   */
+  static final class Segment {
+
+    final IntBuffer userIds;
+
+    final DoubleBuffer latitudes;
+
+    final DoubleBuffer longitudes;
+
+    private final ByteBuffer[] buffers;
+
+    int size;
+
+    Segment(int capacity) {
+      ByteBuffer userIdBuffer = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder());
+      ByteBuffer latitudeBuffer = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder());
+      ByteBuffer longitudeBuffer = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder());
+      this.buffers = new ByteBuffer[]{userIdBuffer, latitudeBuffer, longitudeBuffer};
+      this.userIds = userIdBuffer.asIntBuffer();
+      this.latitudes = latitudeBuffer.asDoubleBuffer();
+      this.longitudes = longitudeBuffer.asDoubleBuffer();
+      TOTAL_ALLOCATED_BYTES.addAndGet((long) capacity * BYTES_PER_CUSTOMER);
+    }
+
+    private void release() {
+      for (ByteBuffer buffer : buffers) {
+        free(buffer);
+      }
+    }
+  }
+
+  /**
+   * Frees a direct buffer's memory now rather than leaving it to the garbage collector. There is
+   * no public api for this on java 8 so the buffer's cleaner is invoked reflectively, falling back
+   * to <code>Unsafe.invokeCleaner</code> on later jvms. If neither is available the memory is
+   * left to be freed by the garbage collector.
+   */
+  private static void free(ByteBuffer buffer) {
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        Method clean = cleaner.getClass().getMethod("clean");
+        clean.setAccessible(true);
+        clean.invoke(cleaner);
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+      } catch (ReflectiveOperationException | RuntimeException ignored) {
+        // left to the garbage collector
+      }
+    }
+  }
+}
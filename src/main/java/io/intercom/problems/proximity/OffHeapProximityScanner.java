@@ -0,0 +1,153 @@
+package io.intercom.problems.proximity;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * <code>OffHeapProximityScanner</code> answers radius and nearest customer queries by scanning an
+ * <code>OffHeapCustomerStore</code> in place. Coordinates are read straight from the store's
+ * direct buffers and tested with a <code>DistanceKernel</code>, so nothing is copied onto the
+ * heap besides the indexes of the matching customers. Results agree with a
+ * <code>ProximityCalculator</code> using the same formula over the same customers.
+ * <p>
+ * Scanners hold no state of their own and may be shared between threads, the store must not be
+ * closed while a scan is running.
+ */
+public class OffHeapProximityScanner {
+
+  /* the nearest customer scan only narrows its bounding box once the current Kth nearest
+   * distance has shrunk by this factor, so the box isn't rebuilt for every closer customer */
+  static final double NEAREST_BOX_SHRINK = 0.9;
+
+  private final OffHeapCustomerStore store;
+
+  private final DistanceFormula formula;
+
+  /**
+   * Creates a scanner over the given store using the legacy spherical law of cosines
+   *
+   * @param store the customers to scan
+   */
+  public OffHeapProximityScanner(OffHeapCustomerStore store) {
+    this(store, DistanceFormula.SPHERICAL_LAW_OF_COSINES);
+  }
+
+  /**
+   * Creates a scanner over the given store
+   *
+   * @param store the customers to scan
+   * @param formula the formula used to calculate distances
+   */
+  public OffHeapProximityScanner(OffHeapCustomerStore store, DistanceFormula formula) {
+    if (store == null) {
+      throw new IllegalArgumentException("Off heap scanner requires a valid off heap customer store");
+    }
+    if (formula == null) {
+      throw new IllegalArgumentException("Off heap scanner requires a valid distance formula");
+    }
+    this.store = store;
+    this.formula = formula;
+  }
+
+  /**
+   * Finds the customers within the given distance of the center
+   *
+   * @param center the coordinates from which distances are measured.
+   * @param distance the distance in kilometers within which a customer must be.
+   * @return int[] the store indexes of the customers within the distance, ordered by userId ascending
+   */
+  public int[] findWithinRadius(Coordinates center, double distance) {
+    if (center == null) {
+      throw new IllegalArgumentException("Radius queries require valid center coordinates");
+    }
+    DistanceKernel kernel = new DistanceKernel(formula, center.getLatitude(), center.getLongitude(), distance);
+    MatchBuffer matches = new MatchBuffer();
+    List<OffHeapCustomerStore.Segment> segments = store.segments();
+    int base = 0;
+    for (OffHeapCustomerStore.Segment segment : segments) {
+      IntBuffer userIds = segment.userIds;
+      DoubleBuffer latitudes = segment.latitudes;
+      DoubleBuffer longitudes = segment.longitudes;
+      for (int i = 0, size = segment.size; i < size; i++) {
+        if (kernel.isWithinRadius(latitudes.get(i), longitudes.get(i))) {
+          matches.add(userIds.get(i), base + i);
+        }
+      }
+      base += store.segmentCapacity();
+    }
+    return matches.sortedByUserId();
+  }
+
+  /**
+   * Finds the K customers nearest the center in a single pass over the store. Once K customers
+   * have been seen, only customers inside the box enclosing the current Kth nearest distance
+   * have their distance calculated. Ties in distance are broken by userId.
+   *
+   * @param center the coordinates from which distances are measured.
+   * @param k the number of customers to find.
+   * @return int[] the store indexes of the nearest customers, nearest first. Fewer than K are
+   * returned if there are not enough customers.
+   */
+  public int[] findNearest(Coordinates center, int k) {
+    if (center == null) {
+      throw new IllegalArgumentException("Nearest customer queries require valid center coordinates");
+    }
+    if (k < 0) {
+      throw new IllegalArgumentException("Nearest customer queries require a non negative number of customers");
+    }
+    double latitude = center.getLatitude();
+    double longitude = center.getLongitude();
+    NearestHeap nearest = new NearestHeap(Math.min(k, store.size()));
+    DistanceKernel kernel = new DistanceKernel(formula, latitude, longitude, Double.POSITIVE_INFINITY);
+
+    List<OffHeapCustomerStore.Segment> segments = store.segments();
+    int base = 0;
+    for (OffHeapCustomerStore.Segment segment : segments) {
+      IntBuffer userIds = segment.userIds;
+      DoubleBuffer latitudes = segment.latitudes;
+      DoubleBuffer longitudes = segment.longitudes;
+      for (int i = 0, size = segment.size; i < size; i++) {
+        double distance = kernel.distanceIfWithinRadius(latitudes.get(i), longitudes.get(i));
+        if (distance != Double.POSITIVE_INFINITY && distance <= nearest.threshold()) {
+          nearest.offer(distance, userIds.get(i), base + i);
+          if (nearest.isFull() && nearest.threshold() < kernel.getRadius() * NEAREST_BOX_SHRINK) {
+            kernel = new DistanceKernel(formula, latitude, longitude, nearest.threshold());
+          }
+        }
+      }
+      base += store.segmentCapacity();
+    }
+    return nearest.drainNearestFirst(new double[nearest.size()]);
+  }
+
+  /**
+   * Calculates the distance from the center to the customer at the given index using the
+   * scanner's formula
+   *
+   * @param center the coordinates from which the distance is measured.
+   * @param index the store index of the customer
+   * @return double the distance in kilometers from the center to the customer
+   */
+  public double distanceTo(Coordinates center, int index) {
+    return formula.distance(center.getLatitude(), center.getLongitude(), store.getLatitude(index), store.getLongitude(index));
+  }
+
+  /**
+   * Retrieve the store this scanner operates on
+   *
+   * @return OffHeapCustomerStore the customers being scanned
+   */
+  public OffHeapCustomerStore getStore() {
+    return store;
+  }
+
+  /**
+   * Retrieve the formula used to calculate distances
+   *
+   * @return DistanceFormula the formula in use
+   */
+  public DistanceFormula getFormula() {
+    return formula;
+  }
+}
@@ -0,0 +1,399 @@
+package io.intercom.problems.proximity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <code>PartitionedProximityEngine</code> coordinates proximity queries across customers sharded
+ * by <code>SpatialPartitioning</code> over several worker processes, each serving its shard with
+ * a <code>ProximityServer</code>. A query is scattered in parallel to only the shards owning
+ * cells it may overlap, and the results gathered from them are merged in userId or distance
+ * order. Nearest customer queries search a radius doubled until the shards it reaches hold K
+ * customers within it, so they too only reach the shards around the center.
+ * <p>
+ * Workers may be started separately and handed to the engine by address, or launched by the
+ * engine as local processes talking over loopback, which it then owns and stops when closed.
+ * Engines may be shared between threads.
+ */
+public class PartitionedProximityEngine implements Closeable {
+
+  /* the time allowed for a launched worker to load its shard and start listening */
+  static final long WORKER_START_SECONDS = 60;
+
+  /* the time allowed for a shard to accept a query's connection, and to answer it once connected.
+   * A query fails rather than waits on a worker that has hung */
+  static final int SHARD_CONNECT_TIMEOUT_MILLIS = 3000;
+
+  static final int SHARD_READ_TIMEOUT_MILLIS = 10000;
+
+  private static final Pattern WORKER_LISTENING = Pattern.compile("Serving shard \\d+ of \\d+ on port (\\d+)");
+
+  /* the first radius searched by nearest customer queries, doubled until enough are found.
+   * Anything beyond half the earth's circumference covers every customer */
+  private static final double INITIAL_NEAREST_RADIUS = 10.0;
+
+  private static final double MAX_DISTANCE = Math.PI * Coordinates.MEAN_EARTH_RADIUS * 1.01;
+
+  private static final Comparator<CustomerDistance> BY_USER_ID =
+      Comparator.comparingInt(match -> match.getCustomer().getUserId());
+
+  private static final Comparator<CustomerDistance> BY_DISTANCE =
+      Comparator.<CustomerDistance>comparingDouble(CustomerDistance::getDistance).thenComparing(BY_USER_ID);
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final SpatialPartitioning partitioning;
+
+  private final List<String> workers;
+
+  private final List<Process> processes;
+
+  private final ExecutorService scatter;
+
+  private final AtomicLongArray shardRequests;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  /**
+   * Creates an engine over workers already serving their shards
+   *
+   * @param partitioning the partitioning the workers' shards were made with
+   * @param workers the address of each shard's worker, in shard order
+   */
+  public PartitionedProximityEngine(SpatialPartitioning partitioning, List<InetSocketAddress> workers) {
+    this(partitioning, workers, Collections.<Process>emptyList());
+  }
+
+  private PartitionedProximityEngine(SpatialPartitioning partitioning, List<InetSocketAddress> workers, List<Process> processes) {
+    if (partitioning == null) {
+      throw new IllegalArgumentException("Partitioned engine requires a valid spatial partitioning");
+    }
+    if (workers == null || workers.size() != partitioning.getShards()) {
+      throw new IllegalArgumentException("Partitioned engine requires a worker address for every shard");
+    }
+    this.partitioning = partitioning;
+    this.workers = new ArrayList<>(workers.size());
+    for (InetSocketAddress worker : workers) {
+      this.workers.add("http://" + worker.getHostString() + ":" + worker.getPort());
+    }
+    this.processes = processes;
+    this.scatter = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "partitioned-scatter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.shardRequests = new AtomicLongArray(workers.size());
+  }
+
+  /**
+   * Launches a worker process per shard on this machine, each loading its shard from the given
+   * customer file and listening on a free loopback port, and creates an engine over them
+   *
+   * @param customerFile the json customer data every worker loads its shard from
+   * @param partitioning how the customers are to be sharded
+   * @return PartitionedProximityEngine an engine owning the launched workers
+   * @throws IOException if a worker can't be launched or fails to start listening
+   */
+  public static PartitionedProximityEngine launchLocal(Path customerFile, SpatialPartitioning partitioning) throws IOException {
+    if (customerFile == null || partitioning == null) {
+      throw new IllegalArgumentException("Launching workers requires a valid customer file and spatial partitioning");
+    }
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    List<Process> processes = new ArrayList<>(partitioning.getShards());
+    try {
+      for (int shard = 0; shard < partitioning.getShards(); shard++) {
+        processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Main.class.getName(), "worker",
+            customerFile.toAbsolutePath().toString(), Integer.toString(shard), Integer.toString(partitioning.getShards()),
+            Double.toString(partitioning.getCellSize()))
+            .redirectErrorStream(true)
+            .start());
+      }
+      // the workers load their shards concurrently, wait for each in turn
+      List<InetSocketAddress> workers = new ArrayList<>(processes.size());
+      for (int shard = 0; shard < processes.size(); shard++) {
+        workers.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), awaitPort(processes.get(shard), shard)));
+      }
+      return new PartitionedProximityEngine(partitioning, workers, processes);
+    } catch (IOException | RuntimeException e) {
+      processes.forEach(Process::destroy);
+      throw e;
+    }
+  }
+
+  private static int awaitPort(Process process, int shard) throws IOException {
+    BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    CompletableFuture<Integer> port = new CompletableFuture<>();
+    Thread reader = new Thread(() -> {
+      Logger log = LoggerFactory.getLogger(PartitionedProximityEngine.class);
+      try {
+        String line;
+        while ((line = output.readLine()) != null) {
+          Matcher listening = WORKER_LISTENING.matcher(line);
+          if (!port.isDone() && listening.find()) {
+            port.complete(Integer.parseInt(listening.group(1)));
+          } else {
+            log.debug("shard {}: {}", shard, line);
+          }
+        }
+      } catch (IOException e) {
+        log.debug("Stopped reading output of shard {}. {}", shard, e.getMessage());
+      }
+      port.completeExceptionally(new IOException("Worker for shard " + shard + " exited before listening"));
+    }, "shard-" + shard + "-output");
+    // keeps draining the worker's output for as long as it runs so it never blocks writing
+    reader.setDaemon(true);
+    reader.start();
+    try {
+      return port.get(WORKER_START_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      throw (IOException) e.getCause();
+    } catch (TimeoutException e) {
+      throw new IOException("Worker for shard " + shard + " did not start listening within " + WORKER_START_SECONDS + "s");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for worker for shard " + shard);
+    }
+  }
+
+  /**
+   * Finds the customers within the given distance radius of the given center across every shard
+   * the radius reaches
+   *
+   * @param center the coordinates from which distances are measured
+   * @param distance radius in kilometers within which customers have to be located to get included
+   * @param order the order to return the customers in
+   * @return List<CustomerDistance> the customers within the radius with their distances, in order
+   * @throws IOException if a shard's worker can't be reached or fails to answer
+   */
+  public List<CustomerDistance> findCustomersWithinRadius(Coordinates center, double distance, RadiusResult.Order order) throws IOException {
+    checkCenter(center);
+    if (!(distance >= 0.0 && distance < Double.POSITIVE_INFINITY)) {
+      throw new IllegalArgumentException("Radius queries require a non negative, finite radius");
+    }
+    if (order == null) {
+      throw new IllegalArgumentException("Radius queries require a valid order");
+    }
+    return gather(center, distance, order, Integer.MAX_VALUE).matches;
+  }
+
+  /**
+   * Finds the K customers nearest to the given center, ordered by distance ascending with ties
+   * broken by userId, searching outwards from the center until K have been found
+   *
+   * @param center the coordinates from which distances are measured
+   * @param k the number of customers to find
+   * @return List<CustomerDistance> the nearest customers with their distances, nearest first.
+   * Fewer than K are returned if there are not enough customers.
+   * @throws IOException if a shard's worker can't be reached or fails to answer
+   */
+  public List<CustomerDistance> calculateNearestCustomers(Coordinates center, int k) throws IOException {
+    checkCenter(center);
+    if (k < 0) {
+      throw new IllegalArgumentException("Nearest customer queries require a non negative number of customers");
+    }
+    double radius = INITIAL_NEAREST_RADIUS;
+    while (true) {
+      Gathered gathered = gather(center, radius, RadiusResult.Order.DISTANCE, k);
+      // every customer outside the radius is farther than every customer found inside it
+      if (gathered.total >= k || radius >= MAX_DISTANCE) {
+        return gathered.matches.size() > k ? new ArrayList<>(gathered.matches.subList(0, k)) : gathered.matches;
+      }
+      radius = Math.min(radius * 2, MAX_DISTANCE);
+    }
+  }
+
+  /**
+   * The merged matches from the shards a query reached, and the total number within its radius
+   */
+  private static final class Gathered {
+
+    final List<CustomerDistance> matches;
+
+    final long total;
+
+    Gathered(List<CustomerDistance> matches, long total) {
+      this.matches = matches;
+      this.total = total;
+    }
+  }
+
+  private Gathered gather(Coordinates center, double radius, RadiusResult.Order order, int limit) throws IOException {
+    BitSet shards = partitioning.shardsOverlapping(center.getLatitude(), center.getLongitude(), radius);
+    String query = "/radius?lat=" + center.getLatitude() + "&lon=" + center.getLongitude() + "&radius=" + radius
+        + "&order=" + (order == RadiusResult.Order.DISTANCE ? "distance" : "user_id")
+        + (limit == Integer.MAX_VALUE ? "" : "&limit=" + limit);
+
+    int[] requested = new int[shards.cardinality()];
+    List<Future<JsonNode>> responses = new ArrayList<>(requested.length);
+    for (int shard = shards.nextSetBit(0), r = 0; shard >= 0; shard = shards.nextSetBit(shard + 1), r++) {
+      int target = shard;
+      requested[r] = shard;
+      shardRequests.incrementAndGet(shard);
+      responses.add(scatter.submit(() -> request(target, query)));
+    }
+
+    // every shard is queried at once, so all share the one deadline
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHARD_CONNECT_TIMEOUT_MILLIS + SHARD_READ_TIMEOUT_MILLIS);
+    List<List<CustomerDistance>> results = new ArrayList<>(responses.size());
+    long total = 0;
+    for (int r = 0; r < responses.size(); r++) {
+      JsonNode result = await(requested[r], responses.get(r), deadline);
+      total += result.get("total").asLong();
+      List<CustomerDistance> matches = new ArrayList<>(result.get("customers").size());
+      for (JsonNode customer : result.get("customers")) {
+        matches.add(new CustomerDistance(new CustomerLocation(customer.get("user_id").asInt(), customer.get("name").asText(),
+            customer.get("latitude").asDouble(), customer.get("longitude").asDouble()), customer.get("distance").asDouble()));
+      }
+      results.add(matches);
+    }
+    return new Gathered(merge(results, order == RadiusResult.Order.DISTANCE ? BY_DISTANCE : BY_USER_ID, limit), total);
+  }
+
+  private JsonNode request(int shard, String query) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(workers.get(shard) + query).openConnection();
+    connection.setConnectTimeout(SHARD_CONNECT_TIMEOUT_MILLIS);
+    connection.setReadTimeout(SHARD_READ_TIMEOUT_MILLIS);
+    try {
+      int status = connection.getResponseCode();
+      if (status != 200) {
+        JsonNode error;
+        try (InputStream in = connection.getErrorStream()) {
+          error = in == null ? null : mapper.readTree(in);
+        }
+        throw new IOException("Shard " + shard + " failed with status " + status
+            + (error != null && error.has("error") ? ": " + error.get("error").asText() : ""));
+      }
+      try (InputStream in = connection.getInputStream()) {
+        return mapper.readTree(in);
+      }
+    } catch (IOException e) {
+      throw new IOException("Could not query shard " + shard + " at " + workers.get(shard) + ". " + e.getMessage(), e);
+    }
+  }
+
+  private JsonNode await(int shard, Future<JsonNode> response, long deadline) throws IOException {
+    try {
+      return response.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      response.cancel(true);
+      throw new IOException("Shard " + shard + " at " + workers.get(shard) + " did not answer within "
+          + (SHARD_CONNECT_TIMEOUT_MILLIS + SHARD_READ_TIMEOUT_MILLIS) + "ms");
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException("Shard query failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for shards");
+    }
+  }
+
+  /**
+   * Merges the already ordered results of each shard, stopping once the limit is reached
+   */
+  private static List<CustomerDistance> merge(List<List<CustomerDistance>> results, Comparator<CustomerDistance> order, int limit) {
+    if (results.size() == 1) {
+      return results.get(0);
+    }
+    // each entry is a shard's result and the position of the next match to take from it
+    PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, results.size()),
+        (head1, head2) -> order.compare(results.get(head1[0]).get(head1[1]), results.get(head2[0]).get(head2[1])));
+    int size = 0;
+    for (int r = 0; r < results.size(); r++) {
+      size += results.get(r).size();
+      if (!results.get(r).isEmpty()) {
+        heads.add(new int[] {r, 0});
+      }
+    }
+    List<CustomerDistance> merged = new ArrayList<>(Math.min(size, limit));
+    while (!heads.isEmpty() && merged.size() < limit) {
+      int[] head = heads.poll();
+      List<CustomerDistance> result = results.get(head[0]);
+      merged.add(result.get(head[1]++));
+      if (head[1] < result.size()) {
+        heads.add(head);
+      }
+    }
+    return merged;
+  }
+
+  private static void checkCenter(Coordinates center) {
+    if (center == null || center.getLatitude() == null || center.getLongitude() == null
+        || !(center.getLatitude() >= -90.0 && center.getLatitude() <= 90.0
+        && center.getLongitude() >= -180.0 && center.getLongitude() <= 180.0)) {
+      throw new IllegalArgumentException("Partitioned queries require a center with a latitude within [-90, 90] and longitude within [-180, 180]");
+    }
+  }
+
+  /**
+   * Retrieve the number of requests sent to a shard's worker
+   *
+   * @param shard the shard
+   * @return long the number of requests made of it, queries reaching only other shards send none
+   */
+  public long getShardRequests(int shard) {
+    return shardRequests.get(shard);
+  }
+
+  /**
+   * Retrieve the partitioning the engine routes queries by
+   *
+   * @return SpatialPartitioning the partitioning of the shards
+   */
+  public SpatialPartitioning getPartitioning() {
+    return partitioning;
+  }
+
+  /**
+   * Stops scattering queries and stops any workers the engine launched
+   */
+  @Override
+  public void close() {
+    scatter.shutdownNow();
+    for (Process process : processes) {
+      process.destroy();
+    }
+    for (Process process : processes) {
+      try {
+        if (!process.waitFor(5, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        process.destroyForcibly();
+      }
+    }
+    if (!processes.isEmpty()) {
+      log.info("Stopped {} shard workers", processes.size());
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package io.intercom.problems.proximity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <code>Polygon</code> is a simple immutable region on the map bounded by a ring of vertices, the
+ * shell, less any holes cut out of it, as found in GeoJSON. Edges are straight lines in
+ * latitude/longitude, so a polygon is a region of the map rather than of the sphere, and a point
+ * is inside if it is inside the shell and outside every hole.
+ * <p>
+ * Rings may be given open or closed, a closing vertex equal to the first is dropped. Longitudes
+ * don't wrap, a region crossing the antimeridian should be split into a
+ * <code>MultiPolygon</code> with a part either side of it. Points exactly on an edge may be
+ * reported either inside or outside.
+ */
+public final class Polygon {
+
+  private final double[][] latitudes;
+
+  private final double[][] longitudes;
+
+  private final int hashCode;
+
+  /**
+   * Creates a polygon with no holes
+   *
+   * @param shell the vertices of the polygon's boundary
+   */
+  public Polygon(List<Coordinates> shell) {
+    this(shell, Collections.<List<Coordinates>>emptyList());
+  }
+
+  /**
+   * Creates a polygon with holes
+   *
+   * @param shell the vertices of the polygon's outer boundary
+   * @param holes the vertices of the boundary of each hole
+   */
+  public Polygon(List<Coordinates> shell, List<List<Coordinates>> holes) {
+    if (shell == null || holes == null) {
+      throw new IllegalArgumentException("Polygons require a valid shell and list of holes");
+    }
+    this.latitudes = new double[holes.size() + 1][];
+    this.longitudes = new double[holes.size() + 1][];
+    ring(0, shell);
+    for (int h = 0; h < holes.size(); h++) {
+      ring(h + 1, holes.get(h));
+    }
+    this.hashCode = 31 * Arrays.deepHashCode(latitudes) + Arrays.deepHashCode(longitudes);
+  }
+
+  private void ring(int r, List<Coordinates> vertices) {
+    if (vertices == null) {
+      throw new IllegalArgumentException("Polygon rings require a valid list of vertices");
+    }
+    int size = vertices.size();
+    if (size > 1 && vertices.get(0) != null && vertices.get(size - 1) != null
+        && vertices.get(0).getLatitude().equals(vertices.get(size - 1).getLatitude())
+        && vertices.get(0).getLongitude().equals(vertices.get(size - 1).getLongitude())) {
+      size--;
+    }
+    if (size < 3) {
+      throw new IllegalArgumentException("Polygon rings require at least 3 distinct vertices");
+    }
+    latitudes[r] = new double[size];
+    longitudes[r] = new double[size];
+    for (int v = 0; v < size; v++) {
+      Coordinates vertex = vertices.get(v);
+      if (vertex == null) {
+        throw new IllegalArgumentException("Polygon rings require valid vertices");
+      }
+      double latitude = vertex.getLatitude();
+      double longitude = vertex.getLongitude();
+      if (!(latitude >= -90.0 && latitude <= 90.0 && longitude >= -180.0 && longitude <= 180.0)) {
+        throw new IllegalArgumentException("Polygon vertices require latitudes within [-90, 90] and longitudes within [-180, 180]");
+      }
+      latitudes[r][v] = latitude;
+      longitudes[r][v] = longitude;
+    }
+  }
+
+  /**
+   * Retrieve the vertices of the polygon's outer boundary
+   *
+   * @return List<Coordinates> the shell's vertices, open
+   */
+  public List<Coordinates> getShell() {
+    return vertices(0);
+  }
+
+  /**
+   * Retrieve the vertices of the polygon's holes
+   *
+   * @return List<List<Coordinates>> the vertices of each hole, open
+   */
+  public List<List<Coordinates>> getHoles() {
+    List<List<Coordinates>> holes = new ArrayList<>(latitudes.length - 1);
+    for (int r = 1; r < latitudes.length; r++) {
+      holes.add(vertices(r));
+    }
+    return holes;
+  }
+
+  private List<Coordinates> vertices(int r) {
+    List<Coordinates> vertices = new ArrayList<>(latitudes[r].length);
+    for (int v = 0; v < latitudes[r].length; v++) {
+      vertices.add(new Coordinates(latitudes[r][v], longitudes[r][v]));
+    }
+    return vertices;
+  }
+
+  /**
+   * Tests whether the given point lies inside the polygon. Repeated tests against the same
+   * polygon are better made through a <code>ProximityCalculator</code>, which prepares the
+   * polygon once.
+   *
+   * @param point the point to test
+   * @return true if the point is inside the shell and outside every hole
+   */
+  public boolean contains(Coordinates point) {
+    return new PreparedRegion(Collections.singletonList(this)).contains(point.getLatitude(), point.getLongitude());
+  }
+
+  /*
+   * Raw ring access for preparing the polygon within the package.
+   */
+  int rings() {
+    return latitudes.length;
+  }
+
+  double[] latitudes(int ring) {
+    return latitudes[ring];
+  }
+
+  double[] longitudes(int ring) {
+    return longitudes[ring];
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Polygon)) {
+      return false;
+    }
+    Polygon other = (Polygon) o;
+    return hashCode == other.hashCode && Arrays.deepEquals(latitudes, other.latitudes)
+        && Arrays.deepEquals(longitudes, other.longitudes);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
@@ -0,0 +1,71 @@
+package io.intercom.problems.proximity;
+
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.toRadians;
+
+/**
+ * <code>PreparedCoordinates</code> holds the latitude and longitude of each customer in a
+ * <code>CustomerLocationStore</code> alongside the values derived from them that every distance
+ * formula needs, i.e. the angles in radians and the sine and cosine of the latitude. Computing
+ * these once per customer, rather than once per customer per query, removes most of the
+ * trigonometry from a scan at the cost of 32 bytes per customer.
+ * <p>
+ * Prepared coordinates are a snapshot of the store at the time they were created, customers
+ * added to the store afterwards are not included.
+ */
+public class PreparedCoordinates {
+
+  final double[] latitudes;
+
+  final double[] longitudes;
+
+  final double[] latitudeRadians;
+
+  final double[] longitudeRadians;
+
+  final double[] sinLatitudes;
+
+  final double[] cosLatitudes;
+
+  private final int size;
+
+  private PreparedCoordinates(CustomerLocationStore store) {
+    this.size = store.size();
+    this.latitudes = store.latitudeColumn();
+    this.longitudes = store.longitudeColumn();
+    this.latitudeRadians = new double[size];
+    this.longitudeRadians = new double[size];
+    this.sinLatitudes = new double[size];
+    this.cosLatitudes = new double[size];
+    for (int i = 0; i < size; i++) {
+      double latitude = toRadians(latitudes[i]);
+      latitudeRadians[i] = latitude;
+      longitudeRadians[i] = toRadians(longitudes[i]);
+      sinLatitudes[i] = sin(latitude);
+      cosLatitudes[i] = cos(latitude);
+    }
+  }
+
+  /**
+   * Prepares the coordinates of every customer currently in the given store
+   *
+   * @param store the customers whose coordinates should be prepared
+   * @return PreparedCoordinates the prepared coordinates of the store's customers
+   */
+  public static PreparedCoordinates of(CustomerLocationStore store) {
+    if (store == null) {
+      throw new IllegalArgumentException("Preparing coordinates requires a valid customer location store");
+    }
+    return new PreparedCoordinates(store);
+  }
+
+  /**
+   * Retrieve the number of customers whose coordinates were prepared
+   *
+   * @return int the number of prepared coordinates
+   */
+  public int size() {
+    return size;
+  }
+}
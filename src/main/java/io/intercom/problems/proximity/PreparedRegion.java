@@ -0,0 +1,232 @@
+package io.intercom.problems.proximity;
+
+import java.util.List;
+
+/**
+ * <code>PreparedRegion</code> is a set of polygons prepared for fast point-in-polygon tests. The
+ * edges of each polygon, holes included, are bucketed into horizontal bands of latitude, so the
+ * even-odd crossing test for a point only visits the few edges in the point's band rather than
+ * every edge of the polygon. A bounding box test rejects most points before any edge is visited.
+ * <p>
+ * Boxes, such as the cells of a <code>GridSpatialIndex</code>, can be classified as wholly
+ * inside, wholly outside or on the boundary of the region, so whole cells of customers can be
+ * accepted or rejected without testing them one by one. Prepared regions are immutable and may
+ * be shared between threads.
+ */
+final class PreparedRegion {
+
+  /**
+   * How a box relates to the region
+   */
+  enum Overlap {
+    INSIDE,
+    OUTSIDE,
+    BOUNDARY
+  }
+
+  private static final int MAX_BANDS = 4096;
+
+  final double minLatitude;
+
+  final double maxLatitude;
+
+  final double minLongitude;
+
+  final double maxLongitude;
+
+  private final Part[] parts;
+
+  PreparedRegion(List<Polygon> polygons) {
+    this.parts = new Part[polygons.size()];
+    double minLatitude = Double.POSITIVE_INFINITY;
+    double maxLatitude = Double.NEGATIVE_INFINITY;
+    double minLongitude = Double.POSITIVE_INFINITY;
+    double maxLongitude = Double.NEGATIVE_INFINITY;
+    for (int p = 0; p < parts.length; p++) {
+      Part part = new Part(polygons.get(p));
+      parts[p] = part;
+      minLatitude = Math.min(minLatitude, part.minLatitude);
+      maxLatitude = Math.max(maxLatitude, part.maxLatitude);
+      minLongitude = Math.min(minLongitude, part.minLongitude);
+      maxLongitude = Math.max(maxLongitude, part.maxLongitude);
+    }
+    this.minLatitude = minLatitude;
+    this.maxLatitude = maxLatitude;
+    this.minLongitude = minLongitude;
+    this.maxLongitude = maxLongitude;
+  }
+
+  /**
+   * Tests whether the given point, in degrees, lies inside any of the region's polygons
+   */
+  boolean contains(double latitude, double longitude) {
+    if (!(latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude)) {
+      return false;
+    }
+    for (Part part : parts) {
+      if (part.contains(latitude, longitude)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Classifies the given box against the region. The classification is conservative, a box is
+   * only reported inside or outside if no edge of the region comes near it.
+   */
+  Overlap overlap(double boxMinLatitude, double boxMaxLatitude, double boxMinLongitude, double boxMaxLongitude) {
+    boolean boundary = false;
+    for (Part part : parts) {
+      Overlap overlap = part.overlap(boxMinLatitude, boxMaxLatitude, boxMinLongitude, boxMaxLongitude);
+      if (overlap == Overlap.INSIDE) {
+        return Overlap.INSIDE;
+      }
+      boundary |= overlap == Overlap.BOUNDARY;
+    }
+    return boundary ? Overlap.BOUNDARY : Overlap.OUTSIDE;
+  }
+
+  /**
+   * A single polygon with its edges bucketed by latitude band
+   */
+  private static final class Part {
+
+    final double minLatitude;
+
+    final double maxLatitude;
+
+    final double minLongitude;
+
+    final double maxLongitude;
+
+    private final double[] latitudes1;
+
+    private final double[] longitudes1;
+
+    private final double[] latitudes2;
+
+    private final double[] longitudes2;
+
+    // the change in longitude per degree of latitude along each edge
+    private final double[] slopes;
+
+    private final int bands;
+
+    private final double bandHeight;
+
+    private final int[] bandOffsets;
+
+    private final int[] bandEdges;
+
+    Part(Polygon polygon) {
+      int edges = 0;
+      for (int r = 0; r < polygon.rings(); r++) {
+        edges += polygon.latitudes(r).length;
+      }
+      latitudes1 = new double[edges];
+      longitudes1 = new double[edges];
+      latitudes2 = new double[edges];
+      longitudes2 = new double[edges];
+      slopes = new double[edges];
+
+      double minLatitude = Double.POSITIVE_INFINITY;
+      double maxLatitude = Double.NEGATIVE_INFINITY;
+      double minLongitude = Double.POSITIVE_INFINITY;
+      double maxLongitude = Double.NEGATIVE_INFINITY;
+      int e = 0;
+      for (int r = 0; r < polygon.rings(); r++) {
+        double[] latitudes = polygon.latitudes(r);
+        double[] longitudes = polygon.longitudes(r);
+        for (int v = 0; v < latitudes.length; v++, e++) {
+          int next = v + 1 == latitudes.length ? 0 : v + 1;
+          latitudes1[e] = latitudes[v];
+          longitudes1[e] = longitudes[v];
+          latitudes2[e] = latitudes[next];
+          longitudes2[e] = longitudes[next];
+          double rise = latitudes[next] - latitudes[v];
+          slopes[e] = rise == 0.0 ? 0.0 : (longitudes[next] - longitudes[v]) / rise;
+          minLatitude = Math.min(minLatitude, latitudes[v]);
+          maxLatitude = Math.max(maxLatitude, latitudes[v]);
+          minLongitude = Math.min(minLongitude, longitudes[v]);
+          maxLongitude = Math.max(maxLongitude, longitudes[v]);
+        }
+      }
+      this.minLatitude = minLatitude;
+      this.maxLatitude = maxLatitude;
+      this.minLongitude = minLongitude;
+      this.maxLongitude = maxLongitude;
+
+      // roughly one band per edge keeps the edges visited per test small for most shapes
+      double height = maxLatitude - minLatitude;
+      this.bands = height > 0.0 ? Math.min(MAX_BANDS, edges) : 1;
+      this.bandHeight = height > 0.0 ? height / bands : 1.0;
+      int[] counts = new int[bands + 1];
+      for (e = 0; e < edges; e++) {
+        for (int b = band(Math.min(latitudes1[e], latitudes2[e])), last = band(Math.max(latitudes1[e], latitudes2[e])); b <= last; b++) {
+          counts[b + 1]++;
+        }
+      }
+      for (int b = 1; b < counts.length; b++) {
+        counts[b] += counts[b - 1];
+      }
+      this.bandOffsets = counts;
+      this.bandEdges = new int[counts[bands]];
+      int[] next = new int[bands];
+      System.arraycopy(counts, 0, next, 0, bands);
+      for (e = 0; e < edges; e++) {
+        for (int b = band(Math.min(latitudes1[e], latitudes2[e])), last = band(Math.max(latitudes1[e], latitudes2[e])); b <= last; b++) {
+          bandEdges[next[b]++] = e;
+        }
+      }
+    }
+
+    private int band(double latitude) {
+      int band = (int) ((latitude - minLatitude) / bandHeight);
+      return band < 0 ? 0 : band >= bands ? bands - 1 : band;
+    }
+
+    /**
+     * Counts the edges crossed by a ray cast from the point towards increasing longitude, an odd
+     * count puts the point inside the polygon. Every edge the ray could cross spans the point's
+     * latitude and so is listed in the point's band.
+     */
+    boolean contains(double latitude, double longitude) {
+      if (!(latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude)) {
+        return false;
+      }
+      boolean inside = false;
+      int band = band(latitude);
+      for (int i = bandOffsets[band], end = bandOffsets[band + 1]; i < end; i++) {
+        int e = bandEdges[i];
+        if ((latitudes1[e] > latitude) != (latitudes2[e] > latitude)
+            && longitude < longitudes1[e] + (latitude - latitudes1[e]) * slopes[e]) {
+          inside = !inside;
+        }
+      }
+      return inside;
+    }
+
+    /**
+     * A box no edge comes near lies wholly on one side of the boundary, so its center decides
+     * which. Edges are tested by their bounding boxes, which is conservative.
+     */
+    Overlap overlap(double boxMinLatitude, double boxMaxLatitude, double boxMinLongitude, double boxMaxLongitude) {
+      if (boxMaxLatitude < minLatitude || boxMinLatitude > maxLatitude
+          || boxMaxLongitude < minLongitude || boxMinLongitude > maxLongitude) {
+        return Overlap.OUTSIDE;
+      }
+      for (int b = band(Math.max(boxMinLatitude, minLatitude)), last = band(Math.min(boxMaxLatitude, maxLatitude)); b <= last; b++) {
+        for (int i = bandOffsets[b], end = bandOffsets[b + 1]; i < end; i++) {
+          int e = bandEdges[i];
+          if (Math.max(latitudes1[e], latitudes2[e]) >= boxMinLatitude && Math.min(latitudes1[e], latitudes2[e]) <= boxMaxLatitude
+              && Math.max(longitudes1[e], longitudes2[e]) >= boxMinLongitude && Math.min(longitudes1[e], longitudes2[e]) <= boxMaxLongitude) {
+            return Overlap.BOUNDARY;
+          }
+        }
+      }
+      return contains((boxMinLatitude + boxMaxLatitude) / 2, (boxMinLongitude + boxMaxLongitude) / 2)
+          ? Overlap.INSIDE : Overlap.OUTSIDE;
+    }
+  }
+}
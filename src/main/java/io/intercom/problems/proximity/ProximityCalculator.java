@@ -1,7 +1,11 @@
 package io.intercom.problems.proximity;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.IntConsumer;
 
 /**
  * <code>ProximityCalculator</code> determines the customers in a collection that are based within
@@ -9,7 +13,39 @@ import java.util.stream.Collectors;
  */
 public class ProximityCalculator {
 
-  private final List<CustomerLocation> customerLocations;
+  private final CustomerLocationStore store;
+
+  private final SpatialIndex index;
+
+  private final PreparedCoordinates points;
+
+  private final DistanceFormula formula;
+
+  // scans every customer in blocks when there is no index to narrow the candidates, else null
+  private final BlockRadiusScanner scanner;
+
+  private volatile ProximityMetrics metrics = ProximityMetrics.NONE;
+
+  /* the most prepared polygons kept for reuse by later region queries */
+  static final int PREPARED_REGIONS = 64;
+
+  // widen grid cells slightly when classifying them so rounding never misplaces a customer
+  private static final double CELL_MARGIN_DEGREES = 1e-9;
+
+  private final Map<MultiPolygon, PreparedRegion> preparedRegions = new LinkedHashMap<MultiPolygon, PreparedRegion>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<MultiPolygon, PreparedRegion> eldest) {
+      return size() > PREPARED_REGIONS;
+    }
+  };
+
+  /* the first radius searched by nearest customer queries, doubled until enough are found.
+   * Anything beyond half the earth's circumference covers every customer */
+  private static final double INITIAL_NEAREST_RADIUS = 10.0;
+
+  private static final double MAX_DISTANCE = Math.PI * Coordinates.MEAN_EARTH_RADIUS * 1.01;
 
   public static final Coordinates IntercomOfficeDublin = new Coordinates(53.3381985, -6.2592576);
 
@@ -22,7 +58,80 @@ public class ProximityCalculator {
     if (customerLocations == null) {
       throw new IllegalArgumentException("Guest list calculator requires a valid list of customer locations");
     }
-    this.customerLocations = customerLocations;
+    this.store = CustomerLocationStore.from(customerLocations);
+    this.index = new LinearScanIndex(store);
+    this.points = PreparedCoordinates.of(store);
+    this.formula = DistanceFormula.SPHERICAL_LAW_OF_COSINES;
+    this.scanner = new BlockRadiusScanner(points);
+  }
+
+  /**
+   * Creates a new ProximityCalculator over the customers in the given columnar store. The store
+   * is scanned directly so no per customer objects are created while filtering.
+   *
+   * @param store the store of customers whos proximity will be tested.
+   */
+  public ProximityCalculator(CustomerLocationStore store) {
+    this(store, LinearScanIndex::new);
+  }
+
+  /**
+   * Creates a new ProximityCalculator over the customers in the given columnar store, using the
+   * given factory to build the spatial index that narrows down the candidates for each query.
+   *
+   * @param store the store of customers whos proximity will be tested.
+   * @param indexFactory builds the spatial index used to answer radius queries e.g.
+   *                     <code>GridSpatialIndex::new</code>
+   */
+  public ProximityCalculator(CustomerLocationStore store, SpatialIndexFactory indexFactory) {
+    this(store, indexFactory, DistanceFormula.SPHERICAL_LAW_OF_COSINES);
+  }
+
+  /**
+   * Creates a new ProximityCalculator over the customers an existing spatial index was built
+   * over, e.g. one restored by {@link CustomerLocationSnapshot#getIndex()}, so the index needn't
+   * be rebuilt.
+   *
+   * @param index the spatial index used to answer radius queries, over the customers whos
+   *              proximity will be tested.
+   */
+  public ProximityCalculator(SpatialIndex index) {
+    this(storeOf(index), store -> index);
+  }
+
+  private static CustomerLocationStore storeOf(SpatialIndex index) {
+    if (index == null) {
+      throw new IllegalArgumentException("Guest list calculator requires a valid spatial index");
+    }
+    return index.getStore();
+  }
+
+  /**
+   * Creates a new ProximityCalculator over the customers in the given columnar store, using the
+   * given spatial index and distance formula to answer queries. The customers' coordinates are
+   * prepared up front so queries only need to do the trigonometry the formula requires.
+   *
+   * @param store the store of customers whos proximity will be tested.
+   * @param indexFactory builds the spatial index used to answer radius queries e.g.
+   *                     <code>GridSpatialIndex::new</code>
+   * @param formula the formula used to calculate distances, <code>SPHERICAL_LAW_OF_COSINES</code>
+   *                gives the same results as {@link Coordinates#distanceTo(Coordinates)}
+   */
+  public ProximityCalculator(CustomerLocationStore store, SpatialIndexFactory indexFactory, DistanceFormula formula) {
+    if (store == null) {
+      throw new IllegalArgumentException("Guest list calculator requires a valid customer location store");
+    }
+    if (indexFactory == null) {
+      throw new IllegalArgumentException("Guest list calculator requires a valid spatial index factory");
+    }
+    if (formula == null) {
+      throw new IllegalArgumentException("Guest list calculator requires a valid distance formula");
+    }
+    this.store = store;
+    this.points = PreparedCoordinates.of(store);
+    this.index = indexFactory.build(store);
+    this.formula = formula;
+    this.scanner = index instanceof LinearScanIndex && BlockRadiusScanner.supports(formula) ? new BlockRadiusScanner(points) : null;
   }
 
   /**
@@ -33,11 +142,408 @@ public class ProximityCalculator {
    * @return the list of customers that are based within the supplied radius of the office.
    */
   public List<CustomerLocation> calculateCustomersWithinRadius(Double distance) {
+    return calculateCustomersWithinRadius(IntercomOfficeDublin, distance);
+  }
+
+  /**
+   * Filter the loaded customer list for customers within the given distance radius of the given
+   * center. The resulting filtered list is sorted by userId ascending.
+   *
+   * @param center the coordinates from which distances are measured.
+   * @param distance radius in kilometers within which customers have to be located to get included.
+   * @return the list of customers that are based within the supplied radius of the center.
+   */
+  public List<CustomerLocation> calculateCustomersWithinRadius(Coordinates center, Double distance) {
+    if (center == null) {
+      throw new IllegalArgumentException("Radius queries require valid center coordinates");
+    }
+    long start = System.nanoTime();
+    Matches matches = scan(center.getLatitude(), center.getLongitude(), distance);
+    int[] indices = matches.sortedByUserId();
+    List<CustomerLocation> withinRadius = new ArrayList<>(indices.length);
+    for (int index : indices) {
+      withinRadius.add(store.get(index));
+    }
+    metrics.recordQuery(ProximityMetrics.Query.RADIUS, System.nanoTime() - start, matches.examined, indices.length);
+    return withinRadius;
+  }
+
+  /**
+   * Finds the customers within the given distance radius of the given center along with the
+   * distance of each from it. Distances are kept from the test that admitted each customer so
+   * they are never calculated twice, and the matches are left in the order they were found
+   * until the result is asked to order them.
+   *
+   * @param center the coordinates from which distances are measured.
+   * @param distance radius in kilometers within which customers have to be located to get included.
+   * @return RadiusResult the customers within the radius with their distances.
+   */
+  public RadiusResult findCustomersWithinRadius(Coordinates center, double distance) {
+    if (center == null) {
+      throw new IllegalArgumentException("Radius queries require valid center coordinates");
+    }
+    return findCustomersWithinRadius(center.getLatitude(), center.getLongitude(), distance);
+  }
+
+  RadiusResult findCustomersWithinRadius(double centerLatitude, double centerLongitude, double distance) {
+    long start = System.nanoTime();
+    DistanceMatches matches = new DistanceMatches(points, new DistanceKernel(formula, centerLatitude, centerLongitude, distance));
+    if (scanner != null) {
+      scanner.scan(matches.kernel, centerLatitude, centerLongitude, distance, 0, scanner.size(), matches);
+      matches.examined = scanner.size();
+    } else {
+      index.forEachCandidate(centerLatitude, centerLongitude, matches.kernel.getBoxRadius(), matches);
+    }
+    metrics.recordQuery(ProximityMetrics.Query.RADIUS, System.nanoTime() - start, matches.examined, matches.size);
+    return new RadiusResult(store, matches.indices, matches.distances, matches.size);
+  }
+
+  private Matches scan(double centerLatitude, double centerLongitude, double distance) {
+    Matches matches = new Matches(store, points, new DistanceKernel(formula, centerLatitude, centerLongitude, distance));
+    if (scanner != null) {
+      scanner.scan(matches.kernel, centerLatitude, centerLongitude, distance, 0, scanner.size(), matches);
+      matches.examined = scanner.size();
+    } else {
+      index.forEachCandidate(centerLatitude, centerLongitude, matches.kernel.getBoxRadius(), matches);
+    }
+    return matches;
+  }
+
+  /**
+   * Collects the candidates that pass the exact distance test
+   */
+  private static final class Matches implements IntConsumer, BlockRadiusScanner.MatchSink {
+
+    private final int[] userIds;
+    private final PreparedCoordinates points;
+    private final DistanceKernel kernel;
+    private final MatchBuffer matches = new MatchBuffer();
+    private long examined;
+
+    Matches(CustomerLocationStore store, PreparedCoordinates points, DistanceKernel kernel) {
+      this.userIds = store.userIdColumn();
+      this.points = points;
+      this.kernel = kernel;
+    }
+
+    @Override
+    public void accept(int i) {
+      examined++;
+      if (i < points.size() && kernel.isWithinRadius(points, i)) {
+        matches.add(userIds[i], i);
+      }
+    }
+
+    @Override
+    public void match(int index, double distance) {
+      matches.add(userIds[index], index);
+    }
+
+    int[] sortedByUserId() {
+      return matches.sortedByUserId();
+    }
+  }
+
+  /**
+   * Collects the candidates within the radius along with their exact distances
+   */
+  private static final class DistanceMatches implements IntConsumer, BlockRadiusScanner.MatchSink {
+
+    private final PreparedCoordinates points;
+    private final DistanceKernel kernel;
+    private int[] indices = new int[16];
+    private double[] distances = new double[16];
+    private int size;
+    private long examined;
+
+    DistanceMatches(PreparedCoordinates points, DistanceKernel kernel) {
+      this.points = points;
+      this.kernel = kernel;
+    }
+
+    @Override
+    public void accept(int i) {
+      examined++;
+      if (i < points.size()) {
+        double distance = kernel.distanceIfWithinRadius(points, i);
+        if (distance != Double.POSITIVE_INFINITY) {
+          match(i, distance);
+        }
+      }
+    }
+
+    @Override
+    public void match(int index, double distance) {
+      if (size == indices.length) {
+        indices = Arrays.copyOf(indices, size << 1);
+        distances = Arrays.copyOf(distances, size << 1);
+      }
+      indices[size] = index;
+      distances[size++] = distance;
+    }
+  }
+
+  /**
+   * Finds the K customers nearest to the given center, ordered by distance ascending with ties
+   * broken by userId. Candidates are kept in a bounded heap so the customer base is never
+   * sorted. When the calculator has a spatial index the search starts with a small radius that
+   * is doubled until K customers have been found inside it, so small K only examines the
+   * customers around the center; without one a single scan is made.
+   *
+   * @param center the coordinates from which distances are measured.
+   * @param k the number of customers to find.
+   * @return the nearest customers with their distances, nearest first. Fewer than K are returned
+   * if there are not enough customers.
+   */
+  public List<CustomerDistance> calculateNearestCustomers(Coordinates center, int k) {
+    if (center == null) {
+      throw new IllegalArgumentException("Nearest customer queries require valid center coordinates");
+    }
+    if (k < 0) {
+      throw new IllegalArgumentException("Nearest customer queries require a non negative number of customers");
+    }
+    long start = System.nanoTime();
+    double latitude = center.getLatitude();
+    double longitude = center.getLongitude();
+    int[] userIds = store.userIdColumn();
+    NearestHeap nearest = new NearestHeap(Math.min(k, points.size()));
+    long[] examined = new long[1];
+
+    boolean scanAll = index instanceof LinearScanIndex;
+    double radius = scanAll ? Double.POSITIVE_INFINITY : INITIAL_NEAREST_RADIUS;
+    while (true) {
+      DistanceKernel kernel = new DistanceKernel(formula, latitude, longitude, radius);
+      nearest.clear();
+      index.forEachCandidate(latitude, longitude, kernel.getBoxRadius(), i -> {
+        examined[0]++;
+        if (i < points.size()) {
+          double distance = kernel.distanceIfWithinRadius(points, i);
+          if (distance != Double.POSITIVE_INFINITY && distance <= nearest.threshold()) {
+            nearest.offer(distance, userIds[i], i);
+          }
+        }
+      });
+      // every customer outside the radius is farther than every customer found inside it
+      if (nearest.isFull() || radius >= MAX_DISTANCE) {
+        break;
+      }
+      radius *= 2;
+    }
+
+    double[] distances = new double[nearest.size()];
+    int[] indices = nearest.drainNearestFirst(distances);
+    List<CustomerDistance> result = new ArrayList<>(indices.length);
+    for (int x = 0; x < indices.length; x++) {
+      result.add(new CustomerDistance(store.get(indices[x]), distances[x]));
+    }
+    metrics.recordQuery(ProximityMetrics.Query.NEAREST, System.nanoTime() - start, examined[0], result.size());
+    return result;
+  }
+
+  /**
+   * Filter the loaded customer list for customers inside the given polygon. The resulting list
+   * is sorted by userId ascending.
+   *
+   * @param region the polygon within which customers have to be located to get included.
+   * @return the list of customers that are based inside the polygon.
+   * @see #calculateCustomersWithin(MultiPolygon)
+   */
+  public List<CustomerLocation> calculateCustomersWithin(Polygon region) {
+    if (region == null) {
+      throw new IllegalArgumentException("Region queries require a valid region");
+    }
+    return calculateCustomersWithin(MultiPolygon.of(region));
+  }
+
+  /**
+   * Filter the loaded customer list for customers inside any polygon of the given region. The
+   * resulting list is sorted by userId ascending.
+   * <p>
+   * The region is prepared for fast point-in-polygon tests once and kept for later queries of
+   * the same region. When the calculator has a grid index only the cells overlapping the
+   * region's bounding box are visited, cells wholly inside the region are accepted and cells
+   * wholly outside rejected without testing their customers, so only customers in cells on the
+   * region's boundary are tested individually.
+   *
+   * @param region the polygons within which customers have to be located to get included.
+   * @return the list of customers that are based inside the region.
+   */
+  public List<CustomerLocation> calculateCustomersWithin(MultiPolygon region) {
+    if (region == null) {
+      throw new IllegalArgumentException("Region queries require a valid region");
+    }
+    long start = System.nanoTime();
+    PreparedRegion prepared = prepare(region);
+    RegionMatches matches = new RegionMatches(store, points.size(), prepared);
+    if (index instanceof GridSpatialIndex) {
+      GridSpatialIndex grid = (GridSpatialIndex) index;
+      for (int i : grid.unplaced()) {
+        matches.accept(i);
+      }
+      grid.forEachCellInBox(prepared.minLatitude, prepared.maxLatitude, prepared.minLongitude, prepared.maxLongitude, matches);
+    } else {
+      for (int i = 0; i < points.size(); i++) {
+        matches.accept(i);
+      }
+    }
+
+    int[] indices = matches.sortedByUserId();
+    List<CustomerLocation> withinRegion = new ArrayList<>(indices.length);
+    for (int index : indices) {
+      withinRegion.add(store.get(index));
+    }
+    metrics.recordQuery(ProximityMetrics.Query.REGION, System.nanoTime() - start, matches.examined, indices.length);
+    return withinRegion;
+  }
+
+  private PreparedRegion prepare(MultiPolygon region) {
+    synchronized (preparedRegions) {
+      return preparedRegions.computeIfAbsent(region, r -> new PreparedRegion(r.getPolygons()));
+    }
+  }
+
+  /**
+   * Collects the customers inside a region, from individual candidates or whole grid cells
+   */
+  private static final class RegionMatches implements IntConsumer, GridSpatialIndex.CellVisitor {
+
+    private final int[] userIds;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int size;
+    private final PreparedRegion region;
+    private final MatchBuffer matches = new MatchBuffer();
+    private long examined;
+
+    RegionMatches(CustomerLocationStore store, int size, PreparedRegion region) {
+      this.userIds = store.userIdColumn();
+      this.latitudes = store.latitudeColumn();
+      this.longitudes = store.longitudeColumn();
+      this.size = size;
+      this.region = region;
+    }
+
+    @Override
+    public void accept(int i) {
+      examined++;
+      if (i < size && region.contains(latitudes[i], longitudes[i])) {
+        matches.add(userIds[i], i);
+      }
+    }
+
+    @Override
+    public void visit(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude, int[] entries, int from, int to) {
+      PreparedRegion.Overlap overlap = region.overlap(minLatitude - CELL_MARGIN_DEGREES, maxLatitude + CELL_MARGIN_DEGREES,
+          minLongitude - CELL_MARGIN_DEGREES, maxLongitude + CELL_MARGIN_DEGREES);
+      if (overlap == PreparedRegion.Overlap.OUTSIDE) {
+        return;
+      }
+      // the first column also holds customers at longitude 180 so is never accepted wholesale
+      if (overlap == PreparedRegion.Overlap.INSIDE && minLongitude > -180.0) {
+        examined += to - from;
+        for (int e = from; e < to; e++) {
+          int i = entries[e];
+          if (i < size) {
+            matches.add(userIds[i], i);
+          }
+        }
+        return;
+      }
+      for (int e = from; e < to; e++) {
+        accept(entries[e]);
+      }
+    }
+
+    int[] sortedByUserId() {
+      return matches.sortedByUserId();
+    }
+  }
+
+  /**
+   * Answers many radius queries together in a single pass over the customers. The customers are
+   * split into ranges scanned concurrently on the common fork-join pool, each customer being
+   * tested against every query while it is in cache. This is cheaper than issuing the queries
+   * one at a time whenever the queries together cover a large part of the customer base.
+   *
+   * @param queries the centers and radii to find customers for
+   * @return a list of results in the same order as the queries, each sorted by userId ascending
+   */
+  public List<List<CustomerLocation>> calculateCustomersWithinRadii(List<RadiusQuery> queries) {
+    if (queries == null) {
+      throw new IllegalArgumentException("Batch radius queries require a valid list of queries");
+    }
+    long start = System.nanoTime();
+    DistanceKernel[] kernels = new DistanceKernel[queries.size()];
+    for (int q = 0; q < kernels.length; q++) {
+      RadiusQuery query = queries.get(q);
+      kernels[q] = new DistanceKernel(formula, query.getCenter().getLatitude(), query.getCenter().getLongitude(), query.getRadius());
+    }
+
+    MatchBuffer[] matches = new BatchScanTask(store.userIdColumn(), points, kernels, 0, points.size()).invoke();
+
+    List<List<CustomerLocation>> results = new ArrayList<>(kernels.length);
+    long returned = 0;
+    for (MatchBuffer queryMatches : matches) {
+      int[] indices = queryMatches.sortedByUserId();
+      List<CustomerLocation> withinRadius = new ArrayList<>(indices.length);
+      for (int index : indices) {
+        withinRadius.add(store.get(index));
+      }
+      results.add(withinRadius);
+      returned += indices.length;
+    }
+    metrics.recordQuery(ProximityMetrics.Query.BATCH, System.nanoTime() - start, (long) points.size() * kernels.length, returned);
+    return results;
+  }
+
+  /**
+   * Retrieve the store of customers this calculator operates on
+   *
+   * @return CustomerLocationStore the customers being tested
+   */
+  public CustomerLocationStore getStore() {
+    return store;
+  }
+
+  /**
+   * Retrieve the spatial index used to narrow down radius queries
+   *
+   * @return SpatialIndex the index over the customers being tested
+   */
+  public SpatialIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Sets the metrics that each query's latency and the number of candidates it examined and
+   * returned are reported to
+   *
+   * @param metrics the metrics to record queries with, <code>ProximityMetrics.NONE</code> to
+   *                record nothing
+   */
+  public void setMetrics(ProximityMetrics metrics) {
+    if (metrics == null) {
+      throw new IllegalArgumentException("Guest list calculator requires valid metrics");
+    }
+    this.metrics = metrics;
+  }
+
+  /**
+   * Retrieve the metrics queries are reported to
+   *
+   * @return ProximityMetrics the metrics in use
+   */
+  public ProximityMetrics getMetrics() {
+    return metrics;
+  }
 
-    return customerLocations.stream()
-        .filter(customer -> customer.getCoordinates().distanceTo(IntercomOfficeDublin) <= distance)
-        .sorted((customer1, customer2) -> customer1.getUserId() - customer2.getUserId())
-        .collect(Collectors.toList());
+  /**
+   * Retrieve the formula used to calculate distances
+   *
+   * @return DistanceFormula the formula in use
+   */
+  public DistanceFormula getFormula() {
+    return formula;
   }
 
 }
@@ -0,0 +1,25 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>ProximityListener</code> is notified as customers enter and leave the radius of the
+ * standing queries registered with an <code>IncrementalProximityTracker</code>.
+ */
+public interface ProximityListener {
+
+  /**
+   * Called when a customer moves into, or is added within, the radius of a standing query
+   *
+   * @param query the standing query the customer entered
+   * @param customer the customer's new details
+   */
+  void entered(StandingQuery query, CustomerLocation customer);
+
+  /**
+   * Called when a customer moves out of, or is removed from within, the radius of a standing
+   * query
+   *
+   * @param query the standing query the customer left
+   * @param customer the customer's last known details within the radius
+   */
+  void left(StandingQuery query, CustomerLocation customer);
+}
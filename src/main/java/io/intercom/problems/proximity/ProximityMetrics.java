@@ -0,0 +1,59 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>ProximityMetrics</code> receives measurements from the loading and querying of customer
+ * locations so they can be forwarded to whatever monitoring system is in use. Implementations
+ * are called on the hot path, from many threads at once, so must record without blocking.
+ * Every method does nothing by default, {@link #NONE} records nothing at all.
+ * <p>
+ * <code>ProximityMetricsRecorder</code> is a ready made implementation that keeps the
+ * measurements in memory and publishes them over JMX.
+ */
+public interface ProximityMetrics {
+
+  /**
+   * Metrics that discard every measurement, used when none are wanted
+   */
+  ProximityMetrics NONE = new ProximityMetrics() {
+  };
+
+  /**
+   * The kinds of query measured
+   */
+  enum Query {
+    RADIUS, NEAREST, BATCH, REGION
+  }
+
+  /**
+   * Records a completed load of customer data
+   *
+   * @param lines the number of lines read, including blank and rejected lines
+   * @param bytes the number of bytes read
+   * @param customers the number of customers loaded
+   * @param parseFailures the number of lines rejected as malformed json or with invalid values
+   * @param validationFailures the number of lines rejected for missing a required field
+   * @param durationNanos the time taken to load the data in nanoseconds
+   */
+  default void recordLoad(long lines, long bytes, long customers, long parseFailures, long validationFailures,
+                          long durationNanos) {
+  }
+
+  /**
+   * Records a completed query
+   *
+   * @param query the kind of query
+   * @param latencyNanos the time taken to answer the query in nanoseconds
+   * @param candidatesExamined the number of customers whose location was tested
+   * @param customersReturned the number of customers in the result
+   */
+  default void recordQuery(Query query, long latencyNanos, long candidatesExamined, long customersReturned) {
+  }
+
+  /**
+   * Records a lookup in a query result cache
+   *
+   * @param hit true if the result was answered from the cache
+   */
+  default void recordCacheLookup(boolean hit) {
+  }
+}
@@ -0,0 +1,312 @@
+package io.intercom.problems.proximity;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <code>ProximityMetricsRecorder</code> keeps the measurements reported to it in memory and
+ * publishes them over JMX. Counters are <code>LongAdder</code>s and latencies are kept in a
+ * <code>LatencyHistogram</code> per kind of query, so recording is lock free and costs a handful
+ * of uncontended increments.
+ * <p>
+ * Pass a recorder to <code>CustomerLocationDataLoader</code>, <code>ProximityCalculator</code>
+ * and <code>RadiusQueryCache</code> with their <code>setMetrics</code> methods, then register it
+ * to see the numbers in any JMX console.
+ */
+public class ProximityMetricsRecorder implements ProximityMetrics, ProximityMetricsRecorderMBean {
+
+  public static final String DOMAIN = "io.intercom.problems.proximity";
+
+  private final LongAdder loads = new LongAdder();
+
+  private final LongAdder linesLoaded = new LongAdder();
+
+  private final LongAdder bytesLoaded = new LongAdder();
+
+  private final LongAdder customersLoaded = new LongAdder();
+
+  private final LongAdder parseFailures = new LongAdder();
+
+  private final LongAdder validationFailures = new LongAdder();
+
+  private final LongAdder loadNanos = new LongAdder();
+
+  private volatile long lastLoadNanos;
+
+  private final Map<Query, LatencyHistogram> latencies = new EnumMap<>(Query.class);
+
+  private final LatencyHistogram allLatencies = new LatencyHistogram();
+
+  private final LongAdder candidatesExamined = new LongAdder();
+
+  private final LongAdder customersReturned = new LongAdder();
+
+  private final LongAdder cacheHits = new LongAdder();
+
+  private final LongAdder cacheMisses = new LongAdder();
+
+  private ObjectName registeredName;
+
+  /**
+   * Creates a new recorder with every measurement zeroed
+   */
+  public ProximityMetricsRecorder() {
+    for (Query query : Query.values()) {
+      latencies.put(query, new LatencyHistogram());
+    }
+  }
+
+  @Override
+  public void recordLoad(long lines, long bytes, long customers, long parseFailures, long validationFailures,
+                         long durationNanos) {
+    loads.increment();
+    linesLoaded.add(lines);
+    bytesLoaded.add(bytes);
+    customersLoaded.add(customers);
+    this.parseFailures.add(parseFailures);
+    this.validationFailures.add(validationFailures);
+    loadNanos.add(durationNanos);
+    lastLoadNanos = durationNanos;
+  }
+
+  @Override
+  public void recordQuery(Query query, long latencyNanos, long candidatesExamined, long customersReturned) {
+    latencies.get(query).record(latencyNanos);
+    allLatencies.record(latencyNanos);
+    this.candidatesExamined.add(candidatesExamined);
+    this.customersReturned.add(customersReturned);
+  }
+
+  @Override
+  public void recordCacheLookup(boolean hit) {
+    (hit ? cacheHits : cacheMisses).increment();
+  }
+
+  /**
+   * Registers the recorder with the platform MBean server under the given name, replacing any
+   * recorder already registered under it
+   *
+   * @param name the name the recorder is published under within the package's JMX domain
+   * @return ObjectName the full JMX name of the recorder
+   * @throws JMException if the recorder can't be registered
+   */
+  public synchronized ObjectName register(String name) throws JMException {
+    unregister();
+    ObjectName objectName = new ObjectName(DOMAIN + ":type=ProximityMetrics,name=" + ObjectName.quote(name));
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if (server.isRegistered(objectName)) {
+      server.unregisterMBean(objectName);
+    }
+    server.registerMBean(this, objectName);
+    registeredName = objectName;
+    return objectName;
+  }
+
+  /**
+   * Removes the recorder from the platform MBean server if it has been registered
+   *
+   * @throws JMException if the recorder can't be unregistered
+   */
+  public synchronized void unregister() throws JMException {
+    if (registeredName != null) {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(registeredName)) {
+        server.unregisterMBean(registeredName);
+      }
+      registeredName = null;
+    }
+  }
+
+  /**
+   * Retrieve the latency histogram of the given kind of query
+   *
+   * @param query the kind of query
+   * @return LatencyHistogram the latencies in nanoseconds of queries of that kind
+   */
+  public LatencyHistogram getLatencies(Query query) {
+    return latencies.get(query);
+  }
+
+  @Override
+  public long getLoads() {
+    return loads.sum();
+  }
+
+  @Override
+  public long getLinesLoaded() {
+    return linesLoaded.sum();
+  }
+
+  @Override
+  public long getBytesLoaded() {
+    return bytesLoaded.sum();
+  }
+
+  @Override
+  public long getCustomersLoaded() {
+    return customersLoaded.sum();
+  }
+
+  @Override
+  public long getParseFailures() {
+    return parseFailures.sum();
+  }
+
+  @Override
+  public long getValidationFailures() {
+    return validationFailures.sum();
+  }
+
+  @Override
+  public long getLoadTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(loadNanos.sum());
+  }
+
+  @Override
+  public long getLastLoadTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastLoadNanos);
+  }
+
+  @Override
+  public double getLinesPerSecond() {
+    return perSecondOfLoading(linesLoaded.sum());
+  }
+
+  @Override
+  public double getBytesPerSecond() {
+    return perSecondOfLoading(bytesLoaded.sum());
+  }
+
+  private double perSecondOfLoading(long amount) {
+    long nanos = loadNanos.sum();
+    return nanos == 0 ? 0.0 : amount * 1e9 / nanos;
+  }
+
+  @Override
+  public long getQueries() {
+    return allLatencies.getCount();
+  }
+
+  @Override
+  public long getRadiusQueries() {
+    return latencies.get(Query.RADIUS).getCount();
+  }
+
+  @Override
+  public long getNearestQueries() {
+    return latencies.get(Query.NEAREST).getCount();
+  }
+
+  @Override
+  public long getBatchQueries() {
+    return latencies.get(Query.BATCH).getCount();
+  }
+
+  @Override
+  public long getRegionQueries() {
+    return latencies.get(Query.REGION).getCount();
+  }
+
+  @Override
+  public double getQueryLatencyMeanMicros() {
+    return allLatencies.getMean() / 1000.0;
+  }
+
+  @Override
+  public long getQueryLatencyP50Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(allLatencies.getValueAtPercentile(50.0));
+  }
+
+  @Override
+  public long getQueryLatencyP99Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(allLatencies.getValueAtPercentile(99.0));
+  }
+
+  @Override
+  public long getQueryLatencyP999Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(allLatencies.getValueAtPercentile(99.9));
+  }
+
+  @Override
+  public long getQueryLatencyMaxMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(allLatencies.getMax());
+  }
+
+  @Override
+  public long getCandidatesExamined() {
+    return candidatesExamined.sum();
+  }
+
+  @Override
+  public long getCustomersReturned() {
+    return customersReturned.sum();
+  }
+
+  /**
+   * The proportion of candidates examined that were returned, a measure of how closely the
+   * spatial index narrows queries down to their results
+   */
+  @Override
+  public double getIndexHitRatio() {
+    long examined = candidatesExamined.sum();
+    return examined == 0 ? 0.0 : (double) customersReturned.sum() / examined;
+  }
+
+  @Override
+  public long getCacheHits() {
+    return cacheHits.sum();
+  }
+
+  @Override
+  public long getCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  @Override
+  public double getCacheHitRatio() {
+    long hits = cacheHits.sum();
+    long lookups = hits + cacheMisses.sum();
+    return lookups == 0 ? 0.0 : (double) hits / lookups;
+  }
+
+  /**
+   * Retrieve a latency percentile for one kind of query
+   *
+   * @param query the name of the kind of query, RADIUS, NEAREST, BATCH or REGION
+   * @param percentile the percentage of queries, between 0 and 100
+   * @return long the latency in microseconds below which the percentage of queries completed
+   */
+  @Override
+  public long latencyPercentileMicros(String query, double percentile) {
+    return TimeUnit.NANOSECONDS.toMicros(latencies.get(Query.valueOf(query)).getValueAtPercentile(percentile));
+  }
+
+  /**
+   * Discards every measurement recorded so far
+   */
+  @Override
+  public void reset() {
+    loads.reset();
+    linesLoaded.reset();
+    bytesLoaded.reset();
+    customersLoaded.reset();
+    parseFailures.reset();
+    validationFailures.reset();
+    loadNanos.reset();
+    lastLoadNanos = 0;
+    for (LatencyHistogram histogram : latencies.values()) {
+      histogram.reset();
+    }
+    allLatencies.reset();
+    candidatesExamined.reset();
+    customersReturned.reset();
+    cacheHits.reset();
+    cacheMisses.reset();
+  }
+}
@@ -0,0 +1,65 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>ProximityMetricsRecorderMBean</code> is the JMX management interface of a
+ * <code>ProximityMetricsRecorder</code>. Latencies are reported in microseconds, rates per second
+ * of time spent loading.
+ */
+public interface ProximityMetricsRecorderMBean {
+
+  long getLoads();
+
+  long getLinesLoaded();
+
+  long getBytesLoaded();
+
+  long getCustomersLoaded();
+
+  long getParseFailures();
+
+  long getValidationFailures();
+
+  long getLoadTimeMillis();
+
+  long getLastLoadTimeMillis();
+
+  double getLinesPerSecond();
+
+  double getBytesPerSecond();
+
+  long getQueries();
+
+  long getRadiusQueries();
+
+  long getNearestQueries();
+
+  long getBatchQueries();
+
+  long getRegionQueries();
+
+  double getQueryLatencyMeanMicros();
+
+  long getQueryLatencyP50Micros();
+
+  long getQueryLatencyP99Micros();
+
+  long getQueryLatencyP999Micros();
+
+  long getQueryLatencyMaxMicros();
+
+  long getCandidatesExamined();
+
+  long getCustomersReturned();
+
+  double getIndexHitRatio();
+
+  long getCacheHits();
+
+  long getCacheMisses();
+
+  double getCacheHitRatio();
+
+  long latencyPercentileMicros(String query, double percentile);
+
+  void reset();
+}
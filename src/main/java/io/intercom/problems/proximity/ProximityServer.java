@@ -0,0 +1,484 @@
+package io.intercom.problems.proximity;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>ProximityServer</code> keeps a customer dataset in memory and answers proximity queries
+ * against it over a small HTTP/JSON api, so clients don't each pay the cost of loading it.
+ * <ul>
+ * <li><code>GET /radius?lat=&amp;lon=&amp;radius=[&amp;order=user_id|distance][&amp;offset=][&amp;limit=]</code>
+ * the customers within the radius, with their distances</li>
+ * <li><code>GET /nearest?lat=&amp;lon=&amp;k=</code> the K nearest customers, nearest first</li>
+ * <li><code>POST /batch</code> with a json array of <code>{"latitude", "longitude", "radius"}</code>
+ * queries, the customers within each radius</li>
+ * <li><code>GET /status</code> the size and version of the dataset being served</li>
+ * <li><code>POST /reload</code> reloads the dataset in the background</li>
+ * </ul>
+ * <p>
+ * Requests are handled on a fixed pool of threads. The dataset is loaded when the server starts
+ * and can be reloaded in the background, on request or periodically. A reload builds a complete
+ * new calculator before swapping it in with a single volatile write, so each request sees either
+ * the old dataset or the new one and never waits for a load. A failed reload leaves the current
+ * dataset in place.
+ */
+public class ProximityServer implements Closeable {
+
+  public static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+  static final int MAX_BATCH_QUERIES = 1000;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final Callable<CustomerLocationStore> source;
+
+  private final SpatialIndexFactory indexFactory;
+
+  private final int threads;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "proximity-reloader");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AtomicBoolean reloadPending = new AtomicBoolean();
+
+  private final AtomicInteger versions = new AtomicInteger();
+
+  private volatile Dataset dataset;
+
+  private volatile ProximityMetrics metrics = ProximityMetrics.NONE;
+
+  private HttpServer server;
+
+  private ExecutorService requests;
+
+  /**
+   * Creates a server over the customers loaded from the given source, indexed with a grid and
+   * handling requests on the default number of threads
+   *
+   * @param source loads the customer dataset, called on start and on every reload
+   */
+  public ProximityServer(Callable<CustomerLocationStore> source) {
+    this(source, GridSpatialIndex::new, DEFAULT_THREADS);
+  }
+
+  /**
+   * Creates a server over the customers loaded from the given source
+   *
+   * @param source loads the customer dataset, called on start and on every reload
+   * @param indexFactory builds the spatial index over each dataset loaded
+   * @param threads the number of threads handling requests
+   */
+  public ProximityServer(Callable<CustomerLocationStore> source, SpatialIndexFactory indexFactory, int threads) {
+    if (source == null) {
+      throw new IllegalArgumentException("Proximity server requires a valid customer source");
+    }
+    if (indexFactory == null) {
+      throw new IllegalArgumentException("Proximity server requires a valid spatial index factory");
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("Proximity server requires at least one request thread");
+    }
+    this.source = source;
+    this.indexFactory = indexFactory;
+    this.threads = threads;
+  }
+
+  /**
+   * A loaded dataset and the calculator answering queries against it
+   */
+  private static final class Dataset {
+
+    final ProximityCalculator calculator;
+
+    final int version;
+
+    final long loadedAt;
+
+    Dataset(ProximityCalculator calculator, int version) {
+      this.calculator = calculator;
+      this.version = version;
+      this.loadedAt = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Loads the dataset and starts accepting requests on the given address
+   *
+   * @param address the address to listen on, port 0 picks a free port
+   * @throws IOException if the dataset can't be loaded or the server can't listen on the address
+   */
+  public synchronized void start(InetSocketAddress address) throws IOException {
+    if (server != null) {
+      throw new IllegalStateException("Proximity server has already been started");
+    }
+    load();
+    requests = Executors.newFixedThreadPool(threads);
+    server = HttpServer.create(address, 0);
+    server.setExecutor(requests);
+    server.createContext("/radius", exchange -> handle(exchange, "GET", this::radius));
+    server.createContext("/nearest", exchange -> handle(exchange, "GET", this::nearest));
+    server.createContext("/batch", exchange -> handle(exchange, "POST", this::batch));
+    server.createContext("/status", exchange -> handle(exchange, "GET", this::status));
+    server.createContext("/reload", exchange -> handle(exchange, "POST", this::reloadRequest));
+    server.start();
+    log.info("Serving {} customers on {}", dataset.calculator.getStore().size(), server.getAddress());
+  }
+
+  /**
+   * Retrieve the address the server is listening on
+   *
+   * @return InetSocketAddress the address, including the port picked if started on port 0
+   */
+  public synchronized InetSocketAddress getAddress() {
+    if (server == null) {
+      throw new IllegalStateException("Proximity server has not been started");
+    }
+    return server.getAddress();
+  }
+
+  /**
+   * Reloads the dataset every period in the background
+   *
+   * @param period the time between the end of one reload and the start of the next
+   * @param unit the unit of the period
+   */
+  public void reloadEvery(long period, TimeUnit unit) {
+    if (period < 1 || unit == null) {
+      throw new IllegalArgumentException("Periodic reloads require a positive period");
+    }
+    reloader.scheduleWithFixedDelay(this::reloadQuietly, period, period, unit);
+  }
+
+  /**
+   * Reloads the dataset in the background. Requests made while a reload is already waiting to
+   * run are folded into it.
+   *
+   * @return Future<?> completes once the reload has finished
+   */
+  public Future<?> reload() {
+    if (reloadPending.compareAndSet(false, true)) {
+      return reloader.submit(this::reloadQuietly);
+    }
+    // already queued, wait behind it
+    return reloader.submit(() -> { });
+  }
+
+  private void reloadQuietly() {
+    reloadPending.set(false);
+    try {
+      load();
+    } catch (IOException | RuntimeException e) {
+      log.error("Could not reload customers, still serving version {}. {}", dataset.version, e.getMessage());
+    }
+  }
+
+  private void load() throws IOException {
+    long start = System.nanoTime();
+    CustomerLocationStore store;
+    try {
+      store = source.call();
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Could not load customers", e);
+    }
+    if (store == null) {
+      throw new IOException("Customer source returned no customers");
+    }
+    ProximityCalculator calculator = new ProximityCalculator(store, indexFactory);
+    calculator.setMetrics(metrics);
+    dataset = new Dataset(calculator, versions.incrementAndGet());
+    log.info("Loaded version {} of {} customers in {}ms", dataset.version, store.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Sets the metrics that queries against the current and later datasets are reported to
+   *
+   * @param metrics the metrics to record queries with, <code>ProximityMetrics.NONE</code> to record nothing
+   */
+  public void setMetrics(ProximityMetrics metrics) {
+    if (metrics == null) {
+      throw new IllegalArgumentException("Proximity server requires valid metrics");
+    }
+    this.metrics = metrics;
+    Dataset current = dataset;
+    if (current != null) {
+      current.calculator.setMetrics(metrics);
+    }
+  }
+
+  /**
+   * Stops accepting requests, waiting briefly for those in progress, and stops reloading
+   */
+  @Override
+  public synchronized void close() {
+    reloader.shutdownNow();
+    if (server != null) {
+      server.stop(1);
+      requests.shutdown();
+    }
+  }
+
+  @FunctionalInterface
+  private interface Handler {
+
+    void handle(HttpExchange exchange, Map<String, String> parameters, ProximityCalculator calculator) throws IOException;
+  }
+
+  private void handle(HttpExchange exchange, String method, Handler handler) {
+    try {
+      if (!method.equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", method);
+        error(exchange, 405, "Use " + method + " for " + exchange.getRequestURI().getPath());
+        return;
+      }
+      handler.handle(exchange, parameters(exchange.getRequestURI().getRawQuery()), dataset.calculator);
+    } catch (IllegalArgumentException | JsonProcessingException e) {
+      error(exchange, 400, e.getMessage());
+    } catch (IOException e) {
+      log.debug("Could not respond to {}. {}", exchange.getRequestURI(), e.getMessage());
+    } catch (RuntimeException e) {
+      log.error("Error answering " + exchange.getRequestURI(), e);
+      error(exchange, 500, "Internal error");
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void radius(HttpExchange exchange, Map<String, String> parameters, ProximityCalculator calculator) throws IOException {
+    Coordinates center = center(parameters);
+    double radius = distance(parameters, "radius");
+    RadiusResult.Order order = order(parameters.get("order"));
+    int offset = count(parameters, "offset", 0);
+    int limit = count(parameters, "limit", Integer.MAX_VALUE);
+
+    RadiusResult result = calculator.findCustomersWithinRadius(center, radius);
+    List<CustomerDistance> page = result.page(offset, limit, order);
+    try (JsonGenerator json = respond(exchange)) {
+      json.writeStartObject();
+      json.writeNumberField("total", result.size());
+      json.writeArrayFieldStart("customers");
+      for (CustomerDistance customer : page) {
+        writeCustomer(json, customer.getCustomer(), customer.getDistance());
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    }
+  }
+
+  private void nearest(HttpExchange exchange, Map<String, String> parameters, ProximityCalculator calculator) throws IOException {
+    Coordinates center = center(parameters);
+    if (!parameters.containsKey("k")) {
+      throw new IllegalArgumentException("Missing required parameter 'k'");
+    }
+    int k = count(parameters, "k", 0);
+
+    List<CustomerDistance> nearest = calculator.calculateNearestCustomers(center, k);
+    try (JsonGenerator json = respond(exchange)) {
+      json.writeStartObject();
+      json.writeArrayFieldStart("customers");
+      for (CustomerDistance customer : nearest) {
+        writeCustomer(json, customer.getCustomer(), customer.getDistance());
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    }
+  }
+
+  private void batch(HttpExchange exchange, Map<String, String> parameters, ProximityCalculator calculator) throws IOException {
+    JsonNode body;
+    try (InputStream in = exchange.getRequestBody()) {
+      body = mapper.readTree(in);
+    }
+    if (body == null || !body.isArray()) {
+      throw new IllegalArgumentException("Batch queries require a json array of queries");
+    }
+    if (body.size() > MAX_BATCH_QUERIES) {
+      throw new IllegalArgumentException("Batches are limited to " + MAX_BATCH_QUERIES + " queries");
+    }
+    List<RadiusQuery> queries = new ArrayList<>(body.size());
+    for (JsonNode query : body) {
+      queries.add(new RadiusQuery(new Coordinates(coordinate(query, "latitude", 90.0), coordinate(query, "longitude", 180.0)),
+          coordinate(query, "radius", Double.MAX_VALUE)));
+    }
+
+    List<List<CustomerLocation>> results = calculator.calculateCustomersWithinRadii(queries);
+    try (JsonGenerator json = respond(exchange)) {
+      json.writeStartObject();
+      json.writeArrayFieldStart("results");
+      for (List<CustomerLocation> result : results) {
+        json.writeStartObject();
+        json.writeArrayFieldStart("customers");
+        for (CustomerLocation customer : result) {
+          writeCustomer(json, customer, null);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    }
+  }
+
+  private void status(HttpExchange exchange, Map<String, String> parameters, ProximityCalculator calculator) throws IOException {
+    Dataset current = dataset;
+    try (JsonGenerator json = respond(exchange)) {
+      json.writeStartObject();
+      json.writeNumberField("customers", current.calculator.getStore().size());
+      json.writeNumberField("version", current.version);
+      json.writeNumberField("loaded_at", current.loadedAt);
+      json.writeBooleanField("reload_pending", reloadPending.get());
+      json.writeEndObject();
+    }
+  }
+
+  private void reloadRequest(HttpExchange exchange, Map<String, String> parameters, ProximityCalculator calculator) throws IOException {
+    reload();
+    exchange.sendResponseHeaders(202, -1);
+  }
+
+  private JsonGenerator respond(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    // stream the body with chunked encoding rather than buffering it to learn its length
+    exchange.sendResponseHeaders(200, 0);
+    return mapper.getFactory().createGenerator(exchange.getResponseBody());
+  }
+
+  private void writeCustomer(JsonGenerator json, CustomerLocation customer, Double distance) throws IOException {
+    json.writeStartObject();
+    json.writeNumberField("user_id", customer.getUserId());
+    json.writeStringField("name", customer.getName());
+    json.writeNumberField("latitude", customer.getLatitude());
+    json.writeNumberField("longitude", customer.getLongitude());
+    if (distance != null) {
+      json.writeNumberField("distance", distance);
+    }
+    json.writeEndObject();
+  }
+
+  private void error(HttpExchange exchange, int status, String message) {
+    try {
+      byte[] body = mapper.writeValueAsBytes(mapper.createObjectNode().put("error", message));
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } catch (IOException e) {
+      log.debug("Could not send error response to {}. {}", exchange.getRequestURI(), e.getMessage());
+    }
+  }
+
+  private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+    Map<String, String> parameters = new HashMap<>();
+    if (query == null || query.isEmpty()) {
+      return parameters;
+    }
+    for (String pair : query.split("&")) {
+      int equals = pair.indexOf('=');
+      if (equals > 0) {
+        parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+      }
+    }
+    return parameters;
+  }
+
+  private static Coordinates center(Map<String, String> parameters) {
+    double latitude = number(parameters, "lat");
+    double longitude = number(parameters, "lon");
+    if (!(latitude >= -90.0 && latitude <= 90.0 && longitude >= -180.0 && longitude <= 180.0)) {
+      throw new IllegalArgumentException("Query centers require a latitude within [-90, 90] and longitude within [-180, 180]");
+    }
+    return new Coordinates(latitude, longitude);
+  }
+
+  private static double distance(Map<String, String> parameters, String name) {
+    double distance = number(parameters, name);
+    if (!(distance >= 0.0 && distance < Double.POSITIVE_INFINITY)) {
+      throw new IllegalArgumentException("Parameter '" + name + "' must be a non negative distance in kilometers");
+    }
+    return distance;
+  }
+
+  private static double number(Map<String, String> parameters, String name) {
+    String value = parameters.get(name);
+    if (value == null) {
+      throw new IllegalArgumentException("Missing required parameter '" + name + "'");
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Parameter '" + name + "' must be a number");
+    }
+  }
+
+  private static int count(Map<String, String> parameters, String name, int defaultValue) {
+    String value = parameters.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      int count = Integer.parseInt(value);
+      if (count < 0) {
+        throw new IllegalArgumentException("Parameter '" + name + "' must not be negative");
+      }
+      return count;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Parameter '" + name + "' must be a whole number");
+    }
+  }
+
+  private static RadiusResult.Order order(String value) {
+    if (value == null || "user_id".equals(value)) {
+      return RadiusResult.Order.USER_ID;
+    }
+    if ("distance".equals(value)) {
+      return RadiusResult.Order.DISTANCE;
+    }
+    throw new IllegalArgumentException("Parameter 'order' must be 'user_id' or 'distance'");
+  }
+
+  private static double coordinate(JsonNode query, String field, double limit) {
+    JsonNode value = query.get(field);
+    if (value == null || !value.isNumber()) {
+      throw new IllegalArgumentException("Batch queries require a numeric '" + field + "'");
+    }
+    double number = value.asDouble();
+    if (!(Math.abs(number) <= limit) || ("radius".equals(field) && number < 0.0)) {
+      throw new IllegalArgumentException("Batch query field '" + field + "' is out of range");
+    }
+    return number;
+  }
+}
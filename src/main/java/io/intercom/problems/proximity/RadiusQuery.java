@@ -0,0 +1,44 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>RadiusQuery</code> is a simple immutable pairing of a center and a radius, used to ask a
+ * <code>ProximityCalculator</code> for the customers within the radius of the center.
+ */
+public class RadiusQuery {
+
+  private final Coordinates center;
+
+  private final double radius;
+
+  /**
+   * Creates a new query for the customers within the given radius of the given center
+   *
+   * @param center the coordinates from which distances are measured
+   * @param radius the radius in kilometers within which customers have to be located
+   */
+  public RadiusQuery(Coordinates center, double radius) {
+    if (center == null || center.getLatitude() == null || center.getLongitude() == null) {
+      throw new IllegalArgumentException("Radius queries require valid center coordinates");
+    }
+    this.center = center;
+    this.radius = radius;
+  }
+
+  /**
+   * Retrieve the center of the query
+   *
+   * @return Coordinates the center of the query
+   */
+  public Coordinates getCenter() {
+    return center;
+  }
+
+  /**
+   * Retrieve the radius of the query
+   *
+   * @return double the radius of the query in kilometers
+   */
+  public double getRadius() {
+    return radius;
+  }
+}
@@ -0,0 +1,346 @@
+package io.intercom.problems.proximity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * <code>RadiusQueryCache</code> remembers the results of recent radius queries against a
+ * <code>ProximityCalculator</code>, along with the distance of each matching customer from the
+ * query's center. Repeating a query returns the cached result and a query for a smaller radius
+ * around a cached center is answered by filtering the smallest larger cached result by distance,
+ * neither touches the customer base.
+ * <p>
+ * The least recently used results are evicted once the cache holds more than the configured
+ * number of results or matching customers. Results are only valid for the customers the
+ * calculator was built over, replacing the calculator with {@link #setCalculator} discards them.
+ * The cache is thread safe.
+ */
+public class RadiusQueryCache {
+
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  public static final long DEFAULT_MAX_CACHED_CUSTOMERS = 10000000L;
+
+  private final int maxEntries;
+
+  private final long maxCachedCustomers;
+
+  private final LinkedHashMap<QueryKey, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Map<CenterKey, TreeMap<Double, Result>> resultsByCenter = new HashMap<>();
+
+  private ProximityCalculator calculator;
+
+  private long cachedCustomers;
+
+  private long hits;
+
+  private long derivedHits;
+
+  private long misses;
+
+  private volatile ProximityMetrics metrics = ProximityMetrics.NONE;
+
+  /**
+   * Creates a new cache in front of the given calculator with the default bounds
+   *
+   * @param calculator the calculator whose results are cached
+   */
+  public RadiusQueryCache(ProximityCalculator calculator) {
+    this(calculator, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CACHED_CUSTOMERS);
+  }
+
+  /**
+   * Creates a new cache in front of the given calculator
+   *
+   * @param calculator the calculator whose results are cached
+   * @param maxEntries the most query results to keep
+   * @param maxCachedCustomers the most matching customers to keep across all results
+   */
+  public RadiusQueryCache(ProximityCalculator calculator, int maxEntries, long maxCachedCustomers) {
+    if (calculator == null) {
+      throw new IllegalArgumentException("Radius query cache requires a valid calculator");
+    }
+    if (maxEntries < 1 || maxCachedCustomers < 1) {
+      throw new IllegalArgumentException("Radius query cache requires room for at least one result");
+    }
+    this.calculator = calculator;
+    this.maxEntries = maxEntries;
+    this.maxCachedCustomers = maxCachedCustomers;
+  }
+
+  /**
+   * Finds the customers within the given radius of the given center, sorted by userId ascending,
+   * from the cache where possible.
+   *
+   * @param center the coordinates from which distances are measured.
+   * @param radius radius in kilometers within which customers have to be located to get included.
+   * @return the list of customers that are based within the supplied radius of the center.
+   */
+  public List<CustomerLocation> calculateCustomersWithinRadius(Coordinates center, double radius) {
+    Result result = lookup(center, radius);
+    CustomerLocationStore store = result.store;
+    List<CustomerLocation> withinRadius = new ArrayList<>(result.indices.length);
+    for (int index : result.indices) {
+      withinRadius.add(store.get(index));
+    }
+    return withinRadius;
+  }
+
+  /**
+   * Finds the customers within the given radius of the given center along with their distances
+   * from it, sorted by userId ascending, from the cache where possible.
+   *
+   * @param center the coordinates from which distances are measured.
+   * @param radius radius in kilometers within which customers have to be located to get included.
+   * @return the customers within the radius paired with their distances.
+   */
+  public List<CustomerDistance> calculateCustomerDistancesWithinRadius(Coordinates center, double radius) {
+    Result result = lookup(center, radius);
+    CustomerLocationStore store = result.store;
+    List<CustomerDistance> withinRadius = new ArrayList<>(result.indices.length);
+    for (int x = 0; x < result.indices.length; x++) {
+      withinRadius.add(new CustomerDistance(store.get(result.indices[x]), result.distances[x]));
+    }
+    return withinRadius;
+  }
+
+  private Result lookup(Coordinates center, double radius) {
+    if (center == null) {
+      throw new IllegalArgumentException("Radius queries require valid center coordinates");
+    }
+    double latitude = center.getLatitude();
+    double longitude = center.getLongitude();
+    ProximityCalculator current;
+    synchronized (this) {
+      Result cached = results.get(new QueryKey(latitude, longitude, radius));
+      if (cached != null) {
+        hits++;
+        metrics.recordCacheLookup(true);
+        return cached;
+      }
+      TreeMap<Double, Result> sameCenter = resultsByCenter.get(new CenterKey(latitude, longitude));
+      Map.Entry<Double, Result> larger = sameCenter == null ? null : sameCenter.higherEntry(radius);
+      if (larger != null) {
+        derivedHits++;
+        metrics.recordCacheLookup(true);
+        // touch the larger result so it stays in the cache while it is useful
+        results.get(new QueryKey(latitude, longitude, larger.getKey()));
+        return store(larger.getValue().within(radius));
+      }
+      misses++;
+      metrics.recordCacheLookup(false);
+      current = calculator;
+    }
+
+    // calculate outside the lock so a slow query doesn't hold up hits
+    RadiusResult found = current.findCustomersWithinRadius(latitude, longitude, radius);
+    double[] distances = new double[found.size()];
+    int[] indices = found.indices(RadiusResult.Order.USER_ID, found.size(), distances);
+    Result calculated = new Result(current, latitude, longitude, radius, indices, distances);
+    synchronized (this) {
+      return calculated.calculator == calculator ? store(calculated) : calculated;
+    }
+  }
+
+  private Result store(Result result) {
+    QueryKey key = new QueryKey(result.latitude, result.longitude, result.radius);
+    Result previous = results.put(key, result);
+    if (previous != null) {
+      cachedCustomers -= previous.indices.length;
+    }
+    cachedCustomers += result.indices.length;
+    resultsByCenter.computeIfAbsent(new CenterKey(result.latitude, result.longitude), c -> new TreeMap<>())
+        .put(result.radius, result);
+
+    Iterator<Map.Entry<QueryKey, Result>> eldest = results.entrySet().iterator();
+    while ((results.size() > maxEntries || cachedCustomers > maxCachedCustomers) && eldest.hasNext()) {
+      Result evicted = eldest.next().getValue();
+      if (evicted == result) {
+        continue;
+      }
+      eldest.remove();
+      cachedCustomers -= evicted.indices.length;
+      CenterKey center = new CenterKey(evicted.latitude, evicted.longitude);
+      TreeMap<Double, Result> sameCenter = resultsByCenter.get(center);
+      sameCenter.remove(evicted.radius);
+      if (sameCenter.isEmpty()) {
+        resultsByCenter.remove(center);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Discards every cached result
+   */
+  public synchronized void invalidate() {
+    results.clear();
+    resultsByCenter.clear();
+    cachedCustomers = 0;
+  }
+
+  /**
+   * Replaces the calculator queries are answered with, e.g. after the customers were reloaded,
+   * discarding every cached result.
+   *
+   * @param calculator the calculator over the new customer set
+   */
+  public synchronized void setCalculator(ProximityCalculator calculator) {
+    if (calculator == null) {
+      throw new IllegalArgumentException("Radius query cache requires a valid calculator");
+    }
+    this.calculator = calculator;
+    invalidate();
+  }
+
+  /**
+   * Sets the metrics that every lookup is reported to, both exact and derived hits count as hits
+   *
+   * @param metrics the metrics to record lookups with, <code>ProximityMetrics.NONE</code> to
+   *                record nothing
+   */
+  public void setMetrics(ProximityMetrics metrics) {
+    if (metrics == null) {
+      throw new IllegalArgumentException("Radius query cache requires valid metrics");
+    }
+    this.metrics = metrics;
+  }
+
+  /**
+   * Retrieve the number of results currently cached
+   *
+   * @return int the number of cached results
+   */
+  public synchronized int size() {
+    return results.size();
+  }
+
+  /**
+   * Retrieve the number of queries answered with an identical cached result
+   *
+   * @return long the number of exact hits
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Retrieve the number of queries answered by filtering a larger cached result
+   *
+   * @return long the number of derived hits
+   */
+  public synchronized long getDerivedHits() {
+    return derivedHits;
+  }
+
+  /**
+   * Retrieve the number of queries that had to be calculated
+   *
+   * @return long the number of misses
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * A cached query result, the store indexes of the matching customers sorted by userId with
+   * their distances from the center.
+   */
+  private static final class Result {
+
+    final ProximityCalculator calculator;
+    final CustomerLocationStore store;
+    final double latitude;
+    final double longitude;
+    final double radius;
+    final int[] indices;
+    final double[] distances;
+
+    Result(ProximityCalculator calculator, double latitude, double longitude, double radius, int[] indices,
+           double[] distances) {
+      this.calculator = calculator;
+      this.store = calculator.getStore();
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.radius = radius;
+      this.indices = indices;
+      this.distances = distances;
+    }
+
+    /**
+     * Derives the result for a smaller radius around the same center
+     */
+    Result within(double smallerRadius) {
+      int count = 0;
+      for (double distance : distances) {
+        if (distance <= smallerRadius) {
+          count++;
+        }
+      }
+      int[] filteredIndices = new int[count];
+      double[] filteredDistances = new double[count];
+      for (int x = 0, f = 0; x < indices.length; x++) {
+        if (distances[x] <= smallerRadius) {
+          filteredIndices[f] = indices[x];
+          filteredDistances[f++] = distances[x];
+        }
+      }
+      return new Result(calculator, latitude, longitude, smallerRadius, filteredIndices, filteredDistances);
+    }
+  }
+
+  private static class CenterKey {
+
+    final double latitude;
+    final double longitude;
+
+    CenterKey(double latitude, double longitude) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      CenterKey other = (CenterKey) o;
+      return Double.compare(latitude, other.latitude) == 0 && Double.compare(longitude, other.longitude) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(latitude, longitude);
+    }
+  }
+
+  private static final class QueryKey extends CenterKey {
+
+    final double radius;
+
+    QueryKey(double latitude, double longitude, double radius) {
+      super(latitude, longitude);
+      this.radius = radius;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return super.equals(o) && Double.compare(radius, ((QueryKey) o).radius) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * super.hashCode() + Double.hashCode(radius);
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package io.intercom.problems.proximity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * <code>RadiusResult</code> holds the customers found by a radius query together with the
+ * distance of each from the query's center, as calculated when the query tested them. The
+ * matches are kept in the order they were found, as store indexes and distances in primitive
+ * arrays, and are only ordered when asked for.
+ * <p>
+ * The first N or a page of the matches by distance or userId are selected with a bounded heap,
+ * so only as many matches as are returned are ever ordered. Matches are materialized as
+ * <code>CustomerDistance</code>s lazily when streamed. Results are immutable.
+ */
+public final class RadiusResult {
+
+  /**
+   * The orders matches can be returned in, both ascending. Ties in distance are broken by userId.
+   */
+  public enum Order {
+    DISTANCE,
+    USER_ID
+  }
+
+  private final CustomerLocationStore store;
+
+  private final int[] indices;
+
+  private final double[] distances;
+
+  private final int size;
+
+  RadiusResult(CustomerLocationStore store, int[] indices, double[] distances, int size) {
+    this.store = store;
+    this.indices = indices;
+    this.distances = distances;
+    this.size = size;
+  }
+
+  /**
+   * Retrieve the number of customers found
+   *
+   * @return int the number of matches
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Streams every match in the order they were found, without ordering them
+   *
+   * @return Stream<CustomerDistance> the customers found with their distances
+   */
+  public Stream<CustomerDistance> stream() {
+    return IntStream.range(0, size).mapToObj(this::match);
+  }
+
+  /**
+   * Streams every match in the given order. Only the positions of the matches are ordered up
+   * front, customers are materialized as the stream is consumed.
+   *
+   * @param order the order to stream the matches in
+   * @return Stream<CustomerDistance> the customers found with their distances, in order
+   */
+  public Stream<CustomerDistance> stream(Order order) {
+    return Arrays.stream(positions(order, size)).mapToObj(this::match);
+  }
+
+  /**
+   * Retrieve every match in the given order
+   *
+   * @param order the order to return the matches in
+   * @return List<CustomerDistance> all the customers found with their distances, in order
+   */
+  public List<CustomerDistance> sorted(Order order) {
+    return top(size, order);
+  }
+
+  /**
+   * Retrieve the first N matches in the given order, selected with a heap bounded to N
+   *
+   * @param n the number of matches to return
+   * @param order the order to select and return matches in
+   * @return List<CustomerDistance> the first N matches, fewer if not enough customers were found
+   */
+  public List<CustomerDistance> top(int n, Order order) {
+    if (n < 0) {
+      throw new IllegalArgumentException("Radius results require a non negative number of matches");
+    }
+    return toList(positions(order, Math.min(n, size)), 0);
+  }
+
+  /**
+   * Retrieve a page of the matches in the given order, selecting the matches up to the end of
+   * the page with a bounded heap
+   *
+   * @param offset the number of matches before the page
+   * @param limit the most matches in the page
+   * @param order the order matches are paged in
+   * @return List<CustomerDistance> the matches in the page, empty if the offset is past the last match
+   */
+  public List<CustomerDistance> page(int offset, int limit, Order order) {
+    if (offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("Radius result pages require a non negative offset and limit");
+    }
+    if (offset >= size) {
+      return new ArrayList<>(0);
+    }
+    return toList(positions(order, (int) Math.min((long) offset + limit, size)), offset);
+  }
+
+  /**
+   * Retrieve the store the matches' indexes refer to
+   *
+   * @return CustomerLocationStore the customers the query was made against
+   */
+  public CustomerLocationStore getStore() {
+    return store;
+  }
+
+  /**
+   * Orders the first N matches, returning their store indexes and writing their distances to the
+   * given array
+   */
+  int[] indices(Order order, int n, double[] orderedDistances) {
+    int[] positions = positions(order, n);
+    int[] ordered = new int[positions.length];
+    for (int x = 0; x < positions.length; x++) {
+      ordered[x] = indices[positions[x]];
+      orderedDistances[x] = distances[positions[x]];
+    }
+    return ordered;
+  }
+
+  /**
+   * Selects the positions of the first N matches in the given order. Selecting every match by
+   * userId is a primitive sort of packed keys, anything else goes through a heap bounded to N.
+   */
+  private int[] positions(Order order, int n) {
+    if (order == null) {
+      throw new IllegalArgumentException("Radius results require a valid order");
+    }
+    int[] userIds = store.userIdColumn();
+    if (order == Order.USER_ID && n == size) {
+      long[] keys = new long[size];
+      for (int p = 0; p < size; p++) {
+        keys[p] = ((long) userIds[indices[p]] << 32) | p;
+      }
+      Arrays.sort(keys);
+      int[] positions = new int[size];
+      for (int x = 0; x < size; x++) {
+        positions[x] = (int) keys[x];
+      }
+      return positions;
+    }
+
+    NearestHeap heap = new NearestHeap(n);
+    for (int p = 0; p < size; p++) {
+      int userId = userIds[indices[p]];
+      // ordering by userId ranks on the id alone, which every int converts to a double exactly
+      double rank = order == Order.DISTANCE ? distances[p] : userId;
+      if (rank <= heap.threshold()) {
+        heap.offer(rank, userId, p);
+      }
+    }
+    return heap.drainNearestFirst(new double[heap.size()]);
+  }
+
+  private List<CustomerDistance> toList(int[] positions, int from) {
+    List<CustomerDistance> matches = new ArrayList<>(positions.length - from);
+    for (int x = from; x < positions.length; x++) {
+      matches.add(match(positions[x]));
+    }
+    return matches;
+  }
+
+  private CustomerDistance match(int position) {
+    return new CustomerDistance(store.get(indices[position]), distances[position]);
+  }
+}
@@ -0,0 +1,49 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>RecordStatus</code> is the outcome of checking a customer record, either
+ * <code>VALID</code> or the reason it was rejected. Statuses are returned rather than thrown so
+ * that rejecting a record costs no more than accepting one.
+ */
+public enum RecordStatus {
+
+  VALID,
+
+  /** the line is not well formed json */
+  MALFORMED_JSON,
+
+  /** the line is json but not a json object */
+  NOT_AN_OBJECT,
+
+  /** the record holds a field that isn't part of a customer */
+  UNRECOGNIZED_FIELD,
+
+  /** a field holds a value of the wrong type or that can't be parsed as a number */
+  INVALID_VALUE,
+
+  MISSING_USER_ID,
+
+  MISSING_NAME,
+
+  MISSING_LATITUDE,
+
+  MISSING_LONGITUDE;
+
+  /**
+   * Tests whether the record was rejected
+   *
+   * @return true for every status but <code>VALID</code>
+   */
+  public boolean isRejected() {
+    return this != VALID;
+  }
+
+  /**
+   * Tests whether the record was well formed but rejected for missing a required field
+   *
+   * @return true if a required field was missing
+   */
+  public boolean isMissingField() {
+    return this == MISSING_USER_ID || this == MISSING_NAME || this == MISSING_LATITUDE || this == MISSING_LONGITUDE;
+  }
+}
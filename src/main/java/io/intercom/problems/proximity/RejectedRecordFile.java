@@ -0,0 +1,64 @@
+package io.intercom.problems.proximity;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <code>RejectedRecordFile</code> is a <code>RejectedRecordSink</code> that appends each rejected
+ * record to a file as its reason and the original line separated by a tab. An error writing the
+ * file doesn't interrupt loading, writing stops and the error is thrown when the file is closed.
+ */
+public class RejectedRecordFile implements RejectedRecordSink, Closeable {
+
+  private final BufferedWriter writer;
+
+  private IOException failure;
+
+  /**
+   * Opens the given file for rejected records, replacing any existing contents
+   *
+   * @param file the file to write rejected records to
+   * @throws IOException if the file can't be opened
+   */
+  public RejectedRecordFile(Path file) throws IOException {
+    this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public synchronized void rejected(RecordStatus reason, String line) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      writer.write(reason.name());
+      writer.write('\t');
+      writer.write(line);
+      writer.newLine();
+    } catch (IOException e) {
+      failure = e;
+    }
+  }
+
+  /**
+   * Flushes and closes the file
+   *
+   * @throws IOException if there was an error writing or closing the file
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      writer.close();
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
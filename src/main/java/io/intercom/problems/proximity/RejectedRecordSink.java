@@ -0,0 +1,25 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>RejectedRecordSink</code> receives customer records rejected while loading, along with
+ * the reason each was rejected, so bad rows can be inspected or replayed later.
+ * <code>RejectedRecordFile</code> writes them to a file. Sinks may be called from several
+ * loading threads, though never concurrently.
+ */
+@FunctionalInterface
+public interface RejectedRecordSink {
+
+  /**
+   * A sink that discards every rejected record
+   */
+  RejectedRecordSink NONE = (reason, line) -> {
+  };
+
+  /**
+   * Receives a rejected record
+   *
+   * @param reason why the record was rejected
+   * @param line the line holding the record
+   */
+  void rejected(RecordStatus reason, String line);
+}
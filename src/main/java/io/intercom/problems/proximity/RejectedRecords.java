@@ -0,0 +1,194 @@
+package io.intercom.problems.proximity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <code>RejectedRecords</code> tallies the customer records rejected during a load by reason and
+ * passes them on to a <code>RejectedRecordSink</code>. The sink is bounded, only the first
+ * records up to its capacity are passed on and the rest are only counted, so a badly broken
+ * input can't fill a disk or memory with rejects.
+ * <p>
+ * Logging is rate limited. The first few rejected records are logged individually, after which
+ * a summary of the counts by reason is logged at most once per interval, and once more when the
+ * load finishes. A rejected line is only decoded to a <code>String</code> if it is logged or
+ * passed to the sink. Records may be rejected from many threads at once.
+ */
+public final class RejectedRecords {
+
+  static final int LOGGED_RECORDS = 10;
+
+  static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private static final RecordStatus[] REASONS = RecordStatus.values();
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final RejectedRecordSink sink;
+
+  private final long capacity;
+
+  private final AtomicLongArray counts = new AtomicLongArray(REASONS.length);
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final AtomicLong lastSummary = new AtomicLong(System.nanoTime());
+
+  /**
+   * Creates a tally that counts and logs rejected records without keeping them
+   */
+  public RejectedRecords() {
+    this(RejectedRecordSink.NONE, 0);
+  }
+
+  /**
+   * Creates a tally that passes up to the given number of rejected records on to the sink
+   *
+   * @param sink receives the rejected records
+   * @param capacity the most records to pass to the sink, later records are only counted
+   */
+  public RejectedRecords(RejectedRecordSink sink, long capacity) {
+    if (sink == null) {
+      throw new IllegalArgumentException("Rejected records require a valid sink");
+    }
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Rejected records require a non negative capacity");
+    }
+    this.sink = sink;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Records that the given line was rejected
+   *
+   * @param reason why the line was rejected
+   * @param line the rejected line
+   */
+  public void reject(RecordStatus reason, String line) {
+    if (reason == null || !reason.isRejected()) {
+      throw new IllegalArgumentException("Rejected records require a rejection reason");
+    }
+    long count = count(reason);
+    if (count <= capacity || count <= LOGGED_RECORDS) {
+      handle(reason, line, count);
+    }
+  }
+
+  /**
+   * Records that the line in the given range of the buffer was rejected
+   */
+  void reject(RecordStatus reason, byte[] buffer, int offset, int length) {
+    long count = count(reason);
+    if (count <= capacity || count <= LOGGED_RECORDS) {
+      handle(reason, new String(buffer, offset, length, StandardCharsets.UTF_8), count);
+    }
+  }
+
+  private long count(RecordStatus reason) {
+    counts.incrementAndGet(reason.ordinal());
+    long count = rejected.incrementAndGet();
+    if (count > LOGGED_RECORDS) {
+      long now = System.nanoTime();
+      long last = lastSummary.get();
+      if (now - last >= SUMMARY_INTERVAL_NANOS && lastSummary.compareAndSet(last, now) && log.isWarnEnabled()) {
+        log.warn("Rejected {} customer records so far, {}", count, breakdown());
+      }
+    }
+    return count;
+  }
+
+  private void handle(RecordStatus reason, String line, long count) {
+    if (count <= LOGGED_RECORDS && log.isErrorEnabled()) {
+      log.error("Error parsing customer info '{}', {}{}", line, reason,
+          count == LOGGED_RECORDS ? ". Further rejected records will be summarized" : "");
+    }
+    if (count <= capacity) {
+      synchronized (this) {
+        sink.rejected(reason, line);
+      }
+    }
+  }
+
+  /**
+   * Logs the number of records rejected by reason, if any were rejected
+   */
+  public void logSummary() {
+    long count = rejected.get();
+    if (count > 0 && log.isWarnEnabled()) {
+      long dropped = getDropped();
+      log.warn("Rejected {} customer records, {}{}", count, breakdown(),
+          dropped > 0 ? ". " + dropped + " were not kept as the rejected record sink was full" : "");
+    }
+  }
+
+  private String breakdown() {
+    StringBuilder b = new StringBuilder();
+    for (RecordStatus reason : REASONS) {
+      long count = counts.get(reason.ordinal());
+      if (count > 0) {
+        if (b.length() > 0) {
+          b.append(", ");
+        }
+        b.append(reason).append('=').append(count);
+      }
+    }
+    return b.toString();
+  }
+
+  /**
+   * Retrieve the number of records rejected
+   *
+   * @return long the number of records rejected for any reason
+   */
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Retrieve the number of records rejected for the given reason
+   *
+   * @param reason the reason records were rejected
+   * @return long the number of records rejected for the reason
+   */
+  public long getRejected(RecordStatus reason) {
+    return counts.get(reason.ordinal());
+  }
+
+  /**
+   * Retrieve the number of records rejected as malformed json or holding invalid values
+   *
+   * @return long the number of malformed records
+   */
+  public long getParseFailures() {
+    return getRejected() - getValidationFailures();
+  }
+
+  /**
+   * Retrieve the number of well formed records rejected for missing a required field
+   *
+   * @return long the number of incomplete records
+   */
+  public long getValidationFailures() {
+    long count = 0;
+    for (RecordStatus reason : REASONS) {
+      if (reason.isMissingField()) {
+        count += counts.get(reason.ordinal());
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Retrieve the number of rejected records only counted because the sink was full
+   *
+   * @return long the number of rejected records not passed to the sink
+   */
+  public long getDropped() {
+    return Math.max(0, rejected.get() - capacity);
+  }
+}
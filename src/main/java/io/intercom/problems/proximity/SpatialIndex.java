@@ -0,0 +1,30 @@
+package io.intercom.problems.proximity;
+
+import java.util.function.IntConsumer;
+
+/**
+ * <code>SpatialIndex</code> narrows a radius query over a <code>CustomerLocationStore</code> down
+ * to a set of candidate customers. Implementations are free to report customers that turn out
+ * to be outside the radius, the caller performs the exact distance test, but must never omit a
+ * customer that is inside it.
+ */
+public interface SpatialIndex {
+
+  /**
+   * Reports the store index of every customer that may lie within the given radius of the
+   * given point. Each candidate is reported at most once.
+   *
+   * @param latitude the latitude of the center of the query in degrees
+   * @param longitude the longitude of the center of the query in degrees
+   * @param radius the radius of the query in kilometers
+   * @param candidates receives the store index of each candidate customer
+   */
+  void forEachCandidate(double latitude, double longitude, double radius, IntConsumer candidates);
+
+  /**
+   * Retrieve the store of customers this index was built over
+   *
+   * @return CustomerLocationStore the indexed customers
+   */
+  CustomerLocationStore getStore();
+}
@@ -0,0 +1,18 @@
+package io.intercom.problems.proximity;
+
+/**
+ * <code>SpatialIndexFactory</code> builds a <code>SpatialIndex</code> over a store of customers.
+ * Passed to a <code>ProximityCalculator</code> to choose how its radius queries are answered, e.g.
+ * <code>LinearScanIndex::new</code> or <code>GridSpatialIndex.withCellSize(0.5)</code>.
+ */
+@FunctionalInterface
+public interface SpatialIndexFactory {
+
+  /**
+   * Builds an index over the customers currently held in the given store
+   *
+   * @param store the customers to index
+   * @return SpatialIndex the newly built index
+   */
+  SpatialIndex build(CustomerLocationStore store);
+}
@@ -0,0 +1,155 @@
+package io.intercom.problems.proximity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+/**
+ * <code>SpatialPartitioning</code> assigns customers to shards by the latitude/longitude cell
+ * they are in, so a radius query only needs the shards owning the cells its bounding box
+ * overlaps. Neighbouring cells are dealt to different shards in turn, spreading dense areas
+ * across every shard rather than leaving them all on one, at the cost of a query spanning a few
+ * cells reaching a few shards.
+ * <p>
+ * The coordinator and every worker must use equal partitionings. Customers outside the valid
+ * latitude/longitude ranges belong to no shard.
+ */
+public final class SpatialPartitioning {
+
+  public static final double DEFAULT_CELL_SIZE = 5.0;
+
+  private final int shards;
+
+  private final double cellSize;
+
+  private final GridGeometry grid;
+
+  /**
+   * Creates a partitioning of the globe into the given number of shards
+   *
+   * @param shards the number of shards
+   * @param cellSize the approximate height and width of each cell in degrees
+   */
+  public SpatialPartitioning(int shards, double cellSize) {
+    if (shards < 1) {
+      throw new IllegalArgumentException("Spatial partitioning requires at least one shard");
+    }
+    this.shards = shards;
+    this.cellSize = cellSize;
+    this.grid = new GridGeometry(cellSize);
+  }
+
+  /**
+   * Retrieve the shard owning the given point
+   *
+   * @param latitude the latitude of the point in degrees
+   * @param longitude the longitude of the point in degrees
+   * @return int the owning shard, from zero, or -1 if the point is outside the valid ranges
+   */
+  public int shardOf(double latitude, double longitude) {
+    int cell = grid.cellOf(latitude, longitude);
+    return cell < 0 ? -1 : shardOf(cell / grid.columns, cell % grid.columns);
+  }
+
+  private int shardOf(int row, int column) {
+    // offsetting each row keeps a shard's cells from lining up in columns
+    return (row + column) % shards;
+  }
+
+  /**
+   * Finds the shards owning any cell the circle of the given radius around the given center
+   * may overlap. The box around the circle is widened as for the ellipsoidal formula, the widest
+   * any <code>DistanceKernel</code> uses, so whichever formula the workers measure with no shard
+   * holding a match is left out.
+   *
+   * @param latitude the latitude of the center in degrees
+   * @param longitude the longitude of the center in degrees
+   * @param radius the radius in kilometers
+   * @return BitSet the shards to query, set by shard number
+   */
+  public BitSet shardsOverlapping(double latitude, double longitude, double radius) {
+    BitSet overlapping = new BitSet(shards);
+    BoundingBox box = BoundingBox.around(latitude, longitude, radius * DistanceKernel.ELLIPSOIDAL_BOX_SCALE);
+    grid.forEachCell(box, (row, column) -> overlapping.set(shardOf(row, column)));
+    return overlapping;
+  }
+
+  /**
+   * Copies the customers owned by the given shard out of a store of every customer
+   *
+   * @param store the customers to partition
+   * @param shard the shard whose customers should be kept
+   * @return CustomerLocationStore a new store holding only the shard's customers, in store order
+   */
+  public CustomerLocationStore shard(CustomerLocationStore store, int shard) {
+    if (store == null) {
+      throw new IllegalArgumentException("Spatial partitioning requires a valid customer location store");
+    }
+    checkShard(shard);
+    CustomerLocationStore owned = new CustomerLocationStore(Math.max(1, store.size() / shards));
+    int[] userIds = store.userIdColumn();
+    String[] names = store.nameColumn();
+    double[] latitudes = store.latitudeColumn();
+    double[] longitudes = store.longitudeColumn();
+    for (int i = 0; i < store.size(); i++) {
+      if (shardOf(latitudes[i], longitudes[i]) == shard) {
+        owned.add(userIds[i], names[i], latitudes[i], longitudes[i]);
+      }
+    }
+    return owned;
+  }
+
+  /**
+   * Loads the customers owned by the given shard from a file of every customer. The file is
+   * streamed and each customer kept only if the shard owns it, so the customers of other shards
+   * are never held in memory.
+   *
+   * @param customerFile the path of the json file containing every customer
+   * @param shard the shard whose customers should be kept
+   * @return CustomerLocationStore a new store holding only the shard's customers, in file order
+   * @throws IOException if there is an error reading the file
+   */
+  public CustomerLocationStore loadShard(Path customerFile, int shard) throws IOException {
+    if (customerFile == null) {
+      throw new IllegalArgumentException("Spatial partitioning requires a valid customer file");
+    }
+    checkShard(shard);
+    CustomerLocationStore owned = new CustomerLocationStore();
+    try (InputStream in = Files.newInputStream(customerFile)) {
+      new CustomerLocationDataLoader().loadCustomerLocationDetails(in, (userId, name, latitude, longitude) -> {
+        if (shardOf(latitude, longitude) == shard) {
+          owned.add(userId, name, latitude, longitude);
+        }
+      });
+    } catch (IOException e) {
+      throw new IOException("Could not load shard " + shard + " from '" + customerFile + "'", e);
+    }
+    return owned;
+  }
+
+  private void checkShard(int shard) {
+    if (shard < 0 || shard >= shards) {
+      throw new IllegalArgumentException("Spatial partitioning requires a shard within [0, " + shards + ")");
+    }
+  }
+
+  /**
+   * Retrieve the number of shards
+   *
+   * @return int the number of shards
+   */
+  public int getShards() {
+    return shards;
+  }
+
+  /**
+   * Retrieve the size of the cells dealt to shards
+   *
+   * @return double the approximate height and width of each cell in degrees
+   */
+  public double getCellSize() {
+    return cellSize;
+  }
+}
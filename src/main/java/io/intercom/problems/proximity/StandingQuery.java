@@ -0,0 +1,53 @@
+package io.intercom.problems.proximity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <code>StandingQuery</code> is a radius query registered with an
+ * <code>IncrementalProximityTracker</code>, whose set of member customers is kept up to date as
+ * customers are added, moved and removed.
+ */
+public class StandingQuery {
+
+  private final RadiusQuery query;
+
+  private final DistanceKernel kernel;
+
+  private final Map<Integer, CustomerLocation> members = new HashMap<>();
+
+  StandingQuery(RadiusQuery query, DistanceFormula formula) {
+    this.query = query;
+    this.kernel = new DistanceKernel(formula, query.getCenter().getLatitude(), query.getCenter().getLongitude(),
+        query.getRadius());
+  }
+
+  boolean covers(CustomerLocation customer) {
+    return kernel.isWithinRadius(customer.getLatitude(), customer.getLongitude());
+  }
+
+  /**
+   * Updates the membership of the given customer, returning the customer's previous details if
+   * they were a member
+   */
+  CustomerLocation update(CustomerLocation customer, boolean member) {
+    return member ? members.put(customer.getUserId(), customer) : members.remove(customer.getUserId());
+  }
+
+  CustomerLocation remove(Integer userId) {
+    return members.remove(userId);
+  }
+
+  Map<Integer, CustomerLocation> members() {
+    return members;
+  }
+
+  /**
+   * Retrieve the center and radius of the query
+   *
+   * @return RadiusQuery the query
+   */
+  public RadiusQuery getQuery() {
+    return query;
+  }
+}
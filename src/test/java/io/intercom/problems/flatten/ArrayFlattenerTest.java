@@ -5,9 +5,20 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static io.intercom.problems.flatten.ArrayFlattener.flattenInParallel;
 import static io.intercom.problems.flatten.ArrayFlattener.flattenIteratively;
 import static io.intercom.problems.flatten.ArrayFlattener.flattenRecursively;
+import static io.intercom.problems.flatten.ArrayFlattener.flattenToIntArray;
+import static io.intercom.problems.flatten.ArrayFlattener.flattenedSpliterator;
+import static io.intercom.problems.flatten.ArrayFlattener.streamFlattened;
 
 public class ArrayFlattenerTest {
 
@@ -52,6 +63,156 @@ public class ArrayFlattenerTest {
 
   }
 
+  @Test
+  public void shouldFlattenArrayToIntArray() {
+
+    assertArrayEquals(new int[]{1, 2, 3, 4}, flattenToIntArray(nested));
+    assertArrayEquals(new int[]{1, 2, 3, 4}, flattenToIntArray(withNullsAndNonIntegers));
+    assertArrayEquals(new int[]{}, flattenToIntArray(null));
+    assertArrayEquals(new int[]{}, flattenToIntArray(empty));
+    assertArrayEquals(new int[]{1}, flattenToIntArray(arrayWithCycle));
+    assertArrayEquals(new int[]{1, 2, 3, 4}, flattenToIntArray(nested, 1000));
+
+    // primitive arrays aren't Integer contents and are skipped
+    assertArrayEquals(new int[]{1}, flattenToIntArray(new Object[]{new int[]{5, 6}, 1}));
+  }
+
+  @Test
+  public void shouldFlattenSharedSubArraysOnceLikeRecursiveFlattening() {
+
+    Object[] shared = new Object[]{1, 2};
+    Object[] withSharing = new Object[]{shared, new Object[]{3, shared}, shared, 4};
+    assertArrayEquals(new int[]{1, 2, 3, 4}, flattenToIntArray(withSharing));
+    assertArrayEquals(new Integer[]{1, 2, 3, 4}, flattenRecursively(withSharing));
+  }
+
+  @Test
+  public void shouldFlattenDeeplyNestedAndLargeArraysToIntArray() {
+
+    Object[] deeplyNested = new Object[]{0};
+    for (int x = 1; x < 100000; x++) {
+      deeplyNested = new Object[]{deeplyNested, x};
+    }
+    int[] flattened = flattenToIntArray(deeplyNested);
+    assertEquals(100000, flattened.length);
+    for (int x = 0; x < flattened.length; x++) {
+      assertEquals(x, flattened[x]);
+    }
+
+    Object[] wide = new Object[1000];
+    for (int x = 0; x < wide.length; x++) {
+      Object[] block = new Object[5000];
+      for (int y = 0; y < block.length; y++) {
+        block[y] = x * 5000 + y;
+      }
+      wide[x] = block;
+    }
+    flattened = flattenToIntArray(wide);
+    assertEquals(5000000, flattened.length);
+    assertEquals(4999999, flattened[4999999]);
+  }
+
+  @Test
+  public void shouldFlattenArrayInParallel() {
+
+    assertArrayEquals(new int[]{1, 2, 3, 4}, flattenInParallel(nested));
+    assertArrayEquals(new int[]{1, 2, 3, 4}, flattenInParallel(withNullsAndNonIntegers));
+    assertArrayEquals(new int[]{}, flattenInParallel(null));
+    assertArrayEquals(new int[]{}, flattenInParallel(empty));
+    assertArrayEquals(new int[]{1}, flattenInParallel(arrayWithCycle));
+
+    Object[] shared = new Object[]{1, 2};
+    Object[] withSharing = new Object[]{shared, new Object[]{3, shared}, shared, 4};
+    assertArrayEquals(new int[]{1, 2, 3, 4}, flattenInParallel(withSharing));
+  }
+
+  @Test
+  public void shouldFlattenLargeArraysWithSharingAndCyclesInParallelLikeSequentialFlattening() {
+
+    Random random = new Random(42);
+    Object[][] blocks = new Object[200][];
+    for (int b = 0; b < blocks.length; b++) {
+      blocks[b] = new Object[random.nextInt(40000)];
+    }
+    for (Object[] block : blocks) {
+      for (int i = 0; i < block.length; i++) {
+        int roll = random.nextInt(1000);
+        // mostly integers, with occasional nulls, shared blocks, including ancestors, and self references
+        block[i] = roll < 2 ? blocks[random.nextInt(blocks.length)] : roll < 3 ? block : roll < 4 ? null : random.nextInt();
+      }
+    }
+    Object[] root = new Object[]{blocks[0], 7, blocks[1], blocks[0], blocks[2]};
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      int[] expected = flattenToIntArray(root);
+      assertTrue(expected.length > ParallelFlattener.SEQUENTIAL_THRESHOLD);
+      assertArrayEquals(expected, flattenInParallel(root, pool));
+      assertArrayEquals(expected, flattenInParallel(root));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldFlattenDeeplyNestedAndLargeArraysInParallel() {
+
+    Object[] deeplyNested = new Object[]{0};
+    for (int x = 1; x < 100000; x++) {
+      deeplyNested = new Object[]{deeplyNested, x};
+    }
+    assertArrayEquals(flattenToIntArray(deeplyNested), flattenInParallel(deeplyNested));
+
+    Object[] wide = new Object[5000000];
+    for (int x = 0; x < wide.length; x++) {
+      wide[x] = x % 1000 == 0 ? new Object[]{-x, -x} : x;
+    }
+    int[] flattened = flattenInParallel(wide);
+    assertArrayEquals(flattenToIntArray(wide), flattened);
+    assertEquals(4999999, flattened[flattened.length - 1]);
+  }
+
+  @Test
+  public void shouldRequirePoolToFlattenInParallel() {
+
+    thrown.expect(IllegalArgumentException.class);
+    flattenInParallel(nested, null);
+  }
+
+  @Test
+  public void shouldStreamFlattenedArrayLazily() {
+
+    assertArrayEquals(new int[]{1, 2, 3, 4}, streamFlattened(nested).toArray());
+    assertArrayEquals(new int[]{1, 2, 3, 4}, streamFlattened(withNullsAndNonIntegers).toArray());
+    assertArrayEquals(new int[]{}, streamFlattened(null).toArray());
+    assertArrayEquals(new int[]{}, streamFlattened(empty).toArray());
+    assertArrayEquals(new int[]{1}, streamFlattened(arrayWithCycle).toArray());
+
+    assertEquals(10, streamFlattened(nested).sum());
+    assertEquals(2, streamFlattened(nested).filter(x -> x % 2 == 0).count());
+  }
+
+  @Test
+  public void shouldOnlyWalkAsFarAsConsumed() {
+
+    Object[] lazy = new Object[]{1, new Object[]{2, 3}, new Object[]{4}};
+    Spliterator.OfInt sut = flattenedSpliterator(lazy);
+    assertEquals(3, sut.estimateSize());
+
+    int[] seen = new int[1];
+    assertTrue(sut.tryAdvance((int x) -> seen[0] = x));
+    assertTrue(sut.tryAdvance((int x) -> seen[0] = x));
+    assertEquals(2, seen[0]);
+    assertEquals(2, sut.estimateSize());
+
+    // the last sub array hasn't been read yet so replacing it changes what is yielded
+    lazy[2] = new Object[]{40};
+    sut.forEachRemaining((int x) -> seen[0] = x);
+    assertEquals(40, seen[0]);
+    assertEquals(0, sut.estimateSize());
+    assertFalse(sut.tryAdvance((int x) -> seen[0] = x));
+  }
+
   @Test(expected = StackOverflowError.class)
   public void shouldShowStackLimitationOfDeeplyNestedRecursion(){
 
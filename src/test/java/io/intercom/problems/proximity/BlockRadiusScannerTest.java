@@ -0,0 +1,132 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockRadiusScannerTest {
+
+  private CustomerLocationStore store;
+
+  private PreparedCoordinates points;
+
+  private BlockRadiusScanner sut;
+
+  @Before
+  public void createCustomers() {
+    Random random = new Random(23);
+    store = new CustomerLocationStore();
+    for (int x = 0; x < 20000; x++) {
+      store.add(x, "Customer-" + x, random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+    }
+    // the poles, the antimeridian and a cluster around the office
+    store.add(20000, "North", 90.0, 0.0);
+    store.add(20001, "South", -90.0, 45.0);
+    store.add(20002, "East", 0.0, 180.0);
+    store.add(20003, "West", 0.0, -180.0);
+    for (int x = 0; x < 1000; x++) {
+      store.add(30000 + x, "Local-" + x, 53.3 + random.nextGaussian() * 0.2, -6.2 + random.nextGaussian() * 0.2);
+    }
+    points = PreparedCoordinates.of(store);
+    sut = new BlockRadiusScanner(points);
+  }
+
+  @Test
+  public void shouldFindSameCustomersAsDistanceTo() {
+    Random random = new Random(7);
+    for (int q = 0; q < 200; q++) {
+      Coordinates center = q % 4 == 0
+          ? new Coordinates(53.3 + random.nextGaussian() * 0.2, -6.2 + random.nextGaussian() * 0.2)
+          : new Coordinates(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+      double radius = q % 2 == 0 ? random.nextDouble() * 50.0 : random.nextDouble() * 5000.0;
+      assertParity(center, radius);
+    }
+  }
+
+  @Test
+  public void shouldDecideCustomersExactlyOnTheRadiusAsDistanceToDoes() {
+    Coordinates center = new Coordinates(53.3381985, -6.2592576);
+    for (int i = 20004; i < 20104; i++) {
+      // a radius through each customer puts them on the boundary, where rounding decides
+      assertParity(center, center.distanceTo(store.get(i).getCoordinates()));
+    }
+    assertParity(new Coordinates(0.0, 179.9), 100.0);
+    assertParity(new Coordinates(89.9, 0.0), 50.0);
+  }
+
+  @Test
+  public void shouldHandleRadiiBeyondHalfTheEarthAndInvalidRadii() {
+    Coordinates center = new Coordinates(10.0, 20.0);
+    assertEquals(store.size(), scan(center, 30000.0, DistanceFormula.SPHERICAL_LAW_OF_COSINES).size());
+    assertEquals(store.size(), scan(center, Double.POSITIVE_INFINITY, DistanceFormula.SPHERICAL_LAW_OF_COSINES).size());
+    assertEquals(0, scan(center, -1.0, DistanceFormula.SPHERICAL_LAW_OF_COSINES).size());
+    assertEquals(0, scan(center, Double.NaN, DistanceFormula.SPHERICAL_LAW_OF_COSINES).size());
+    assertEquals(1, scan(new Coordinates(90.0, 0.0), 0.0, DistanceFormula.SPHERICAL_LAW_OF_COSINES).size());
+  }
+
+  @Test
+  public void shouldMatchScalarScanForEverySupportedFormula() {
+    Random random = new Random(11);
+    for (DistanceFormula formula : DistanceFormula.values()) {
+      if (!BlockRadiusScanner.supports(formula)) {
+        continue;
+      }
+      for (int q = 0; q < 50; q++) {
+        Coordinates center = new Coordinates(random.nextDouble() * 160.0 - 80.0, random.nextDouble() * 360.0 - 180.0);
+        double radius = random.nextDouble() * 1000.0;
+        DistanceKernel kernel = new DistanceKernel(formula, center.getLatitude(), center.getLongitude(), radius);
+        List<Integer> expected = new ArrayList<>();
+        sut.scanScalar(kernel, 0, points.size(), (i, distance) -> expected.add(i));
+        assertEquals(formula + " " + q, expected, indices(scan(center, radius, formula)));
+      }
+    }
+  }
+
+  @Test
+  public void shouldScanOnlyTheGivenRange() {
+    Coordinates center = new Coordinates(0.0, 0.0);
+    List<double[]> matches = new ArrayList<>();
+    DistanceKernel kernel = new DistanceKernel(DistanceFormula.HAVERSINE, 0.0, 0.0, 30000.0);
+    sut.scan(kernel, center.getLatitude(), center.getLongitude(), 30000.0, 700, 1300, (i, distance) -> matches.add(new double[] {i, distance}));
+    assertEquals(600, matches.size());
+    assertEquals(700, (int) matches.get(0)[0]);
+    assertEquals(1299, (int) matches.get(599)[0]);
+  }
+
+  private void assertParity(Coordinates center, double radius) {
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < store.size(); i++) {
+      if (center.distanceTo(store.get(i).getCoordinates()) <= radius) {
+        expected.add(i);
+      }
+    }
+    List<double[]> found = scan(center, radius, DistanceFormula.SPHERICAL_LAW_OF_COSINES);
+    assertEquals(expected, indices(found));
+    for (double[] match : found) {
+      double distance = center.distanceTo(store.get((int) match[0]).getCoordinates());
+      assertTrue(match[1] <= radius);
+      assertEquals(distance, match[1], 1e-6);
+    }
+  }
+
+  private List<double[]> scan(Coordinates center, double radius, DistanceFormula formula) {
+    List<double[]> matches = new ArrayList<>();
+    DistanceKernel kernel = new DistanceKernel(formula, center.getLatitude(), center.getLongitude(), radius);
+    sut.scan(kernel, center.getLatitude(), center.getLongitude(), radius, 0, points.size(), (i, distance) -> matches.add(new double[] {i, distance}));
+    return matches;
+  }
+
+  private List<Integer> indices(List<double[]> matches) {
+    List<Integer> indices = new ArrayList<>(matches.size());
+    for (double[] match : matches) {
+      indices.add((int) match[0]);
+    }
+    return indices;
+  }
+}
@@ -0,0 +1,118 @@
+package io.intercom.problems.proximity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkQueryRunnerTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private ProximityCalculator calculator;
+
+  @Before
+  public void createCustomers() {
+    Random random = new Random(22);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 5000; x++) {
+      store.add((x * 7919) % 5000, "Customer-" + x, 50.0 + random.nextDouble() * 8.0, -12.0 + random.nextDouble() * 10.0);
+    }
+    calculator = new ProximityCalculator(store, GridSpatialIndex::new);
+  }
+
+  @Test
+  public void shouldAnswerEveryQueryInInputOrder() throws IOException {
+    Random random = new Random(5);
+    StringBuilder queries = new StringBuilder("latitude,longitude,radius\n");
+    double[][] expected = new double[1000][];
+    for (int q = 0; q < expected.length; q++) {
+      expected[q] = new double[] {50.0 + random.nextDouble() * 8.0, -12.0 + random.nextDouble() * 10.0, random.nextDouble() * 100.0};
+      // mix both formats, and blank lines, in the one file
+      if (q % 2 == 0) {
+        queries.append(expected[q][0]).append(',').append(expected[q][1]).append(',').append(expected[q][2]).append('\n');
+      } else {
+        queries.append("{\"latitude\": ").append(expected[q][0]).append(", \"longitude\": ").append(expected[q][1])
+            .append(", \"radius\": ").append(expected[q][2]).append("}\n\n");
+      }
+    }
+
+    BulkQueryRunner sut = new BulkQueryRunner(calculator, 4, 16);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BulkQueryRunner.Report report = sut.run(new ByteArrayInputStream(queries.toString().getBytes(StandardCharsets.UTF_8)), out);
+
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(expected.length, lines.length);
+    assertEquals(expected.length, report.getQueries());
+    assertEquals(0, report.getRejected());
+    assertTrue(report.getQueriesPerSecond() > 0.0);
+    long matches = 0;
+    for (int q = 0; q < expected.length; q++) {
+      List<CustomerLocation> customers = calculator.calculateCustomersWithinRadius(new Coordinates(expected[q][0], expected[q][1]), expected[q][2]);
+      JsonNode result = mapper.readTree(lines[q]);
+      assertEquals(customers.size(), result.get("total").asInt());
+      for (int c = 0; c < customers.size(); c++) {
+        assertEquals(customers.get(c).getUserId().intValue(), result.get("customers").get(c).get("user_id").asInt());
+      }
+      matches += customers.size();
+    }
+    assertEquals(matches, report.getMatches());
+  }
+
+  @Test
+  public void shouldReportBadQueriesInPlace() throws IOException {
+    String queries = "53.3,-6.2,100\n" +
+        "53.3,-6.2\n" +
+        "\n" +
+        "{\"latitude\": 53.3, \"longitude\": -6.2, \"radius\": \"far\"}\n" +
+        "95,-6.2,100\n" +
+        "{\"latitude\": 53.3, \"longitude\": -6.2, \"radius\": 100}\n";
+
+    BulkQueryRunner sut = new BulkQueryRunner(calculator, 2, 2);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BulkQueryRunner.Report report = sut.run(new ByteArrayInputStream(queries.getBytes(StandardCharsets.UTF_8)), out);
+
+    String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(5, lines.length);
+    assertEquals(5, report.getQueries());
+    assertEquals(3, report.getRejected());
+    assertEquals(2, mapper.readTree(lines[1]).get("line").asInt());
+    assertEquals(4, mapper.readTree(lines[2]).get("line").asInt());
+    assertEquals(5, mapper.readTree(lines[3]).get("line").asInt());
+    assertEquals(mapper.readTree(lines[0]), mapper.readTree(lines[4]));
+  }
+
+  @Test
+  public void shouldFailWhenResultsCantBeWritten() {
+    StringBuilder queries = new StringBuilder();
+    for (int q = 0; q < 10000; q++) {
+      queries.append("53.3,-6.2,50\n");
+    }
+    OutputStream broken = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("disk full");
+      }
+    };
+
+    BulkQueryRunner sut = new BulkQueryRunner(calculator, 2, 8);
+    try {
+      sut.run(new ByteArrayInputStream(queries.toString().getBytes(StandardCharsets.UTF_8)), broken);
+      fail("Expected the write failure to be reported");
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentCustomerIndexTest {
+
+  private CustomerLocation customer(int userId, double latitude, double longitude) {
+    return new CustomerLocation(userId, "Customer-" + userId, latitude, longitude);
+  }
+
+  @Test
+  public void shouldFindSameCustomersAsCalculatorAfterUpdates() {
+    Random random = new Random(24);
+    List<CustomerLocation> customers = new ArrayList<>();
+    for (int x = 0; x < 5000; x++) {
+      customers.add(customer(x, 50.0 + random.nextDouble() * 8.0, -12.0 + random.nextDouble() * 10.0));
+    }
+    ConcurrentCustomerIndex sut = new ConcurrentCustomerIndex(customers);
+    assertEquals(1, sut.snapshot().getVersion());
+
+    List<CustomerLocation> moves = new ArrayList<>();
+    List<Integer> deletes = new ArrayList<>();
+    for (int x = 0; x < 500; x++) {
+      CustomerLocation moved = customer(x * 3, 50.0 + random.nextDouble() * 8.0, -12.0 + random.nextDouble() * 10.0);
+      moves.add(moved);
+      customers.set(x * 3, moved);
+      deletes.add(x * 3 + 1);
+    }
+    moves.add(customer(9999, 53.3, -6.2));
+    customers.add(customer(9999, 53.3, -6.2));
+    assertEquals(2, sut.apply(moves, deletes));
+    customers.removeIf(customer -> deletes.contains(customer.getUserId()));
+
+    ProximityCalculator expected = new ProximityCalculator(customers);
+    ConcurrentCustomerIndex.Snapshot snapshot = sut.snapshot();
+    assertEquals(customers.size(), snapshot.size());
+    assertEquals(customers.size(), snapshot.toStore().size());
+    for (double radius : new double[] {0.0, 10.0, 100.0, 300.0, 30000.0}) {
+      assertEquals(ids(expected.calculateCustomersWithinRadius(IntercomOfficeDublin, radius)),
+          ids(snapshot.calculateCustomersWithinRadius(IntercomOfficeDublin, radius)));
+    }
+  }
+
+  @Test
+  public void shouldFindSameEllipsoidalCustomersAsLinearScan() {
+    // near the equator ellipsoidal distances north and south are shorter than on the sphere
+    Random random = new Random(42);
+    List<CustomerLocation> customers = new ArrayList<>();
+    for (int x = 0; x < 20000; x++) {
+      customers.add(customer(x, random.nextDouble() * 24.0 - 12.0, random.nextDouble() * 24.0 - 12.0));
+    }
+    ConcurrentCustomerIndex sut = new ConcurrentCustomerIndex(customers, 0.1, DistanceFormula.ELLIPSOIDAL);
+    ProximityCalculator expected = new ProximityCalculator(CustomerLocationStore.from(customers), LinearScanIndex::new,
+        DistanceFormula.ELLIPSOIDAL);
+
+    Coordinates center = new Coordinates(0.0, 0.0);
+    for (double radius : new double[] {300.0, 1000.0}) {
+      assertEquals(ids(expected.calculateCustomersWithinRadius(center, radius)),
+          ids(sut.snapshot().calculateCustomersWithinRadius(center, radius)));
+    }
+  }
+
+  @Test
+  public void shouldLeaveEarlierSnapshotsUnchanged() {
+    ConcurrentCustomerIndex sut = new ConcurrentCustomerIndex(Arrays.asList(customer(1, 53.3, -6.2), customer(2, 53.4, -6.3)));
+    ConcurrentCustomerIndex.Snapshot before = sut.snapshot();
+
+    sut.upsert(customer(1, 10.0, 10.0));
+    sut.delete(2);
+    sut.upsert(customer(3, 53.35, -6.25));
+
+    assertEquals(Arrays.asList(1, 2), ids(before.calculateCustomersWithinRadius(IntercomOfficeDublin, 100.0)));
+    assertEquals(Collections.singletonList(3), ids(sut.snapshot().calculateCustomersWithinRadius(IntercomOfficeDublin, 100.0)));
+    assertEquals(4, sut.snapshot().getVersion());
+    assertEquals(2, sut.snapshot().size());
+    // deleting a customer that isn't there changes nothing
+    assertEquals(4, sut.delete(2));
+  }
+
+  @Test
+  public void shouldRejectWholeBatchWithAnInvalidCustomer() {
+    ConcurrentCustomerIndex sut = new ConcurrentCustomerIndex(Collections.singletonList(customer(1, 53.3, -6.2)));
+    try {
+      sut.apply(Arrays.asList(customer(2, 53.3, -6.2), customer(3, 91.0, 0.0)), Collections.singletonList(1));
+      fail("Expected the batch to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertEquals(1, sut.snapshot().getVersion());
+      assertEquals(Collections.singletonList(1), ids(sut.snapshot().calculateCustomersWithinRadius(IntercomOfficeDublin, 100.0)));
+    }
+  }
+
+  @Test
+  public void shouldFindCustomersAcrossTheAntimeridian() {
+    ConcurrentCustomerIndex sut = new ConcurrentCustomerIndex(Arrays.asList(
+        customer(1, 0.0, 179.9), customer(2, 0.0, -179.9), customer(3, 0.0, 180.0), customer(4, 0.0, 170.0)));
+    assertEquals(Arrays.asList(1, 2, 3), ids(sut.snapshot().calculateCustomersWithinRadius(new Coordinates(0.0, 180.0), 50.0)));
+  }
+
+  @Test
+  public void shouldAnswerQueriesConsistentlyWhileBatchesAreApplied() throws Exception {
+    // half the customers are always near the office, each batch swaps one in and one out
+    List<CustomerLocation> customers = new ArrayList<>();
+    for (int x = 0; x < 200; x++) {
+      customers.add(x % 2 == 0 ? customer(x, 53.34, -6.26) : customer(x, 10.0, 10.0));
+    }
+    ConcurrentCustomerIndex sut = new ConcurrentCustomerIndex(customers);
+    AtomicBoolean writing = new AtomicBoolean(true);
+
+    ExecutorService readers = Executors.newFixedThreadPool(4);
+    List<Future<Long>> reads = new ArrayList<>();
+    for (int r = 0; r < 4; r++) {
+      reads.add(readers.submit(() -> {
+        long lastVersion = 0;
+        long queries = 0;
+        while (writing.get() || queries == 0) {
+          ConcurrentCustomerIndex.Snapshot snapshot = sut.snapshot();
+          assertTrue(snapshot.getVersion() >= lastVersion);
+          lastVersion = snapshot.getVersion();
+          assertEquals(200, snapshot.size());
+          assertEquals(100, snapshot.calculateCustomersWithinRadius(IntercomOfficeDublin, 10.0).size());
+          queries++;
+        }
+        return queries;
+      }));
+    }
+
+    Random random = new Random(3);
+    boolean[] near = new boolean[200];
+    for (int x = 0; x < 200; x += 2) {
+      near[x] = true;
+    }
+    for (int batch = 0; batch < 2000; batch++) {
+      int in;
+      int out;
+      do {
+        in = random.nextInt(200);
+      } while (near[in]);
+      do {
+        out = random.nextInt(200);
+      } while (!near[out]);
+      near[in] = true;
+      near[out] = false;
+      sut.apply(Arrays.asList(customer(in, 53.34, -6.26), customer(out, 10.0, 10.0)), Collections.<Integer>emptyList());
+    }
+    writing.set(false);
+    for (Future<Long> read : reads) {
+      assertTrue(read.get(10, TimeUnit.SECONDS) > 0);
+    }
+    readers.shutdown();
+    assertEquals(2001, sut.snapshot().getVersion());
+  }
+
+  private List<Integer> ids(List<CustomerLocation> customers) {
+    return customers.stream().map(CustomerLocation::getUserId).collect(Collectors.toList());
+  }
+}
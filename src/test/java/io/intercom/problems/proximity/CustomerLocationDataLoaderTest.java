@@ -14,9 +14,15 @@ import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
@@ -43,6 +49,49 @@ public class CustomerLocationDataLoaderTest {
 
   }
 
+  @Test
+  public void shouldLoadCustomerStoreFromInputStream() throws Exception {
+
+    String json = "{\"latitude\": \"52.986375\", \"user_id\": 12, \"name\": \"Christina McArdle\", \"longitude\": \"-6.043701\"}\n" +
+        "not json\n" +
+        "{\"latitude\": \"51.92893\", \"user_id\": 1, \"name\": \"Alice Cahill\", \"longitude\": \"-10.27699\"}";
+    CustomerLocationStore loaded = sut.loadCustomerLocationStore(new ByteArrayInputStream(json.getBytes()));
+    assertEquals(2, loaded.size());
+    assertEquals(12, loaded.getUserId(0));
+    assertEquals("Christina McArdle", loaded.getName(0));
+    assertEquals(52.986375, loaded.getLatitude(0), 0.0);
+    assertEquals(-6.043701, loaded.getLongitude(0), 0.0);
+    assertEquals(1, loaded.getUserId(1));
+
+    assertEquals(0, sut.loadCustomerLocationStore((InputStream) null).size());
+  }
+
+  @Test
+  public void shouldStreamCustomersFromInputStream() throws Exception {
+
+    String json = "{\"latitude\": \"52.986375\", \"user_id\": 12, \"name\": \"Christina McArdle\", \"longitude\": \"-6.043701\"}\n" +
+        "not json\n" +
+        "{\"latitude\": \"51.92893\", \"user_id\": 1, \"name\": \"Alice Cahill\", \"longitude\": \"-10.27699\"}";
+
+    List<Integer> pushed = new ArrayList<>();
+    assertEquals(2, sut.loadCustomerLocationDetails(new ByteArrayInputStream(json.getBytes()),
+        (userId, name, latitude, longitude) -> pushed.add(userId)));
+    assertEquals(Arrays.asList(12, 1), pushed);
+
+    try (Stream<CustomerLocation> streamed = sut.streamCustomerLocationDetails(new ByteArrayInputStream(json.getBytes()))) {
+      assertEquals(Arrays.asList("Christina McArdle", "Alice Cahill"),
+          streamed.map(CustomerLocation::getName).collect(Collectors.toList()));
+    }
+  }
+
+  @Test(expected = UncheckedIOException.class)
+  public void shouldFailIfErrorStreamingContents() throws Exception {
+    InputStream mockStream = mock(InputStream.class);
+    when(mockStream.read(any(byte[].class), anyInt(), anyInt()))
+        .thenThrow(new IOException("Something barfed"));
+    sut.streamCustomerLocationDetails(mockStream).count();
+  }
+
   @Test(expected = AssertionError.class)
   public void shouldFailValidationIfNameMissing() throws Exception {
     new CustomerLocation(1, null, 123.123, 123.123).validate();
@@ -81,6 +130,29 @@ public class CustomerLocationDataLoaderTest {
 
   }
 
+  @Test
+  public void shouldRejectIncompleteRecordsWithoutFailingTheLoad() throws Exception {
+    String json = "{\"latitude\": \"52.9\", \"user_id\": 2, \"longitude\": \"-6.0\"}\n" +
+        "\n" +
+        "{\"latitude\": \"52.9\", \"user_id\": 5, \"name\": \"bob\", \"longitude\": \"-6.0\", \"extra\": 1}\n" +
+        "not json\n" +
+        "{\"latitude\": \"51.92893\", \"user_id\": 1, \"name\": \"Alice Cahill\", \"longitude\": \"-10.27699\"}";
+    List<String> rejected = new ArrayList<>();
+    sut.setRejectedRecordSink((reason, line) -> rejected.add(reason + " " + line), 2);
+
+    List<CustomerLocation> loaded = sut.loadCustomerLocationDetails(new ByteArrayInputStream(json.getBytes()));
+    assertEquals(1, loaded.size());
+    assertEquals("Alice Cahill", loaded.get(0).getName());
+    assertEquals(Arrays.asList("MISSING_NAME {\"latitude\": \"52.9\", \"user_id\": 2, \"longitude\": \"-6.0\"}",
+        "UNRECOGNIZED_FIELD {\"latitude\": \"52.9\", \"user_id\": 5, \"name\": \"bob\", \"longitude\": \"-6.0\", \"extra\": 1}"),
+        rejected);
+
+    rejected.clear();
+    assertEquals(1, sut.loadCustomerLocationStore(new ByteArrayInputStream(json.getBytes())).size());
+    assertEquals(2, rejected.size());
+    assertEquals(RecordStatus.MISSING_USER_ID, new CustomerLocation().check());
+  }
+
   @Test
   public void shouldLoadCustomersFromUrl() throws Exception {
     CustomerLocationDataLoader sut = new CustomerLocationDataLoader();
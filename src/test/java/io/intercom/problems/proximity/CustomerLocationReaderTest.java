@@ -0,0 +1,107 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.util.Collections.enumeration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CustomerLocationReaderTest {
+
+  @Test
+  public void shouldReadQuotedAndUnquotedValues() throws Exception {
+    String json = "{\"latitude\": \"52.986375\", \"user_id\": 12, \"name\": \"Christina McArdle\", \"longitude\": \"-6.043701\"}\n" +
+        "{\"latitude\": 51.92893, \"user_id\": \"1\", \"name\": \"Alice Cahill\", \"longitude\": -10.27699}\r\n";
+    CustomerLocationStore store = new CustomerLocationStore();
+    CustomerLocationReader sut = new CustomerLocationReader(stream(json));
+
+    assertEquals(2, sut.readAll(store::add));
+    assertEquals(12, store.getUserId(0));
+    assertEquals("Christina McArdle", store.getName(0));
+    assertEquals(52.986375, store.getLatitude(0), 0.0);
+    assertEquals(-6.043701, store.getLongitude(0), 0.0);
+    assertEquals(1, store.getUserId(1));
+    assertEquals(-10.27699, store.getLongitude(1), 0.0);
+    assertEquals(2, sut.getLinesRead());
+  }
+
+  @Test
+  public void shouldSkipMalformedAndIncompleteLines() throws Exception {
+    String json = "not json\n" +
+        "\n" +
+        "{\"latitude\": \"52.9\", \"user_id\": 2, \"longitude\": \"-6.0\"}\n" +
+        "{\"latitude\": \"52.9\", \"user_id\": 3, \"name\": null, \"longitude\": \"-6.0\"}\n" +
+        "{\"latitude\": \"fifty\", \"user_id\": 4, \"name\": \"bob\", \"longitude\": \"-6.0\"}\n" +
+        "{\"latitude\": \"52.9\", \"user_id\": 5, \"name\": \"bob\", \"longitude\": \"-6.0\", \"extra\": 1}\n" +
+        "[1, 2]\n" +
+        "{\"latitude\": \"52.9\", \"user_id\": 6, \"name\": \"bob\", \"longitude\": \"-6.0\"";
+    List<Integer> ids = new ArrayList<>();
+
+    List<RecordStatus> reasons = new ArrayList<>();
+    RejectedRecords rejected = new RejectedRecords((reason, line) -> reasons.add(reason), 100);
+
+    long read = new CustomerLocationReader(stream(json), rejected).readAll((userId, name, latitude, longitude) -> ids.add(userId));
+    assertEquals(0, read);
+    assertTrue(ids.isEmpty());
+    assertEquals(Arrays.asList(RecordStatus.MALFORMED_JSON, RecordStatus.MISSING_NAME, RecordStatus.MISSING_NAME,
+        RecordStatus.INVALID_VALUE, RecordStatus.UNRECOGNIZED_FIELD, RecordStatus.NOT_AN_OBJECT, RecordStatus.MALFORMED_JSON), reasons);
+    assertEquals(2, rejected.getValidationFailures());
+    assertEquals(5, rejected.getParseFailures());
+  }
+
+  @Test
+  public void shouldReadLinesSpanningBufferRefills() throws Exception {
+    // deliver the stream in small pieces and with lines longer than the initial buffer
+    StringBuilder longName = new StringBuilder();
+    for (int x = 0; x < 100000; x++) {
+      longName.append('a');
+    }
+    List<InputStream> pieces = new ArrayList<>();
+    for (int x = 0; x < 1000; x++) {
+      String name = x % 100 == 0 ? longName.toString() : "Customer-" + x;
+      pieces.add(stream("{\"latitude\": " + x + ", \"user_id\": " + x + ", \"name\": \"" + name + "\", \"longitude\": 1.5}\n"));
+    }
+    CustomerLocationStore store = new CustomerLocationStore();
+    long read = new CustomerLocationReader(new SequenceInputStream(enumeration(pieces))).readAll(store::add);
+
+    assertEquals(1000, read);
+    for (int x = 0; x < 1000; x++) {
+      assertEquals(x, store.getUserId(x));
+      assertEquals(x % 100 == 0 ? 100000 : ("Customer-" + x).length(), store.getName(x).length());
+    }
+  }
+
+  @Test
+  public void shouldIterateLazily() throws Exception {
+    String json = "{\"latitude\": 1, \"user_id\": 1, \"name\": \"a\", \"longitude\": 1}\n" +
+        "garbage\n" +
+        "{\"latitude\": 2, \"user_id\": 2, \"name\": \"b\", \"longitude\": 2}";
+    CustomerLocationReader sut = new CustomerLocationReader(stream(json));
+    Iterator<CustomerLocation> customers = sut.iterator();
+
+    assertTrue(customers.hasNext());
+    assertEquals(new Integer(1), customers.next().getUserId());
+    assertEquals(1, sut.getLinesRead());
+    assertEquals("b", customers.next().getName());
+    assertFalse(customers.hasNext());
+  }
+
+  @Test
+  public void shouldTreatNullStreamAsEmpty() throws Exception {
+    assertFalse(new CustomerLocationReader(null).readNext((userId, name, latitude, longitude) -> { }));
+  }
+
+  private InputStream stream(String contents) {
+    return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,174 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CustomerLocationSnapshotTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldRestoreStoreAndIndexFromSnapshot() throws Exception {
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 1000; x++) {
+      store.add(x, "Customer-" + x + " \u00d3 S\u00failleabh\u00e1in", -89.0 + x * 0.178, -179.0 + x * 0.358);
+    }
+    store.add(1000, "", 91.0, 0.0);
+    GridSpatialIndex index = new GridSpatialIndex(store, 2.5);
+    Path file = folder.getRoot().toPath().resolve("nested/customers.snapshot");
+
+    CustomerLocationSnapshot.write(file, store, index, "test source");
+    CustomerLocationSnapshot sut = CustomerLocationSnapshot.open(file);
+
+    assertEquals("test source", sut.getSource());
+    assertEquals(store.size(), sut.size());
+    assertTrue(sut.hasIndex());
+    CustomerLocationStore restored = sut.getStore();
+    assertEquals(store.size(), restored.size());
+    for (int x = 0; x < store.size(); x++) {
+      assertEquals(store.getUserId(x), restored.getUserId(x));
+      assertEquals(store.getName(x), restored.getName(x));
+      assertEquals(store.getLatitude(x), restored.getLatitude(x), 0.0);
+      assertEquals(store.getLongitude(x), restored.getLongitude(x), 0.0);
+    }
+
+    GridSpatialIndex restoredIndex = sut.getIndex();
+    assertEquals(2.5, restoredIndex.getCellSize(), 0.0);
+    assertEquals(restored, restoredIndex.getStore());
+    assertEquals(candidates(index, 10.0, 20.0, 500.0), candidates(restoredIndex, 10.0, 20.0, 500.0));
+    assertEquals(candidates(index, -60.0, 179.0, 2000.0), candidates(restoredIndex, -60.0, 179.0, 2000.0));
+  }
+
+  @Test
+  public void shouldRestoreEmptyStoreWithoutIndex() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("empty.snapshot");
+    CustomerLocationSnapshot.write(file, new CustomerLocationStore(), "");
+
+    CustomerLocationSnapshot sut = CustomerLocationSnapshot.open(file);
+    assertFalse(sut.hasIndex());
+    assertEquals(0, sut.getStore().size());
+    assertNull(sut.getIndex());
+  }
+
+  @Test
+  public void shouldRejectCorruptTruncatedAndForeignFiles() throws Exception {
+    CustomerLocationStore store = new CustomerLocationStore();
+    store.add(1, "Alice", 53.0, -6.0);
+    Path file = folder.getRoot().toPath().resolve("customers.snapshot");
+    CustomerLocationSnapshot.write(file, store, "source");
+
+    // corruption in place is only found by verifying the checksum
+    CustomerLocationSnapshot.open(file).verify();
+    byte[] contents = Files.readAllBytes(file);
+    contents[contents.length - 1] ^= 1;
+    Files.write(file, contents);
+    try {
+      CustomerLocationSnapshot.open(file).verify();
+      fail("Corrupt snapshot should not verify");
+    } catch (IOException e) {
+      // expected
+    }
+
+    Files.write(file, Arrays.copyOf(contents, contents.length - 1));
+    assertNotOpened(file);
+
+    Files.write(file, new byte[10]);
+    assertNotOpened(file);
+
+    Files.write(file, "{\"user_id\": 1}\n{\"user_id\": 2}\n{\"user_id\": 3}\n".getBytes(StandardCharsets.UTF_8));
+    assertNotOpened(file);
+  }
+
+  @Test
+  public void shouldRequireIndexOverSnapshotStore() throws Exception {
+    try {
+      CustomerLocationSnapshot.write(folder.getRoot().toPath().resolve("customers.snapshot"), new CustomerLocationStore(),
+          new GridSpatialIndex(new CustomerLocationStore()), "source");
+      fail("Index over another store should be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void shouldLoadFromSnapshotUntilSourceChanges() throws Exception {
+    Path json = folder.newFile("customers.json").toPath();
+    Files.write(json, customerLine(1, "Alice").getBytes(StandardCharsets.UTF_8));
+    URL url = json.toUri().toURL();
+    Path snapshotFile = folder.getRoot().toPath().resolve("customers.snapshot");
+    CustomerLocationDataLoader sut = new CustomerLocationDataLoader();
+
+    // the first load reads the json and writes a snapshot of it and its index
+    assertEquals("Alice", sut.loadCustomerLocationStore(url, snapshotFile).getName(0));
+    String source = CustomerLocationSnapshot.open(snapshotFile).getSource();
+    assertEquals(1, CustomerLocationSnapshot.open(snapshotFile).getIndex().getStore().size());
+
+    // later loads come from the snapshot while the source is unchanged
+    CustomerLocationStore marked = new CustomerLocationStore();
+    marked.add(1, "From snapshot", 53.0, -6.0);
+    CustomerLocationSnapshot.write(snapshotFile, marked, new GridSpatialIndex(marked), source);
+    assertEquals("From snapshot", sut.loadCustomerLocationStore(url, snapshotFile).getName(0));
+
+    // changing the json makes the snapshot stale so it is reloaded and the snapshot replaced
+    Files.write(json, customerLine(2, "Bob").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    CustomerLocationStore reloaded = sut.loadCustomerLocationStore(url, snapshotFile);
+    assertEquals(2, reloaded.size());
+    assertEquals("Bob", reloaded.getName(1));
+    assertEquals(2, CustomerLocationSnapshot.open(snapshotFile).getStore().size());
+
+    // a corrupt snapshot falls back to the json too
+    Files.write(snapshotFile, new byte[]{1, 2, 3});
+    assertEquals(2, sut.loadCustomerLocationStore(url, snapshotFile).size());
+    assertEquals(2, CustomerLocationSnapshot.open(snapshotFile).getStore().size());
+
+    // as does one damaged in place, which still opens but fails its checksum
+    source = CustomerLocationSnapshot.open(snapshotFile).getSource();
+    CustomerLocationSnapshot.write(snapshotFile, marked, new GridSpatialIndex(marked), source);
+    byte[] contents = Files.readAllBytes(snapshotFile);
+    contents[contents.length - 1] ^= 1;
+    Files.write(snapshotFile, contents);
+    CustomerLocationStore rebuilt = sut.loadCustomerLocationStore(url, snapshotFile);
+    assertEquals(2, rebuilt.size());
+    assertEquals("Alice", rebuilt.getName(0));
+    CustomerLocationSnapshot.open(snapshotFile).verify();
+  }
+
+  private void assertNotOpened(Path file) {
+    try {
+      CustomerLocationSnapshot.open(file);
+      fail("Invalid snapshot should not open");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private String customerLine(int userId, String name) {
+    return "{\"latitude\": \"53.0\", \"user_id\": " + userId + ", \"name\": \"" + name + "\", \"longitude\": \"-6.0\"}\n";
+  }
+
+  private List<Integer> candidates(SpatialIndex index, double latitude, double longitude, double radius) {
+    List<Integer> candidates = new ArrayList<>();
+    index.forEachCandidate(latitude, longitude, radius, candidates::add);
+    Collections.sort(candidates);
+    return candidates;
+  }
+}
@@ -0,0 +1,72 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class CustomerLocationStoreTest {
+
+  @Test
+  public void shouldGrowAsCustomersAreAdded() {
+    CustomerLocationStore sut = new CustomerLocationStore(1);
+    for (int x = 0; x < 100; x++) {
+      assertEquals(x, sut.add(x, "Customer-" + x, x * 0.5, -x * 0.5));
+    }
+    assertEquals(100, sut.size());
+    assertEquals(42, sut.getUserId(42));
+    assertEquals("Customer-42", sut.getName(42));
+    assertEquals(21.0, sut.getLatitude(42), 0.0);
+    assertEquals(-21.0, sut.getLongitude(42), 0.0);
+  }
+
+  @Test
+  public void shouldCopyCustomersFromCollection() {
+    CustomerLocationStore sut = CustomerLocationStore.from(Arrays.asList(
+        new CustomerLocation(7, "bob", 53.1, -6.2),
+        new CustomerLocation(3, "alice", 52.9, -6.0)));
+
+    assertEquals(2, sut.size());
+    CustomerLocation alice = sut.get(1);
+    assertEquals(new Integer(3), alice.getUserId());
+    assertEquals("alice", alice.getName());
+    assertEquals(new Double(52.9), alice.getLatitude());
+    assertEquals(new Double(-6.0), alice.getLongitude());
+  }
+
+  @Test
+  public void shouldDecodeNamesFromNameTableWhenRead() {
+    byte[] nameTable = "bob\u00d3 S\u00failleabh\u00e1in".getBytes(StandardCharsets.UTF_8);
+    CustomerLocationStore sut = new CustomerLocationStore(new int[]{7, 3, 5}, nameTable, new int[]{0, 3, 3, nameTable.length},
+        new double[]{53.1, 52.9, 52.0}, new double[]{-6.2, -6.0, -7.0}, 3);
+
+    assertEquals("bob", sut.getName(0));
+    assertEquals("", sut.get(1).getName());
+    assertEquals("\u00d3 S\u00failleabh\u00e1in", sut.getName(2));
+
+    // appending to and copying a restored store keeps every name
+    sut.add(9, "carol", 51.0, -8.0);
+    CustomerLocationStore copy = new CustomerLocationStore();
+    copy.addAll(sut);
+    assertEquals(Arrays.asList("bob", "", "\u00d3 S\u00failleabh\u00e1in", "carol"), Arrays.asList(copy.nameColumn()).subList(0, 4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutNameTableShorterThanStore() {
+    new CustomerLocationStore(new int[]{7, 3}, new byte[3], new int[]{0, 3, 4}, new double[2], new double[2], 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutNullCollection() {
+    CustomerLocationStore.from(null);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void shouldComplainAboutIndexOutsideStore() {
+    CustomerLocationStore sut = new CustomerLocationStore();
+    sut.add(1, "bob", 1.0, 1.0);
+    sut.getUserId(1);
+  }
+}
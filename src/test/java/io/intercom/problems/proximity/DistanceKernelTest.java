@@ -0,0 +1,101 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static io.intercom.problems.proximity.DistanceFormula.ELLIPSOIDAL;
+import static io.intercom.problems.proximity.DistanceFormula.EQUIRECTANGULAR;
+import static io.intercom.problems.proximity.DistanceFormula.HAVERSINE;
+import static io.intercom.problems.proximity.DistanceFormula.SPHERICAL_LAW_OF_COSINES;
+import static org.junit.Assert.assertEquals;
+
+public class DistanceKernelTest {
+
+  private CustomerLocationStore store;
+
+  private PreparedCoordinates points;
+
+  @Before
+  public void createCustomersAroundDublin() {
+    Random random = new Random(42);
+    store = new CustomerLocationStore();
+    for (int x = 0; x < 20000; x++) {
+      store.add(x, "Customer-" + x, 53.0 + random.nextGaussian() * 3.0, -6.0 + random.nextGaussian() * 5.0);
+    }
+    points = PreparedCoordinates.of(store);
+  }
+
+  @Test
+  public void shouldMatchLegacyDistanceWithLawOfCosines() {
+    Coordinates office = ProximityCalculator.IntercomOfficeDublin;
+    DistanceKernel sut = new DistanceKernel(SPHERICAL_LAW_OF_COSINES, office.getLatitude(), office.getLongitude(), 100.0);
+    for (int i = 0; i < store.size(); i++) {
+      Coordinates customer = new Coordinates(store.getLatitude(i), store.getLongitude(i));
+      assertEquals(customer.distanceTo(office), sut.distance(points, i), 0.0);
+    }
+  }
+
+  @Test
+  public void shouldAgreeOnMembershipAcrossSphericalFormulas() {
+    Coordinates office = ProximityCalculator.IntercomOfficeDublin;
+    for (double radius : new double[]{1.0, 25.0, 100.0, 499.0, 800.0}) {
+      DistanceKernel haversine = new DistanceKernel(HAVERSINE, office.getLatitude(), office.getLongitude(), radius);
+      DistanceKernel equirectangular = new DistanceKernel(EQUIRECTANGULAR, office.getLatitude(), office.getLongitude(), radius);
+      for (int i = 0; i < store.size(); i++) {
+        boolean expected = HAVERSINE.distance(store.getLatitude(i), store.getLongitude(i),
+            office.getLatitude(), office.getLongitude()) <= radius;
+        assertEquals(expected, haversine.isWithinRadius(points, i));
+        assertEquals(expected, equirectangular.isWithinRadius(points, i));
+      }
+    }
+  }
+
+  @Test
+  public void shouldFallBackToHaversineOutsideEquirectangularLimits() {
+    assertEquals(EQUIRECTANGULAR, new DistanceKernel(EQUIRECTANGULAR, 53.0, -6.0, 100.0).getFormula());
+    assertEquals(HAVERSINE, new DistanceKernel(EQUIRECTANGULAR, 53.0, -6.0, 5000.0).getFormula());
+    assertEquals(HAVERSINE, new DistanceKernel(EQUIRECTANGULAR, 85.0, -6.0, 100.0).getFormula());
+  }
+
+  @Test
+  public void shouldCalculateHaversineDistances() {
+    assertEquals(0.0, HAVERSINE.distance(12.5, 34.5, 12.5, 34.5), 0.0);
+    assertEquals(Math.PI / 2 * Coordinates.MEAN_EARTH_RADIUS, HAVERSINE.distance(0.0, 0.0, 90.0, 0.0), 1e-9);
+    assertEquals(Math.PI / 6 * Coordinates.MEAN_EARTH_RADIUS, HAVERSINE.distance(0.0, 0.0, 0.0, -30.0), 1e-9);
+  }
+
+  @Test
+  public void shouldCalculateEllipsoidalDistances() {
+    // Vincenty's reference example from Flinders Peak to Buninyong, 54972.271m
+    double distance = ELLIPSOIDAL.distance(-37.95103341666667, 144.42486788888888, -37.65282113888889, 143.92649552777777);
+    assertEquals(54.972271, distance, 1e-6);
+
+    // one degree along the equator on WGS-84 is 111.319km
+    assertEquals(111.319491, ELLIPSOIDAL.distance(0.0, 0.0, 0.0, 1.0), 1e-6);
+    assertEquals(0.0, ELLIPSOIDAL.distance(10.0, 10.0, 10.0, 10.0), 0.0);
+  }
+
+  @Test
+  public void shouldNotLoseEllipsoidalMatchesToTheBoundingBox() {
+    DistanceKernel sut = new DistanceKernel(ELLIPSOIDAL, 53.0, -6.0, 300.0);
+    for (int i = 0; i < store.size(); i++) {
+      boolean expected = ELLIPSOIDAL.distance(store.getLatitude(i), store.getLongitude(i), 53.0, -6.0) <= 300.0;
+      assertEquals(expected, sut.isWithinRadius(points, i));
+    }
+  }
+
+  @Test
+  public void shouldCalculateDistanceBetweenCoordinatesWithFormula() {
+    Coordinates zero = new Coordinates(0.0, 0.0);
+    Coordinates thirty = new Coordinates(0.0, 30.0);
+    assertEquals(zero.distanceTo(thirty), zero.distanceTo(thirty, SPHERICAL_LAW_OF_COSINES), 0.0);
+    assertEquals(zero.distanceTo(thirty), zero.distanceTo(thirty, HAVERSINE), 1e-9);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutMissingFormula() {
+    new DistanceKernel(null, 0.0, 0.0, 1.0);
+  }
+}
@@ -0,0 +1,94 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GridSpatialIndexTest {
+
+  private CustomerLocationStore store;
+
+  private Random random = new Random(1234);
+
+  @Before
+  public void createRandomCustomers() {
+    store = new CustomerLocationStore();
+    for (int x = 0; x < 20000; x++) {
+      store.add(x, "Customer-" + x, random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+    }
+    // customers on the poles, the antimeridian and outside the valid ranges
+    store.add(20000, "North", 90.0, 0.0);
+    store.add(20001, "South", -90.0, 45.0);
+    store.add(20002, "East", 10.0, 180.0);
+    store.add(20003, "West", 10.0, -180.0);
+    store.add(20004, "Wrapped", 10.0, 539.9);
+    store.add(20005, "Overflow", 123.4, 10.0);
+  }
+
+  @Test
+  public void shouldMatchBruteForceResults() {
+    ProximityCalculator bruteForce = new ProximityCalculator(store);
+    ProximityCalculator[] indexed = new ProximityCalculator[]{
+        new ProximityCalculator(store, GridSpatialIndex::new),
+        new ProximityCalculator(store, GridSpatialIndex.withCellSize(0.7)),
+        new ProximityCalculator(store, GridSpatialIndex.withCellSize(7.0))
+    };
+
+    double[] radii = new double[]{0.0, 1.0, 50.0, 100.0, 500.0, 2000.0, 9000.0, 15000.0, 25000.0};
+    Coordinates[] centers = new Coordinates[]{
+        ProximityCalculator.IntercomOfficeDublin,
+        new Coordinates(89.9, 12.0),
+        new Coordinates(-89.5, -170.0),
+        new Coordinates(10.0, 179.95),
+        new Coordinates(10.0, -179.95),
+        new Coordinates(0.0, 0.0),
+        new Coordinates(45.0, 400.0),
+        new Coordinates(180.0, 0.0)
+    };
+    for (Coordinates center : centers) {
+      for (double radius : radii) {
+        List<Integer> expected = ids(bruteForce.calculateCustomersWithinRadius(center, radius));
+        for (ProximityCalculator sut : indexed) {
+          assertEquals("center " + center.getLatitude() + "," + center.getLongitude() + " radius " + radius,
+              expected, ids(sut.calculateCustomersWithinRadius(center, radius)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldOnlyReportCandidatesNearTheCenter() {
+    GridSpatialIndex sut = new GridSpatialIndex(store);
+    int[] count = new int[1];
+    sut.forEachCandidate(53.3, -6.2, 100.0, i -> count[0]++);
+
+    // a 100km query should touch a handful of 1 degree cells, not the whole population
+    assertTrue(count[0] > 0);
+    assertTrue(count[0] < store.size() / 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutInvalidCellSize() {
+    new GridSpatialIndex(store, 0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutCellSizeWithTooManyCells() {
+    new GridSpatialIndex(store, 1e-6);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutVanishinglySmallCellSize() {
+    new GridSpatialIndex(store, Double.MIN_VALUE);
+  }
+
+  private List<Integer> ids(List<CustomerLocation> customers) {
+    return customers.stream().map(CustomerLocation::getUserId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,194 @@
+package io.intercom.problems.proximity;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCustomerDataCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private HttpServer server;
+
+  private URL url;
+
+  private volatile String body;
+
+  private volatile String etag = "\"v1\"";
+
+  private volatile int status = 200;
+
+  private final AtomicInteger requests = new AtomicInteger();
+
+  private final AtomicInteger downloads = new AtomicInteger();
+
+  private final AtomicInteger compressed = new AtomicInteger();
+
+  @Before
+  public void startServer() throws IOException {
+    body = customerLine(1, "Alice") + customerLine(2, "Bob");
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/customers.json", this::serve);
+    server.start();
+    url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/customers.json");
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    if (status != 200) {
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+      return;
+    }
+    exchange.getResponseHeaders().set("ETag", etag);
+    exchange.getResponseHeaders().set("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT");
+    if ("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+      return;
+    }
+    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+
+    downloads.incrementAndGet();
+    boolean gzip = "gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    if (gzip) {
+      compressed.incrementAndGet();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream out = gzip ? new GZIPOutputStream(exchange.getResponseBody()) : exchange.getResponseBody()) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void shouldOnlyDownloadAndParseUnchangedDataOnce() throws Exception {
+    Path cache = folder.getRoot().toPath().resolve("cache");
+    CustomerLocationDataLoader sut = new CustomerLocationDataLoader(cache);
+
+    CustomerLocationStore first = sut.loadCustomerLocationStore(url);
+    assertEquals(2, first.size());
+    assertEquals(1, downloads.get());
+    assertEquals(1, compressed.get());
+
+    // the cached body is never parsed again while the server reports it unchanged
+    try (Stream<Path> cached = Files.list(cache)) {
+      cached.filter(file -> file.toString().endsWith(".json")).forEach(file -> {
+        try {
+          Files.write(file, "not json".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      });
+    }
+    CustomerLocationStore second = sut.loadCustomerLocationStore(url);
+    assertEquals(2, requests.get());
+    assertEquals(1, downloads.get());
+    assertEquals(2, second.size());
+    assertEquals("Bob", second.getName(1));
+
+    List<CustomerLocation> list = new CustomerLocationDataLoader(cache).loadCustomerLocationDetails(url);
+    assertEquals(3, requests.get());
+    assertEquals(1, downloads.get());
+    assertEquals(2, list.size());
+  }
+
+  @Test
+  public void shouldDownloadAgainWhenDataChanges() throws Exception {
+    CustomerLocationDataLoader sut = new CustomerLocationDataLoader(folder.getRoot().toPath());
+    assertEquals(2, sut.loadCustomerLocationStore(url).size());
+
+    body = customerLine(3, "Carol");
+    etag = "\"v2\"";
+    CustomerLocationStore changed = sut.loadCustomerLocationStore(url);
+    assertEquals(2, downloads.get());
+    assertEquals(1, changed.size());
+    assertEquals("Carol", changed.getName(0));
+
+    assertEquals("Carol", sut.loadCustomerLocationStore(url).getName(0));
+    assertEquals(2, downloads.get());
+  }
+
+  @Test
+  public void shouldReportConditionalFetchResults() throws Exception {
+    HttpCustomerDataCache sut = new HttpCustomerDataCache(folder.getRoot().toPath());
+
+    HttpCustomerDataCache.CachedBody fetched = sut.fetch(url);
+    assertTrue(fetched.modified);
+    assertEquals(body, new String(Files.readAllBytes(fetched.file), StandardCharsets.UTF_8));
+
+    HttpCustomerDataCache.CachedBody revalidated = sut.fetch(url);
+    assertFalse(revalidated.modified);
+    assertEquals(fetched.file, revalidated.file);
+    assertEquals(fetched.version, revalidated.version);
+  }
+
+  @Test
+  public void shouldDecompressWithoutCache() throws Exception {
+    List<CustomerLocation> loaded = new CustomerLocationDataLoader().loadCustomerLocationDetails(url);
+    assertEquals(2, loaded.size());
+    assertEquals(1, compressed.get());
+    assertEquals(2, new CustomerLocationDataLoader().loadCustomerLocationStore(url).size());
+    assertEquals(2, downloads.get());
+  }
+
+  @Test
+  public void shouldReopenSnapshotUntilValidatorsChange() throws Exception {
+    Path snapshotFile = folder.getRoot().toPath().resolve("customers.snapshot");
+    CustomerLocationDataLoader sut = new CustomerLocationDataLoader();
+
+    assertEquals(2, sut.loadCustomerLocationStore(url, snapshotFile).size());
+    assertEquals(1, downloads.get());
+
+    CustomerLocationSnapshot reopened = sut.loadCustomerLocationSnapshot(url, snapshotFile);
+    assertEquals(1, downloads.get());
+    assertEquals("Bob", reopened.getStore().getName(1));
+    assertEquals(reopened.getStore(), reopened.getIndex().getStore());
+
+    body = customerLine(3, "Carol");
+    etag = "\"v2\"";
+    assertEquals("Carol", sut.loadCustomerLocationStore(url, snapshotFile).getName(0));
+    assertEquals(2, downloads.get());
+    assertEquals("Carol", CustomerLocationSnapshot.open(snapshotFile).getStore().getName(0));
+  }
+
+  @Test(expected = IOException.class)
+  public void shouldFailOnErrorResponse() throws Exception {
+    status = 500;
+    new CustomerLocationDataLoader(folder.getRoot().toPath()).loadCustomerLocationStore(url);
+  }
+
+  private String customerLine(int userId, String name) {
+    return "{\"latitude\": \"53.0\", \"user_id\": " + userId + ", \"name\": \"" + name + "\", \"longitude\": \"-6.0\"}\n";
+  }
+}
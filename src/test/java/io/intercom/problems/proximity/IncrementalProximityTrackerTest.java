@@ -0,0 +1,128 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalProximityTrackerTest {
+
+  private IncrementalProximityTracker sut;
+
+  private StandingQuery dublin;
+
+  private List<String> events = new ArrayList<>();
+
+  @Before
+  public void createTracker() {
+    sut = new IncrementalProximityTracker(Arrays.asList(
+        near(1), far(2), near(3)));
+    dublin = sut.register(new RadiusQuery(IntercomOfficeDublin, 100.0));
+    sut.addListener(new ProximityListener() {
+      @Override
+      public void entered(StandingQuery query, CustomerLocation customer) {
+        events.add("entered " + customer.getUserId());
+      }
+
+      @Override
+      public void left(StandingQuery query, CustomerLocation customer) {
+        events.add("left " + customer.getUserId());
+      }
+    });
+  }
+
+  @Test
+  public void shouldFindInitialMembersWithoutEvents() {
+    assertEquals(Arrays.asList(1, 3), ids(sut.getMembers(dublin)));
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void shouldEmitEventsAsCustomersMove() {
+    sut.upsert(near(2));
+    sut.upsert(far(1));
+    sut.upsert(near(3));
+    sut.upsert(near(4));
+    sut.upsert(far(5));
+
+    assertEquals(Arrays.asList("entered 2", "left 1", "entered 4"), events);
+    assertEquals(Arrays.asList(2, 3, 4), ids(sut.getMembers(dublin)));
+    assertEquals(5, sut.size());
+  }
+
+  @Test
+  public void shouldEmitLeaveWhenMemberDeleted() {
+    sut.apply(Collections.singletonList(near(7)), Arrays.asList(3, 2, 99));
+
+    assertEquals(Arrays.asList("entered 7", "left 3"), events);
+    assertEquals(Arrays.asList(1, 7), ids(sut.getMembers(dublin)));
+    assertEquals(2, sut.size());
+  }
+
+  @Test
+  public void shouldStopMaintainingUnregisteredQueries() {
+    sut.unregister(dublin);
+    sut.upsert(near(2));
+    assertTrue(events.isEmpty());
+  }
+
+  @Test
+  public void shouldMatchCalculatorAfterRandomUpdates() {
+    Random random = new Random(5);
+    List<CustomerLocation> initial = new ArrayList<>();
+    for (int x = 0; x < 2000; x++) {
+      initial.add(random(random, x));
+    }
+    IncrementalProximityTracker tracker = new IncrementalProximityTracker(initial);
+    List<RadiusQuery> radii = Arrays.asList(
+        new RadiusQuery(IntercomOfficeDublin, 100.0),
+        new RadiusQuery(new Coordinates(53.0, -8.0), 150.0),
+        new RadiusQuery(new Coordinates(54.5, -6.0), 50.0));
+    List<StandingQuery> standing = radii.stream().map(tracker::register).collect(Collectors.toList());
+
+    List<CustomerLocation> current = new ArrayList<>(initial);
+    for (int update = 0; update < 5000; update++) {
+      int userId = random.nextInt(2500);
+      current.removeIf(customer -> customer.getUserId() == userId);
+      if (random.nextInt(4) == 0) {
+        tracker.delete(userId);
+      } else {
+        CustomerLocation moved = random(random, userId);
+        tracker.upsert(moved);
+        current.add(moved);
+      }
+    }
+
+    ProximityCalculator calculator = new ProximityCalculator(current);
+    for (int q = 0; q < radii.size(); q++) {
+      RadiusQuery query = radii.get(q);
+      assertEquals(ids(calculator.calculateCustomersWithinRadius(query.getCenter(), query.getRadius())),
+          ids(tracker.getMembers(standing.get(q))));
+    }
+  }
+
+  private CustomerLocation random(Random random, int userId) {
+    return new CustomerLocation(userId, "Customer-" + userId, 51.5 + random.nextDouble() * 4.0, -10.5 + random.nextDouble() * 5.0);
+  }
+
+  private CustomerLocation near(int userId) {
+    return new CustomerLocation(userId, "Near-" + userId, IntercomOfficeDublin.getLatitude() + 0.1, IntercomOfficeDublin.getLongitude());
+  }
+
+  private CustomerLocation far(int userId) {
+    return new CustomerLocation(userId, "Far-" + userId, IntercomOfficeDublin.getLatitude() + 5.0, IntercomOfficeDublin.getLongitude());
+  }
+
+  private List<Integer> ids(List<CustomerLocation> customers) {
+    return customers.stream().map(CustomerLocation::getUserId).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,59 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  private LatencyHistogram sut = new LatencyHistogram();
+
+  @Test
+  public void shouldReportPercentilesWithinBucketPrecision() {
+    for (long value = 1; value <= 100000; value++) {
+      sut.record(value * 1000);
+    }
+    assertEquals(100000, sut.getCount());
+    assertEquals(100000000, sut.getMax());
+    assertEquals(50000500.0, sut.getMean(), 0.001);
+
+    for (double percentile : new double[]{1.0, 50.0, 90.0, 99.0, 99.9}) {
+      double expected = percentile * 1000000;
+      long reported = sut.getValueAtPercentile(percentile);
+      assertTrue(percentile + "th percentile " + reported, reported >= expected && reported <= expected * 1.04);
+    }
+    assertEquals(sut.getMax(), sut.getValueAtPercentile(100.0));
+  }
+
+  @Test
+  public void shouldKeepSmallValuesExactAndCoverTheWholeRange() {
+    sut.record(-5);
+    sut.record(0);
+    sut.record(31);
+    sut.record(Long.MAX_VALUE);
+    assertEquals(0, sut.getValueAtPercentile(50.0));
+    assertEquals(31, sut.getValueAtPercentile(75.0));
+    assertEquals(Long.MAX_VALUE, sut.getValueAtPercentile(100.0));
+
+    for (long value : new long[]{32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertTrue(LatencyHistogram.highestValueIn(bucket) >= value);
+      assertTrue(bucket == 0 || LatencyHistogram.highestValueIn(bucket - 1) < value);
+    }
+  }
+
+  @Test
+  public void shouldRecordConcurrentlyAndReset() {
+    IntStream.range(0, 100000).parallel().forEach(x -> sut.record(x % 1000));
+    assertEquals(100000, sut.getCount());
+    assertEquals(999, sut.getMax());
+
+    sut.reset();
+    assertEquals(0, sut.getCount());
+    assertEquals(0, sut.getValueAtPercentile(99.0));
+    assertEquals(0.0, sut.getMean(), 0.0);
+  }
+}
@@ -0,0 +1,80 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedCustomerFileLoaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CustomerLocationDataLoader sut = new CustomerLocationDataLoader();
+
+  @Test
+  public void shouldLoadFileInParallelChunksInOrder() throws Exception {
+    Path file = writeCustomers(5000, false);
+
+    // tiny chunks force many boundaries to land mid line
+    CustomerLocationStore loaded = sut.loadCustomerLocationStore(file, 4, 777);
+    assertEquals(5000, loaded.size());
+    for (int x = 0; x < 5000; x++) {
+      assertEquals(x, loaded.getUserId(x));
+      assertEquals("Customer-" + x + " \u00d3 S\u00failleabh\u00e1in", loaded.getName(x));
+      assertEquals(50.0 + x / 10000.0, loaded.getLatitude(x), 0.0);
+    }
+  }
+
+  @Test
+  public void shouldSkipMalformedLinesAndHandleMissingTrailingNewline() throws Exception {
+    Path file = writeCustomers(100, true);
+    Files.write(file, "{\"latitude\": 1, \"user_id\": 100, \"name\": \"last\", \"longitude\": 1}".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    CustomerLocationStore loaded = sut.loadCustomerLocationStore(file, 3, 100);
+    assertEquals(101, loaded.size());
+    assertEquals(100, loaded.getUserId(100));
+    assertEquals("last", loaded.getName(100));
+  }
+
+  @Test
+  public void shouldLoadCustomerListFromFile() throws Exception {
+    List<CustomerLocation> loaded = sut.loadCustomerLocationDetails(writeCustomers(10, false));
+    assertEquals(10, loaded.size());
+    assertEquals(new Integer(9), loaded.get(9).getUserId());
+  }
+
+  @Test
+  public void shouldLoadEmptyFile() throws Exception {
+    assertEquals(0, sut.loadCustomerLocationStore(folder.newFile().toPath()).size());
+  }
+
+  @Test(expected = IOException.class)
+  public void shouldFailIfFileMissing() throws Exception {
+    sut.loadCustomerLocationStore(folder.getRoot().toPath().resolve("doesnotexist.json"));
+  }
+
+  private Path writeCustomers(int count, boolean withGarbage) throws IOException {
+    Path file = folder.newFile().toPath();
+    try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (int x = 0; x < count; x++) {
+        if (withGarbage) {
+          out.write("not json\n\n");
+        }
+        out.write("{\"latitude\": \"" + (50.0 + x / 10000.0) + "\", \"user_id\": " + x
+            + ", \"name\": \"Customer-" + x + " \u00d3 S\u00failleabh\u00e1in\", \"longitude\": \"-6.0\"}\n");
+      }
+    }
+    return file;
+  }
+}
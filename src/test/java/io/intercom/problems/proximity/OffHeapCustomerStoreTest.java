@@ -0,0 +1,75 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapCustomerStoreTest {
+
+  @Test
+  public void shouldStoreCustomersAcrossSegments() {
+    try (OffHeapCustomerStore sut = new OffHeapCustomerStore(100)) {
+      for (int x = 0; x < 250; x++) {
+        assertEquals(x, sut.add(1000 + x, x / 10.0, -x / 10.0));
+      }
+      assertEquals(250, sut.size());
+      assertEquals(1000, sut.getUserId(0));
+      assertEquals(1199, sut.getUserId(199));
+      assertEquals(24.9, sut.getLatitude(249), 0.0);
+      assertEquals(-10.0, sut.getLongitude(100), 0.0);
+    }
+  }
+
+  @Test
+  public void shouldCopyCustomersFromStoreInOrder() {
+    CustomerLocationStore store = new CustomerLocationStore();
+    store.add(7, "Alice", 53.0, -6.0);
+    store.add(3, "Bob", 52.0, -7.0);
+
+    try (OffHeapCustomerStore sut = OffHeapCustomerStore.from(store)) {
+      assertEquals(2, sut.size());
+      assertEquals(3, sut.getUserId(1));
+      assertEquals(52.0, sut.getLatitude(1), 0.0);
+    }
+  }
+
+  @Test
+  public void shouldReportAndReleaseOffHeapMemory() {
+    long before = OffHeapCustomerStore.getTotalAllocatedBytes();
+    OffHeapCustomerStore sut = new OffHeapCustomerStore(100);
+    assertEquals(0, sut.getAllocatedBytes());
+
+    for (int x = 0; x < 150; x++) {
+      sut.add(x, 0.0, 0.0);
+    }
+    assertEquals(200 * OffHeapCustomerStore.BYTES_PER_CUSTOMER, sut.getAllocatedBytes());
+    assertEquals(150 * OffHeapCustomerStore.BYTES_PER_CUSTOMER, sut.getUsedBytes());
+    assertEquals(before + sut.getAllocatedBytes(), OffHeapCustomerStore.getTotalAllocatedBytes());
+
+    assertFalse(sut.isClosed());
+    sut.close();
+    sut.close();
+    assertTrue(sut.isClosed());
+    assertEquals(0, sut.getAllocatedBytes());
+    assertEquals(0, sut.getUsedBytes());
+    assertEquals(before, OffHeapCustomerStore.getTotalAllocatedBytes());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectAccessOnceClosed() {
+    OffHeapCustomerStore sut = new OffHeapCustomerStore();
+    sut.add(1, 53.0, -6.0);
+    sut.close();
+    sut.getLatitude(0);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void shouldRejectIndexOutsideStore() {
+    try (OffHeapCustomerStore sut = new OffHeapCustomerStore()) {
+      sut.add(1, 53.0, -6.0);
+      sut.getUserId(1);
+    }
+  }
+}
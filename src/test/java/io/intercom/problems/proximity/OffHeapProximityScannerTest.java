@@ -0,0 +1,83 @@
+package io.intercom.problems.proximity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class OffHeapProximityScannerTest {
+
+  private CustomerLocationStore store;
+
+  private OffHeapCustomerStore offHeap;
+
+  @Before
+  public void createCustomers() {
+    Random random = new Random(42);
+    store = new CustomerLocationStore();
+    for (int x = 0; x < 20000; x++) {
+      // some customers share ids so ties are broken consistently
+      store.add(random.nextInt(15000), "Customer-" + x, 53.0 + random.nextGaussian() * 3.0, -6.0 + random.nextGaussian() * 5.0);
+    }
+    store.add(20000, "Nowhere", Double.NaN, 0.0);
+    offHeap = new OffHeapCustomerStore(1000);
+    for (int i = 0; i < store.size(); i++) {
+      offHeap.add(store.getUserId(i), store.getLatitude(i), store.getLongitude(i));
+    }
+  }
+
+  @After
+  public void releaseOffHeapStore() {
+    offHeap.close();
+  }
+
+  @Test
+  public void shouldFindSameCustomersWithinRadiusAsCalculator() {
+    for (DistanceFormula formula : DistanceFormula.values()) {
+      ProximityCalculator calculator = new ProximityCalculator(store, LinearScanIndex::new, formula);
+      OffHeapProximityScanner sut = new OffHeapProximityScanner(offHeap, formula);
+      for (double radius : new double[]{0.0, 10.0, 100.0, 600.0, 25000.0}) {
+        List<CustomerLocation> expected = calculator.calculateCustomersWithinRadius(ProximityCalculator.IntercomOfficeDublin, radius);
+        int[] found = sut.findWithinRadius(ProximityCalculator.IntercomOfficeDublin, radius);
+        assertEquals(expected.size(), found.length);
+        for (int x = 0; x < found.length; x++) {
+          assertEquals(expected.get(x).getUserId().intValue(), offHeap.getUserId(found[x]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldFindSameNearestCustomersAsCalculator() {
+    Coordinates center = new Coordinates(55.0, -3.0);
+    for (DistanceFormula formula : DistanceFormula.values()) {
+      ProximityCalculator calculator = new ProximityCalculator(store, GridSpatialIndex::new, formula);
+      OffHeapProximityScanner sut = new OffHeapProximityScanner(offHeap, formula);
+      for (int k : new int[]{0, 1, 10, 500}) {
+        List<CustomerDistance> expected = calculator.calculateNearestCustomers(center, k);
+        int[] found = sut.findNearest(center, k);
+        assertEquals(expected.size(), found.length);
+        for (int x = 0; x < found.length; x++) {
+          assertEquals(expected.get(x).getCustomer().getUserId().intValue(), offHeap.getUserId(found[x]));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldReturnEveryCustomerWhenKExceedsStore() {
+    try (OffHeapCustomerStore small = new OffHeapCustomerStore()) {
+      small.add(1, 53.0, -6.0);
+      small.add(2, 54.0, -6.0);
+      OffHeapProximityScanner sut = new OffHeapProximityScanner(small, DistanceFormula.HAVERSINE);
+      int[] nearest = sut.findNearest(new Coordinates(54.0, -6.0), 10);
+      assertEquals(2, nearest.length);
+      assertEquals(1, nearest[0]);
+      assertEquals(111.2, sut.distanceTo(new Coordinates(54.0, -6.0), nearest[1]), 0.1);
+    }
+  }
+}
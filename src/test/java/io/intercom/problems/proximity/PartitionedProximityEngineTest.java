@@ -0,0 +1,145 @@
+package io.intercom.problems.proximity;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartitionedProximityEngineTest {
+
+  private static Path customerFile;
+
+  private static ProximityCalculator calculator;
+
+  private static PartitionedProximityEngine sut;
+
+  @BeforeClass
+  public static void launchWorkers() throws IOException {
+    Random random = new Random(25);
+    CustomerLocationStore store = new CustomerLocationStore();
+    customerFile = Files.createTempFile("customers", ".json");
+    try (Writer out = Files.newBufferedWriter(customerFile, StandardCharsets.UTF_8)) {
+      for (int x = 0; x < 3000; x++) {
+        // most customers across europe, the rest anywhere
+        double latitude = x % 10 == 0 ? random.nextDouble() * 180.0 - 90.0 : 40.0 + random.nextDouble() * 20.0;
+        double longitude = x % 10 == 0 ? random.nextDouble() * 360.0 - 180.0 : -15.0 + random.nextDouble() * 30.0;
+        store.add(x, "Customer-" + x, latitude, longitude);
+        out.write("{\"latitude\": \"" + latitude + "\", \"user_id\": " + x + ", \"name\": \"Customer-" + x
+            + "\", \"longitude\": \"" + longitude + "\"}\n");
+      }
+    }
+    calculator = new ProximityCalculator(store, GridSpatialIndex::new);
+    sut = PartitionedProximityEngine.launchLocal(customerFile, new SpatialPartitioning(3, 5.0));
+  }
+
+  @AfterClass
+  public static void stopWorkers() throws IOException {
+    if (sut != null) {
+      sut.close();
+    }
+    Files.deleteIfExists(customerFile);
+  }
+
+  @Test
+  public void shouldGatherSameCustomersAsSingleCalculatorInEitherOrder() throws IOException {
+    for (double radius : new double[] {0.0, 100.0, 500.0, 2500.0, 25000.0}) {
+      RadiusResult expected = calculator.findCustomersWithinRadius(IntercomOfficeDublin, radius);
+
+      List<CustomerDistance> byId = sut.findCustomersWithinRadius(IntercomOfficeDublin, radius, RadiusResult.Order.USER_ID);
+      assertEquals(ids(expected.sorted(RadiusResult.Order.USER_ID)), ids(byId));
+
+      List<CustomerDistance> byDistance = sut.findCustomersWithinRadius(IntercomOfficeDublin, radius, RadiusResult.Order.DISTANCE);
+      List<CustomerDistance> expectedByDistance = expected.sorted(RadiusResult.Order.DISTANCE);
+      assertEquals(ids(expectedByDistance), ids(byDistance));
+      for (int x = 0; x < byDistance.size(); x++) {
+        assertEquals(expectedByDistance.get(x).getDistance(), byDistance.get(x).getDistance(), 0.0);
+        assertEquals(expectedByDistance.get(x).getCustomer().getName(), byDistance.get(x).getCustomer().getName());
+      }
+    }
+  }
+
+  @Test
+  public void shouldFailQueryNamingShardThatNeverAnswers() throws IOException {
+    // the socket's backlog accepts connections that are then never read
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    try (ServerSocket hung = new ServerSocket(0, 1, loopback);
+         PartitionedProximityEngine engine = new PartitionedProximityEngine(new SpatialPartitioning(1, 5.0),
+             Collections.singletonList(new InetSocketAddress(loopback, hung.getLocalPort())))) {
+      long start = System.nanoTime();
+      try {
+        engine.findCustomersWithinRadius(IntercomOfficeDublin, 100.0, RadiusResult.Order.USER_ID);
+        fail("Query to a shard that never answers should fail");
+      } catch (IOException e) {
+        assertTrue(e.getMessage(), e.getMessage().toLowerCase(Locale.ROOT).contains("shard 0"));
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(
+          PartitionedProximityEngine.SHARD_CONNECT_TIMEOUT_MILLIS + PartitionedProximityEngine.SHARD_READ_TIMEOUT_MILLIS + 2000));
+    }
+  }
+
+  @Test
+  public void shouldFindSameNearestCustomersAsSingleCalculator() throws IOException {
+    Random random = new Random(9);
+    for (int q = 0; q < 20; q++) {
+      Coordinates center = new Coordinates(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+      int k = 1 + random.nextInt(50);
+      assertEquals(ids(calculator.calculateNearestCustomers(center, k)), ids(sut.calculateNearestCustomers(center, k)));
+    }
+    assertEquals(3000, sut.calculateNearestCustomers(IntercomOfficeDublin, 5000).size());
+  }
+
+  @Test
+  public void shouldOnlyQueryShardsTheRadiusReaches() throws IOException {
+    SpatialPartitioning partitioning = sut.getPartitioning();
+    int owner = partitioning.shardOf(52.5, -7.5);
+    long[] before = new long[partitioning.getShards()];
+    for (int shard = 0; shard < before.length; shard++) {
+      before[shard] = sut.getShardRequests(shard);
+    }
+
+    sut.findCustomersWithinRadius(new Coordinates(52.5, -7.5), 50.0, RadiusResult.Order.USER_ID);
+
+    for (int shard = 0; shard < before.length; shard++) {
+      assertEquals(shard == owner ? before[shard] + 1 : before[shard], sut.getShardRequests(shard));
+    }
+  }
+
+  @Test
+  public void shouldRejectInvalidQueriesBeforeScattering() throws IOException {
+    try {
+      sut.findCustomersWithinRadius(new Coordinates(95.0, 0.0), 10.0, RadiusResult.Order.USER_ID);
+      fail("Expected an invalid center to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      sut.findCustomersWithinRadius(IntercomOfficeDublin, Double.NaN, RadiusResult.Order.USER_ID);
+      fail("Expected an invalid radius to be rejected");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  private static List<Integer> ids(List<CustomerDistance> matches) {
+    return matches.stream().map(match -> match.getCustomer().getUserId()).collect(Collectors.toList());
+  }
+}
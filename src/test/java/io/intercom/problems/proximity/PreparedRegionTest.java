@@ -0,0 +1,71 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PreparedRegionTest {
+
+  private final List<Coordinates> square = Arrays.asList(new Coordinates(50.0, -10.0), new Coordinates(50.0, 0.0),
+      new Coordinates(60.0, 0.0), new Coordinates(60.0, -10.0), new Coordinates(50.0, -10.0));
+
+  private final List<Coordinates> hole = Arrays.asList(new Coordinates(54.0, -6.0), new Coordinates(54.0, -4.0),
+      new Coordinates(56.0, -4.0), new Coordinates(56.0, -6.0));
+
+  @Test
+  public void shouldTestPointsAgainstShellAndHoles() {
+    Polygon polygon = new Polygon(square, Collections.singletonList(hole));
+    PreparedRegion sut = new PreparedRegion(Collections.singletonList(polygon));
+
+    assertTrue(sut.contains(51.0, -9.0));
+    assertTrue(sut.contains(57.0, -5.0));
+    assertFalse(sut.contains(55.0, -5.0));
+    assertFalse(sut.contains(61.0, -5.0));
+    assertFalse(sut.contains(55.0, 1.0));
+    assertFalse(sut.contains(Double.NaN, -5.0));
+    assertTrue(polygon.contains(new Coordinates(51.0, -9.0)));
+    assertFalse(MultiPolygon.of(polygon).contains(new Coordinates(55.0, -5.0)));
+  }
+
+  @Test
+  public void shouldClassifyBoxesConservatively() {
+    PreparedRegion sut = new PreparedRegion(Arrays.asList(new Polygon(square, Collections.singletonList(hole)),
+        new Polygon(Arrays.asList(new Coordinates(0.0, 0.0), new Coordinates(0.0, 1.0), new Coordinates(1.0, 0.0)))));
+
+    assertEquals(PreparedRegion.Overlap.INSIDE, sut.overlap(51.0, 52.0, -9.0, -8.0));
+    assertEquals(PreparedRegion.Overlap.OUTSIDE, sut.overlap(54.5, 55.5, -5.5, -4.5));
+    assertEquals(PreparedRegion.Overlap.OUTSIDE, sut.overlap(10.0, 20.0, 10.0, 20.0));
+    assertEquals(PreparedRegion.Overlap.BOUNDARY, sut.overlap(53.0, 55.0, -7.0, -5.0));
+    assertEquals(PreparedRegion.Overlap.BOUNDARY, sut.overlap(59.0, 61.0, -5.0, -4.0));
+    assertEquals(PreparedRegion.Overlap.BOUNDARY, sut.overlap(-1.0, 2.0, -1.0, 2.0));
+    assertEquals(-10.0, sut.minLongitude, 0.0);
+    assertEquals(60.0, sut.maxLatitude, 0.0);
+  }
+
+  @Test
+  public void shouldCompareRegionsByVertices() {
+    Polygon closed = new Polygon(square);
+    Polygon open = new Polygon(square.subList(0, 4));
+    assertEquals(closed, open);
+    assertEquals(closed.hashCode(), open.hashCode());
+    assertEquals(4, closed.getShell().size());
+    assertEquals(MultiPolygon.of(closed), MultiPolygon.of(open));
+    assertFalse(closed.equals(new Polygon(square, Collections.singletonList(hole))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectDegenerateRings() {
+    new Polygon(Arrays.asList(new Coordinates(50.0, -10.0), new Coordinates(50.0, 0.0), new Coordinates(50.0, -10.0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectVerticesOffTheMap() {
+    new Polygon(Arrays.asList(new Coordinates(50.0, -10.0), new Coordinates(50.0, 190.0), new Coordinates(60.0, 0.0)));
+  }
+}
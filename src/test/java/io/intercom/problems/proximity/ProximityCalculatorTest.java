@@ -3,8 +3,11 @@ package io.intercom.problems.proximity;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
@@ -29,7 +32,7 @@ public class ProximityCalculatorTest {
 
   @Test(expected = IllegalArgumentException.class)
   public void shouldComplainAboutEmptyOrNullCustomerList(){
-    new ProximityCalculator(null);
+    new ProximityCalculator((List<CustomerLocation>) null);
   }
 
   @Test
@@ -46,6 +49,144 @@ public class ProximityCalculatorTest {
 
   }
 
+  @Test
+  public void shouldFilterCustomersInColumnarStore() {
+
+    ProximityCalculator sut = new ProximityCalculator(CustomerLocationStore.from(customers));
+
+    List<CustomerLocation> withinRadius = sut.calculateCustomersWithinRadius(distanceInOneDegree * 2.0001);
+    assertEquals(2, withinRadius.size());
+    assertEquals(new Integer(1), withinRadius.get(0).getUserId());
+    assertEquals("Customer-2", withinRadius.get(1).getName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutNullStore(){
+    new ProximityCalculator((CustomerLocationStore) null);
+  }
+
+  @Test
+  public void shouldAnswerQueriesWithExistingIndex() {
+    Random random = new Random(7);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 10000; x++) {
+      store.add(x, "Customer-" + x, random.nextDouble() * 40.0 + 30.0, random.nextDouble() * 60.0 - 30.0);
+    }
+    ProximityCalculator sut = new ProximityCalculator(new GridSpatialIndex(store));
+    ProximityCalculator scanned = new ProximityCalculator(store);
+
+    assertEquals(userIds(scanned.calculateCustomersWithinRadius(500.0)), userIds(sut.calculateCustomersWithinRadius(500.0)));
+    assertEquals(userIds(scanned.calculateCustomersWithinRadius(new Coordinates(45.0, 10.0), 250.0)),
+        userIds(sut.calculateCustomersWithinRadius(new Coordinates(45.0, 10.0), 250.0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutNullIndex(){
+    new ProximityCalculator((SpatialIndex) null);
+  }
+
+  @Test
+  public void shouldAnswerBatchQueriesLikeIndividualQueries() {
+
+    Random random = new Random(99);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 100000; x++) {
+      store.add(random.nextInt(1000000), "Customer-" + x, random.nextDouble() * 40.0 + 30.0, random.nextDouble() * 60.0 - 30.0);
+    }
+    ProximityCalculator sut = new ProximityCalculator(store);
+
+    List<RadiusQuery> queries = new ArrayList<>();
+    for (int q = 0; q < 20; q++) {
+      queries.add(new RadiusQuery(new Coordinates(random.nextDouble() * 40.0 + 30.0, random.nextDouble() * 60.0 - 30.0), q * 50.0));
+    }
+    List<List<CustomerLocation>> results = sut.calculateCustomersWithinRadii(queries);
+
+    assertEquals(queries.size(), results.size());
+    for (int q = 0; q < queries.size(); q++) {
+      List<CustomerLocation> expected = sut.calculateCustomersWithinRadius(queries.get(q).getCenter(), queries.get(q).getRadius());
+      assertEquals(userIds(expected), userIds(results.get(q)));
+    }
+  }
+
+  @Test
+  public void shouldFindNearestCustomersInDistanceOrder() {
+
+    Collections.shuffle(customers);
+    ProximityCalculator sut = new ProximityCalculator(customers);
+
+    List<CustomerDistance> nearest = sut.calculateNearestCustomers(IntercomOfficeDublin, 3);
+    assertEquals(3, nearest.size());
+    for (int x = 0; x < 3; x++) {
+      assertEquals(new Integer(x + 1), nearest.get(x).getCustomer().getUserId());
+      assertEquals(distanceInOneDegree * (x + 1), nearest.get(x).getDistance(), 0.0001);
+    }
+
+    assertEquals(5, sut.calculateNearestCustomers(IntercomOfficeDublin, 50).size());
+    assertEquals(0, sut.calculateNearestCustomers(IntercomOfficeDublin, 0).size());
+  }
+
+  @Test
+  public void shouldFindSameNearestCustomersWithAndWithoutIndex() {
+
+    Random random = new Random(7);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 50000; x++) {
+      store.add(x, "Customer-" + x, random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+    }
+    ProximityCalculator bruteForce = new ProximityCalculator(store);
+    ProximityCalculator indexed = new ProximityCalculator(store, GridSpatialIndex::new, DistanceFormula.HAVERSINE);
+
+    for (int k : new int[]{1, 10, 1000, 60000}) {
+      Coordinates center = new Coordinates(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+      List<CustomerDistance> expected = bruteForce.calculateNearestCustomers(center, k);
+      List<CustomerDistance> actual = indexed.calculateNearestCustomers(center, k);
+      assertEquals(Math.min(k, 50000), actual.size());
+      for (int x = 0; x < actual.size(); x++) {
+        assertEquals(expected.get(x).getDistance(), actual.get(x).getDistance(), 1e-6);
+        if (x > 0) {
+          assertTrue(actual.get(x - 1).getDistance() <= actual.get(x).getDistance());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldFindSameEllipsoidalCustomersWithAndWithoutIndex() {
+
+    // near the equator ellipsoidal distances north and south are shorter than on the sphere
+    Random random = new Random(11);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 50000; x++) {
+      store.add(x, "Customer-" + x, random.nextDouble() * 24.0 - 12.0, random.nextDouble() * 24.0 - 12.0);
+    }
+    ProximityCalculator bruteForce = new ProximityCalculator(store, LinearScanIndex::new, DistanceFormula.ELLIPSOIDAL);
+    ProximityCalculator indexed = new ProximityCalculator(store, GridSpatialIndex.withCellSize(0.1), DistanceFormula.ELLIPSOIDAL);
+
+    Coordinates center = new Coordinates(0.0, 0.0);
+    for (double radius : new double[]{300.0, 1000.0}) {
+      assertEquals(userIds(bruteForce.calculateCustomersWithinRadius(center, radius)),
+          userIds(indexed.calculateCustomersWithinRadius(center, radius)));
+    }
+    for (int k : new int[]{1, 100, 10000}) {
+      List<CustomerDistance> expected = bruteForce.calculateNearestCustomers(center, k);
+      List<CustomerDistance> actual = indexed.calculateNearestCustomers(center, k);
+      assertEquals(expected.size(), actual.size());
+      for (int x = 0; x < actual.size(); x++) {
+        assertEquals(expected.get(x).getCustomer().getUserId(), actual.get(x).getCustomer().getUserId());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldComplainAboutNegativeNearestCount() {
+    new ProximityCalculator(customers).calculateNearestCustomers(IntercomOfficeDublin, -1);
+  }
+
+  @Test
+  public void shouldAnswerEmptyBatch() {
+    assertTrue(new ProximityCalculator(customers).calculateCustomersWithinRadii(Collections.emptyList()).isEmpty());
+  }
+
   @Test
   public void shouldReturnCustomersListWithUserIDAscending() {
 
@@ -62,4 +203,78 @@ public class ProximityCalculatorTest {
 
   }
 
+  @Test
+  public void shouldFindSameCustomersInsideRegionWithAndWithoutIndex() {
+
+    Random random = new Random(20);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 100000; x++) {
+      store.add(x, "Customer-" + x, random.nextDouble() * 20.0 + 45.0, random.nextDouble() * 30.0 - 20.0);
+    }
+    // customers on cell corners and at the antimeridian
+    store.add(100000, "Corner", 53.0, -6.0);
+    store.add(100001, "East", 10.0, 180.0);
+    store.add(100002, "West", 10.0, -180.0);
+
+    // a jagged star with a square hole, a triangle and a thin strip along the antimeridian
+    List<Coordinates> star = new ArrayList<>();
+    for (int v = 0; v < 400; v++) {
+      double angle = 2 * Math.PI * v / 400;
+      double reach = v % 2 == 0 ? 6.0 : 2.0 + random.nextDouble() * 3.0;
+      star.add(new Coordinates(55.0 + reach * Math.sin(angle), -6.0 + reach * 1.6 * Math.cos(angle)));
+    }
+    List<Coordinates> hole = Arrays.asList(new Coordinates(54.0, -7.0), new Coordinates(54.0, -5.0),
+        new Coordinates(56.0, -5.0), new Coordinates(56.0, -7.0));
+    Polygon triangle = new Polygon(Arrays.asList(new Coordinates(46.0, 0.0), new Coordinates(50.0, 8.0), new Coordinates(46.0, 9.5)));
+    Polygon strip = new Polygon(Arrays.asList(new Coordinates(5.0, 179.0), new Coordinates(5.0, 180.0),
+        new Coordinates(15.0, 180.0), new Coordinates(15.0, 179.0)));
+    MultiPolygon region = MultiPolygon.of(new Polygon(star, Collections.singletonList(hole)), triangle, strip);
+
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < store.size(); i++) {
+      if (insideByRayCasting(region, store.getLatitude(i), store.getLongitude(i))) {
+        expected.add(store.getUserId(i));
+      }
+    }
+    assertTrue(expected.size() > 1000);
+    assertTrue(expected.contains(100000));
+
+    assertEquals(expected, userIds(new ProximityCalculator(store).calculateCustomersWithin(region)));
+    for (double cellSize : new double[]{0.1, 1.0, 5.0}) {
+      ProximityCalculator indexed = new ProximityCalculator(store, GridSpatialIndex.withCellSize(cellSize));
+      assertEquals(expected, userIds(indexed.calculateCustomersWithin(region)));
+      // the second query reuses the prepared region
+      assertEquals(expected, userIds(indexed.calculateCustomersWithin(MultiPolygon.of(region.getPolygons().toArray(new Polygon[0])))));
+    }
+    assertEquals(userIds(new ProximityCalculator(store).calculateCustomersWithin(triangle)),
+        userIds(new ProximityCalculator(store, GridSpatialIndex::new).calculateCustomersWithin(triangle)));
+  }
+
+  private boolean insideByRayCasting(MultiPolygon region, double latitude, double longitude) {
+    for (Polygon polygon : region.getPolygons()) {
+      boolean inside = false;
+      List<List<Coordinates>> rings = new ArrayList<>(polygon.getHoles());
+      rings.add(polygon.getShell());
+      for (List<Coordinates> ring : rings) {
+        for (int v = 0, u = ring.size() - 1; v < ring.size(); u = v++) {
+          double lat1 = ring.get(u).getLatitude();
+          double lon1 = ring.get(u).getLongitude();
+          double lat2 = ring.get(v).getLatitude();
+          double lon2 = ring.get(v).getLongitude();
+          if ((lat1 > latitude) != (lat2 > latitude) && longitude < lon1 + (latitude - lat1) * (lon2 - lon1) / (lat2 - lat1)) {
+            inside = !inside;
+          }
+        }
+      }
+      if (inside) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<Integer> userIds(List<CustomerLocation> customers) {
+    return customers.stream().map(CustomerLocation::getUserId).collect(Collectors.toList());
+  }
+
 }
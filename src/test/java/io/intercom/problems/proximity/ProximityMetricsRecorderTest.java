@@ -0,0 +1,145 @@
+package io.intercom.problems.proximity;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProximityMetricsRecorderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ProximityMetricsRecorder sut = new ProximityMetricsRecorder();
+
+  @After
+  public void unregister() throws Exception {
+    sut.unregister();
+  }
+
+  @Test
+  public void shouldRecordLoads() throws Exception {
+    String json = "{\"latitude\": \"52.986375\", \"user_id\": 12, \"name\": \"Christina McArdle\", \"longitude\": \"-6.043701\"}\n"
+        + "not json\n"
+        + "{\"latitude\": \"51.92893\", \"user_id\": 1, \"longitude\": \"-10.27699\"}\n"
+        + "\n"
+        + "{\"latitude\": \"51.92893\", \"user_id\": 2, \"name\": \"Alice Cahill\", \"longitude\": \"-10.27699\"}\n";
+    CustomerLocationDataLoader loader = new CustomerLocationDataLoader();
+    loader.setMetrics(sut);
+    CustomerLocationStore store = loader.loadCustomerLocationStore(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(2, store.size());
+    assertEquals(1, sut.getLoads());
+    assertEquals(5, sut.getLinesLoaded());
+    assertEquals(json.length(), sut.getBytesLoaded());
+    assertEquals(2, sut.getCustomersLoaded());
+    assertEquals(1, sut.getParseFailures());
+    assertEquals(1, sut.getValidationFailures());
+    assertTrue(sut.getLinesPerSecond() > 0.0);
+    assertTrue(sut.getBytesPerSecond() > 0.0);
+  }
+
+  @Test
+  public void shouldRecordEveryKindOfLoad() throws Exception {
+    String json = "{\"latitude\": \"52.986375\", \"user_id\": 12, \"name\": \"Christina McArdle\", \"longitude\": \"-6.043701\"}\n"
+        + "not json\n";
+    CustomerLocationDataLoader loader = new CustomerLocationDataLoader();
+    loader.setMetrics(sut);
+
+    assertEquals(1, loader.loadCustomerLocationDetails(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))).size());
+    assertEquals(1, sut.getLoads());
+    assertEquals(2, sut.getLinesLoaded());
+    assertEquals(json.length(), sut.getBytesLoaded());
+    assertEquals(1, sut.getParseFailures());
+
+    try (Stream<CustomerLocation> customers = loader.streamCustomerLocationDetails(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)))) {
+      assertEquals(1, customers.count());
+    }
+    assertEquals(2, sut.getLoads());
+    assertEquals(2, sut.getCustomersLoaded());
+
+    Path customerFile = folder.newFile("customers.json").toPath();
+    Files.write(customerFile, json.getBytes(StandardCharsets.UTF_8));
+    Path snapshotFile = folder.getRoot().toPath().resolve("customers.snapshot");
+    loader.loadCustomerLocationStore(customerFile.toUri().toURL(), snapshotFile);
+    assertEquals(3, sut.getLoads());
+    loader.loadCustomerLocationStore(customerFile.toUri().toURL(), snapshotFile);
+    assertEquals(4, sut.getLoads());
+    assertEquals(4, sut.getCustomersLoaded());
+    assertEquals(3 * json.length() + Files.size(snapshotFile), sut.getBytesLoaded());
+  }
+
+  @Test
+  public void shouldRecordQueriesAndCacheLookups() {
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 1000; x++) {
+      store.add(x, "Customer-" + x, 50.0 + x / 100.0, -6.0);
+    }
+    ProximityCalculator calculator = new ProximityCalculator(store);
+    calculator.setMetrics(sut);
+
+    Coordinates center = new Coordinates(50.0, -6.0);
+    int found = calculator.calculateCustomersWithinRadius(center, 100.0).size();
+    calculator.calculateNearestCustomers(center, 5);
+    List<List<CustomerLocation>> batch = calculator.calculateCustomersWithinRadii(
+        Arrays.asList(new RadiusQuery(center, 10.0), new RadiusQuery(center, 20.0)));
+
+    assertEquals(3, sut.getQueries());
+    assertEquals(1, sut.getRadiusQueries());
+    assertEquals(1, sut.getNearestQueries());
+    assertEquals(1, sut.getBatchQueries());
+    assertEquals(1000 + 1000 + 2000, sut.getCandidatesExamined());
+    assertEquals(found + 5 + batch.get(0).size() + batch.get(1).size(), sut.getCustomersReturned());
+    assertTrue(sut.getIndexHitRatio() > 0.0 && sut.getIndexHitRatio() < 1.0);
+    assertTrue(sut.getQueryLatencyMaxMicros() >= sut.getQueryLatencyP50Micros());
+
+    RadiusQueryCache cache = new RadiusQueryCache(calculator);
+    cache.setMetrics(sut);
+    cache.calculateCustomersWithinRadius(center, 50.0);
+    cache.calculateCustomersWithinRadius(center, 50.0);
+    cache.calculateCustomersWithinRadius(center, 25.0);
+    assertEquals(2, sut.getCacheHits());
+    assertEquals(1, sut.getCacheMisses());
+    assertEquals(2.0 / 3.0, sut.getCacheHitRatio(), 1e-9);
+
+    sut.reset();
+    assertEquals(0, sut.getQueries());
+    assertEquals(0, sut.getCacheHits());
+  }
+
+  @Test
+  public void shouldPublishOverJmx() throws Exception {
+    ObjectName name = sut.register("test");
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    assertTrue(server.isRegistered(name));
+
+    sut.recordQuery(ProximityMetrics.Query.NEAREST, 2000000, 10, 5);
+    assertEquals(1L, server.getAttribute(name, "Queries"));
+    assertEquals(0.5, (Double) server.getAttribute(name, "IndexHitRatio"), 0.0);
+    long p99 = (Long) server.invoke(name, "latencyPercentileMicros", new Object[]{"NEAREST", 99.0},
+        new String[]{String.class.getName(), double.class.getName()});
+    assertTrue(p99 >= 2000 && p99 < 2100);
+
+    // registering again under the same name replaces the earlier recorder
+    ProximityMetricsRecorder replacement = new ProximityMetricsRecorder();
+    replacement.register("test");
+    assertEquals(0L, server.getAttribute(name, "Queries"));
+    replacement.unregister();
+    assertFalse(server.isRegistered(name));
+  }
+}
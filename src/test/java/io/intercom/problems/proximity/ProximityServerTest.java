@@ -0,0 +1,171 @@
+package io.intercom.problems.proximity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProximityServerTest {
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private volatile int customers = 5;
+
+  private ProximityServer sut;
+
+  private String base;
+
+  @Before
+  public void startServer() throws IOException {
+    sut = new ProximityServer(this::load, GridSpatialIndex::new, 4);
+    sut.start(new InetSocketAddress("127.0.0.1", 0));
+    base = "http://127.0.0.1:" + sut.getAddress().getPort();
+  }
+
+  @After
+  public void stopServer() {
+    sut.close();
+  }
+
+  private CustomerLocationStore load() throws IOException {
+    if (customers < 0) {
+      throw new IOException("source unavailable");
+    }
+    loads.incrementAndGet();
+    // customers each one degree further north of the office than the last
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 1; x <= customers; x++) {
+      store.add(x, "Customer-" + x, IntercomOfficeDublin.getLatitude() + x, IntercomOfficeDublin.getLongitude());
+    }
+    return store;
+  }
+
+  @Test
+  public void shouldAnswerRadiusQueriesInEitherOrderWithPaging() throws Exception {
+    String office = "lat=" + IntercomOfficeDublin.getLatitude() + "&lon=" + IntercomOfficeDublin.getLongitude();
+    JsonNode all = get("/radius?" + office + "&radius=350");
+    assertEquals(3, all.get("total").asInt());
+    assertEquals(3, all.get("customers").size());
+    assertEquals(1, all.get("customers").get(0).get("user_id").asInt());
+    assertEquals("Customer-1", all.get("customers").get(0).get("name").asText());
+    assertEquals(111.2, all.get("customers").get(0).get("distance").asDouble(), 0.1);
+
+    JsonNode page = get("/radius?" + office + "&radius=1000&order=distance&offset=2&limit=2");
+    assertEquals(5, page.get("total").asInt());
+    assertEquals(2, page.get("customers").size());
+    assertEquals(3, page.get("customers").get(0).get("user_id").asInt());
+    assertEquals(4, page.get("customers").get(1).get("user_id").asInt());
+  }
+
+  @Test
+  public void shouldAnswerNearestAndBatchQueries() throws Exception {
+    JsonNode nearest = get("/nearest?lat=" + (IntercomOfficeDublin.getLatitude() + 4.1) + "&lon=" + IntercomOfficeDublin.getLongitude() + "&k=2");
+    assertEquals(2, nearest.get("customers").size());
+    assertEquals(4, nearest.get("customers").get(0).get("user_id").asInt());
+    assertEquals(5, nearest.get("customers").get(1).get("user_id").asInt());
+
+    String queries = "[{\"latitude\": " + IntercomOfficeDublin.getLatitude() + ", \"longitude\": " + IntercomOfficeDublin.getLongitude() + ", \"radius\": 250}," +
+        " {\"latitude\": 0, \"longitude\": 0, \"radius\": 10}]";
+    JsonNode batch = post("/batch", queries, 200);
+    assertEquals(2, batch.get("results").size());
+    assertEquals(2, batch.get("results").get(0).get("customers").size());
+    assertEquals(0, batch.get("results").get(1).get("customers").size());
+  }
+
+  @Test
+  public void shouldRejectBadRequests() throws Exception {
+    assertEquals(400, status("/radius?lat=53&lon=-6"));
+    assertEquals(400, status("/radius?lat=north&lon=-6&radius=10"));
+    assertEquals(400, status("/radius?lat=95&lon=-6&radius=10"));
+    assertEquals(400, status("/radius?lat=53&lon=-6&radius=10&order=name"));
+    assertEquals(400, status("/nearest?lat=53&lon=-6&k=-1"));
+    assertEquals(405, status("/batch"));
+    assertTrue(post("/batch", "{\"not\": \"a list\"}", 400).get("error").asText().contains("array"));
+    assertTrue(post("/batch", "[{\"latitude\": 1}", 400).has("error"));
+    assertEquals(404, status("/unknown"));
+  }
+
+  @Test
+  public void shouldReloadDatasetAtomicallyInBackground() throws Exception {
+    assertEquals(5, get("/status").get("customers").asInt());
+    assertEquals(1, get("/status").get("version").asInt());
+
+    // queries keep being answered from a complete dataset while reloads happen
+    ExecutorService clients = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> totals = new ArrayList<>();
+    for (int q = 0; q < 200; q++) {
+      totals.add(clients.submit(() -> get("/radius?lat=0&lon=0&radius=20000").get("total").asInt()));
+      if (q == 50) {
+        customers = 8;
+        post("/reload", "", 202);
+      }
+    }
+    for (Future<Integer> total : totals) {
+      int seen = total.get();
+      assertTrue(seen == 5 || seen == 8);
+    }
+    clients.shutdown();
+    sut.reload().get(10, TimeUnit.SECONDS);
+    assertEquals(8, get("/status").get("customers").asInt());
+
+    // a failed reload keeps serving the last dataset
+    customers = -1;
+    int version = get("/status").get("version").asInt();
+    sut.reload().get(10, TimeUnit.SECONDS);
+    assertEquals(8, get("/status").get("customers").asInt());
+    assertEquals(version, get("/status").get("version").asInt());
+  }
+
+  private JsonNode get(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+    assertEquals(200, connection.getResponseCode());
+    try (InputStream in = connection.getInputStream()) {
+      return mapper.readTree(in);
+    }
+  }
+
+  private int status(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+    int status = connection.getResponseCode();
+    connection.disconnect();
+    return status;
+  }
+
+  private JsonNode post(String path, String body, int expectedStatus) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(base + path).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body.getBytes(StandardCharsets.UTF_8));
+    }
+    assertEquals(expectedStatus, connection.getResponseCode());
+    if (expectedStatus == 202) {
+      return null;
+    }
+    try (InputStream in = expectedStatus == 200 ? connection.getInputStream() : connection.getErrorStream()) {
+      return mapper.readTree(in);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RadiusQueryCacheTest {
+
+  private ProximityCalculator calculator;
+
+  private RadiusQueryCache sut;
+
+  @Before
+  public void createCache() {
+    Random random = new Random(3);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 20000; x++) {
+      store.add(random.nextInt(100000), "Customer-" + x, 50.0 + random.nextDouble() * 8.0, -12.0 + random.nextDouble() * 10.0);
+    }
+    calculator = new ProximityCalculator(store, GridSpatialIndex::new);
+    sut = new RadiusQueryCache(calculator, 3, 1000000);
+  }
+
+  @Test
+  public void shouldAnswerRepeatedQueriesFromCache() {
+    List<Integer> first = ids(sut.calculateCustomersWithinRadius(IntercomOfficeDublin, 100.0));
+    List<Integer> second = ids(sut.calculateCustomersWithinRadius(IntercomOfficeDublin, 100.0));
+
+    assertEquals(ids(calculator.calculateCustomersWithinRadius(100.0)), first);
+    assertEquals(first, second);
+    assertEquals(1, sut.getMisses());
+    assertEquals(1, sut.getHits());
+  }
+
+  @Test
+  public void shouldDeriveSmallerRadiiFromLargerCachedResults() {
+    sut.calculateCustomersWithinRadius(IntercomOfficeDublin, 200.0);
+    for (double radius : new double[]{150.0, 100.0, 10.0, 0.0}) {
+      assertEquals(ids(calculator.calculateCustomersWithinRadius(IntercomOfficeDublin, radius)),
+          ids(sut.calculateCustomersWithinRadius(IntercomOfficeDublin, radius)));
+    }
+    assertEquals(1, sut.getMisses());
+    assertEquals(4, sut.getDerivedHits());
+  }
+
+  @Test
+  public void shouldCacheDistancesWithResults() {
+    List<CustomerDistance> withDistances = sut.calculateCustomerDistancesWithinRadius(IntercomOfficeDublin, 100.0);
+    List<CustomerDistance> derived = sut.calculateCustomerDistancesWithinRadius(IntercomOfficeDublin, 50.0);
+
+    assertTrue(withDistances.size() > derived.size());
+    for (CustomerDistance customer : withDistances) {
+      assertEquals(customer.getCustomer().getCoordinates().distanceTo(IntercomOfficeDublin), customer.getDistance(), 0.0);
+      assertTrue(customer.getDistance() <= 100.0);
+    }
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedResults() {
+    sut.calculateCustomersWithinRadius(new Coordinates(51.0, -8.0), 10.0);
+    sut.calculateCustomersWithinRadius(new Coordinates(52.0, -8.0), 10.0);
+    sut.calculateCustomersWithinRadius(new Coordinates(51.0, -8.0), 10.0);
+    sut.calculateCustomersWithinRadius(new Coordinates(53.0, -8.0), 10.0);
+    sut.calculateCustomersWithinRadius(new Coordinates(54.0, -8.0), 10.0);
+    assertEquals(3, sut.size());
+
+    sut.calculateCustomersWithinRadius(new Coordinates(51.0, -8.0), 10.0);
+    assertEquals(2, sut.getHits());
+    sut.calculateCustomersWithinRadius(new Coordinates(52.0, -8.0), 10.0);
+    assertEquals(5, sut.getMisses());
+  }
+
+  @Test
+  public void shouldEvictWhenTooManyCustomersCached() {
+    RadiusQueryCache small = new RadiusQueryCache(calculator, 100, 10);
+    small.calculateCustomersWithinRadius(IntercomOfficeDublin, 100.0);
+    small.calculateCustomersWithinRadius(new Coordinates(52.0, -8.0), 100.0);
+    assertEquals(1, small.size());
+  }
+
+  @Test
+  public void shouldDiscardResultsWhenCustomersChange() {
+    sut.calculateCustomersWithinRadius(IntercomOfficeDublin, 100.0);
+    CustomerLocationStore replacement = new CustomerLocationStore();
+    replacement.add(1, "bob", IntercomOfficeDublin.getLatitude(), IntercomOfficeDublin.getLongitude());
+    sut.setCalculator(new ProximityCalculator(replacement));
+
+    assertEquals(0, sut.size());
+    assertEquals(1, sut.calculateCustomersWithinRadius(IntercomOfficeDublin, 50.0).size());
+  }
+
+  private List<Integer> ids(List<CustomerLocation> customers) {
+    return customers.stream().map(CustomerLocation::getUserId).collect(Collectors.toList());
+  }
+}
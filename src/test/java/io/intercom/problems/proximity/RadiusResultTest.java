@@ -0,0 +1,111 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static io.intercom.problems.proximity.ProximityCalculator.IntercomOfficeDublin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RadiusResultTest {
+
+  private CustomerLocationStore store;
+
+  private ProximityCalculator calculator;
+
+  @Before
+  public void createCustomers() {
+    Random random = new Random(19);
+    store = new CustomerLocationStore();
+    for (int x = 0; x < 5000; x++) {
+      // shuffled ids so scan order, id order and distance order all differ
+      store.add((x * 7919) % 5000, "Customer-" + x, 50.0 + random.nextDouble() * 8.0, -12.0 + random.nextDouble() * 10.0);
+    }
+    calculator = new ProximityCalculator(store, GridSpatialIndex::new);
+  }
+
+  @Test
+  public void shouldCarryDistancesOfEveryCustomerInRadius() {
+    RadiusResult sut = calculator.findCustomersWithinRadius(IntercomOfficeDublin, 200.0);
+
+    List<CustomerLocation> expected = calculator.calculateCustomersWithinRadius(IntercomOfficeDublin, 200.0);
+    assertEquals(expected.size(), sut.size());
+    assertEquals(ids(expected), sut.sorted(RadiusResult.Order.USER_ID).stream()
+        .map(CustomerDistance::getCustomer).map(CustomerLocation::getUserId).collect(Collectors.toList()));
+    sut.stream().forEach(match ->
+        assertEquals(IntercomOfficeDublin.distanceTo(match.getCustomer().getCoordinates()), match.getDistance(), 1e-9));
+  }
+
+  @Test
+  public void shouldBreakTiesInTopAndPagesAsInFullSort() {
+    CustomerLocationStore duplicated = new CustomerLocationStore();
+    for (int x = 0; x < 200; x++) {
+      // every id held twice and every location four times
+      duplicated.add(x / 2, "Customer-" + x, 53.0 + (x / 4) * 0.01, -6.0);
+    }
+    RadiusResult sut = new ProximityCalculator(duplicated, GridSpatialIndex::new).findCustomersWithinRadius(IntercomOfficeDublin, 500.0);
+    assertEquals(200, sut.size());
+
+    for (RadiusResult.Order order : RadiusResult.Order.values()) {
+      List<String> all = names(sut.sorted(order));
+      assertEquals(all.subList(0, 25), names(sut.top(25, order)));
+      assertEquals(all.subList(51, 77), names(sut.page(51, 26, order)));
+    }
+  }
+
+  @Test
+  public void shouldSelectTopAndPagesInEitherOrder() {
+    RadiusResult sut = calculator.findCustomersWithinRadius(IntercomOfficeDublin, 300.0);
+    List<CustomerDistance> all = sut.stream().collect(Collectors.toList());
+    assertTrue(all.size() > 100);
+
+    List<CustomerDistance> byDistance = new ArrayList<>(all);
+    byDistance.sort(Comparator.comparingDouble(CustomerDistance::getDistance)
+        .thenComparing(match -> match.getCustomer().getUserId()));
+    List<CustomerDistance> byId = new ArrayList<>(all);
+    byId.sort(Comparator.comparing(match -> match.getCustomer().getUserId()));
+
+    assertEquals(userIds(byDistance.subList(0, 10)), userIds(sut.top(10, RadiusResult.Order.DISTANCE)));
+    assertEquals(userIds(byId.subList(0, 10)), userIds(sut.top(10, RadiusResult.Order.USER_ID)));
+    assertEquals(userIds(byDistance.subList(40, 60)), userIds(sut.page(40, 20, RadiusResult.Order.DISTANCE)));
+    assertEquals(userIds(byId.subList(40, 60)), userIds(sut.page(40, 20, RadiusResult.Order.USER_ID)));
+    assertEquals(userIds(byDistance), userIds(sut.stream(RadiusResult.Order.DISTANCE).collect(Collectors.toList())));
+
+    // pages and top N past the end of the result are cut short
+    assertEquals(userIds(byId.subList(all.size() - 5, all.size())), userIds(sut.page(all.size() - 5, 20, RadiusResult.Order.USER_ID)));
+    assertEquals(0, sut.page(all.size(), 20, RadiusResult.Order.DISTANCE).size());
+    assertEquals(all.size(), sut.top(Integer.MAX_VALUE, RadiusResult.Order.DISTANCE).size());
+    assertEquals(0, sut.top(0, RadiusResult.Order.USER_ID).size());
+  }
+
+  @Test
+  public void shouldReturnEmptyResult() {
+    RadiusResult sut = calculator.findCustomersWithinRadius(new Coordinates(-40.0, 100.0), 10.0);
+    assertEquals(0, sut.size());
+    assertEquals(0, sut.sorted(RadiusResult.Order.DISTANCE).size());
+    assertEquals(0, sut.page(0, 10, RadiusResult.Order.USER_ID).size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectNegativePageOffset() {
+    calculator.findCustomersWithinRadius(IntercomOfficeDublin, 10.0).page(-1, 10, RadiusResult.Order.DISTANCE);
+  }
+
+  private List<Integer> ids(List<CustomerLocation> customers) {
+    return customers.stream().map(CustomerLocation::getUserId).collect(Collectors.toList());
+  }
+
+  private List<String> names(List<CustomerDistance> matches) {
+    return matches.stream().map(match -> match.getCustomer().getName()).collect(Collectors.toList());
+  }
+
+  private List<Integer> userIds(List<CustomerDistance> matches) {
+    return matches.stream().map(match -> match.getCustomer().getUserId()).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,101 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RejectedRecordsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldCountEveryRejectButOnlyKeepUpToCapacity() throws Exception {
+    List<String> kept = new ArrayList<>();
+    RejectedRecords sut = new RejectedRecords((reason, line) -> kept.add(line), 3);
+
+    for (int x = 0; x < 50; x++) {
+      sut.reject(x % 2 == 0 ? RecordStatus.MALFORMED_JSON : RecordStatus.MISSING_LATITUDE, "line " + x);
+    }
+    byte[] line = "xx{}yy".getBytes(StandardCharsets.UTF_8);
+    sut.reject(RecordStatus.NOT_AN_OBJECT, line, 2, 2);
+
+    assertEquals(Arrays.asList("line 0", "line 1", "line 2"), kept);
+    assertEquals(51, sut.getRejected());
+    assertEquals(25, sut.getRejected(RecordStatus.MALFORMED_JSON));
+    assertEquals(1, sut.getRejected(RecordStatus.NOT_AN_OBJECT));
+    assertEquals(26, sut.getParseFailures());
+    assertEquals(25, sut.getValidationFailures());
+    assertEquals(48, sut.getDropped());
+    sut.logSummary();
+  }
+
+  @Test
+  public void shouldCountRejectsFromManyThreads() throws Exception {
+    List<String> kept = new ArrayList<>();
+    RejectedRecords sut = new RejectedRecords((reason, line) -> kept.add(line), 1000);
+    ExecutorService threads = Executors.newFixedThreadPool(4);
+    for (int t = 0; t < 4; t++) {
+      threads.execute(() -> {
+        for (int x = 0; x < 10000; x++) {
+          sut.reject(RecordStatus.INVALID_VALUE, "bad");
+        }
+      });
+    }
+    threads.shutdown();
+    assertTrue(threads.awaitTermination(30, TimeUnit.SECONDS));
+
+    assertEquals(40000, sut.getRejected(RecordStatus.INVALID_VALUE));
+    assertEquals(1000, kept.size());
+    assertEquals(39000, sut.getDropped());
+  }
+
+  @Test
+  public void shouldWriteRejectsToFile() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("rejected.tsv");
+    try (RejectedRecordFile sink = new RejectedRecordFile(file)) {
+      RejectedRecords sut = new RejectedRecords(sink, 2);
+      sut.reject(RecordStatus.MISSING_NAME, "{\"user_id\": 1}");
+      sut.reject(RecordStatus.MALFORMED_JSON, "not json");
+      sut.reject(RecordStatus.MALFORMED_JSON, "dropped");
+    }
+
+    assertEquals(Arrays.asList("MISSING_NAME\t{\"user_id\": 1}", "MALFORMED_JSON\tnot json"),
+        Files.readAllLines(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void shouldLoadFileReportingRejectsFromEveryChunk() throws Exception {
+    StringBuilder json = new StringBuilder();
+    for (int x = 0; x < 200; x++) {
+      json.append(x % 10 == 0 ? "{\"user_id\": " + x + "}" : "{\"latitude\": \"53.0\", \"user_id\": " + x + ", \"name\": \"c\", \"longitude\": \"-6.0\"}").append('\n');
+    }
+    Path file = folder.newFile("customers.json").toPath();
+    Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+    List<RecordStatus> kept = new ArrayList<>();
+    CustomerLocationDataLoader loader = new CustomerLocationDataLoader();
+    loader.setRejectedRecordSink((reason, line) -> kept.add(reason), 100);
+
+    assertEquals(180, loader.loadCustomerLocationStore(file, 4, 512).size());
+    assertEquals(20, kept.size());
+    assertTrue(kept.stream().allMatch(reason -> reason == RecordStatus.MISSING_NAME));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRequireRejectionReason() {
+    new RejectedRecords().reject(RecordStatus.VALID, "fine");
+  }
+}
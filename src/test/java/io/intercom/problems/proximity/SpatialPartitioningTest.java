@@ -0,0 +1,105 @@
+package io.intercom.problems.proximity;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialPartitioningTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final SpatialPartitioning sut = new SpatialPartitioning(4, 5.0);
+
+  @Test
+  public void shouldReachShardOfEveryCustomerWithinRadius() {
+    Random random = new Random(25);
+    double[] latitudes = new double[2000];
+    double[] longitudes = new double[2000];
+    for (int i = 0; i < latitudes.length; i++) {
+      latitudes[i] = random.nextDouble() * 180.0 - 90.0;
+      longitudes[i] = random.nextDouble() * 360.0 - 180.0;
+    }
+    for (int q = 0; q < 200; q++) {
+      Coordinates center = new Coordinates(random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+      double radius = random.nextDouble() * 3000.0;
+      BitSet shards = sut.shardsOverlapping(center.getLatitude(), center.getLongitude(), radius);
+      for (int i = 0; i < latitudes.length; i++) {
+        if (center.distanceTo(new Coordinates(latitudes[i], longitudes[i])) <= radius) {
+          assertTrue(shards.get(sut.shardOf(latitudes[i], longitudes[i])));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void shouldOnlyReachShardsOfNearbyCells() {
+    // well inside a single cell
+    assertEquals(1, sut.shardsOverlapping(52.5, -7.5, 10.0).cardinality());
+    assertEquals(4, sut.shardsOverlapping(52.5, -7.5, 2000.0).cardinality());
+    assertEquals(4, sut.shardsOverlapping(89.9, 0.0, 10.0).cardinality());
+    // neighbouring cells belong to different shards
+    assertTrue(sut.shardOf(52.5, -7.5) != sut.shardOf(52.5, -2.5));
+    assertTrue(sut.shardOf(52.5, -7.5) != sut.shardOf(57.5, -7.5));
+    assertEquals(sut.shardOf(0.0, -180.0), sut.shardOf(0.0, 180.0));
+    assertEquals(-1, sut.shardOf(91.0, 0.0));
+  }
+
+  @Test
+  public void shouldSplitStoreIntoDisjointShards() {
+    Random random = new Random(3);
+    CustomerLocationStore store = new CustomerLocationStore();
+    for (int x = 0; x < 1000; x++) {
+      store.add(x, "Customer-" + x, random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0);
+    }
+    store.add(1000, "Nowhere", 95.0, 0.0);
+
+    int total = 0;
+    for (int shard = 0; shard < sut.getShards(); shard++) {
+      CustomerLocationStore owned = sut.shard(store, shard);
+      for (int i = 0; i < owned.size(); i++) {
+        assertEquals(shard, sut.shardOf(owned.getLatitude(i), owned.getLongitude(i)));
+      }
+      total += owned.size();
+    }
+    assertEquals(1000, total);
+  }
+
+  @Test
+  public void shouldLoadOnlyTheShardsCustomersFromFile() throws Exception {
+    Random random = new Random(5);
+    CustomerLocationStore store = new CustomerLocationStore();
+    StringBuilder json = new StringBuilder();
+    for (int x = 0; x < 1000; x++) {
+      double latitude = random.nextDouble() * 180.0 - 90.0;
+      double longitude = random.nextDouble() * 360.0 - 180.0;
+      store.add(x, "Customer-" + x, latitude, longitude);
+      json.append(String.format(Locale.ROOT, "{\"latitude\": \"%s\", \"user_id\": %d, \"name\": \"Customer-%d\", \"longitude\": \"%s\"}%n",
+          latitude, x, x, longitude));
+    }
+    Path customerFile = folder.newFile("customers.json").toPath();
+    Files.write(customerFile, json.toString().getBytes(StandardCharsets.UTF_8));
+
+    for (int shard = 0; shard < sut.getShards(); shard++) {
+      CustomerLocationStore expected = sut.shard(store, shard);
+      CustomerLocationStore loaded = sut.loadShard(customerFile, shard);
+      assertEquals(expected.size(), loaded.size());
+      for (int i = 0; i < loaded.size(); i++) {
+        assertEquals(expected.getUserId(i), loaded.getUserId(i));
+        assertEquals(expected.getName(i), loaded.getName(i));
+        assertEquals(expected.getLatitude(i), loaded.getLatitude(i), 0.0);
+        assertEquals(expected.getLongitude(i), loaded.getLongitude(i), 0.0);
+      }
+    }
+  }
+}